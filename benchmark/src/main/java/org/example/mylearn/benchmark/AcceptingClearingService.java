@@ -0,0 +1,29 @@
+package org.example.mylearn.benchmark;
+
+import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.clearing.ClearingService;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+
+import java.util.List;
+
+/**
+ * 总是成功、不记账的清算服务，只测撮合本身；清算的开销见 ClearingBenchmark。
+ */
+public class AcceptingClearingService implements ClearingService {
+    private static final Result<Void> OK = Result.ok(null);
+
+    @Override
+    public Result<Void> prepareTrading(OrderEntity orderEntity) {
+        return OK;
+    }
+
+    @Override
+    public Result<Void> finishTrading(OrderEntity orderEntity, List<OrderEntity> matchedorders) {
+        return OK;
+    }
+
+    @Override
+    public Result<Void> cancelTrading(OrderEntity orderEntity) {
+        return OK;
+    }
+}
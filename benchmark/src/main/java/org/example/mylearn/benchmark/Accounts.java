@@ -0,0 +1,31 @@
+package org.example.mylearn.benchmark;
+
+import org.example.mylearn.tradingengine.asset.AssetEntity;
+import org.example.mylearn.tradingengine.asset.AssetService;
+import org.example.mylearn.tradingengine.asset.AssetType;
+
+import java.math.BigDecimal;
+
+/**
+ * 基准测试用的账户：uid 为 "1".."users"，每种资产的可用和冻结余额都足够整个测试期间转账，不会因余额不足而失败。
+ */
+public final class Accounts {
+    public static final BigDecimal PLENTY = new BigDecimal("1000000000");
+
+    private Accounts() {
+    }
+
+    public static AssetService create(int users) {
+        AssetService assetService = new AssetService();
+        int id = 1;
+        for (AssetType type : AssetType.values()) {
+            assetService.addNewAsset(new AssetEntity(id++, AssetService.SYSTEM_ASSET_ID, type, BigDecimal.ZERO, BigDecimal.ZERO));
+        }
+        for (int uid = 1; uid <= users; uid++) {
+            for (AssetType type : AssetType.values()) {
+                assetService.addNewAsset(new AssetEntity(id++, String.valueOf(uid), type, PLENTY, PLENTY));
+            }
+        }
+        return assetService;
+    }
+}
@@ -0,0 +1,92 @@
+package org.example.mylearn.benchmark;
+
+import org.example.mylearn.tradingengine.order.TradeType;
+
+import java.util.SplittableRandom;
+
+/**
+ * 预先生成的订单流，测量时只按下标读取，不在被测路径上产生随机数。
+ *
+ * 中间价做随机游走；被动单挂在本方一侧，离中间价的档数服从几何分布(越靠近越多)；
+ * 主动单越过中间价几档，吃掉对手方的前几档；撤单撤销最近提交的某一笔挂单。
+ * 数量为 1..maxLots 的均匀分布。同一个 seed 生成同样的订单流，不同版本的引擎可以比较。
+ */
+public final class OrderFlow {
+    private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+    private final byte[] kinds;     // 0 挂单，1 撤单
+    private final byte[] sides;
+    private final long[] prices;
+    private final long[] lots;
+    private final int[] cancelBack; // 撤单：撤销往前第几条命令提交的订单
+
+    /**
+     * @param cancelRatio     撤单占全部命令的比例
+     * @param aggressiveRatio 主动单占挂单的比例
+     * @param spreadTicks     被动单离中间价的平均档数
+     */
+    public OrderFlow(long seed, int length, long midTicks, double cancelRatio, double aggressiveRatio,
+                     int spreadTicks, int maxLots) {
+        if (length <= 0 || midTicks <= spreadTicks * 20L) {
+            throw new IllegalArgumentException("length %d or mid %d is too small".formatted(length, midTicks));
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        kinds = new byte[length];
+        sides = new byte[length];
+        prices = new long[length];
+        lots = new long[length];
+        cancelBack = new int[length];
+        long mid = midTicks;
+        int lastAdd = -1;
+        for (int i = 0; i < length; i++) {
+            if (random.nextInt(16) == 0) {
+                mid = Math.max(spreadTicks * 20L, mid + (random.nextBoolean() ? 1 : -1));
+            }
+            if (lastAdd >= 0 && random.nextDouble() < cancelRatio) {
+                kinds[i] = 1;
+                cancelBack[i] = i - lastAdd + random.nextInt(Math.min(lastAdd + 1, 64));
+                continue;
+            }
+            boolean buy = random.nextBoolean();
+            long distance = geometric(random, spreadTicks);
+            if (random.nextDouble() < aggressiveRatio) {
+                distance = -1 - random.nextInt(3);
+            }
+            sides[i] = (byte) (buy ? TradeType.BUY : TradeType.SELL).ordinal();
+            prices[i] = buy ? mid - distance : mid + distance;
+            lots[i] = 1 + random.nextInt(maxLots);
+            lastAdd = i;
+        }
+    }
+
+    // 1 + 均值为 mean 的几何分布
+    private static long geometric(SplittableRandom random, int mean) {
+        double p = 1.0 / Math.max(1, mean);
+        return 1 + (long) (Math.log(1 - random.nextDouble()) / Math.log(1 - Math.min(p, 0.999)));
+    }
+
+    public int length() {
+        return kinds.length;
+    }
+
+    public boolean isCancel(int i) {
+        return kinds[i] == 1;
+    }
+
+    // 撤单时有效：往前第几条命令
+    public int cancelBack(int i) {
+        return cancelBack[i];
+    }
+
+    public TradeType side(int i) {
+        return TRADE_TYPES[sides[i]];
+    }
+
+    public long priceTicks(int i) {
+        return prices[i];
+    }
+
+    public long lots(int i) {
+        return lots[i];
+    }
+}
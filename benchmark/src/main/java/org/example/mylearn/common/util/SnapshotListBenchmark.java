@@ -0,0 +1,52 @@
+package org.example.mylearn.common.util;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnapshotList：加锁追加、整表复制快照、在快照上遍历。size 为表中的元素数。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotListBenchmark {
+
+    @Param({"100", "10000"})
+    public int size;
+
+    private SnapshotList<Integer> list;
+    private long added;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        list = new SnapshotList<>(new ArrayList<>(size));
+        for (int i = 0; i < size; i++) {
+            list.add(i);
+        }
+    }
+
+    // 保持表的大小不变：每追加 size 个元素清空一次，再补齐
+    @Benchmark
+    public void add() {
+        if (++added % size == 0) {
+            list.clear();
+        }
+        list.add((int) added & 127);
+    }
+
+    @Benchmark
+    public Object snapshot() {
+        return list.snapshot();
+    }
+
+    @Benchmark
+    public void forEachSnap(Blackhole blackhole) {
+        list.forEachSnap(blackhole::consume);
+    }
+}
@@ -0,0 +1,83 @@
+package org.example.mylearn.tradingengine.asset;
+
+import org.example.mylearn.benchmark.Accounts;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AssetService.tryTransfer：随机的两个用户之间转账、冻结、解冻。用户和金额预先生成，测量时只按下标读取。
+ * contended: 多个请求线程同时转账，测余额锁分段下的扩展性；users=1000 时冲突更多。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssetTransferBenchmark {
+    private static final int PAIRS = 1 << 14;
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private AssetService assetService;
+    private final String[] from = new String[PAIRS];
+    private final String[] to = new String[PAIRS];
+    private final BigDecimal[] amounts = new BigDecimal[PAIRS];
+    private final int[] fromAccounts = new int[PAIRS];
+    private final int[] toAccounts = new int[PAIRS];
+    private final long[] units = new long[PAIRS];
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        assetService = Accounts.create(users);
+        SplittableRandom random = new SplittableRandom(11);
+        for (int i = 0; i < PAIRS; i++) {
+            from[i] = String.valueOf(1 + random.nextInt(users));
+            to[i] = String.valueOf(1 + random.nextInt(users));
+            amounts[i] = BigDecimal.valueOf(1 + random.nextInt(10_000), 2);
+            fromAccounts[i] = assetService.accountIndex(from[i]);
+            toAccounts[i] = assetService.accountIndex(to[i]);
+            units[i] = AssetService.toUnits(amounts[i]);
+        }
+    }
+
+    @Benchmark
+    public Object availableToAvailable() {
+        int i = next++ & (PAIRS - 1);
+        return assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE, from[i], to[i], AssetType.USD, amounts[i], true);
+    }
+
+    // 调用方已经把用户ID换成账户下标、金额换成定点数：只剩余额表的数组访问
+    @Benchmark
+    public Object availableToAvailableByIndex() {
+        int i = next++ & (PAIRS - 1);
+        return assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE, fromAccounts[i], toAccounts[i], AssetType.USD, units[i], true);
+    }
+
+    // 每个线程从不同的位置开始读转账列表
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = ThreadLocalRandom.current().nextInt(PAIRS);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object contended(Cursor cursor) {
+        int i = cursor.next++ & (PAIRS - 1);
+        return assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE, from[i], to[i], AssetType.USD, amounts[i], true);
+    }
+
+    // 下单冻结 + 撤单解冻，同一用户
+    @Benchmark
+    public Object freezeAndUnfreeze() {
+        int i = next++ & (PAIRS - 1);
+        assetService.tryFreeze(from[i], AssetType.USD, amounts[i]);
+        return assetService.unfreeze(from[i], AssetType.USD, amounts[i]);
+    }
+}
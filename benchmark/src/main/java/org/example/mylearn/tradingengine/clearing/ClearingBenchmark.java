@@ -0,0 +1,78 @@
+package org.example.mylearn.tradingengine.clearing;
+
+import org.example.mylearn.benchmark.Accounts;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClearingServiceImpl.finishTrading：一笔买入主动单和 makers 笔卖单成交后的资产划转(含买方多冻结部分的退还)。
+ * finishTrading 不修改订单，同一组订单反复清算；账户余额足够整个测试期间使用。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClearingBenchmark {
+    private static final int GROUPS = 1024;
+
+    // 一笔主动单吃掉的挂单数
+    @Param({"1", "4", "16"})
+    public int makers;
+
+    @Param({"1000"})
+    public int users;
+
+    private ClearingServiceImpl clearingService;
+    private OrderEntity[] takers;
+    private List<List<OrderEntity>> matched;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        clearingService = new ClearingServiceImpl();
+        clearingService.assetService = Accounts.create(users);
+        SplittableRandom random = new SplittableRandom(7);
+        takers = new OrderEntity[GROUPS];
+        matched = new ArrayList<>(GROUPS);
+        int id = 1;
+        for (int g = 0; g < GROUPS; g++) {
+            long takerPrice = 100_000 + random.nextInt(100);
+            List<OrderEntity> makerOrders = new ArrayList<>(makers);
+            long total = 0;
+            for (int m = 0; m < makers; m++) {
+                long lots = 1 + random.nextInt(10);
+                makerOrders.add(order(id++, random, TradeType.SELL, takerPrice - random.nextInt(5), lots));
+                total += lots;
+            }
+            takers[g] = order(id++, random, TradeType.BUY, takerPrice, total);
+            matched.add(makerOrders);
+        }
+    }
+
+    private OrderEntity order(int id, SplittableRandom random, TradeType type, long priceTicks, long lots) {
+        OrderEntity order = new OrderEntity();
+        order.setId(id);
+        order.setUid(String.valueOf(1 + random.nextInt(users)));
+        order.setInstrument(Instrument.DEFAULT);
+        order.setTradeType(type);
+        order.setPriceTicks(priceTicks);
+        order.setAmountLots(lots);
+        order.setProcessingLots(lots);
+        return order;
+    }
+
+    @Benchmark
+    public Object finishTrading() {
+        int g = next++ & (GROUPS - 1);
+        return clearingService.finishTrading(takers[g], matched.get(g));
+    }
+}
@@ -0,0 +1,101 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.benchmark.AcceptingClearingService;
+import org.example.mylearn.benchmark.OrderFlow;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.instrument.InstrumentRegistry;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.OrderService;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MatcherServiceImpl 的挂单、撮合、撤单吞吐：一次调用提交 BATCH 条命令，等撮合线程处理完最后一笔挂单。
+ * 测到的是从提交到撮合线程处理完的端到端时间，包括命令环的交接；清算用总是成功的桩。
+ *
+ * mixed: 30% 撤单、15% 主动单，报价簿大小基本稳定；passive: 只有被动单和撤单，几乎不成交，测报价簿的增删。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class MatcherBenchmark {
+    private static final int BATCH = 1000;
+    private static final int RECENT = 1 << 12; // 撤单只会往前找 64 + 一段连续撤单，远小于此值
+    private static final long MID = 100_000;
+
+    @Param({"LADDER", "SKIPLIST"})
+    public OrderBook.OrderBookType orderBook;
+
+    @Param({"mixed", "passive"})
+    public String flow;
+
+    private MatcherServiceImpl matcher;
+    private OrderFlow orders;
+    private final OrderEntity[] recent = new OrderEntity[RECENT];
+    private long commands;
+    private int nextOrderId = 1;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        matcher = new MatcherServiceImpl();
+        matcher.clearingService = new AcceptingClearingService();
+        matcher.instrumentRegistry = new InstrumentRegistry();
+        matcher.orderService = new OrderService();
+        matcher.orderBookType = orderBook;
+        matcher.init(); // 未开启日志和快照，直接启动撮合线程
+        orders = switch (flow) {
+            case "mixed" -> new OrderFlow(42, 1 << 20, MID, 0.30, 0.15, 8, 10);
+            case "passive" -> new OrderFlow(42, 1 << 20, MID, 0.45, 0.0, 8, 10);
+            default -> throw new IllegalArgumentException("unknown flow " + flow);
+        };
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        matcher.destroy();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public OrderEntity submitBatch() throws Exception {
+        OrderEntity lastAdded = null;
+        for (int k = 0; k < BATCH; k++) {
+            long n = commands++;
+            int i = (int) (n % orders.length());
+            int slot = (int) (n & (RECENT - 1));
+            if (orders.isCancel(i)) {
+                OrderEntity target = recent[(int) ((n - orders.cancelBack(i)) & (RECENT - 1))];
+                recent[slot] = null;
+                if (target != null) {
+                    matcher.cancelOrder(target);
+                }
+                continue;
+            }
+            OrderEntity order = newOrder(i);
+            recent[slot] = order;
+            matcher.submitOrder(order);
+            lastAdded = order;
+        }
+        // 命令按顺序处理，最后一笔挂单处理完时之前的命令都已处理；之后的少量撤单留到下一次调用
+        return lastAdded == null ? null : matcher.awaitProcessed(lastAdded).get(10, TimeUnit.SECONDS);
+    }
+
+    private OrderEntity newOrder(int i) {
+        OrderEntity order = new OrderEntity();
+        order.setId(nextOrderId++);
+        order.setUid("u" + (nextOrderId & 1023));
+        order.setInstrument(Instrument.DEFAULT);
+        order.setTradeType(orders.side(i));
+        order.setPriceTicks(orders.priceTicks(i));
+        order.setAmountLots(orders.lots(i));
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        order.setCreatedAt(now);
+        order.setUpdatedAt(now);
+        return order;
+    }
+}
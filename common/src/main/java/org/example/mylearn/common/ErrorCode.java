@@ -45,8 +45,11 @@ public enum ErrorCode {
     ASSET_ALREADY_EXISTS(3203, "asset already exists"),
     ASSET_NOT_ENOUGH(3204, "asset is not enough"),
 
+    BOOK_RESYNC_REQUIRED(3301, "order book deltas no longer available, reload snapshot"),
+
     // ====== System control ===========
     FLOW_CONTROL(4001, "blocked by flow contrl"),
+    MATCHER_OVERLOADED(4002, "match engine is overloaded, retry later"),
 
     // ====== 未知 ======
     UNKNOWN_ERROR(9999, "unknown error");
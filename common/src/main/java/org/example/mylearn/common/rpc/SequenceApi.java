@@ -1,6 +1,7 @@
 package org.example.mylearn.common.rpc;
 
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 
 public interface SequenceApi {
 
@@ -8,4 +9,8 @@ public interface SequenceApi {
 
     @GetMapping("/seq/next")
     Integer newSequence();
+
+    // 一次取 size 个连续序号，返回第一个，调用方在本地分配 [first, first + size)
+    @GetMapping("/seq/block")
+    Integer newSequenceBlock(@RequestParam("size") int size);
 }
@@ -9,27 +9,35 @@ import org.example.mylearn.tradingengine.asset.AssetEntity;
 import org.example.mylearn.tradingengine.asset.AssetService;
 import org.example.mylearn.tradingengine.asset.AssetType;
 import org.example.mylearn.tradingengine.engine.TradingService;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.marketdata.Candle;
+import org.example.mylearn.tradingengine.match.BookDelta;
+import org.example.mylearn.tradingengine.match.BookSnapshot;
 import org.example.mylearn.tradingengine.match.QuotationInfo;
 import org.example.mylearn.tradingengine.match.RealTimeTick;
 import org.example.mylearn.tradingengine.match.TradingDetail;
 import org.example.mylearn.tradingengine.order.OrderEntity;
 import org.example.mylearn.tradingengine.order.OrderService;
+import org.example.mylearn.tradingengine.order.TimeInForce;
 import org.example.mylearn.tradingengine.order.TradeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.async.DeferredResult;
 
 import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.concurrent.Executor;
 
 @Tag(name = "openapi", description = "open api desc") // For Swagger UI(SpringDOC)
 @RestController
@@ -41,6 +49,16 @@ public class OpenApiController {
     OrderService orderService;
     @Autowired
     AssetService assetService;
+    // /order/await 在这里写回结果，不占用撮合线程
+    @Autowired
+    @Qualifier("applicationTaskExecutor")
+    Executor webExecutor;
+
+    // /order/await 默认和最长的等待时间
+    @Value("${api.order-await.default-timeout-ms:1000}")
+    long orderAwaitDefaultTimeoutMs = 1000;
+    @Value("${api.order-await.max-timeout-ms:10000}")
+    long orderAwaitMaxTimeoutMs = 10000;
 
     Logger logger = LoggerFactory.getLogger(OpenApiController.class);
 
@@ -52,25 +70,31 @@ public class OpenApiController {
     }
 
     @GetMapping("/trade/buy")
-    public Result<OrderEntity> tradeBuy(@RequestParam String price, @RequestParam String amount) {
+    public Result<OrderEntity> tradeBuy(@RequestParam BigDecimal price, @RequestParam BigDecimal amount,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol,
+            @RequestParam(required = false, defaultValue = "GTC") TimeInForce tif,
+            @RequestParam(name = "stop_price", required = false) BigDecimal stopPrice) {
         String uid = UserContext.getUserId();
         if(uid == null) {
             String msg = "Unauthorized user?! Can't get userid.";
             logger.warn(msg);
             return Result.fail(null, ErrorCode.UNAUTHORIZED, msg);
         }
-        return tradingService.buy(uid, new BigDecimal(price), new BigDecimal(amount));
+        return tradingService.placeStopOrder(uid, symbol, TradeType.BUY, stopPrice, price, amount, tif);
     }
 
     @GetMapping("/trade/sell")
-    public Result<OrderEntity> tradeSell(@RequestParam String price, @RequestParam String amount) {
+    public Result<OrderEntity> tradeSell(@RequestParam BigDecimal price, @RequestParam BigDecimal amount,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol,
+            @RequestParam(required = false, defaultValue = "GTC") TimeInForce tif,
+            @RequestParam(name = "stop_price", required = false) BigDecimal stopPrice) {
         String uid = UserContext.getUserId();
         if(uid == null) {
             String msg = "Unauthorized user?! Can't get userid.";
             logger.warn(msg);
             return Result.fail(null, ErrorCode.UNAUTHORIZED, msg);
         }
-        return tradingService.sell(uid, new BigDecimal(price), new BigDecimal(amount));
+        return tradingService.placeStopOrder(uid, symbol, TradeType.SELL, stopPrice, price, amount, tif);
     }
 
     @GetMapping("/trade/cancel")
@@ -88,24 +112,65 @@ public class OpenApiController {
 
     @GetMapping("/trade/finishedDetails")
     public Result<List<TradingDetail>> finishedDetails(
-            @RequestParam(name = "num_items", required = false) Integer numItems
+            @RequestParam(name = "num_items", required = false) Integer numItems,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol
     ){
         int nItems = (numItems == null)? 10 : numItems;
-        return tradingService.getTradingDetails(nItems);
+        return tradingService.getTradingDetails(symbol, nItems);
+    }
+
+    // 按成交ID查询一笔成交(品种内的ID)，只能查到仍在内存中的成交
+    @GetMapping("/trade/detail")
+    public Result<TradingDetail> tradeDetail(
+            @RequestParam(name = "trade_id") Integer tradeId,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol
+    ){
+        return tradingService.getTradingDetail(symbol, tradeId);
     }
 
     @GetMapping("/trade/realtime-ticks")
     public Result<List<RealTimeTick>> tradeRealTimeTicks(
             @RequestParam(name="start", required = false) Timestamp start,
-            @RequestParam(name="num_items", required = false) Integer numItems
+            @RequestParam(name="num_items", required = false) Integer numItems,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol
     ){
         int nItems = (numItems == null)? 10 : numItems;
-        return tradingService.getRealTimeTicks(start, nItems);
+        return tradingService.getRealTimeTicks(symbol, start, nItems);
+    }
+
+    // K线，代替客户端用 realtime-ticks 自行聚合
+    @GetMapping("/trade/candles")
+    public Result<List<Candle>> tradeCandles(
+            @RequestParam(required = false, defaultValue = "1m") String interval,
+            @RequestParam(name="start", required = false) Timestamp start,
+            @RequestParam(name="end", required = false) Timestamp end,
+            @RequestParam(name="num_items", required = false) Integer numItems,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol
+    ){
+        int nItems = (numItems == null)? 500 : numItems;
+        return tradingService.getCandles(symbol, interval, start, end, nItems);
     }
 
     @GetMapping("/trade/quotation")
-    public Result<Map<TradeType, TreeSet<QuotationInfo>>> quotationList() {
-        return tradingService.getQuotations();
+    public Result<Map<TradeType, List<QuotationInfo>>> quotationList(
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol) {
+        return tradingService.getQuotations(symbol);
+    }
+
+    // 全量 + 增量：先取 book，再从其 sequence 开始拉取 book-deltas；序号不连续或返回 BOOK_RESYNC_REQUIRED 时重新取 book
+    @GetMapping("/trade/book")
+    public Result<BookSnapshot> book(
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol) {
+        return tradingService.getBookSnapshot(symbol);
+    }
+
+    @GetMapping("/trade/book-deltas")
+    public Result<List<BookDelta>> bookDeltas(
+            @RequestParam(name = "from_seq") long fromSeq,
+            @RequestParam(name = "num_items", required = false) Integer numItems,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol) {
+        int nItems = (numItems == null)? 1000 : numItems;
+        return tradingService.getBookDeltas(symbol, fromSeq, nItems);
     }
 
     @GetMapping("/order/get")
@@ -119,6 +184,29 @@ public class OpenApiController {
         return orderService.getOrderByUserAndId(uid, orderId);
     }
 
+    /**
+     * 长轮询：撮合线程处理完这笔订单(挂单、成交或被拒绝)后立即返回订单，代替反复调用 /order/get。
+     * 等待期间不占用请求线程；超过 timeout_ms 仍未处理时返回当前状态(PREPARING)，客户端可以再次等待。
+     */
+    @GetMapping("/order/await")
+    public DeferredResult<Result<OrderEntity>> orderAwait(
+            @RequestParam(name="order_id") Integer orderId,
+            @RequestParam(name="timeout_ms", required = false) Long timeoutMs) {
+        long timeout = timeoutMs == null ? orderAwaitDefaultTimeoutMs : Math.max(1, Math.min(timeoutMs, orderAwaitMaxTimeoutMs));
+        var deferred = new DeferredResult<Result<OrderEntity>>(timeout);
+        String uid = UserContext.getUserId();
+        if(uid == null) {
+            String msg = "Unauthorized user?! Can't get userid.";
+            logger.warn(msg);
+            deferred.setResult(Result.fail(null, ErrorCode.UNAUTHORIZED, msg));
+            return deferred;
+        }
+        deferred.onTimeout(() -> deferred.setResult(orderService.getOrderByUserAndId(uid, orderId)));
+        tradingService.awaitOrder(uid, orderId).whenCompleteAsync((result, e) ->
+                deferred.setResult(e == null ? result : Result.fail(null, ErrorCode.INTERNAL_ERROR, e.getMessage())), webExecutor);
+        return deferred;
+    }
+
     @GetMapping("/order/list")
     public Result<List<OrderEntity>> orderList() {
         String uid = UserContext.getUserId();
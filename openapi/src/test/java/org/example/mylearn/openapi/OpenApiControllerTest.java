@@ -0,0 +1,83 @@
+package org.example.mylearn.openapi;
+
+import org.example.mylearn.common.ErrorCode;
+import org.example.mylearn.common.Result;
+import org.example.mylearn.common.UserContext;
+import org.example.mylearn.tradingengine.engine.TradingService;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TimeInForce;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class OpenApiControllerTest {
+
+    @Mock
+    private TradingService tradingService;
+
+    private final OpenApiController controller = new OpenApiController();
+    private final List<Runnable> webTasks = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        controller.tradingService = tradingService;
+        controller.webExecutor = webTasks::add;
+    }
+
+    /**
+     * Orders are placed for the authenticated user; price, amount and stop price are converted and checked by the trading service.
+     */
+    @Test
+    void testTrade_ForwardsForCurrentUser() {
+        BigDecimal price = new BigDecimal("100");
+        BigDecimal amount = new BigDecimal("2");
+        BigDecimal stop = new BigDecimal("95");
+        when(tradingService.placeStopOrder("u1", "APPL/USD", TradeType.SELL, stop, price, amount, TimeInForce.GTC))
+                .thenReturn(Result.ok(new OrderEntity()));
+        try (var ignored = new UserContext("u1")) {
+            assertThat(controller.tradeSell(price, amount, "APPL/USD", TimeInForce.GTC, stop).isSuccess()).isTrue();
+        }
+    }
+
+    @Test
+    void testTrade_RejectsAnonymous() {
+        assertThat(controller.tradeBuy(BigDecimal.ONE, BigDecimal.ONE, "APPL/USD", TimeInForce.GTC, null).getErrorCode())
+                .isEqualTo(ErrorCode.UNAUTHORIZED);
+        verify(tradingService, never()).placeStopOrder(anyString(), anyString(), any(), any(), any(BigDecimal.class), any(BigDecimal.class), any());
+    }
+
+    /**
+     * The await result is written back on the web executor, not on the thread completing the future (the match thread).
+     */
+    @Test
+    void testOrderAwait_CompletesOnWebExecutor() {
+        var processed = new CompletableFuture<Result<OrderEntity>>();
+        when(tradingService.awaitOrder(anyString(), anyInt())).thenReturn(processed);
+        try (var ignored = new UserContext("u1")) {
+            var deferred = controller.orderAwait(7, 1000L);
+            processed.complete(Result.ok(new OrderEntity()));
+            assertThat(deferred.hasResult()).isFalse();
+            assertThat(webTasks).hasSize(1);
+
+            webTasks.get(0).run();
+            assertThat(((Result<?>) deferred.getResult()).isSuccess()).isTrue();
+        }
+    }
+}
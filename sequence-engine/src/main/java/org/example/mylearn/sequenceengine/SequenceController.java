@@ -21,4 +21,10 @@ class SequenceController implements SequenceApi {
     public Integer newSequence() {
         return sequenceService.newSequence();
     }
+
+    @Override
+    @SentinelResource(value = "rscs_sequenceController")
+    public Integer newSequenceBlock(int size) {
+        return sequenceService.newSequenceBlock(size);
+    }
 }
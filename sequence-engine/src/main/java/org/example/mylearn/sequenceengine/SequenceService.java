@@ -17,4 +17,13 @@ public class SequenceService {
         logger.debug("newSequence id:{}", id);
         return id;
     }
+
+    public int newSequenceBlock(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("sequence block size should be positive: " + size);
+        }
+        var first = sequenceNumber.getAndAdd(size);
+        logger.debug("newSequenceBlock [{}, {})", first, first + size);
+        return first;
+    }
 }
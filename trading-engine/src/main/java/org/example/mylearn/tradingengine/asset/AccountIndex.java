@@ -0,0 +1,56 @@
+package org.example.mylearn.tradingengine.asset;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 用户ID(String) 到稠密账户下标(0, 1, 2 ...) 的映射，下标即 BalanceTable 中的行号，分配后不变也不回收。
+ *
+ * 查找只查一次 ConcurrentHashMap；新用户在锁内分配下标，先给余额表扩容、写好反查表，最后放进 Map，
+ * 其他线程从 Map 拿到下标时，对应的余额表页和 uid 一定已经可见。
+ */
+final class AccountIndex {
+    private final BalanceTable balances;
+    private final ConcurrentMap<String, Integer> indexes = new ConcurrentHashMap<>();
+    private volatile String[] uids = new String[1024];
+    private volatile int size;
+
+    AccountIndex(BalanceTable balances) {
+        this.balances = balances;
+    }
+
+    // 用户不存在时返回 -1
+    int find(String uid) {
+        Integer index = indexes.get(uid);
+        return index == null ? -1 : index;
+    }
+
+    int intern(String uid) {
+        Integer index = indexes.get(uid);
+        if (index != null) return index;
+        synchronized (this) {
+            index = indexes.get(uid);
+            if (index != null) return index;
+            int next = size;
+            balances.ensureAccounts(next + 1);
+            String[] array = uids;
+            if (next == array.length) {
+                array = Arrays.copyOf(array, next * 2);
+            }
+            array[next] = uid;
+            uids = array;
+            size = next + 1;
+            indexes.put(uid, next);
+            return next;
+        }
+    }
+
+    String uid(int index) {
+        return uids[index];
+    }
+
+    int size() {
+        return size;
+    }
+}
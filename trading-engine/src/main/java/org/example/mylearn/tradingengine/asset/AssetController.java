@@ -54,4 +54,16 @@ class AssetController {
         logger.debug("addAsset():{} ", msg);
         return new Result<>(rechargeRlt.isSuccess(), newAssetRlt.getData(),rechargeRlt.getErrorCode(), rechargeRlt.getMessage());
     }
-}
\ No newline at end of file
+
+    // 管理接口：从 trading.asset-load.dir 下的 CSV 或二进制文件批量导入资产
+    @GetMapping("/admin/load")
+    public Result<BulkLoadReport> bulkLoad(@RequestParam(name = "file") String file){
+        return assetService.bulkLoad(file);
+    }
+
+    // 管理接口：把全部资产导出为 trading.asset-load.dir 下的二进制文件，返回资产条数
+    @GetMapping("/admin/export")
+    public Result<Integer> exportAssets(@RequestParam(name = "file") String file){
+        return assetService.exportAssets(file);
+    }
+}
@@ -3,19 +3,27 @@ package org.example.mylearn.tradingengine.asset;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import org.apache.commons.lang3.RandomStringUtils;
 import org.example.mylearn.common.ErrorCode;
 import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.journal.CommandJournal;
+import org.example.mylearn.tradingengine.journal.JournalRecord;
+import org.example.mylearn.tradingengine.journal.JournalSequencer;
 import org.example.mylearn.tradingengine.rpcclient.SequenceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class AssetService {
@@ -26,22 +34,244 @@ public class AssetService {
     static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
     public static String SYSTEM_ASSET_ID = "0";
-    // 用户ID -> (资产类型ID -> Asset)
-    ConcurrentMap<String, ConcurrentMap<AssetType, AssetEntity>> userAssertsDB = new ConcurrentHashMap<>();
+    // 转账成功时共用的结果，撮合线程冻结、清算时不分配；调用方不能修改
+    private static final Result<Void> OK = Result.ok(null);
+    // 用户ID -> 稠密账户下标；余额按 (账户下标, 资产类型) 放在列式的余额表中，转账时不再查 Map
+    final BalanceTable balances = new BalanceTable();
+    final AccountIndex accounts = new AccountIndex(balances);
+
+    // 余额锁分段：余额表的每个格子按下标落到一个分段，修改余额前持有所有相关格子的分段锁。
+    // 多把锁总是按分段下标从小到大获取，不会死锁；同一分段只锁一次。
+    // 请求线程(充值、下单冻结)和撮合线程(清算)并发转账时，余额检查和扣减在同一临界区内完成。
+    private static final int LOCK_STRIPES = 1024; // 2的幂
+    private final ReentrantLock[] balanceLocks = new ReentrantLock[LOCK_STRIPES];
+    {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            balanceLocks[i] = new ReentrantLock();
+        }
+    }
+
+    // 资产日志，默认关闭；开启后由 recoverJournal() 重放日志(或只接着记录，见该方法)后再打开新文件记录
+    @Value("${trading.asset-journal.enabled:false}")
+    boolean journalEnabled = false;
+    @Value("${trading.asset-journal.dir:./data/asset-journal}")
+    String journalDir = "./data/asset-journal";
+    @Value("${trading.asset-journal.flush-interval-ms:5}")
+    long journalFlushIntervalMs = 5;
+    @Value("${trading.asset-journal.buffer-size:1048576}")
+    int journalBufferSize = 1 << 20;
+    // 撮合命令日志开启时，余额由快照、转账日志和撮合日志按全局序号重放得到，资产日志只作为流水记录
+    @Value("${trading.journal.enabled:false}")
+    boolean commandJournalEnabled = false;
+    // 批量导入：管理接口只能导入 dir 下的文件；startup-file 不为空时，启动时用它代替 initAssetDB 的内置数据
+    @Value("${trading.asset-load.dir:./data/asset-load}")
+    String loadDir = "./data/asset-load";
+    @Value("${trading.asset-load.startup-file:}")
+    String loadStartupFile = "";
+    @Value("${trading.asset-load.parallelism:0}")
+    int loadParallelism = 0;
+    @Value("${trading.asset-load.chunk-size:8388608}")
+    int loadChunkSize = 8 << 20;
+    private volatile TransferJournal journal;
+    // 在这个线程上发生的余额变化不写资产日志，见 runWithoutJournal
+    private volatile Thread unjournaledThread;
+    // 快照时刻的余额视图，快照线程复制余额期间不为 null，见 BalanceCut
+    private volatile BalanceCut cut;
+    // 外部转账日志(充值、接口转账、新建资产)，撮合日志开启时由 MatcherService 在重放之后设置，见 startTransferLog
+    private volatile JournalSequencer sequencer;
+    private volatile CommandJournal transferLog;
 
     @PostConstruct
     void init() {
 
     }
 
+    @PreDestroy
+    void destroy() {
+        TransferJournal current = journal;
+        if (current == null) return;
+        journal = null;
+        try {
+            current.close();
+        } catch (IOException e) {
+            logger.warn("failed to close asset journal", e);
+        }
+    }
+
+    /**
+     * 启动时在快照恢复之后、撮合日志重放之前调用：重放资产日志，然后打开新的日志文件开始记录。
+     * 每个格子记着最后应用的日志序号，不大于它的记录已经包含在快照里，跳过，快照期间并发的充值不会重复入账。
+     * 只重放外部发起的记录：没有撮合日志时订单不会恢复，订单引起的冻结、清算也不重放；
+     * 之后的外部转账如果用到了这些余额，转出方(系统账户除外)会变成负数，拒绝重放并记下警告。
+     * 撮合日志开启时不重放：外部转账已经和撮合命令按全局序号写进转账日志，由 MatcherService.recover() 合并重放，
+     * 组提交缓冲区里的记录丢失也不影响余额；这里只接着原来的序号记录流水。
+     * @return 是否从日志中恢复了余额；未开启资产日志或撮合日志开启时返回 false
+     */
+    public synchronized boolean recoverJournal() {
+        if (!journalEnabled || journal != null) return false;
+        Path dir = Path.of(journalDir);
+        try {
+            if (commandJournalEnabled) {
+                JournalCounter counter = new JournalCounter();
+                long last = TransferJournal.replay(dir, counter);
+                journal = new TransferJournal(dir, accounts, journalFlushIntervalMs, journalBufferSize, last);
+                logger.info("asset journal is audit only, {} records up to {} not replayed", counter.records, last);
+                return false;
+            }
+            JournalReplayer replayer = new JournalReplayer();
+            long last = TransferJournal.replay(dir, replayer);
+            journal = new TransferJournal(dir, accounts, journalFlushIntervalMs, journalBufferSize, last);
+            logger.info("asset journal replayed up to {}: applied {}, skipped {}, ignored {} order movements, refused {}",
+                    last, replayer.applied, replayer.skipped, replayer.ignored, replayer.refused);
+            if (replayer.ignored > 0) {
+                logger.warn("asset journal: {} balance changes of orders not replayed, enable trading.journal to recover orders",
+                        replayer.ignored);
+            }
+            return last > 0;
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to recover asset journal " + dir, e);
+        }
+    }
+
+    /**
+     * MatcherService.recover() 重放完全部日志之后调用：之后不在撮合命令中的余额变化(外部转账、新建资产)
+     * 先取全局序号写入 log 再执行，持有 sequencer 的写锁，和撮合命令的先后与序号一致。
+     */
+    public void startTransferLog(CommandJournal log, JournalSequencer sequencer) {
+        this.sequencer = sequencer;
+        this.transferLog = log;
+    }
+
+    // 关闭转账日志之前调用，等正在写的转账完成
+    public void stopTransferLog() {
+        JournalSequencer current = sequencer;
+        if (transferLog == null) return;
+        current.beginTransfer();
+        try {
+            transferLog = null;
+        } finally {
+            current.endTransfer();
+        }
+    }
+
+    // 启动时由 MatcherService 按全局序号和撮合命令交错调用：按原来的参数再执行一次，余额不够时和原来一样失败
+    public void replayTransfer(JournalRecord record) {
+        if (record.transferType == null) {
+            createCell(BalanceTable.cell(accounts.intern(record.uid), record.assetType), record.assetId,
+                    record.units, record.frozen, 0);
+            return;
+        }
+        var result = transferUnits(record.transferType, record.uid, record.toUid, record.assetType, record.units,
+                record.check, 0);
+        if (!result.isSuccess()) {
+            logger.debug("replayed transfer {} failed as before: {}", record, result.getMessage());
+        }
+    }
+
+    // 不在撮合命令中、也不在另一次外部转账中时返回转账日志，否则返回 null
+    private CommandJournal transferLog() {
+        CommandJournal log = transferLog;
+        return log == null || sequencer.inCommand() || sequencer.inTransfer() ? null : log;
+    }
+
+    // 撮合日志重放时重新算出的余额变化已经在资产日志里(或者由撮合日志负责)，当前线程执行 task 期间不再记录
+    public void runWithoutJournal(Runnable task) {
+        unjournaledThread = Thread.currentThread();
+        try {
+            task.run();
+        } finally {
+            unjournaledThread = null;
+        }
+    }
+
+    private TransferJournal journal() {
+        TransferJournal current = journal;
+        return current == null || Thread.currentThread() == unjournaledThread ? null : current;
+    }
+
+    // 快照用：撮合线程停下时调用，之后每个格子变化之前先记下它此刻的值；复制完后调用 endCut。
+    // 持有写锁时没有正在执行的外部转账，快照恰好包含转账日志中不大于记下的序号的记录
+    public BalanceCut beginCut() {
+        CommandJournal log = transferLog;
+        if (log == null) {
+            BalanceCut current = new BalanceCut(0, 0);
+            cut = current;
+            return current;
+        }
+        JournalSequencer order = sequencer;
+        order.beginTransfer();
+        try {
+            BalanceCut current = new BalanceCut(order.last(), log.getLastSequence());
+            cut = current;
+            return current;
+        } finally {
+            order.endTransfer();
+        }
+    }
+
+    public void endCut() {
+        cut = null;
+    }
+
+    public interface BalanceVisitor {
+        void visit(String uid, AssetType assetType, int id, long available, long frozen, long sequence);
+    }
+
+    /**
+     * 快照用：撮合线程恢复之后，复制 beginCut 时刻的全部余额(定点数)和每个格子最后的资产日志序号。
+     * 每个分段只加一次锁，visitor 在锁内调用，只能做复制。
+     */
+    public void copyBalances(BalanceCut cut, BalanceVisitor visitor) {
+        int cells = accounts.size() * BalanceTable.ASSETS;
+        for (int stripe = 0; stripe < LOCK_STRIPES && stripe < cells; stripe++) {
+            balanceLocks[stripe].lock();
+            try {
+                for (int cell = stripe; cell < cells; cell += LOCK_STRIPES) {
+                    long[] image = cut.image(cell);
+                    if (image == null) {
+                        if (!balances.exists(cell)) continue;
+                        image = new long[]{balances.available(cell), balances.frozen(cell), balances.sequence(cell)};
+                    } else if (image.length == 0) {
+                        continue; // 快照之后才创建
+                    }
+                    visitor.visit(accounts.uid(BalanceTable.account(cell)), BalanceTable.assetType(cell),
+                            balances.id(cell), image[0], image[1], image[2]);
+                }
+            } finally {
+                balanceLocks[stripe].unlock();
+            }
+        }
+    }
+
+    // 调用方持有这些格子的分段锁；一次修改只读一次 cut，涉及的格子要么都按快照之前、要么都按之后处理
+    private static void preserve(BalanceCut cut, BalanceTable balances, int cell) {
+        if (cut != null) {
+            cut.preserve(balances, cell);
+        }
+    }
+
+    // 用户ID 换成账户下标，新用户分配一个；调用方可以保存下标，之后用下标版本的 tryTransfer
+    public int accountIndex(String uid) {
+        return accounts.intern(uid);
+    }
+
+    // 金额与余额表中定点数(SCALE 位小数)之间的换算，精度超出时抛出 ArithmeticException
+    public static long toUnits(BigDecimal amount) {
+        return BalanceTable.toUnits(amount);
+    }
+
+    public static BigDecimal toDecimal(long units) {
+        return BalanceTable.toDecimal(units);
+    }
+
     public Result<AssetEntity> getAssetByUidAndType(String uid, AssetType type){
-        ConcurrentMap<AssetType, AssetEntity> userAsset = userAssertsDB.get(uid);
-        if(userAsset == null){
+        int account = accounts.find(uid);
+        if(account < 0){
             var msg = "AssetEntity for user %s not found.".formatted(uid);
             logger.debug(msg);
             return Result.fail(null, ErrorCode.DEFAULT, msg);
         }
-        AssetEntity assetEntity = userAsset.get(type);
+        AssetEntity assetEntity = readAsset(BalanceTable.cell(account, type));
         if(assetEntity == null){
             var msg = "AssetEntity for user %s, type %s not found.".formatted(uid, type);
             logger.debug(msg);
@@ -51,27 +281,64 @@ public class AssetService {
     }
 
     public Result<List<AssetEntity>> getAssetByUid(String uid){
-        ConcurrentMap<AssetType, AssetEntity> userAsset = userAssertsDB.get(uid);
-        if(userAsset == null){
+        int account = accounts.find(uid);
+        if(account < 0){
             String msg = "Assets for user %s not found.".formatted(uid);
             logger.debug(msg);
             return Result.fail(null, ErrorCode.DEFAULT, msg);
         }
-        List<AssetEntity> assetEntities = new ArrayList<>(userAsset.values());
+        List<AssetEntity> assetEntities = new ArrayList<>();
+        addAssets(account, assetEntities);
         return Result.ok(assetEntities);
     }
 
     public Result<List<AssetEntity>> getAllAssets(){
         List<AssetEntity> assetEntities = new ArrayList<>();
-        for(var v : userAssertsDB.values()){
-            assetEntities.addAll(v.values());
+        for(int account = 0, n = accounts.size(); account < n; account++){
+            addAssets(account, assetEntities);
         }
         return Result.ok(assetEntities);
     }
 
+    private void addAssets(int account, List<AssetEntity> assetEntities) {
+        for (AssetType type : AssetType.values()) {
+            AssetEntity assetEntity = readAsset(BalanceTable.cell(account, type));
+            if (assetEntity != null) {
+                assetEntities.add(assetEntity);
+            }
+        }
+    }
+
+    // 某一时刻的余额副本，修改它不影响余额表；不存在时返回 null
+    private AssetEntity readAsset(int cell) {
+        ReentrantLock lock = lockFor(cell);
+        lock.lock();
+        try {
+            return balances.exists(cell) ? toAssetEntity(cell) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 调用方持有该格子的分段锁
+    private AssetEntity toAssetEntity(int cell) {
+        return new AssetEntity(balances.id(cell), accounts.uid(BalanceTable.account(cell)), BalanceTable.assetType(cell),
+                toDecimal(balances.available(cell)), toDecimal(balances.frozen(cell)));
+    }
+
     public Result<AssetEntity> addNewAsset(AssetEntity assetEntity){
         String uid = assetEntity.getUid();
         var assetType =  assetEntity.getAssetType();
+        long available;
+        long frozen;
+        try {
+            available = toUnits(assetEntity.getAvailable());
+            frozen = toUnits(assetEntity.getFrozen());
+        } catch (ArithmeticException e) {
+            var msg = "balance of %s/%s out of range or precision: %s".formatted(uid, assetType, e.getMessage());
+            logger.debug(msg);
+            return Result.fail(assetEntity, ErrorCode.INVALID_PARAM, msg);
+        }
 
         // 模拟数据库的自增ID列
         if(assetEntity.getId() == 0) {
@@ -82,13 +349,8 @@ public class AssetService {
             assetEntity.setId(result.getData());
         }
 
-        if(userAssertsDB.get(uid) == null){
-            userAssertsDB.put(uid, new ConcurrentHashMap<>(Map.of(assetType, assetEntity)));
-            return Result.ok(assetEntity);
-        }
-
-        if(userAssertsDB.get(uid).get(assetType) == null){
-            userAssertsDB.get(uid).put(assetType, assetEntity);
+        int cell = BalanceTable.cell(accounts.intern(uid), assetType);
+        if (createCell(cell, assetEntity.getId(), available, frozen, 0)) {
             return Result.ok(assetEntity);
         }
         String msg = "AssetEntity for user %s, type %s already exist! will not add the new one".formatted(uid, assetType);
@@ -96,6 +358,107 @@ public class AssetService {
         return Result.fail(assetEntity, ErrorCode.ASSET_ALREADY_EXISTS, msg);
     }
 
+    // 批量导入用：资产不存在时按给定ID、余额(定点数)创建，已经存在时返回 false
+    boolean createAsset(String uid, AssetType assetType, int id, long available, long frozen) {
+        return createCell(BalanceTable.cell(accounts.intern(uid), assetType), id, available, frozen, 0);
+    }
+
+    // 快照恢复用，在 recoverJournal 之前调用：按快照中的ID、余额(定点数)和资产日志序号创建资产，已经存在时返回 false
+    public boolean restoreAsset(String uid, AssetType assetType, int id, long available, long frozen, long sequence) {
+        return createCell(BalanceTable.cell(accounts.intern(uid), assetType), id, available, frozen, sequence);
+    }
+
+    // 外部新建的资产先写转账日志；持有写锁时撮合线程不会创建资产，已经存在的不记录
+    private boolean createCell(int cell, int id, long available, long frozen, long sequence) {
+        CommandJournal log = transferLog();
+        if (log == null) {
+            return insertCell(cell, id, available, frozen, sequence);
+        }
+        JournalSequencer order = sequencer;
+        order.beginTransfer();
+        try {
+            if (balances.exists(cell)) return false;
+            log.appendOpen(order.next(), accounts.uid(BalanceTable.account(cell)), BalanceTable.assetType(cell),
+                    id, available, frozen);
+            return insertCell(cell, id, available, frozen, sequence);
+        } finally {
+            order.endTransfer();
+        }
+    }
+
+    // 并发创建同一个账户时只有一个成功；写资产日志时 sequence 用日志序号代替
+    private boolean insertCell(int cell, int id, long available, long frozen, long sequence) {
+        ReentrantLock lock = lockFor(cell);
+        lock.lock();
+        try {
+            if (balances.exists(cell)) return false;
+            preserve(cut, balances, cell);
+            TransferJournal journal = journal();
+            if (journal != null) {
+                sequence = journal.open(cell, id, available, frozen);
+            }
+            balances.create(cell, id, available, frozen, sequence);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 从 trading.asset-load.dir 下的 CSV 或二进制文件批量导入资产，格式见 BulkAssetLoader；已经存在的资产不覆盖。
+     * 可以在运行中调用，新建的资产照常写入资产日志。
+     */
+    public Result<BulkLoadReport> bulkLoad(String fileName) {
+        var file = resolveLoadFile(fileName);
+        if (!file.isSuccess()) {
+            return Result.fail(null, file.getErrorCode(), file.getMessage());
+        }
+        if (!Files.isRegularFile(file.getData())) {
+            var msg = "balance file %s not found".formatted(fileName);
+            logger.warn(msg);
+            return Result.fail(null, ErrorCode.RESOURCE_NOT_FOUND, msg);
+        }
+        try {
+            var report = new BulkAssetLoader(this, sequenceService, loadParallelism, loadChunkSize).load(file.getData());
+            logger.info("bulk load {}: {}", fileName, report);
+            return Result.ok(report);
+        } catch (IOException e) {
+            var msg = "failed to load balance file %s: %s".formatted(fileName, e.getMessage());
+            logger.warn(msg, e);
+            return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+        }
+    }
+
+    // 把全部资产导出为 trading.asset-load.dir 下的二进制文件，可以用 bulkLoad 导入
+    public Result<Integer> exportAssets(String fileName) {
+        var file = resolveLoadFile(fileName);
+        if (!file.isSuccess()) {
+            return Result.fail(null, file.getErrorCode(), file.getMessage());
+        }
+        List<AssetEntity> assets = getAllAssets().getData();
+        try {
+            Files.createDirectories(file.getData().getParent());
+            BulkAssetLoader.writeBinary(file.getData(), assets);
+            return Result.ok(assets.size());
+        } catch (IOException e) {
+            var msg = "failed to export assets to %s: %s".formatted(fileName, e.getMessage());
+            logger.warn(msg, e);
+            return Result.fail(null, ErrorCode.INTERNAL_ERROR, msg);
+        }
+    }
+
+    // 只接受 loadDir 下的文件名，防止通过管理接口读写任意路径
+    private Result<Path> resolveLoadFile(String fileName) {
+        Path dir = Path.of(loadDir).toAbsolutePath().normalize();
+        Path file = dir.resolve(fileName).normalize();
+        if (fileName.isBlank() || !file.startsWith(dir) || file.equals(dir)) {
+            var msg = "balance file %s should be inside %s".formatted(fileName, loadDir);
+            logger.warn(msg);
+            return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+        }
+        return Result.ok(file);
+    }
+
     public Result<AssetEntity> addNewAsset(String uid, AssetType assetType){
         var assetEntity = new AssetEntity();
         assetEntity.setUid(uid);
@@ -111,75 +474,245 @@ public class AssetService {
             BigDecimal amount,
             boolean check
     ){
+        return tryTransfer(type, fromUserId, toUserId, assetType, amount, check, 0);
+    }
+
+    // cause: 引起这次转账的订单ID，外部发起的转账为 0，记入资产日志
+    private Result<Void> tryTransfer(AssetTransferType type, String fromUserId, String toUserId, AssetType assetType,
+                                     BigDecimal amount, boolean check, long cause) {
         if(amount.signum()<0) {
             var msg = "amount(%s) is less than zero".formatted(amount);
             logger.debug(msg);
             return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
         }
-        if(amount.signum() == 0) return Result.ok(null); // do nothing for zero transfer
+        if(amount.signum() == 0) return OK; // do nothing for zero transfer
+        long units;
+        try {
+            units = toUnits(amount);
+        } catch (ArithmeticException e) {
+            var msg = "amount(%s) out of range or precision".formatted(amount);
+            logger.debug(msg);
+            return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+        }
+        return transferUnits(type, fromUserId, toUserId, assetType, units, check, cause);
+    }
 
-        var fromAssetResult = getAssetByUidAndType(fromUserId, assetType);
-        AssetEntity fromAsset = fromAssetResult.getData();
-        if(!fromAssetResult.isSuccess()){
-            // 用户资产不存在，初始化一个
-            Result<AssetEntity> rlt = addNewAsset(fromUserId, assetType);
-            if(!rlt.isSuccess()){
-                var msg = "Adding new Asset for %s failed. detial msg: %s".formatted(fromUserId, rlt.getMessage());
-                logger.warn(msg);
-                return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
-            }
-            fromAsset = rlt.getData();
+    // 资产不存在时先创建(外部创建的各自写转账日志)，然后转账
+    private Result<Void> transferUnits(AssetTransferType type, String fromUserId, String toUserId, AssetType assetType,
+                                       long units, boolean check, long cause) {
+        var fromResult = getOrAddAsset(fromUserId, assetType);
+        if(!fromResult.isSuccess()){
+            return Result.fail(null, fromResult.getErrorCode(), fromResult.getMessage());
+        }
+        var toResult = getOrAddAsset(toUserId, assetType);
+        if(!toResult.isSuccess()){
+            return Result.fail(null, toResult.getErrorCode(), toResult.getMessage());
+        }
+        return transferCells(type, fromResult.getData(), toResult.getData(), units, check, cause);
+    }
+
+    // 按账户下标转账，金额为定点数；两个账户都必须已有这种资产，不会自动创建
+    public Result<Void> tryTransfer(AssetTransferType type, int fromAccount, int toAccount, AssetType assetType,
+                                    long units, boolean check) {
+        if(units < 0) {
+            var msg = "amount(%s) is less than zero".formatted(toDecimal(units));
+            logger.debug(msg);
+            return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+        }
+        if(!isAccount(fromAccount) || !isAccount(toAccount)) {
+            var msg = "account %d or %d out of range".formatted(fromAccount, toAccount);
+            logger.debug(msg);
+            return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+        }
+        if(units == 0) return OK;
+        int fromCell = BalanceTable.cell(fromAccount, assetType);
+        int toCell = BalanceTable.cell(toAccount, assetType);
+        if(!balances.exists(fromCell) || !balances.exists(toCell)){
+            var msg = "AssetEntity for account %d or %d, type %s not found.".formatted(fromAccount, toAccount, assetType);
+            logger.debug(msg);
+            return Result.fail(null, ErrorCode.ASSET_NOT_FOUND, msg);
+        }
+        return transferCells(type, fromCell, toCell, units, check, 0);
+    }
+
+    // 账户下标必须是 accountIndex 分配过的，否则会越界访问余额表
+    private boolean isAccount(int account) {
+        return account >= 0 && account < accounts.size();
+    }
+
+    // 用户资产不存在时初始化一个，返回余额表的格子；并发初始化时用先创建的那个
+    private Result<Integer> getOrAddAsset(String uid, AssetType assetType) {
+        int cell = BalanceTable.cell(accounts.intern(uid), assetType);
+        if(balances.exists(cell)){
+            return Result.ok(cell);
         }
+        Result<AssetEntity> rlt = addNewAsset(uid, assetType);
+        if(rlt.isSuccess() || rlt.getErrorCode() == ErrorCode.ASSET_ALREADY_EXISTS){
+            return Result.ok(cell);
+        }
+        var msg = "Adding new Asset for %s failed. detial msg: %s".formatted(uid, rlt.getMessage());
+        logger.warn(msg);
+        return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+    }
+
+    private ReentrantLock lockFor(int cell) {
+        return balanceLocks[cell & (LOCK_STRIPES - 1)];
+    }
+
+    // 外部转账先取全局序号写转账日志再执行，检查余额的结果在重放时相同；撮合命令中的由撮合日志重放，不记录
+    private Result<Void> transferCells(AssetTransferType type, int fromCell, int toCell, long units, boolean check, long cause) {
+        CommandJournal log = transferLog();
+        if (log == null) {
+            return lockAndTransfer(type, fromCell, toCell, units, check, cause);
+        }
+        JournalSequencer order = sequencer;
+        order.beginTransfer();
+        try {
+            log.appendTransfer(order.next(), type, accounts.uid(BalanceTable.account(fromCell)),
+                    accounts.uid(BalanceTable.account(toCell)), BalanceTable.assetType(fromCell), units, check);
+            return lockAndTransfer(type, fromCell, toCell, units, check, cause);
+        } finally {
+            order.endTransfer();
+        }
+    }
+
+    private Result<Void> lockAndTransfer(AssetTransferType type, int fromCell, int toCell, long units, boolean check, long cause) {
+        int first = fromCell & (LOCK_STRIPES - 1);
+        int second = toCell & (LOCK_STRIPES - 1);
+        if (first > second) {
+            int t = first;
+            first = second;
+            second = t;
+        }
+        balanceLocks[first].lock();
+        balanceLocks[second].lock();
+        try {
+            return applyTransfer(type, fromCell, toCell, units, check, cause);
+        } finally {
+            balanceLocks[second].unlock();
+            balanceLocks[first].unlock();
+        }
+    }
+
+    /**
+     * 一次性应用一组余额变化(如一次撮合的全部清算)：每种资产的变化之和必须为 0，只在账户之间移动；
+     * 相关格子的分段锁全部按序持有后，先检查没有余额因减少而变成负数，再统一写入。检查失败时整组都不应用。
+     * 不存在的资产先初始化为 0。不写转账日志，撮合日志开启时只应在撮合命令中调用。
+     */
+    public Result<Void> applyDeltas(BalanceDeltas deltas) {
+        return applyDeltas(deltas, 0);
+    }
 
-        var toAssetResult = getAssetByUidAndType(toUserId, assetType);
-        AssetEntity toAsset = toAssetResult.getData();
-        if(!toAssetResult.isSuccess()){
-            // 用户资产不存在，初始化一个
-            Result<AssetEntity> rlt = addNewAsset(toUserId, assetType);
-            if(!rlt.isSuccess()){
-                var msg = "Adding new Asset for %s failed. detial msg: %s".formatted(fromUserId, rlt.getMessage());
+    // orderId: 引起这组变化的订单ID，作为一条多分录记录写入资产日志
+    public Result<Void> applyDeltas(BalanceDeltas deltas, long orderId) {
+        int n = deltas.size();
+        if (n == 0) return OK;
+        long[] sums = deltas.sums;
+        Arrays.fill(sums, 0);
+        for (int i = 0; i < n; i++) {
+            int cell = deltas.cell(i);
+            int asset = cell % BalanceTable.ASSETS;
+            sums[asset] += deltas.available(i) + deltas.frozen(i);
+            if (!balances.exists(cell)) {
+                var result = getOrAddAsset(accounts.uid(BalanceTable.account(cell)), BalanceTable.assetType(cell));
+                if (!result.isSuccess()) {
+                    return Result.fail(null, result.getErrorCode(), result.getMessage());
+                }
+            }
+        }
+        for (int asset = 0; asset < sums.length; asset++) {
+            if (sums[asset] != 0) {
+                var msg = "balance deltas of %s do not net to zero: %s".formatted(AssetType.values()[asset], toDecimal(sums[asset]));
                 logger.warn(msg);
                 return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
             }
-            toAsset = rlt.getData();
         }
 
-        switch(type){
-            case AVAILABLE_TO_AVAILABLE:{
-                if(check && fromAsset.getAvailable().compareTo(amount) < 0){
-                    String msg = String.format("Aailable asset %s, lower than required amount %s", GSON.toJson(fromAsset), amount);
-                    logger.debug(msg);
-                    return Result.fail(null, ErrorCode.ASSET_NOT_ENOUGH, msg);
-                }
-                fromAsset.setAvailable(fromAsset.getAvailable().subtract(amount));
-                toAsset.setAvailable(toAsset.getAvailable().add(amount));
-                return Result.ok(null);
-            }
-            case AVAILABLE_TO_FROZEN:{
-                if(check && fromAsset.getAvailable().compareTo(amount) < 0){
-                    String msg = String.format("Aailable asset %s, lower than required amount %s", GSON.toJson(fromAsset), amount);
-                    logger.debug(msg);
-                    return Result.fail(null, ErrorCode.ASSET_NOT_ENOUGH, msg);
+        // 一次撮合涉及的格子不多，插入排序比 Arrays.sort 快
+        int[] stripes = deltas.stripes;
+        for (int i = 0; i < n; i++) {
+            int stripe = deltas.cell(i) & (LOCK_STRIPES - 1);
+            int j = i;
+            for (; j > 0 && stripes[j - 1] > stripe; j--) {
+                stripes[j] = stripes[j - 1];
+            }
+            stripes[j] = stripe;
+        }
+        int locked = 0;
+        try {
+            for (int i = 0; i < n; i++) {
+                if (i == 0 || stripes[i] != stripes[i - 1]) {
+                    balanceLocks[stripes[i]].lock();
+                    stripes[locked++] = stripes[i];
                 }
-                fromAsset.setAvailable(fromAsset.getAvailable().subtract(amount));
-                toAsset.setFrozen(toAsset.getFrozen().add(amount));
-                return Result.ok(null);
-            }
-            case FROZEN_TO_AVAILABLE:{
-                if(check && fromAsset.getFrozen().compareTo(amount) < 0){
-                    String msg = String.format("Frozen asset %s, lower than required amount %s", GSON.toJson(fromAsset), amount);
-                    logger.debug(msg);
+            }
+            for (int i = 0; i < n; i++) {
+                int cell = deltas.cell(i);
+                if ((deltas.available(i) < 0 && balances.available(cell) + deltas.available(i) < 0)
+                        || (deltas.frozen(i) < 0 && balances.frozen(cell) + deltas.frozen(i) < 0)) {
+                    var msg = "asset %s can not cover available %s, frozen %s".formatted(GSON.toJson(toAssetEntity(cell)),
+                            toDecimal(deltas.available(i)), toDecimal(deltas.frozen(i)));
+                    logger.warn(msg);
                     return Result.fail(null, ErrorCode.ASSET_NOT_ENOUGH, msg);
                 }
-                fromAsset.setFrozen(fromAsset.getFrozen().subtract(amount));
-                toAsset.setAvailable(toAsset.getAvailable().add(amount));
-                return Result.ok(null);
             }
-            default:{
-                String msg = String.format("should NOT run here! Invalid ENUM type: %s ?!", type);
-                throw new IllegalStateException(msg);
+            BalanceCut current = cut;
+            for (int i = 0; i < n; i++) {
+                preserve(current, balances, deltas.cell(i));
             }
+            TransferJournal journal = journal();
+            long sequence = journal == null ? 0 : journal.posting(deltas, orderId);
+            for (int i = 0; i < n; i++) {
+                int cell = deltas.cell(i);
+                balances.setAvailable(cell, balances.available(cell) + deltas.available(i));
+                balances.setFrozen(cell, balances.frozen(cell) + deltas.frozen(i));
+                if (journal != null) balances.setSequence(cell, sequence);
+            }
+            return OK;
+        } finally {
+            while (locked > 0) {
+                balanceLocks[stripes[--locked]].unlock();
+            }
+        }
+    }
+
+    // 调用方持有两个格子的分段锁。冻结、解冻时 from 和 to 是同一个格子的两列
+    private Result<Void> applyTransfer(AssetTransferType type, int fromCell, int toCell, long units, boolean check, long cause) {
+        boolean fromFrozen = type == AssetTransferType.FROZEN_TO_AVAILABLE;
+        boolean toFrozen = type == AssetTransferType.AVAILABLE_TO_FROZEN;
+        long fromBalance = fromFrozen ? balances.frozen(fromCell) : balances.available(fromCell);
+        if(check && fromBalance < units){
+            String msg = String.format("%s asset %s, lower than required amount %s", fromFrozen ? "Frozen" : "Aailable",
+                    GSON.toJson(toAssetEntity(fromCell)), toDecimal(units));
+            logger.debug(msg);
+            return Result.fail(null, ErrorCode.ASSET_NOT_ENOUGH, msg);
         }
+        long newFrom;
+        long newTo;
+        try {
+            newFrom = Math.subtractExact(fromBalance, units);
+            // 转给自己(同一格子的同一列)时，转入方在扣减之后的余额上加
+            long toBalance = fromCell == toCell && fromFrozen == toFrozen ? newFrom
+                    : toFrozen ? balances.frozen(toCell) : balances.available(toCell);
+            newTo = Math.addExact(toBalance, units);
+        } catch (ArithmeticException e) {
+            var msg = "balance overflow when moving %s".formatted(toDecimal(units));
+            logger.warn(msg);
+            return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+        }
+        BalanceCut current = cut;
+        preserve(current, balances, fromCell);
+        preserve(current, balances, toCell);
+        // 先写日志再改余额，日志出错时余额不变
+        TransferJournal journal = journal();
+        if (journal != null) {
+            long sequence = journal.transfer(type, fromCell, toCell, units, cause);
+            balances.setSequence(fromCell, sequence);
+            balances.setSequence(toCell, sequence);
+        }
+        if (fromFrozen) balances.setFrozen(fromCell, newFrom); else balances.setAvailable(fromCell, newFrom);
+        if (toFrozen) balances.setFrozen(toCell, newTo); else balances.setAvailable(toCell, newTo);
+        return OK;
     }
 
     //用户存入资金，从系统默认负债账户0划账, 无需做资金校验,账户0的资金一定是负的
@@ -192,15 +725,178 @@ public class AssetService {
     }
 
     public Result<Void> tryFreeze(String userId, AssetType assetId, BigDecimal amount) {
-        return tryTransfer(AssetTransferType.AVAILABLE_TO_FROZEN, userId, userId, assetId, amount, true);
+        return tryFreeze(userId, assetId, amount, 0);
+    }
+
+    // 撮合下单时冻结，orderId 记入资产日志
+    public Result<Void> tryFreeze(String userId, AssetType assetId, BigDecimal amount, long orderId) {
+        return tryTransfer(AssetTransferType.AVAILABLE_TO_FROZEN, userId, userId, assetId, amount, true, orderId);
     }
 
     public Result<Void> unfreeze(String userId, AssetType assetId, BigDecimal amount) {
-        return tryTransfer(AssetTransferType.FROZEN_TO_AVAILABLE, userId, userId, assetId, amount, true);
+        return unfreeze(userId, assetId, amount, 0);
+    }
+
+    public Result<Void> unfreeze(String userId, AssetType assetId, BigDecimal amount, long orderId) {
+        return tryTransfer(AssetTransferType.FROZEN_TO_AVAILABLE, userId, userId, assetId, amount, true, orderId);
     }
 
+    // 按账户下标冻结、解冻，金额为定点数：撮合线程下单、撤单时用，不换算 BigDecimal，成功时不分配对象
+    public Result<Void> tryFreeze(int account, AssetType assetId, long units, long orderId) {
+        return moveWithinCell(AssetTransferType.AVAILABLE_TO_FROZEN, account, assetId, units, orderId);
+    }
+
+    public Result<Void> unfreeze(int account, AssetType assetId, long units, long orderId) {
+        return moveWithinCell(AssetTransferType.FROZEN_TO_AVAILABLE, account, assetId, units, orderId);
+    }
+
+    // 同一格子的可用、冻结两列之间移动；资产不存在时先初始化为 0，和按用户ID冻结一样
+    private Result<Void> moveWithinCell(AssetTransferType type, int account, AssetType assetType, long units, long cause) {
+        if(units < 0) {
+            var msg = "amount(%s) is less than zero".formatted(toDecimal(units));
+            logger.debug(msg);
+            return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+        }
+        if(!isAccount(account)) {
+            var msg = "account %d out of range".formatted(account);
+            logger.debug(msg);
+            return Result.fail(null, ErrorCode.INVALID_PARAM, msg);
+        }
+        if(units == 0) return OK;
+        int cell = BalanceTable.cell(account, assetType);
+        if(!balances.exists(cell)){
+            var result = getOrAddAsset(accounts.uid(account), assetType);
+            if(!result.isSuccess()){
+                return Result.fail(null, result.getErrorCode(), result.getMessage());
+            }
+        }
+        return transferCells(type, cell, cell, units, true, cause);
+    }
+
+    // 重放资产日志，只在启动时、撮合线程和写日志之前调用，不加锁；订单引起的记录忽略，
+    // 外部转账使转出方(系统账户除外)变成负数时拒绝
+    private final class JournalReplayer implements TransferJournal.Visitor {
+        long applied;
+        long skipped;
+        long ignored;
+        long refused;
+
+        @Override
+        public int account(String uid) {
+            return accounts.intern(uid);
+        }
+
+        @Override
+        public void open(long sequence, int cell, int id, long available, long frozen) {
+            if (balances.exists(cell)) {
+                skipped++;
+                return;
+            }
+            balances.create(cell, id, available, frozen, sequence);
+            applied++;
+        }
+
+        @Override
+        public void transfer(long sequence, AssetTransferType type, int fromCell, int toCell, long units, long cause) {
+            if (cause != 0) {
+                ignored++;
+                return;
+            }
+            // 冻结、解冻时两个格子相同，借贷两方都在写入序号之前判断
+            boolean debit = isPending(sequence, fromCell);
+            boolean credit = isPending(sequence, toCell);
+            if (debit && !coverable(type, fromCell, units)) {
+                logger.warn("asset journal record {}: {} of {}/{} can not cover {}, refused", sequence, type,
+                        accounts.uid(BalanceTable.account(fromCell)), BalanceTable.assetType(fromCell), toDecimal(units));
+                refused++;
+                return;
+            }
+            if (debit) {
+                if (type == AssetTransferType.FROZEN_TO_AVAILABLE) {
+                    balances.setFrozen(fromCell, balances.frozen(fromCell) - units);
+                } else {
+                    balances.setAvailable(fromCell, balances.available(fromCell) - units);
+                }
+                balances.setSequence(fromCell, sequence);
+            }
+            if (credit) {
+                if (type == AssetTransferType.AVAILABLE_TO_FROZEN) {
+                    balances.setFrozen(toCell, balances.frozen(toCell) + units);
+                } else {
+                    balances.setAvailable(toCell, balances.available(toCell) + units);
+                }
+                balances.setSequence(toCell, sequence);
+            }
+            if (debit || credit) applied++; else skipped++;
+        }
+
+        @Override
+        public void leg(long sequence, long cause, int cell, long available, long frozen) {
+            if (cause != 0) {
+                ignored++;
+                return;
+            }
+            if (!isPending(sequence, cell)) {
+                skipped++;
+                return;
+            }
+            balances.setAvailable(cell, balances.available(cell) + available);
+            balances.setFrozen(cell, balances.frozen(cell) + frozen);
+            balances.setSequence(cell, sequence);
+            applied++;
+        }
+
+        // 系统账户是负债账户，可以为负
+        private boolean coverable(AssetTransferType type, int cell, long units) {
+            if (SYSTEM_ASSET_ID.equals(accounts.uid(BalanceTable.account(cell)))) return true;
+            long balance = type == AssetTransferType.FROZEN_TO_AVAILABLE ? balances.frozen(cell) : balances.available(cell);
+            return balance >= units;
+        }
+
+        private boolean isPending(long sequence, int cell) {
+            if (!balances.exists(cell)) {
+                logger.warn("asset journal record {} refers to missing asset {}/{}, skipped",
+                        sequence, accounts.uid(BalanceTable.account(cell)), BalanceTable.assetType(cell));
+                return false;
+            }
+            return sequence > balances.sequence(cell);
+        }
+    }
+
+    // 撮合日志开启时资产日志不重放，只数出已有的记录
+    private static final class JournalCounter implements TransferJournal.Visitor {
+        long records;
+
+        @Override
+        public int account(String uid) {
+            return 0;
+        }
+
+        @Override
+        public void open(long sequence, int cell, int id, long available, long frozen) {
+            records++;
+        }
+
+        @Override
+        public void transfer(long sequence, AssetTransferType type, int fromCell, int toCell, long units, long cause) {
+            records++;
+        }
+
+        @Override
+        public void leg(long sequence, long cause, int cell, long available, long frozen) {
+            records++;
+        }
+    }
 
     public void initAssetDB(){
+        if (!loadStartupFile.isBlank()) {
+            var result = bulkLoad(loadStartupFile);
+            if (!result.isSuccess()) {
+                throw new IllegalStateException("failed to load startup balances: " + result.getMessage());
+            }
+            return;
+        }
+        // 没有配置导入文件时用内置的测试数据
         String[] jsonArray = {
                 "{\"uid\":\"0\",\"assetType\":\"USD\", \"available\":0, \"frozen\":0}",
                 "{\"uid\":\"0\",\"assetType\":\"APPL\", \"available\":0, \"frozen\":0}",
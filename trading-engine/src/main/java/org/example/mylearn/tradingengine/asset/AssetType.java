@@ -3,5 +3,8 @@ package org.example.mylearn.tradingengine.asset;
 public enum AssetType {
     APPL, // APPL
     USD, //dollar
+    TSLA,
+    MSFT,
+    BTC,
     INVALID;
 }
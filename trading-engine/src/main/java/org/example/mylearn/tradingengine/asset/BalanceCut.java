@@ -0,0 +1,46 @@
+package org.example.mylearn.tradingengine.asset;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 快照时刻的余额视图：撮合线程停下时开始(AssetService.beginCut)，之后每个格子第一次变化之前，
+ * 修改方在该格子的分段锁内先记下它的可用、冻结余额和日志序号，之后才创建的格子记为不存在。
+ * 快照线程在撮合线程恢复之后按分段加锁复制，有记录的格子用记录，没有的说明之后没有变化，直接复制当前值。
+ * 开始时同时记下全局序号和转账日志序号，快照包含不大于它们的记录，恢复时只重放之后的。
+ */
+public final class BalanceCut {
+    private static final long[] ABSENT = new long[0];
+
+    private final Map<Integer, long[]> images = new ConcurrentHashMap<>();
+    private final long globalSequence;
+    private final long transferSequence;
+
+    BalanceCut(long globalSequence, long transferSequence) {
+        this.globalSequence = globalSequence;
+        this.transferSequence = transferSequence;
+    }
+
+    // 快照时刻最后分配的全局序号，未开启撮合日志时为 0
+    public long getGlobalSequence() {
+        return globalSequence;
+    }
+
+    // 快照包含的最后一条转账日志记录的序号，未开启撮合日志时为 0
+    public long getTransferSequence() {
+        return transferSequence;
+    }
+
+    // 调用方持有该格子的分段锁，同一格子只记第一次
+    void preserve(BalanceTable balances, int cell) {
+        if (images.containsKey(cell)) return;
+        images.put(cell, balances.exists(cell)
+                ? new long[]{balances.available(cell), balances.frozen(cell), balances.sequence(cell)}
+                : ABSENT);
+    }
+
+    // 快照之后变化过的格子返回 {可用, 冻结, 日志序号}，之后才创建的返回空数组，没有变化过的返回 null
+    long[] image(int cell) {
+        return images.get(cell);
+    }
+}
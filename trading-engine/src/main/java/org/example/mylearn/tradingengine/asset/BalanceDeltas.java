@@ -0,0 +1,103 @@
+package org.example.mylearn.tradingengine.asset;
+
+import java.util.Arrays;
+
+/**
+ * 一组余额变化，按 (账户下标, 资产类型) 合并：同一个账户在一次撮合中出现多次，只留一条净变化。
+ * 由 AssetService.applyDeltas 一次性检查并应用。
+ *
+ * 可重复使用(clear 后再 add)，合并用开放寻址的小哈希表，稳定运行时不分配对象；不是线程安全的。
+ */
+public final class BalanceDeltas {
+    private int[] cells;
+    private long[] available;
+    private long[] frozen;
+    private int size;
+    // 格子 -> 下标 + 1，0 表示空
+    private int[] slots;
+    // applyDeltas 排序锁分段、按资产求和用的临时数组
+    int[] stripes;
+    final long[] sums = new long[BalanceTable.ASSETS];
+
+    public BalanceDeltas() {
+        this(16);
+    }
+
+    public BalanceDeltas(int capacity) {
+        int n = Math.max(4, Integer.highestOneBit(Math.max(1, capacity - 1)) << 1);
+        cells = new int[n];
+        available = new long[n];
+        frozen = new long[n];
+        slots = new int[n * 2];
+        stripes = new int[n];
+    }
+
+    // 可用余额变化 availableUnits、冻结余额变化 frozenUnits，正数为增加
+    public void add(int account, AssetType assetType, long availableUnits, long frozenUnits) {
+        int cell = BalanceTable.cell(account, assetType);
+        int mask = slots.length - 1;
+        int slot = mix(cell) & mask;
+        while (slots[slot] != 0) {
+            int i = slots[slot] - 1;
+            if (cells[i] == cell) {
+                available[i] = Math.addExact(available[i], availableUnits);
+                frozen[i] = Math.addExact(frozen[i], frozenUnits);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == cells.length) {
+            grow();
+            add(account, assetType, availableUnits, frozenUnits);
+            return;
+        }
+        cells[size] = cell;
+        available[size] = availableUnits;
+        frozen[size] = frozenUnits;
+        slots[slot] = ++size;
+    }
+
+    public void clear() {
+        if (size == 0) return;
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    int cell(int i) {
+        return cells[i];
+    }
+
+    long available(int i) {
+        return available[i];
+    }
+
+    long frozen(int i) {
+        return frozen[i];
+    }
+
+    private void grow() {
+        int n = cells.length * 2;
+        cells = Arrays.copyOf(cells, n);
+        available = Arrays.copyOf(available, n);
+        frozen = Arrays.copyOf(frozen, n);
+        stripes = new int[n];
+        slots = new int[n * 2];
+        int mask = slots.length - 1;
+        for (int i = 0; i < size; i++) {
+            int slot = mix(cells[i]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = i + 1;
+        }
+    }
+
+    private static int mix(int cell) {
+        int h = cell * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,112 @@
+package org.example.mylearn.tradingengine.asset;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * 全部账户的余额表，按列存放：(账户下标, 资产类型) 对应一个格子 cell = account * ASSETS + assetType.ordinal()，
+ * 可用、冻结余额和资产ID分别放在三组 long/long/int 数组中，每个账户不再有 AssetEntity、BigDecimal 和内层 Map。
+ * 另有一列记着该格子最后一次变化对应的资产日志序号，快照和日志重放据此判断一条记录是否已经包含在余额中。
+ *
+ * 余额是 SCALE 位小数的定点数(BTC/USD 的成交额精度为 1e-8)，单个格子的范围约为 ±9.2e10。
+ * 数组分页，扩容时只追加新页、不搬动旧页，正在修改余额的线程不会写到被替换的数组里。
+ * 本类不加锁：读写格子由调用方(AssetService)持有该格子的分段锁；扩容由 AccountIndex 在发布新的账户下标之前完成。
+ */
+final class BalanceTable {
+    static final int SCALE = 8;
+    private static final AssetType[] ASSET_TYPES = AssetType.values();
+    static final int ASSETS = ASSET_TYPES.length;
+
+    private static final int PAGE_SHIFT = 12;
+    private static final int PAGE_SIZE = 1 << PAGE_SHIFT; // 每页的格子数
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // 页目录整体替换，页本身不会被替换
+    private volatile long[][] available = new long[0][];
+    private volatile long[][] frozen = new long[0][];
+    private volatile int[][] ids = new int[0][]; // 0 表示该用户还没有这种资产
+    private volatile long[][] sequences = new long[0][];
+    private int capacity; // 格子数，只在 ensureAccounts 中修改
+
+    static int cell(int account, AssetType assetType) {
+        return account * ASSETS + assetType.ordinal();
+    }
+
+    static int account(int cell) {
+        return cell / ASSETS;
+    }
+
+    static AssetType assetType(int cell) {
+        return ASSET_TYPES[cell % ASSETS];
+    }
+
+    // 超出精度或范围时抛出 ArithmeticException
+    static long toUnits(BigDecimal amount) {
+        return amount.movePointRight(SCALE).longValueExact();
+    }
+
+    static BigDecimal toDecimal(long units) {
+        BigDecimal value = BigDecimal.valueOf(units, SCALE).stripTrailingZeros();
+        return value.scale() < 0 ? value.setScale(0) : value;
+    }
+
+    synchronized void ensureAccounts(int accounts) {
+        long cells = (long) accounts * ASSETS;
+        if (cells <= capacity) return;
+        int pages = (int) ((cells + PAGE_MASK) >>> PAGE_SHIFT);
+        long[][] newAvailable = Arrays.copyOf(available, pages);
+        long[][] newFrozen = Arrays.copyOf(frozen, pages);
+        int[][] newIds = Arrays.copyOf(ids, pages);
+        long[][] newSequences = Arrays.copyOf(sequences, pages);
+        for (int p = available.length; p < pages; p++) {
+            newAvailable[p] = new long[PAGE_SIZE];
+            newFrozen[p] = new long[PAGE_SIZE];
+            newIds[p] = new int[PAGE_SIZE];
+            newSequences[p] = new long[PAGE_SIZE];
+        }
+        available = newAvailable;
+        frozen = newFrozen;
+        ids = newIds;
+        sequences = newSequences;
+        capacity = pages << PAGE_SHIFT;
+    }
+
+    boolean exists(int cell) {
+        return ids[cell >>> PAGE_SHIFT][cell & PAGE_MASK] != 0;
+    }
+
+    int id(int cell) {
+        return ids[cell >>> PAGE_SHIFT][cell & PAGE_MASK];
+    }
+
+    void create(int cell, int id, long availableUnits, long frozenUnits, long sequence) {
+        available[cell >>> PAGE_SHIFT][cell & PAGE_MASK] = availableUnits;
+        frozen[cell >>> PAGE_SHIFT][cell & PAGE_MASK] = frozenUnits;
+        sequences[cell >>> PAGE_SHIFT][cell & PAGE_MASK] = sequence;
+        ids[cell >>> PAGE_SHIFT][cell & PAGE_MASK] = id;
+    }
+
+    long available(int cell) {
+        return available[cell >>> PAGE_SHIFT][cell & PAGE_MASK];
+    }
+
+    void setAvailable(int cell, long units) {
+        available[cell >>> PAGE_SHIFT][cell & PAGE_MASK] = units;
+    }
+
+    long frozen(int cell) {
+        return frozen[cell >>> PAGE_SHIFT][cell & PAGE_MASK];
+    }
+
+    void setFrozen(int cell, long units) {
+        frozen[cell >>> PAGE_SHIFT][cell & PAGE_MASK] = units;
+    }
+
+    long sequence(int cell) {
+        return sequences[cell >>> PAGE_SHIFT][cell & PAGE_MASK];
+    }
+
+    void setSequence(int cell, long sequence) {
+        sequences[cell >>> PAGE_SHIFT][cell & PAGE_MASK] = sequence;
+    }
+}
@@ -0,0 +1,472 @@
+package org.example.mylearn.tradingengine.asset;
+
+import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.rpcclient.SequenceService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 批量导入资产余额，代替逐条 addNewAsset：文件按块切分，在 ForkJoinPool 上并行解析并写入余额表。
+ *
+ * CSV: 每行 uid,assetType,available,frozen[,id]，第一行以 uid 开头时当作表头跳过；金额最多 SCALE 位小数。
+ *   文件按字节数切成 chunkSize 大小的块，每块只处理起始字节落在块内的行，行长不超过 MAX_LINE。
+ * 二进制(writeBinary 写出): int MAGIC | int VERSION | byte 资产类型数 | 资产类型名(UTF)...，
+ *   之后是若干数据块: int 字节数 | int 条数 | (int id | short 长度 + uid(UTF-8) | byte 资产类型 | long 可用 | long 冻结) * 条数，
+ *   余额为 SCALE 位小数的定点数。先顺序读一遍块头，再把相邻数据块合并成约 chunkSize 的任务并行解析。
+ * 文件中没有ID(CSV 不带 id 列或 id 为 0)的行，每块向序号服务申请一段连续ID后在本地分配，一块只调用一次。
+ * 余额不能为负数，只有系统账户(SYSTEM_ASSET_ID)例外，负数行算作错误。
+ * 分两步并行：先解析全部块，并按 (uid, 资产类型) 记下文件中第一次出现的行；再写入余额表，
+ * 同一文件中重复的 (uid, 资产类型) 只导入第一行，其余计入 repeated。已经存在的资产跳过，不覆盖余额。
+ */
+final class BulkAssetLoader {
+    private static final Logger logger = LoggerFactory.getLogger(BulkAssetLoader.class);
+
+    static final int MAGIC = 0x42414C53; // "BALS"
+    private static final int VERSION = 1;
+    private static final int MAX_LINE = 64 << 10;
+    private static final int BLOCK_RECORDS = 4096; // writeBinary 每个数据块的记录数
+    private static final AssetType[] ASSET_TYPES = AssetType.values();
+    private static final byte[][] TYPE_NAMES = new byte[ASSET_TYPES.length][];
+    private static final long[] POW10 = new long[BalanceTable.SCALE + 1];
+    private static final byte[] SYSTEM_UID = AssetService.SYSTEM_ASSET_ID.getBytes(StandardCharsets.UTF_8);
+    static {
+        for (int i = 0; i < ASSET_TYPES.length; i++) {
+            TYPE_NAMES[i] = ASSET_TYPES[i].name().getBytes(StandardCharsets.US_ASCII);
+        }
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+    }
+
+    private final AssetService assetService;
+    private final SequenceService sequenceService;
+    private final int parallelism;
+    private final int chunkSize;
+
+    BulkAssetLoader(AssetService assetService, SequenceService sequenceService, int parallelism, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunk size should be positive: " + chunkSize);
+        }
+        this.assetService = assetService;
+        this.sequenceService = sequenceService;
+        this.parallelism = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        this.chunkSize = chunkSize;
+    }
+
+    BulkLoadReport load(Path file) throws IOException {
+        long begin = System.nanoTime();
+        List<Callable<Batch>> tasks = new ArrayList<>();
+        // 格子 -> 文件中第一次出现的行(块序号 << 32 | 块内行号)
+        ConcurrentHashMap<Integer, Long> firstRows = new ConcurrentHashMap<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            channel.read(magic, 0);
+            if (size >= 4 && magic.getInt(0) == MAGIC) {
+                binaryTasks(channel, size, tasks, firstRows);
+            } else {
+                for (long start = 0; start < size; start += chunkSize) {
+                    long from = start;
+                    long to = Math.min(size, start + chunkSize);
+                    int chunk = tasks.size();
+                    tasks.add(() -> loadCsv(channel, from, to, size, new Batch(chunk), firstRows));
+                }
+            }
+
+            Counts total = new Counts();
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try {
+                List<Callable<Counts>> inserts = new ArrayList<>(tasks.size());
+                for (Future<Batch> future : pool.invokeAll(tasks)) {
+                    Batch batch = future.get();
+                    inserts.add(() -> insert(batch, firstRows));
+                }
+                for (Future<Counts> future : pool.invokeAll(inserts)) {
+                    total.add(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while loading " + file, e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) throw io;
+                if (e.getCause() instanceof UncheckedIOException io) throw io.getCause();
+                throw new IOException("failed to load " + file, e.getCause());
+            } finally {
+                pool.shutdown();
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+            return new BulkLoadReport(total.rows, total.loaded, total.duplicates, total.repeated, total.errors, millis);
+        }
+    }
+
+    // 导出为二进制格式，可以再用 load 导入
+    static void writeBinary(Path file, Iterable<AssetEntity> assets) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeByte(ASSET_TYPES.length);
+            for (AssetType type : ASSET_TYPES) {
+                out.writeUTF(type.name());
+            }
+            ByteArrayOutputStream block = new ByteArrayOutputStream(BLOCK_RECORDS * 40);
+            DataOutputStream records = new DataOutputStream(block);
+            int count = 0;
+            for (AssetEntity asset : assets) {
+                byte[] uid = asset.getUid().getBytes(StandardCharsets.UTF_8);
+                records.writeInt(asset.getId());
+                records.writeShort(uid.length);
+                records.write(uid);
+                records.writeByte(asset.getAssetType().ordinal());
+                records.writeLong(BalanceTable.toUnits(asset.getAvailable()));
+                records.writeLong(BalanceTable.toUnits(asset.getFrozen()));
+                if (++count == BLOCK_RECORDS) {
+                    writeBlock(out, block, count);
+                    count = 0;
+                }
+            }
+            if (count > 0) {
+                writeBlock(out, block, count);
+            }
+        }
+    }
+
+    private static void writeBlock(DataOutputStream out, ByteArrayOutputStream block, int count) throws IOException {
+        out.writeInt(block.size());
+        out.writeInt(count);
+        block.writeTo(out);
+        block.reset();
+    }
+
+    // 读文件头和全部块头，相邻的数据块合并成一个任务
+    private void binaryTasks(FileChannel channel, long size, List<Callable<Batch>> tasks,
+                             ConcurrentHashMap<Integer, Long> firstRows) throws IOException {
+        channel.position(0);
+        DataInputStream in = new DataInputStream(Channels.newInputStream(channel)); // 不关闭，channel 由调用方关闭
+        in.readInt();
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("unsupported balance file version " + version);
+        AssetType[] types = new AssetType[in.readUnsignedByte()];
+        for (int i = 0; i < types.length; i++) {
+            String name = in.readUTF();
+            types[i] = Arrays.stream(ASSET_TYPES).filter(t -> t.name().equals(name)).findFirst().orElse(null);
+        }
+        long position = channel.position();
+        ByteBuffer header = ByteBuffer.allocate(8);
+        long chunkStart = position;
+        while (position < size) {
+            header.clear();
+            while (header.hasRemaining() && channel.read(header, position + header.position()) > 0) {
+            }
+            if (header.hasRemaining()) throw new IOException("truncated block header at " + position);
+            long end = position + 8 + header.getInt(0);
+            if (header.getInt(0) < 0 || end > size) throw new IOException("truncated block at " + position);
+            position = end;
+            if (position - chunkStart >= chunkSize || position == size) {
+                long from = chunkStart;
+                long to = position;
+                int chunk = tasks.size();
+                tasks.add(() -> loadBinary(channel, from, to, types, new Batch(chunk), firstRows));
+                chunkStart = position;
+            }
+        }
+    }
+
+    private Batch loadBinary(FileChannel channel, long from, long to, AssetType[] types, Batch batch,
+                             ConcurrentHashMap<Integer, Long> firstRows) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        Counts counts = batch.counts;
+        byte[] bytes = new byte[256];
+        while (buffer.hasRemaining()) {
+            buffer.getInt(); // 块字节数
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                int id = buffer.getInt();
+                int length = buffer.getShort() & 0xFFFF;
+                if (length > bytes.length) bytes = new byte[length];
+                buffer.get(bytes, 0, length);
+                int type = buffer.get() & 0xFF;
+                long available = buffer.getLong();
+                long frozen = buffer.getLong();
+                counts.rows++;
+                AssetType assetType = type < types.length ? types[type] : null;
+                if (assetType == null || assetType == AssetType.INVALID || length == 0
+                        || ((available < 0 || frozen < 0) && !isSystem(bytes, length))) {
+                    counts.errors++;
+                    continue;
+                }
+                batch.add(new String(bytes, 0, length, StandardCharsets.UTF_8), assetType, id, available, frozen);
+            }
+        }
+        register(batch, firstRows);
+        return batch;
+    }
+
+    private Batch loadCsv(FileChannel channel, long start, long end, long size, Batch batch,
+                          ConcurrentHashMap<Integer, Long> firstRows) throws IOException {
+        long from = Math.max(0, start - 1);
+        long to = Math.min(size, end + MAX_LINE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        int limit = buffer.limit();
+        int ownedEnd = (int) (end - from); // 起始字节在这之前的行属于本块
+        int pos = 0;
+        if (start > 0) {
+            // 第一个换行之前的部分属于上一块；上一块恰好以换行结束时，pos 停在 start
+            while (pos < limit && buffer.get(pos++) != '\n') {
+            }
+        }
+        Counts counts = batch.counts;
+        byte[] bytes = new byte[256];
+        int[] fields = new int[12];
+        while (pos < ownedEnd && pos < limit) {
+            int eol = pos;
+            while (eol < limit && buffer.get(eol) != '\n') {
+                eol++;
+            }
+            if (eol == limit && to < size) {
+                throw new IOException("line at offset %d longer than %d bytes".formatted(from + pos, MAX_LINE));
+            }
+            int lineEnd = eol > pos && buffer.get(eol - 1) == '\r' ? eol - 1 : eol;
+            boolean header = from + pos == 0 && startsWith(buffer, pos, lineEnd, "uid");
+            if (lineEnd > pos && !header) {
+                counts.rows++;
+                if (!parseLine(buffer, pos, lineEnd, fields, bytes, batch)) {
+                    counts.errors++;
+                    if (counts.errors <= 3) {
+                        logger.warn("bad balance line at offset {}", from + pos);
+                    }
+                }
+            }
+            pos = eol + 1;
+        }
+        register(batch, firstRows);
+        return batch;
+    }
+
+    // 拆成 4 或 5 个字段(逗号分隔，去掉首尾空格)，解析失败返回 false
+    private static boolean parseLine(ByteBuffer buffer, int from, int to, int[] fields, byte[] bytes, Batch batch) {
+        int n = 0;
+        int fieldStart = from;
+        for (int i = from; i <= to; i++) {
+            if (i == to || buffer.get(i) == ',') {
+                if (n == 5) return false;
+                int s = fieldStart;
+                int e = i;
+                while (s < e && buffer.get(s) == ' ') s++;
+                while (e > s && buffer.get(e - 1) == ' ') e--;
+                fields[n * 2] = s;
+                fields[n * 2 + 1] = e;
+                n++;
+                fieldStart = i + 1;
+            }
+        }
+        if (n < 4) return false;
+        int uidLength = fields[1] - fields[0];
+        if (uidLength == 0) return false;
+        AssetType assetType = assetType(buffer, fields[2], fields[3]);
+        if (assetType == null) return false;
+        try {
+            long available = parseUnits(buffer, fields[4], fields[5]);
+            long frozen = parseUnits(buffer, fields[6], fields[7]);
+            int id = n == 5 ? parseId(buffer, fields[8], fields[9]) : 0;
+            byte[] uid = uidLength <= bytes.length ? bytes : new byte[uidLength];
+            buffer.get(fields[0], uid, 0, uidLength);
+            if ((available < 0 || frozen < 0) && !isSystem(uid, uidLength)) return false;
+            batch.add(new String(uid, 0, uidLength, StandardCharsets.UTF_8), assetType, id, available, frozen);
+            return true;
+        } catch (NumberFormatException | ArithmeticException e) {
+            return false;
+        }
+    }
+
+    // 空字段表示没有ID
+    private static int parseId(ByteBuffer buffer, int from, int to) {
+        int id = 0;
+        for (int i = from; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b < '0' || b > '9') throw new NumberFormatException("not an id");
+            id = Math.addExact(Math.multiplyExact(id, 10), b - '0');
+        }
+        return id;
+    }
+
+    private static AssetType assetType(ByteBuffer buffer, int from, int to) {
+        for (int t = 0; t < TYPE_NAMES.length; t++) {
+            byte[] name = TYPE_NAMES[t];
+            if (name.length != to - from || ASSET_TYPES[t] == AssetType.INVALID) continue;
+            int i = 0;
+            while (i < name.length && buffer.get(from + i) == name[i]) i++;
+            if (i == name.length) return ASSET_TYPES[t];
+        }
+        return null;
+    }
+
+    // 十进制金额直接换成 SCALE 位小数的定点数，不经过 BigDecimal；超出的小数位只能是 0
+    static long parseUnits(ByteBuffer buffer, int from, int to) {
+        int i = from;
+        boolean negative = i < to && buffer.get(i) == '-';
+        if (i < to && (buffer.get(i) == '-' || buffer.get(i) == '+')) i++;
+        long value = 0;
+        int decimals = -1;
+        int digits = 0;
+        for (; i < to; i++) {
+            byte b = buffer.get(i);
+            if (b == '.' && decimals < 0) {
+                decimals = 0;
+                continue;
+            }
+            if (b < '0' || b > '9') throw new NumberFormatException("not a number");
+            digits++;
+            if (decimals >= 0 && ++decimals > BalanceTable.SCALE) {
+                if (b != '0') throw new NumberFormatException("more than %d decimals".formatted(BalanceTable.SCALE));
+                continue;
+            }
+            value = Math.addExact(Math.multiplyExact(value, 10), b - '0');
+        }
+        if (digits == 0) throw new NumberFormatException("not a number");
+        value = Math.multiplyExact(value, POW10[BalanceTable.SCALE - Math.min(BalanceTable.SCALE, Math.max(decimals, 0))]);
+        return negative ? -value : value;
+    }
+
+    // 系统账户的余额是负债，可以为负数
+    private static boolean isSystem(byte[] uid, int length) {
+        return length == SYSTEM_UID.length && Arrays.equals(uid, 0, length, SYSTEM_UID, 0, length);
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int from, int to, String prefix) {
+        if (to - from < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(buffer.get(from + i)) != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // 解析完一块后登记每行的格子，文件中重复的 (uid, 资产类型) 保留块序号、行号最小的一行
+    private void register(Batch batch, ConcurrentHashMap<Integer, Long> firstRows) {
+        for (int i = 0; i < batch.size; i++) {
+            int cell = BalanceTable.cell(assetService.accountIndex(batch.uids[i]), batch.types[i]);
+            firstRows.merge(cell, batch.row(i), Math::min);
+            batch.cells[i] = cell;
+        }
+    }
+
+    // 全部块解析完之后调用：跳过文件中重复的行；没有ID的行一次申请一段连续ID，申请失败时这些行算作错误
+    private Counts insert(Batch batch, ConcurrentHashMap<Integer, Long> firstRows) {
+        Counts counts = batch.counts;
+        int missing = 0;
+        for (int i = 0; i < batch.size; i++) {
+            if (firstRows.get(batch.cells[i]) != batch.row(i)) {
+                batch.repeated[i] = true;
+                counts.repeated++;
+            } else if (batch.ids[i] == 0) {
+                missing++;
+            }
+        }
+        int nextId = 0;
+        if (missing > 0) {
+            Result<Integer> block = sequenceService.newSequenceBlock(missing);
+            if (block.isSuccess()) {
+                nextId = block.getData();
+            } else {
+                logger.warn("failed to reserve {} asset ids: {}", missing, block.getMessage());
+                counts.errors += missing;
+            }
+        }
+        for (int i = 0; i < batch.size; i++) {
+            if (batch.repeated[i]) continue;
+            int id = batch.ids[i];
+            if (id == 0) {
+                if (nextId == 0) continue;
+                id = nextId++;
+            }
+            if (assetService.createAsset(batch.uids[i], batch.types[i], id, batch.available[i], batch.frozen[i])) {
+                counts.loaded++;
+            } else {
+                counts.duplicates++;
+            }
+        }
+        return counts;
+    }
+
+    // 一个任务解析出来的行，按列存放
+    private static final class Batch {
+        final int chunk; // 块在文件中的序号
+        final Counts counts = new Counts();
+        String[] uids = new String[1024];
+        AssetType[] types = new AssetType[1024];
+        int[] ids = new int[1024];
+        long[] available = new long[1024];
+        long[] frozen = new long[1024];
+        int[] cells = new int[1024];
+        boolean[] repeated = new boolean[1024];
+        int size;
+
+        Batch(int chunk) {
+            this.chunk = chunk;
+        }
+
+        // 行在文件中的先后顺序
+        long row(int i) {
+            return (long) chunk << 32 | i;
+        }
+
+        void add(String uid, AssetType type, int id, long availableUnits, long frozenUnits) {
+            if (size == uids.length) {
+                int n = size * 2;
+                uids = Arrays.copyOf(uids, n);
+                types = Arrays.copyOf(types, n);
+                ids = Arrays.copyOf(ids, n);
+                available = Arrays.copyOf(available, n);
+                frozen = Arrays.copyOf(frozen, n);
+                cells = Arrays.copyOf(cells, n);
+                repeated = Arrays.copyOf(repeated, n);
+            }
+            uids[size] = uid;
+            types[size] = type;
+            ids[size] = id;
+            available[size] = availableUnits;
+            frozen[size] = frozenUnits;
+            size++;
+        }
+    }
+
+    private static final class Counts {
+        long rows;
+        long loaded;
+        long duplicates;
+        long repeated;
+        long errors;
+
+        void add(Counts other) {
+            rows += other.rows;
+            loaded += other.loaded;
+            duplicates += other.duplicates;
+            repeated += other.repeated;
+            errors += other.errors;
+        }
+    }
+}
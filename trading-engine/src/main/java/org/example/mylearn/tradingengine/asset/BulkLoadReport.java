@@ -0,0 +1,13 @@
+package org.example.mylearn.tradingengine.asset;
+
+/**
+ * 一次批量导入的结果。
+ * @param rows       文件中的数据行(记录)数，不含表头和空行
+ * @param loaded     新建的资产数
+ * @param duplicates 已经存在、没有覆盖的资产数
+ * @param repeated   文件中重复出现的 (uid, 资产类型) 行数，只导入第一行
+ * @param errors     无法解析、余额为负数或无法分配ID的行数
+ * @param millis     耗时
+ */
+public record BulkLoadReport(long rows, long loaded, long duplicates, long repeated, long errors, long millis) {
+}
@@ -0,0 +1,453 @@
+package org.example.mylearn.tradingengine.asset;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 资产日志：每次余额变化追加一条记录，启动时重放恢复余额。
+ *
+ * 记录格式(大端)，cause 为 0 表示外部发起(充值、接口转账)，否则为引起这次变化的订单ID:
+ *   ACCOUNT  byte 1 | int 账户下标 | short 长度 + uid(UTF-8)    某账户在本文件中第一次出现时写入，重放时据此换成当时的下标
+ *   OPEN     byte 2 | long 序号 | int 格子 | int 资产ID | long 可用 | long 冻结
+ *   TRANSFER byte 3 | long 序号 | byte 转账类型 | int 转出格子 | int 转入格子 | long 金额 | long cause
+ *   POSTING  byte 4 | long 序号 | long cause | int 条数 | (int 格子 | long 可用变化 | long 冻结变化) * 条数
+ * POSTING 是一次撮合合并后的每个格子的净变化，不是逐笔的借贷对；写入前 applyDeltas 已经检查过每种资产的变化之和为 0，
+ * 重放时再按资产对账一次，和不为 0 的记录视为损坏。
+ *
+ * 组提交：记账线程在自己的暂存缓冲区里编码记录，然后用 CAS 在当前缓冲区中同时占下写入位置和序号，
+ * 把记录拷进去后立即返回，不加锁、不等刷盘。调用方持有格子的分段锁，同一个格子的记录按序号顺序占位。
+ * 写线程每隔 flushInterval 用 CAS 封住当前缓冲区、换上另一块，等已占位的记录都拷完后，
+ * 把整块写成一个帧(int 长度 | int CRC32C | 记录)并 fsync 一次。只有写线程刷盘期间另一块缓冲区也写满时，记账线程才等待。
+ * 进程崩溃最多丢失最近一个刷盘间隔的记录；写了一半的帧校验失败，重放时丢弃。
+ * 每次启动写一个新文件，文件名为 transfers-起始序号.log，旧文件不改动。
+ */
+final class TransferJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(TransferJournal.class);
+
+    private static final String PREFIX = "transfers-";
+    private static final String SUFFIX = ".log";
+    private static final int FRAME_HEADER = 8; // 长度 + CRC32C
+    private static final byte ACCOUNT = 1;
+    private static final byte OPEN = 2;
+    private static final byte TRANSFER = 3;
+    private static final byte POSTING = 4;
+    private static final AssetTransferType[] TRANSFER_TYPES = AssetTransferType.values();
+
+    // 占位状态 state 的布局：高 16 位为缓冲区轮次(低位选缓冲区)，中间 24 位为已占用的字节数，低 24 位为已分配的序号数
+    private static final int POSITION_SHIFT = 24;
+    private static final int EPOCH_SHIFT = 48;
+    private static final long FIELD_MASK = (1L << 24) - 1;
+    static final int MAX_BUFFER_SIZE = 1 << 24;
+
+    // 重放时的回调，格子已经换成当前的账户下标
+    interface Visitor {
+        int account(String uid);
+
+        void open(long sequence, int cell, int id, long available, long frozen);
+
+        void transfer(long sequence, AssetTransferType type, int fromCell, int toCell, long units, long cause);
+
+        void leg(long sequence, long cause, int cell, long available, long frozen);
+    }
+
+    private final AccountIndex accounts;
+    private final Path file;
+    private final FileChannel channel;
+    private final long flushIntervalNanos;
+    private final Thread writer;
+    private final int capacity;
+    // 只在写线程中使用
+    private final CRC32C crc = new CRC32C();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER);
+
+    // 两块缓冲区轮流使用，记账线程只用绝对位置写入
+    private final ByteBuffer[] buffers = new ByteBuffer[2];
+    // 每块缓冲区中已拷完的字节数，写线程等它追上封住时的占用字节数
+    private final AtomicInteger[] committed = {new AtomicInteger(), new AtomicInteger()};
+    // 每块缓冲区第一条记录之前的序号，写线程在封住上一块之前写好下一块的
+    private final long[] baseSequence = new long[2];
+    private final AtomicLong state = new AtomicLong();
+    // 已经写过 ACCOUNT 记录的账户，按位存放；并发时可能重复写，重放时重复的 ACCOUNT 记录没有影响
+    private volatile AtomicLongArray announced = new AtomicLongArray(16);
+    private final ThreadLocal<ByteBuffer> staging = ThreadLocal.withInitial(() -> ByteBuffer.allocate(256));
+
+    private volatile long durableSequence;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    // 以下字段由 this 的监视器保护，只在缓冲区写满和写线程等待时使用
+    private boolean flushRequested;
+
+    TransferJournal(Path dir, AccountIndex accounts, long flushIntervalMillis, int bufferSize, long lastSequence)
+            throws IOException {
+        if (bufferSize < 4096 || bufferSize >= MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("asset journal buffer size out of range: " + bufferSize);
+        }
+        this.accounts = accounts;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, flushIntervalMillis));
+        this.capacity = bufferSize;
+        this.buffers[0] = ByteBuffer.allocateDirect(bufferSize);
+        this.buffers[1] = ByteBuffer.allocateDirect(bufferSize);
+        this.baseSequence[0] = lastSequence;
+        this.durableSequence = lastSequence;
+        Files.createDirectories(dir);
+        this.file = dir.resolve(PREFIX + "%020d".formatted(lastSequence + 1) + SUFFIX);
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE);
+        this.writer = new Thread(this::writeLoop, "asset-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // 新建资产，返回记录序号
+    long open(int cell, int id, long available, long frozen) {
+        ByteBuffer out = begin();
+        out = announce(out, BalanceTable.account(cell));
+        out = ensure(out, 1 + 8 + 4 + 4 + 8 + 8);
+        int seqAt = out.position() + 1;
+        out.put(OPEN).putLong(0).putInt(cell).putInt(id).putLong(available).putLong(frozen);
+        return publish(out, seqAt);
+    }
+
+    // 两个格子之间的一笔转账，冻结、解冻时两个格子相同
+    long transfer(AssetTransferType type, int fromCell, int toCell, long units, long cause) {
+        ByteBuffer out = begin();
+        out = announce(out, BalanceTable.account(fromCell));
+        out = announce(out, BalanceTable.account(toCell));
+        out = ensure(out, 1 + 8 + 1 + 4 + 4 + 8 + 8);
+        int seqAt = out.position() + 1;
+        out.put(TRANSFER).putLong(0).put((byte) type.ordinal()).putInt(fromCell).putInt(toCell)
+                .putLong(units).putLong(cause);
+        return publish(out, seqAt);
+    }
+
+    long posting(BalanceDeltas deltas, long cause) {
+        int n = deltas.size();
+        ByteBuffer out = begin();
+        for (int i = 0; i < n; i++) {
+            out = announce(out, BalanceTable.account(deltas.cell(i)));
+        }
+        out = ensure(out, 1 + 8 + 8 + 4 + n * 20);
+        int seqAt = out.position() + 1;
+        out.put(POSTING).putLong(0).putLong(cause).putInt(n);
+        for (int i = 0; i < n; i++) {
+            out.putInt(deltas.cell(i)).putLong(deltas.available(i)).putLong(deltas.frozen(i));
+        }
+        return publish(out, seqAt);
+    }
+
+    long getDurableSequence() {
+        return durableSequence;
+    }
+
+    // 写出并刷盘当前缓冲区中的全部记录，然后停止写线程
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (failure != null) throw failure;
+    }
+
+    private ByteBuffer begin() {
+        ByteBuffer out = staging.get();
+        out.clear();
+        return out;
+    }
+
+    // 暂存缓冲区放不下时换一块更大的
+    private ByteBuffer ensure(ByteBuffer out, int bytes) {
+        if (out.remaining() >= bytes) return out;
+        int size = out.capacity();
+        while (size - out.position() < bytes) size *= 2;
+        ByteBuffer bigger = ByteBuffer.allocate(size);
+        bigger.put(out.flip());
+        staging.set(bigger);
+        return bigger;
+    }
+
+    private ByteBuffer announce(ByteBuffer out, int account) {
+        AtomicLongArray bits = announced;
+        if ((account >>> 6) < bits.length() && (bits.get(account >>> 6) & (1L << account)) != 0) return out;
+        byte[] uid = accounts.uid(account).getBytes(StandardCharsets.UTF_8);
+        out = ensure(out, 1 + 4 + 2 + uid.length);
+        out.put(ACCOUNT).putInt(account).putShort((short) uid.length).put(uid);
+        return out;
+    }
+
+    // 在 publish 占位之后标记：其他线程看到标记时，这条 ACCOUNT 记录的位置一定在它的记录之前
+    private void markAnnounced(ByteBuffer out) {
+        for (int p = 0; p < out.limit(); ) {
+            byte kind = out.get(p);
+            if (kind != ACCOUNT) return; // ACCOUNT 记录都在最前面
+            int account = out.getInt(p + 1);
+            AtomicLongArray bits = announced;
+            if ((account >>> 6) >= bits.length()) bits = growAnnounced(account);
+            bits.getAndAccumulate(account >>> 6, 1L << account, (a, b) -> a | b);
+            p += 1 + 4 + 2 + (out.getShort(p + 5) & 0xFFFF);
+        }
+    }
+
+    // 扩容时并发设置的位可能丢失，只会导致重复写 ACCOUNT 记录
+    private synchronized AtomicLongArray growAnnounced(int account) {
+        AtomicLongArray bits = announced;
+        if ((account >>> 6) < bits.length()) return bits;
+        AtomicLongArray grown = new AtomicLongArray(Math.max((account >>> 6) + 1, bits.length() * 2));
+        for (int i = 0; i < bits.length(); i++) {
+            grown.set(i, bits.get(i));
+        }
+        announced = grown;
+        return grown;
+    }
+
+    /**
+     * 用 CAS 在当前缓冲区中占下 out 的字节数和一个序号，把序号填进 seqAt，再拷入缓冲区。
+     * 当前缓冲区放不下时让写线程立即刷盘，等它换上空的缓冲区。
+     */
+    private long publish(ByteBuffer out, int seqAt) {
+        out.flip();
+        int bytes = out.limit();
+        if (bytes >= capacity) {
+            throw new IllegalArgumentException("asset journal record of %d bytes exceeds buffer".formatted(bytes));
+        }
+        long s;
+        while (true) {
+            s = state.get();
+            if (failure != null) throw new UncheckedIOException("asset journal failed: " + file, failure);
+            if (position(s) + bytes > capacity) {
+                awaitFlush(s);
+                continue;
+            }
+            if (state.compareAndSet(s, s + ((long) bytes << POSITION_SHIFT) + 1)) break;
+        }
+        int index = (int) (s >>> EPOCH_SHIFT) & 1;
+        long seq = baseSequence[index] + (s & FIELD_MASK) + 1;
+        out.putLong(seqAt, seq);
+        markAnnounced(out);
+        buffers[index].put(position(s), out, 0, bytes);
+        committed[index].addAndGet(bytes);
+        return seq;
+    }
+
+    private synchronized void awaitFlush(long s) {
+        if (closed) throw new IllegalStateException("asset journal closed: " + file);
+        if (state.get() != s) return;
+        flushRequested = true;
+        notifyAll();
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for asset journal", e);
+        }
+    }
+
+    private static int position(long s) {
+        return (int) ((s >>> POSITION_SHIFT) & FIELD_MASK);
+    }
+
+    private void writeLoop() {
+        while (true) {
+            boolean last;
+            synchronized (this) {
+                long deadline = System.nanoTime() + flushIntervalNanos;
+                try {
+                    for (long left = flushIntervalNanos; !closed && !flushRequested && left > 0;
+                         left = deadline - System.nanoTime()) {
+                        TimeUnit.NANOSECONDS.timedWait(this, left);
+                    }
+                } catch (InterruptedException e) {
+                    closed = true;
+                }
+                flushRequested = false;
+                last = closed;
+            }
+            // 封住当前缓冲区：轮次加一、位置和序号数清零，之后的记录写到另一块
+            long s;
+            int index;
+            while (true) {
+                s = state.get();
+                if (position(s) == 0) break;
+                index = (int) (s >>> EPOCH_SHIFT) & 1;
+                baseSequence[index ^ 1] = baseSequence[index] + (s & FIELD_MASK);
+                long next = ((s >>> EPOCH_SHIFT) + 1) << EPOCH_SHIFT;
+                if (state.compareAndSet(s, next)) break;
+            }
+            int size = position(s);
+            if (size == 0) {
+                if (last) return;
+                continue;
+            }
+            index = (int) (s >>> EPOCH_SHIFT) & 1;
+            // 等占了位的记账线程拷完
+            while (committed[index].get() != size) {
+                Thread.onSpinWait();
+            }
+            ByteBuffer full = buffers[index];
+            full.limit(size);
+            try {
+                writeFrame(full);
+            } catch (IOException e) {
+                logger.error("asset journal write failed: {}", file, e);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+            full.clear();
+            committed[index].set(0);
+            durableSequence = baseSequence[index] + (s & FIELD_MASK);
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private void writeFrame(ByteBuffer records) throws IOException {
+        records.position(0);
+        crc.reset();
+        crc.update(records.duplicate());
+        frameHeader.clear();
+        frameHeader.putInt(records.remaining()).putInt((int) crc.getValue()).flip();
+        ByteBuffer[] frame = {frameHeader, records};
+        while (records.hasRemaining()) {
+            channel.write(frame);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * 按文件顺序重放目录下的全部记录，返回最大的序号(没有记录时为 0)。
+     * 文件尾部写了一半的帧丢弃；记录内容本身有误(校验通过但无法解析)时抛出 IOException。
+     */
+    static long replay(Path dir, Visitor visitor) throws IOException {
+        if (!Files.isDirectory(dir)) return 0;
+        List<Path> files;
+        try (Stream<Path> list = Files.list(dir)) {
+            files = list.filter(p -> p.getFileName().toString().startsWith(PREFIX)
+                            && p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted()
+                    .toList();
+        }
+        long last = 0;
+        CRC32C crc = new CRC32C();
+        for (Path file : files) {
+            byte[] bytes = Files.readAllBytes(file);
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            // 文件中的账户下标 -> 当前账户下标，-1 表示还没出现
+            int[] mapping = new int[0];
+            while (in.remaining() >= FRAME_HEADER) {
+                int length = in.getInt();
+                int expected = in.getInt();
+                if (length <= 0 || length > in.remaining()) {
+                    logger.warn("{}: truncated frame at {}, ignored", file, in.position() - FRAME_HEADER);
+                    break;
+                }
+                crc.reset();
+                crc.update(bytes, in.position(), length);
+                if ((int) crc.getValue() != expected) {
+                    logger.warn("{}: checksum mismatch at {}, ignored", file, in.position() - FRAME_HEADER);
+                    break;
+                }
+                ByteBuffer frame = in.slice(in.position(), length);
+                in.position(in.position() + length);
+                try {
+                    while (frame.hasRemaining()) {
+                        byte kind = frame.get();
+                        switch (kind) {
+                            case ACCOUNT -> {
+                                int account = frame.getInt();
+                                byte[] uid = new byte[frame.getShort() & 0xFFFF];
+                                frame.get(uid);
+                                if (account >= mapping.length) {
+                                    int from = mapping.length;
+                                    mapping = Arrays.copyOf(mapping, Math.max(account + 1, from * 2));
+                                    Arrays.fill(mapping, from, mapping.length, -1);
+                                }
+                                mapping[account] = visitor.account(new String(uid, StandardCharsets.UTF_8));
+                            }
+                            case OPEN -> {
+                                long seq = frame.getLong();
+                                int cell = remap(mapping, frame.getInt());
+                                visitor.open(seq, cell, frame.getInt(), frame.getLong(), frame.getLong());
+                                last = Math.max(last, seq);
+                            }
+                            case TRANSFER -> {
+                                long seq = frame.getLong();
+                                AssetTransferType type = TRANSFER_TYPES[frame.get()];
+                                int fromCell = remap(mapping, frame.getInt());
+                                int toCell = remap(mapping, frame.getInt());
+                                visitor.transfer(seq, type, fromCell, toCell, frame.getLong(), frame.getLong());
+                                last = Math.max(last, seq);
+                            }
+                            case POSTING -> {
+                                long seq = frame.getLong();
+                                long cause = frame.getLong();
+                                int n = frame.getInt();
+                                checkBalanced(frame, n, seq, file);
+                                for (int i = 0; i < n; i++) {
+                                    visitor.leg(seq, cause, remap(mapping, frame.getInt()), frame.getLong(), frame.getLong());
+                                }
+                                last = Math.max(last, seq);
+                            }
+                            default -> throw new IOException("unknown record type %d in %s".formatted(kind, file));
+                        }
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException("malformed record in " + file, e);
+                }
+            }
+        }
+        return last;
+    }
+
+    // 对账：一条 POSTING 中每种资产的可用 + 冻结变化之和必须为 0，否则记录已损坏，不能重放
+    private static void checkBalanced(ByteBuffer frame, int n, long seq, Path file) throws IOException {
+        long[] sums = new long[BalanceTable.ASSETS];
+        int p = frame.position();
+        for (int i = 0; i < n; i++, p += 20) {
+            int asset = BalanceTable.assetType(frame.getInt(p)).ordinal();
+            sums[asset] += frame.getLong(p + 4) + frame.getLong(p + 12);
+        }
+        for (int asset = 0; asset < sums.length; asset++) {
+            if (sums[asset] != 0) {
+                throw new IOException("posting %d in %s does not balance for %s: %d"
+                        .formatted(seq, file, AssetType.values()[asset], sums[asset]));
+            }
+        }
+    }
+
+    private static int remap(int[] mapping, int cell) throws IOException {
+        int account = BalanceTable.account(cell);
+        if (account >= mapping.length || mapping[account] < 0) {
+            throw new IOException("record refers to account %d before it is declared".formatted(account));
+        }
+        return BalanceTable.cell(mapping[account], BalanceTable.assetType(cell));
+    }
+}
@@ -7,8 +7,12 @@ import java.util.List;
 
 public interface ClearingService {
 
-    Result<OrderEntity> prepareTrading(OrderEntity orderEntity);
+    // 下单：冻结订单需要的资产。只返回成败，撮合线程每笔订单都调用，成功时不分配结果对象
+    Result<Void> prepareTrading(OrderEntity orderEntity);
 
     Result<Void> finishTrading(OrderEntity orderEntity, List<OrderEntity> matchedorders);
 
+    // 撤单：解冻订单未成交部分
+    Result<Void> cancelTrading(OrderEntity orderEntity);
+
 }
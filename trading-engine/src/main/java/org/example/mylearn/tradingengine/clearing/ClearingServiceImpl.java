@@ -5,8 +5,9 @@ import com.google.gson.GsonBuilder;
 import org.example.mylearn.common.ErrorCode;
 import org.example.mylearn.common.Result;
 import org.example.mylearn.tradingengine.asset.AssetService;
-import org.example.mylearn.tradingengine.asset.AssetTransferType;
 import org.example.mylearn.tradingengine.asset.AssetType;
+import org.example.mylearn.tradingengine.asset.BalanceDeltas;
+import org.example.mylearn.tradingengine.instrument.Instrument;
 import org.example.mylearn.tradingengine.order.OrderEntity;
 import org.example.mylearn.tradingengine.order.TradeType;
 import org.slf4j.Logger;
@@ -15,9 +16,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
 
-import java.math.BigDecimal;
 import java.util.List;
-import java.util.Objects;
 
 @Service
 public class ClearingServiceImpl implements ClearingService {
@@ -25,59 +24,157 @@ public class ClearingServiceImpl implements ClearingService {
     AssetService assetService;
     static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
     Logger logger = LoggerFactory.getLogger(ClearingServiceImpl.class);
+    // 每个品种的撮合线程各用一个，冻结、清算、解冻时不分配
+    private static final ThreadLocal<Netting> NETTING = ThreadLocal.withInitial(Netting::new);
+
+    // 合并余额变化的临时表，以及本线程品种的成交额(ticks*lots)、数量(lots)到余额表定点数的换算系数
+    private static final class Netting {
+        final BalanceDeltas deltas = new BalanceDeltas();
+        Instrument instrument;
+        long quoteUnits;
+        long baseUnits;
+
+        void prepare(Instrument instrument) {
+            deltas.clear();
+            use(instrument);
+        }
+
+        // 换算系数按品种缓存，品种不变时不重新计算
+        void use(Instrument instrument) {
+            if (this.instrument == instrument) return;
+            quoteUnits = AssetService.toUnits(instrument.notionalToDecimal(1));
+            baseUnits = AssetService.toUnits(instrument.lotsToQuantity(1));
+            this.instrument = instrument;
+        }
+    }
 
     @Override
-    public Result<OrderEntity> prepareTrading(OrderEntity orderEntity) {
-        // 检查并并冻结对应账户的USD、或APPL
-        String uid = orderEntity.getUid();
-        switch (orderEntity.getTradeType()){
-            case BUY -> {
-                var result = assetService.tryFreeze(uid, AssetType.USD, orderEntity.getAmount().multiply(orderEntity.getPrice()) );
-                return new Result<>(result.isSuccess(), orderEntity, result.getErrorCode(), result.getMessage());
-            }
-            case SELL ->{
-                var result = assetService.tryFreeze(uid, AssetType.APPL, orderEntity.getAmount());
-                return new Result<>(result.isSuccess(), orderEntity, result.getErrorCode(), result.getMessage());
-            }
-            default -> {
-                var msg = String.format("invald TradeType: %s ?!", orderEntity.getTradeType());
-                throw new IllegalStateException(msg);
+    public Result<Void> prepareTrading(OrderEntity orderEntity) {
+        // 检查并并冻结对应账户的USD、或APPL；按账户下标、定点数冻结，不换算 BigDecimal
+        Instrument instrument = orderEntity.getInstrument();
+        Netting netting = NETTING.get();
+        int account = assetService.accountIndex(orderEntity.getUid());
+        try {
+            netting.use(instrument);
+            switch (orderEntity.getTradeType()){
+                case BUY -> {
+                    long notional = Instrument.notional(orderEntity.getPriceTicks(), orderEntity.getAmountLots());
+                    return assetService.tryFreeze(account, instrument.getQuoteAsset(), Math.multiplyExact(notional, netting.quoteUnits), causeOf(orderEntity));
+                }
+                case SELL -> {
+                    return assetService.tryFreeze(account, instrument.getBaseAsset(), Math.multiplyExact(orderEntity.getAmountLots(), netting.baseUnits), causeOf(orderEntity));
+                }
+                default -> {
+                    var msg = String.format("invald TradeType: %s ?!", orderEntity.getTradeType());
+                    throw new IllegalStateException(msg);
+                }
             }
+        } catch (ArithmeticException e) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, "amount of order %s out of range".formatted(orderEntity.getId()));
         }
     }
 
     @Override
     public Result<Void> finishTrading(OrderEntity orderFrom, List<OrderEntity> matchedOrders) {
         // for the compilcated of the logic before and afer, we do some consistence check here!
-        matchedOrders.forEach(order -> Assert.notNull(order, "order is null in matchedOrders"));
-        BigDecimal tradingvalue = matchedOrders.stream().map(OrderEntity::getProcessingAmount)
-                .filter(Objects::nonNull).reduce(BigDecimal.ZERO, BigDecimal::add);
-        Assert.isTrue(tradingvalue.compareTo(orderFrom.getProcessingAmount()) == 0,
-            "Trading value not consistent! 'from' side {%s}, 'to' side {%s}. Detailed info: orderFrom=%s, matchedOrders=%s"
-                .formatted(orderFrom.getProcessingAmount(), tradingvalue, GSON.toJson(orderFrom), GSON.toJson(matchedOrders)));
+        // 价格、数量均为定点数(ticks/lots)，只在调用资产服务记账时换算为BigDecimal
+        long tradingLots = 0;
+        for (int i = 0; i < matchedOrders.size(); i++) {
+            OrderEntity order = matchedOrders.get(i);
+            Assert.notNull(order, "order is null in matchedOrders");
+            tradingLots += order.getProcessingLots();
+        }
+        // 不用 Assert.isTrue(boolean, Supplier)：捕获参数的 lambda 每次清算都要分配
+        if (tradingLots != orderFrom.getProcessingLots()) {
+            throw new IllegalArgumentException("Trading value not consistent! 'from' side {%s}, 'to' side {%s}. Detailed info: orderFrom=%s, matchedOrders=%s"
+                .formatted(orderFrom.getProcessingLots(), tradingLots, GSON.toJson(orderFrom), GSON.toJson(matchedOrders)));
+        }
         TradeType takerType = orderFrom.getTradeType();
-        Assert.isTrue(takerType == TradeType.BUY || takerType == TradeType.SELL,
-                "invald TradeType: %s, order=%s".formatted(orderFrom.getTradeType(), GSON.toJson(orderFrom)));
+        if (takerType != TradeType.BUY && takerType != TradeType.SELL) {
+            throw new IllegalArgumentException("invald TradeType: %s, order=%s".formatted(orderFrom.getTradeType(), GSON.toJson(orderFrom)));
+        }
+        Instrument instrument = orderFrom.getInstrument();
+        AssetType quote = instrument.getQuoteAsset();
+        AssetType base = instrument.getBaseAsset();
+        Netting netting = NETTING.get();
+        netting.prepare(instrument);
+        long quoteUnits = netting.quoteUnits;
+        long baseUnits = netting.baseUnits;
 
-        matchedOrders.forEach(orderTo -> {
-            var dealPrice = orderTo.getPrice();
-            var dealAmount = orderTo.getProcessingAmount();
-            var buyer = (takerType == TradeType.BUY) ? orderFrom : orderTo;
-            var seller = (takerType == TradeType.SELL) ? orderFrom : orderTo;
-            // always transfer USD from buyer to seller, and vice versa for goods(APPL)
-            assetService.transferBetweenUsers(AssetTransferType.FROZEN_TO_AVAILABLE, buyer.getUid(), seller.getUid(),
-                    AssetType.USD, dealPrice.multiply(dealAmount));
-            assetService.transferBetweenUsers(AssetTransferType.FROZEN_TO_AVAILABLE, seller.getUid(), buyer.getUid(),
-                    AssetType.APPL, dealAmount);
-            if(orderFrom.getTradeType() == TradeType.BUY){
+        // 先按 (账户, 资产) 合并整次撮合的余额变化，再一次性检查、应用：
+        // 吃掉 N 个对手方只动 N + 1 个账户的各两种资产，同一个对手方出现多次时只算一次
+        BalanceDeltas deltas = netting.deltas;
+        int taker = assetService.accountIndex(orderFrom.getUid());
+        long takerPaid = 0;     // BUY: 从冻结中扣掉的 quote，含按成交价退回的部分；SELL: 收到的 quote
+        long takerRefund = 0;   // BUY: 按买价冻结、按卖价成交，退回到可用的差额
+        long takerLots = 0;
+        for (int i = 0; i < matchedOrders.size(); i++) {
+            OrderEntity orderTo = matchedOrders.get(i);
+            long dealPrice = orderTo.getPriceTicks();
+            long dealAmount = orderTo.getProcessingLots();
+            long notional = Math.multiplyExact(Instrument.notional(dealPrice, dealAmount), quoteUnits);
+            long quantity = Math.multiplyExact(dealAmount, baseUnits);
+            int maker = assetService.accountIndex(orderTo.getUid());
+            takerLots += quantity;
+            if (takerType == TradeType.BUY) {
                 // deal with seller's price, it may frize too much ealier,give it back
-                Assert.isTrue(orderFrom.getPrice().compareTo(orderTo.getPrice()) >= 0,
-                        "BUY price must be greater than sell price. buyOrder=%s, sellOrder=%s".formatted(GSON.toJson(orderFrom), GSON.toJson(orderTo)));
-                assetService.unfreeze(orderFrom.getUid(), AssetType.USD,
-                        orderTo.getProcessingAmount().multiply(orderFrom.getPrice().subtract(orderTo.getPrice())));
+                if (orderFrom.getPriceTicks() < dealPrice) {
+                    throw new IllegalArgumentException("BUY price must be greater than sell price. buyOrder=%s, sellOrder=%s".formatted(GSON.toJson(orderFrom), GSON.toJson(orderTo)));
+                }
+                long refund = Math.multiplyExact(Instrument.notional(orderFrom.getPriceTicks() - dealPrice, dealAmount), quoteUnits);
+                takerPaid += notional + refund;
+                takerRefund += refund;
+                // always transfer USD from buyer to seller, and vice versa for goods(APPL)
+                deltas.add(maker, quote, notional, 0);
+                deltas.add(maker, base, 0, -quantity);
+            } else {
+                takerPaid += notional;
+                deltas.add(maker, quote, 0, -notional);
+                deltas.add(maker, base, quantity, 0);
+            }
+        }
+        if (takerType == TradeType.BUY) {
+            deltas.add(taker, quote, takerRefund, -takerPaid);
+            deltas.add(taker, base, takerLots, 0);
+        } else {
+            deltas.add(taker, quote, takerPaid, 0);
+            deltas.add(taker, base, 0, -takerLots);
+        }
+        return assetService.applyDeltas(deltas, causeOf(orderFrom));
+    }
 
+    @Override
+    public Result<Void> cancelTrading(OrderEntity orderEntity) {
+        // 冻结时按订单价格冻结，撤单时按订单价格解冻剩余部分
+        Instrument instrument = orderEntity.getInstrument();
+        long remainingLots = orderEntity.getRemainingLots();
+        if (remainingLots <= 0) {
+            return Result.ok(null);
+        }
+        Netting netting = NETTING.get();
+        int account = assetService.accountIndex(orderEntity.getUid());
+        try {
+            netting.use(instrument);
+            switch (orderEntity.getTradeType()){
+                case BUY -> {
+                    long notional = Instrument.notional(orderEntity.getPriceTicks(), remainingLots);
+                    return assetService.unfreeze(account, instrument.getQuoteAsset(), Math.multiplyExact(notional, netting.quoteUnits), causeOf(orderEntity));
+                }
+                case SELL -> {
+                    return assetService.unfreeze(account, instrument.getBaseAsset(), Math.multiplyExact(remainingLots, netting.baseUnits), causeOf(orderEntity));
+                }
+                default -> {
+                    var msg = String.format("invald TradeType: %s ?!", orderEntity.getTradeType());
+                    throw new IllegalStateException(msg);
+                }
             }
-        });
-        return Result.ok(null);
+        } catch (ArithmeticException e) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, "amount of order %s out of range".formatted(orderEntity.getId()));
+        }
+    }
+
+    // 资产日志中记录引起余额变化的订单
+    private static long causeOf(OrderEntity order) {
+        return order.getId() == null ? 0 : order.getId();
     }
 }
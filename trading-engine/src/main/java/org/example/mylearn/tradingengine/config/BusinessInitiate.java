@@ -2,6 +2,8 @@ package org.example.mylearn.tradingengine.config;
 
 import org.example.mylearn.common.rpc.SequenceApi;
 import org.example.mylearn.tradingengine.asset.AssetService;
+import org.example.mylearn.tradingengine.match.MatcherService;
+import org.example.mylearn.tradingengine.snapshot.SnapshotService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -15,14 +17,19 @@ import java.util.concurrent.atomic.AtomicBoolean;
 @Component
 public class BusinessInitiate {
     private final AssetService assetService;
+    private final MatcherService matcherService;
+    private final SnapshotService snapshotService;
     private final DiscoveryClient discoveryClient;
     private final AtomicBoolean initialized = new AtomicBoolean(false);
 
     Logger log = LoggerFactory.getLogger(BusinessInitiate.class);
 
     @Autowired
-    public BusinessInitiate(AssetService assetService, DiscoveryClient discoveryClient) {
+    public BusinessInitiate(AssetService assetService, MatcherService matcherService,
+                            SnapshotService snapshotService, DiscoveryClient discoveryClient) {
         this.assetService = assetService;
+        this.matcherService = matcherService;
+        this.snapshotService = snapshotService;
         this.discoveryClient = discoveryClient;
     }
 
@@ -38,9 +45,19 @@ public class BusinessInitiate {
         }
         if (initialized.compareAndSet(false, true)) {
             // run initialized now!
-            log.info("Begin init Asset..");
-            assetService.initAssetDB();
-            log.info("initAssetDB() run over.");
+            // 有快照时从快照恢复资产、订单和报价簿；未开启撮合日志时再重放资产日志中快照之后的外部转账。
+            // 开启撮合日志时资产日志只作记录，外部转账在 recover() 中和撮合命令一起重放；没有恢复任何余额时初始化资产
+            boolean restored = snapshotService.restoreLatest();
+            if (assetService.recoverJournal()) {
+                restored = true;
+            }
+            if (!restored) {
+                log.info("Begin init Asset..");
+                assetService.initAssetDB();
+                log.info("initAssetDB() run over.");
+            }
+            // 资产就绪后按全局序号合并重放撮合日志和转账日志(有快照时只重放快照之后的部分)，重放产生的余额变化不再写入资产日志
+            assetService.runWithoutJournal(matcherService::recover);
         }
     }
 }
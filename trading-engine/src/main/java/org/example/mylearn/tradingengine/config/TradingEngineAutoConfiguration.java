@@ -3,9 +3,13 @@ package org.example.mylearn.tradingengine.config;
 import org.example.mylearn.tradingengine.asset.AssetService;
 import org.example.mylearn.tradingengine.clearing.ClearingServiceImpl;
 import org.example.mylearn.tradingengine.engine.TradingServiceImpl;
+import org.example.mylearn.tradingengine.instrument.InstrumentProperties;
+import org.example.mylearn.tradingengine.instrument.InstrumentRegistry;
 import org.example.mylearn.tradingengine.match.MatcherServiceImpl;
 import org.example.mylearn.tradingengine.order.OrderService;
 import org.example.mylearn.tradingengine.rpcclient.SequenceService;
+import org.example.mylearn.tradingengine.snapshot.SnapshotService;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 
@@ -14,11 +18,14 @@ import org.springframework.context.annotation.Import;
         OrderService.class,
         AssetService.class,
         MatcherServiceImpl.class,
+        InstrumentRegistry.class,
         ClearingServiceImpl.class,
         RpcClientConfiguration.class,
         SequenceService.class,
+        SnapshotService.class,
         BusinessInitiate.class
 })
+@EnableConfigurationProperties(InstrumentProperties.class)
 public class TradingEngineAutoConfiguration {
     /**
      * 其他module依赖本module的package时，要想初始化本module下的bean，只需要在对应Application类上@Import本类即可.
@@ -5,9 +5,16 @@ import com.google.gson.GsonBuilder;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.marketdata.Candle;
+import org.example.mylearn.tradingengine.match.BookDelta;
+import org.example.mylearn.tradingengine.match.BookSnapshot;
 import org.example.mylearn.tradingengine.match.QuotationInfo;
 import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TimeInForce;
 import org.example.mylearn.tradingengine.order.TradeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -16,6 +23,7 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.math.BigDecimal;
+import java.sql.Timestamp;
 import java.util.*;
 
 @Tag(name = "交易管理", description = "有关交易的接口，如BUY、SELL") // For Swagger UI (SpringDOC) 展示信息
@@ -25,22 +33,29 @@ class TradingController {
     @Autowired
     TradingService tradingService;
     private final static Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+    Logger logger = LoggerFactory.getLogger(TradingController.class);
 
     @Operation(summary = "购买股票", description = "购买股票的接口") // For Swagger UI(SpringDOC)
     @GetMapping(value = "/buy")
     public Result<OrderEntity> buy(
             @RequestParam String uid,
-            @RequestParam String price,
-            @RequestParam String amont) {
+            @RequestParam BigDecimal price,
+            @RequestParam BigDecimal amont,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol,
+            @RequestParam(required = false, defaultValue = "GTC") TimeInForce tif,
+            @RequestParam(name = "stop_price", required = false) BigDecimal stopPrice) {
 
-        return tradingService.buy(uid, new BigDecimal(price), new BigDecimal(amont));
+        return tradingService.placeStopOrder(uid, symbol, TradeType.BUY, stopPrice, price, amont, tif);
     }
 
     @GetMapping("/sell")
     public Result<OrderEntity> sell(@RequestParam String uid,
-                                    @RequestParam String price,
-                                    @RequestParam String amont) {
-        return tradingService.sell(uid, new BigDecimal(price), new BigDecimal(amont));
+                                    @RequestParam BigDecimal price,
+                                    @RequestParam BigDecimal amont,
+                                    @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol,
+                                    @RequestParam(required = false, defaultValue = "GTC") TimeInForce tif,
+                                    @RequestParam(name = "stop_price", required = false) BigDecimal stopPrice) {
+        return tradingService.placeStopOrder(uid, symbol, TradeType.SELL, stopPrice, price, amont, tif);
     }
 
     @GetMapping("/cancel")
@@ -59,8 +74,36 @@ class TradingController {
     }
 
     @GetMapping("/listQuotation")
-    public Result<Map<TradeType, TreeSet<QuotationInfo>>> listQuotation() {
-        return tradingService.getQuotations();
+    public Result<Map<TradeType, List<QuotationInfo>>> listQuotation(
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol) {
+        return tradingService.getQuotations(symbol);
+    }
+
+    @Operation(summary = "K线", description = "开始时间在 [start, end] 之间的K线，interval: 1s/1m/5m/1h/1d")
+    @GetMapping("/candles")
+    public Result<List<Candle>> candles(
+            @RequestParam(required = false, defaultValue = "1m") String interval,
+            @RequestParam(required = false) Timestamp start,
+            @RequestParam(required = false) Timestamp end,
+            @RequestParam(required = false, defaultValue = "500") int maxItems,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol) {
+        return tradingService.getCandles(symbol, interval, start, end, maxItems);
+    }
+
+    @Operation(summary = "报价簿全量", description = "报价簿全量及其对应的增量序号、校验和，用于初始化或增量不连续时重新同步")
+    @GetMapping("/book")
+    public Result<BookSnapshot> book(
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol) {
+        return tradingService.getBookSnapshot(symbol);
+    }
+
+    @Operation(summary = "报价簿增量", description = "序号大于 fromSeq 的档位变化，依次应用到全量上")
+    @GetMapping("/bookDeltas")
+    public Result<List<BookDelta>> bookDeltas(
+            @RequestParam long fromSeq,
+            @RequestParam(required = false, defaultValue = "1000") int maxItems,
+            @RequestParam(required = false, defaultValue = Instrument.DEFAULT_SYMBOL) String symbol) {
+        return tradingService.getBookDeltas(symbol, fromSeq, maxItems);
     }
 
     @GetMapping("/testBuy")
@@ -71,9 +114,11 @@ class TradingController {
         var amonts = Arrays.asList("1", "2", "3");
         ArrayList<OrderEntity> orders = new ArrayList<>();
         while (num > 0) {
-            Result<OrderEntity> result = buy(uids.get(random.nextInt(uids.size())), prices.get(random.nextInt(prices.size())), amonts.get(random.nextInt(amonts.size())));
+            Result<OrderEntity> result = buy(uids.get(random.nextInt(uids.size())), new BigDecimal(prices.get(random.nextInt(prices.size()))), new BigDecimal(amonts.get(random.nextInt(amonts.size()))), Instrument.DEFAULT_SYMBOL, TimeInForce.GTC, null);
             orders.add(result.getData());
-            System.out.println("submit BUY order: " + GSON.toJson(result));
+            if (logger.isDebugEnabled()) {
+                logger.debug("submit BUY order: {}", GSON.toJson(result));
+            }
             num -= 1;
         }
         return orders;
@@ -86,9 +131,11 @@ class TradingController {
         var amonts = Arrays.asList("1", "2", "3");
         ArrayList<Result<OrderEntity>> orders = new ArrayList<>();
         while (num > 0) {
-            Result<OrderEntity> result = sell(uids.get(random.nextInt(uids.size())), prices.get(random.nextInt(prices.size())), amonts.get(random.nextInt(amonts.size())));
+            Result<OrderEntity> result = sell(uids.get(random.nextInt(uids.size())), new BigDecimal(prices.get(random.nextInt(prices.size()))), new BigDecimal(amonts.get(random.nextInt(amonts.size()))), Instrument.DEFAULT_SYMBOL, TimeInForce.GTC, null);
             orders.add(result);
-            System.out.println("submit SELL order: " + GSON.toJson(result));
+            if (logger.isDebugEnabled()) {
+                logger.debug("submit SELL order: {}", GSON.toJson(result));
+            }
             num -= 1;
         }
         return orders;
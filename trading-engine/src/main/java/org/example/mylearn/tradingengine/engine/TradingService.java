@@ -1,27 +1,50 @@
 package org.example.mylearn.tradingengine.engine;
 
 import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.marketdata.Candle;
+import org.example.mylearn.tradingengine.match.BookDelta;
+import org.example.mylearn.tradingengine.match.BookSnapshot;
 import org.example.mylearn.tradingengine.match.QuotationInfo;
 import org.example.mylearn.tradingengine.match.RealTimeTick;
 import org.example.mylearn.tradingengine.match.TradingDetail;
 import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TimeInForce;
 import org.example.mylearn.tradingengine.order.TradeType;
 
 import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 public interface TradingService {
 
-    Result<OrderEntity> buy(String uid, BigDecimal price, BigDecimal amont);
-    Result<OrderEntity> sell(String uid, BigDecimal price, BigDecimal amont);
+    // price/amont 为定点数(ticks/lots)，由REST边界按 symbol 对应的品种换算，见 Instrument
+    Result<OrderEntity> buy(String uid, String symbol, long priceTicks, long amontLots);
+    Result<OrderEntity> sell(String uid, String symbol, long priceTicks, long amontLots);
+    // buy/sell 为 GTC；IOC/FOK 的未成交部分由撮合线程直接撤销，不进入报价簿
+    Result<OrderEntity> placeOrder(String uid, String symbol, TradeType type, long priceTicks, long amontLots,
+                                   TimeInForce timeInForce);
+    // 止损单：成交价达到 triggerPriceTicks 后按 priceTicks 作为限价单撮合(买单 >= 触发价，卖单 <= 触发价)
+    Result<OrderEntity> placeStopOrder(String uid, String symbol, TradeType type, long triggerPriceTicks, long priceTicks,
+                                       long amontLots, TimeInForce timeInForce);
+    // REST边界用：按 symbol 对应的品种把价格、数量、触发价换算为定点数，必须为正且是 tick/lot 的整数倍；
+    // triggerPrice 为 null 时是普通限价单
+    Result<OrderEntity> placeStopOrder(String uid, String symbol, TradeType type, BigDecimal triggerPrice, BigDecimal price,
+                                       BigDecimal amont, TimeInForce timeInForce);
     Result<OrderEntity> cancel(String uid, Integer orderId);
 
     Result<OrderEntity> orderStatus(String uid, Integer orderId);
-    Result<Map<TradeType, TreeSet<QuotationInfo>>> getQuotations();
+    // 撮合线程处理完这笔订单(挂单、成交或被拒绝)后完成，结果与 orderStatus 相同；订单不存在时立即完成。
+    // 通常在撮合线程中完成，调用方要用自己的线程池(whenCompleteAsync)处理结果
+    CompletableFuture<Result<OrderEntity>> awaitOrder(String uid, Integer orderId);
+    Result<Map<TradeType, List<QuotationInfo>>> getQuotations(String symbol);
+    Result<BookSnapshot> getBookSnapshot(String symbol);
+    Result<List<BookDelta>> getBookDeltas(String symbol, long fromSequence, int maxItems);
 
-    Result<List<TradingDetail>> getTradingDetails(int lastNumItems);
-    Result<List<RealTimeTick>> getRealTimeTicks(Timestamp start, int numItems);
+    Result<List<TradingDetail>> getTradingDetails(String symbol, int lastNumItems);
+    Result<TradingDetail> getTradingDetail(String symbol, int tradeId);
+    Result<List<RealTimeTick>> getRealTimeTicks(String symbol, Timestamp start, int numItems);
+    // interval 为K线周期代码，如 1s/1m/5m/1h/1d
+    Result<List<Candle>> getCandles(String symbol, String interval, Timestamp start, Timestamp end, int numItems);
 }
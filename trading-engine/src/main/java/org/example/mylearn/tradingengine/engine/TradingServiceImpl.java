@@ -1,12 +1,21 @@
 package org.example.mylearn.tradingengine.engine;
 
+import org.example.mylearn.common.ErrorCode;
 import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.instrument.InstrumentRegistry;
+import org.example.mylearn.tradingengine.marketdata.Candle;
+import org.example.mylearn.tradingengine.marketdata.CandleInterval;
+import org.example.mylearn.tradingengine.match.BookDelta;
+import org.example.mylearn.tradingengine.match.BookSnapshot;
 import org.example.mylearn.tradingengine.match.MatcherService;
+import org.example.mylearn.tradingengine.match.OrderStageTimers;
 import org.example.mylearn.tradingengine.match.QuotationInfo;
 import org.example.mylearn.tradingengine.match.RealTimeTick;
 import org.example.mylearn.tradingengine.match.TradingDetail;
 import org.example.mylearn.tradingengine.order.OrderEntity;
 import org.example.mylearn.tradingengine.order.OrderService;
+import org.example.mylearn.tradingengine.order.TimeInForce;
 import org.example.mylearn.tradingengine.order.TradeType;
 import org.example.mylearn.tradingengine.rpcclient.SequenceService;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -16,7 +25,7 @@ import java.math.BigDecimal;
 import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 public class TradingServiceImpl implements TradingService {
@@ -25,6 +34,8 @@ public class TradingServiceImpl implements TradingService {
     OrderService orderService;
     @Autowired
     MatcherService matcherService;
+    @Autowired
+    InstrumentRegistry instrumentRegistry;
     /**
      * 这是个跨package的bean依赖，对应bean不会被默认初始化
      * 要么在TradingEngineApplication类前用@Import引入对应类，要么把被依赖的类做成starter模式
@@ -32,30 +43,76 @@ public class TradingServiceImpl implements TradingService {
     @Autowired
     SequenceService sequenceService;
     @Override
-    public Result<OrderEntity> buy(String uid, BigDecimal price, BigDecimal amont) {
+    public Result<OrderEntity> buy(String uid, String symbol, long priceTicks, long amontLots) {
+        return placeOrder(uid, symbol, TradeType.BUY, priceTicks, amontLots, TimeInForce.GTC);
+    }
+
+    @Override
+    public Result<OrderEntity> sell(String uid, String symbol, long priceTicks, long amontLots) {
+        return placeOrder(uid, symbol, TradeType.SELL, priceTicks, amontLots, TimeInForce.GTC);
+    }
+
+    @Override
+    public Result<OrderEntity> placeOrder(String uid, String symbol, TradeType type, long priceTicks, long amontLots,
+                                          TimeInForce timeInForce) {
+        return placeStopOrder(uid, symbol, type, 0, priceTicks, amontLots, timeInForce);
+    }
+
+    @Override
+    public Result<OrderEntity> placeStopOrder(String uid, String symbol, TradeType type, long triggerPriceTicks,
+                                              long priceTicks, long amontLots, TimeInForce timeInForce) {
+        if (triggerPriceTicks < 0) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, "trigger price %d should be positive".formatted(triggerPriceTicks));
+        }
+        if (priceTicks <= 0 || amontLots <= 0) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, "price %d and amount %d should be positive".formatted(priceTicks, amontLots));
+        }
+        long accepted = System.nanoTime();
+        var instrumentRlt = instrumentRegistry.find(symbol);
+        if (!instrumentRlt.isSuccess())
+            return Result.fail(null, instrumentRlt.getErrorCode(), instrumentRlt.getMessage());
 
         var seqRlt = sequenceService.newSequence();
+        var stageTimers = matcherService.getStageTimers(symbol);
+        if (stageTimers != null) {
+            stageTimers.record(OrderStageTimers.Stage.SEQUENCE, System.nanoTime() - accepted);
+        }
         if(!seqRlt.isSuccess())
             return Result.fail(null, seqRlt.getErrorCode(), seqRlt.getMessage());
 
-        var result = orderService.createNewOrder(seqRlt.getData(), uid, TradeType.BUY, price, amont);
+        var result = orderService.createNewOrder(seqRlt.getData(), uid, instrumentRlt.getData(), type, priceTicks, amontLots);
         if(!result.isSuccess()) {
             return result;
         }
+        result.getData().setTimeInForce(timeInForce);
+        result.getData().setTriggerPriceTicks(triggerPriceTicks);
+        result.getData().setAcceptedNanos(accepted);
+        // 按品种路由到对应的撮合线程
         return matcherService.submitOrder(result.getData());
     }
 
     @Override
-    public Result<OrderEntity> sell(String uid, BigDecimal price, BigDecimal amont) {
-        var seqRlt = sequenceService.newSequence();
-        if (!seqRlt.isSuccess())
-            return Result.fail(null, seqRlt.getErrorCode(),seqRlt.getMessage());
-
-        var result = orderService.createNewOrder(seqRlt.getData(), uid, TradeType.SELL, price, amont);
-        if(!result.isSuccess()) {
-            return result;
+    public Result<OrderEntity> placeStopOrder(String uid, String symbol, TradeType type, BigDecimal triggerPrice,
+                                              BigDecimal price, BigDecimal amont, TimeInForce timeInForce) {
+        var instrumentRlt = instrumentRegistry.find(symbol);
+        if (!instrumentRlt.isSuccess())
+            return Result.fail(null, instrumentRlt.getErrorCode(), instrumentRlt.getMessage());
+        Instrument instrument = instrumentRlt.getData();
+        if (price == null || amont == null) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, "price and amount are required");
         }
-        return matcherService.submitOrder(result.getData());
+        long priceTicks;
+        long amontLots;
+        long triggerPriceTicks;
+        try {
+            // 价格、数量、触发价必须为正，且是 tick/lot 的整数倍
+            priceTicks = instrument.orderPriceToTicks(price);
+            amontLots = instrument.orderQuantityToLots(amont);
+            triggerPriceTicks = triggerPrice == null ? 0 : instrument.orderPriceToTicks(triggerPrice);
+        } catch (IllegalArgumentException e) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, e.getMessage());
+        }
+        return placeStopOrder(uid, symbol, type, triggerPriceTicks, priceTicks, amontLots, timeInForce);
     }
 
     @Override
@@ -74,19 +131,56 @@ public class TradingServiceImpl implements TradingService {
     }
 
     @Override
-    public Result<Map<TradeType, TreeSet<QuotationInfo>>> getQuotations() {
-        Map<TradeType, TreeSet<QuotationInfo>> quoInfo = matcherService.getQuotationInfo();
+    public CompletableFuture<Result<OrderEntity>> awaitOrder(String uid, Integer orderId) {
+        var result = orderService.getOrderByUserAndId(uid, orderId);
+        if (!result.isSuccess()) {
+            return CompletableFuture.completedFuture(result);
+        }
+        return matcherService.awaitProcessed(result.getData()).thenApply(Result::ok);
+    }
+
+    @Override
+    public Result<Map<TradeType, List<QuotationInfo>>> getQuotations(String symbol) {
+        Map<TradeType, List<QuotationInfo>> quoInfo = matcherService.getQuotationInfo(symbol);
+        if (quoInfo == null) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, "unknown symbol '%s'".formatted(symbol));
+        }
         return Result.ok(quoInfo);
     }
 
     @Override
-    public Result<List<TradingDetail>> getTradingDetails(int lastNumItems) {
-        return matcherService.getTradingDetails(lastNumItems);
+    public Result<BookSnapshot> getBookSnapshot(String symbol) {
+        return matcherService.getBookSnapshot(symbol);
     }
 
     @Override
-    public Result<List<RealTimeTick>> getRealTimeTicks(Timestamp start, int numItems){
-        return matcherService.getRealTimeTicks(start, numItems);
+    public Result<List<BookDelta>> getBookDeltas(String symbol, long fromSequence, int maxItems) {
+        return matcherService.getBookDeltas(symbol, fromSequence, maxItems);
+    }
+
+    @Override
+    public Result<List<TradingDetail>> getTradingDetails(String symbol, int lastNumItems) {
+        return matcherService.getTradingDetails(symbol, lastNumItems);
+    }
+
+    @Override
+    public Result<TradingDetail> getTradingDetail(String symbol, int tradeId) {
+        return matcherService.getTradingDetail(symbol, tradeId);
+    }
+
+    @Override
+    public Result<List<RealTimeTick>> getRealTimeTicks(String symbol, Timestamp start, int numItems){
+        return matcherService.getRealTimeTicks(symbol, start, numItems);
+    }
+
+    @Override
+    public Result<List<Candle>> getCandles(String symbol, String interval, Timestamp start, Timestamp end, int numItems) {
+        CandleInterval candleInterval = CandleInterval.of(interval);
+        if (candleInterval == null) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM,
+                    "unknown interval '%s', should be one of 1s/1m/5m/1h/1d".formatted(interval));
+        }
+        return matcherService.getCandles(symbol, candleInterval, start, end, numItems);
     }
 
 }
@@ -0,0 +1,129 @@
+package org.example.mylearn.tradingengine.instrument;
+
+import org.example.mylearn.tradingengine.asset.AssetType;
+
+import java.math.BigDecimal;
+
+/**
+ * 交易品种定义，同时负责 BigDecimal 与定点 long 之间的换算。
+ *
+ * 撮合、报价簿、清算内部只使用 long：
+ *  - 价格以 priceTick 为单位，记为 ticks
+ *  - 数量以 quantityLot 为单位，记为 lots
+ *  - 成交额 = ticks * lots，单位为 priceTick * quantityLot
+ * BigDecimal 只在 REST 边界（Controller）以及展示类对象上出现。
+ */
+public final class Instrument {
+
+    // 不指定品种时使用的市场，兼容原来只有 APPL/USD 的接口
+    public static final String DEFAULT_SYMBOL = "APPL/USD";
+    public static final Instrument DEFAULT = new Instrument(DEFAULT_SYMBOL, AssetType.APPL, AssetType.USD,
+            new BigDecimal("0.01"), new BigDecimal("0.0001"));
+
+    private final String symbol;
+    private final AssetType baseAsset;  // 交易标的，如 APPL
+    private final AssetType quoteAsset; // 计价货币，如 USD
+    private final BigDecimal priceTick;
+    private final BigDecimal quantityLot;
+    private final BigDecimal notionalUnit; // priceTick * quantityLot
+
+    public Instrument(String symbol, AssetType baseAsset, AssetType quoteAsset,
+                      BigDecimal priceTick, BigDecimal quantityLot) {
+        if (priceTick.signum() <= 0 || quantityLot.signum() <= 0) {
+            throw new IllegalArgumentException("priceTick(%s) and quantityLot(%s) must be positive"
+                    .formatted(priceTick, quantityLot));
+        }
+        this.symbol = symbol;
+        this.baseAsset = baseAsset;
+        this.quoteAsset = quoteAsset;
+        this.priceTick = priceTick;
+        this.quantityLot = quantityLot;
+        this.notionalUnit = priceTick.multiply(quantityLot);
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public AssetType getBaseAsset() {
+        return baseAsset;
+    }
+
+    public AssetType getQuoteAsset() {
+        return quoteAsset;
+    }
+
+    public BigDecimal getPriceTick() {
+        return priceTick;
+    }
+
+    public BigDecimal getQuantityLot() {
+        return quantityLot;
+    }
+
+    /**
+     * 0 表示未设置(如新建订单的默认值)，可以换算。
+     * @throws IllegalArgumentException price 为负数、不是 priceTick 的整数倍，或超出 long 范围
+     */
+    public long priceToTicks(BigDecimal price) {
+        return toUnits(price, priceTick, "price", true);
+    }
+
+    /**
+     * 下单用：价格必须为正数。
+     * @throws IllegalArgumentException price 不是正数、不是 priceTick 的整数倍，或超出 long 范围
+     */
+    public long orderPriceToTicks(BigDecimal price) {
+        return toUnits(price, priceTick, "price", false);
+    }
+
+    public BigDecimal ticksToPrice(long ticks) {
+        return BigDecimal.valueOf(ticks).multiply(priceTick);
+    }
+
+    /**
+     * 0 可以换算(如尚未成交的数量)。
+     * @throws IllegalArgumentException quantity 为负数、不是 quantityLot 的整数倍，或超出 long 范围
+     */
+    public long quantityToLots(BigDecimal quantity) {
+        return toUnits(quantity, quantityLot, "quantity", true);
+    }
+
+    /**
+     * 下单用：数量必须为正数。
+     * @throws IllegalArgumentException quantity 不是正数、不是 quantityLot 的整数倍，或超出 long 范围
+     */
+    public long orderQuantityToLots(BigDecimal quantity) {
+        return toUnits(quantity, quantityLot, "quantity", false);
+    }
+
+    public BigDecimal lotsToQuantity(long lots) {
+        return BigDecimal.valueOf(lots).multiply(quantityLot);
+    }
+
+    // 成交额(ticks * lots) 换算为计价货币金额，用于记账
+    public BigDecimal notionalToDecimal(long notional) {
+        return BigDecimal.valueOf(notional).multiply(notionalUnit);
+    }
+
+    public static long notional(long ticks, long lots) {
+        return Math.multiplyExact(ticks, lots);
+    }
+
+    private static long toUnits(BigDecimal value, BigDecimal unit, String name, boolean allowZero) {
+        if (value.signum() < 0 || (!allowZero && value.signum() == 0)) {
+            throw new IllegalArgumentException("%s %s must be %s"
+                    .formatted(name, value.toPlainString(), allowZero ? "non-negative" : "positive"));
+        }
+        BigDecimal[] qr = value.divideAndRemainder(unit);
+        if (qr[1].signum() != 0) {
+            throw new IllegalArgumentException("%s %s is not a multiple of %s"
+                    .formatted(name, value.toPlainString(), unit.toPlainString()));
+        }
+        try {
+            return qr[0].longValueExact();
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("%s %s is out of range".formatted(name, value.toPlainString()));
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.example.mylearn.tradingengine.instrument;
+
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 交易品种配置 trading.instruments，每项为 symbol、baseAsset、quoteAsset、priceTick、quantityLot。
+ * 没有配置时使用下面的默认品种(openapi 等引入本模块但不配置品种的应用也能启动)；配置了就整体替换默认列表。
+ */
+@ConfigurationProperties(prefix = "trading")
+public class InstrumentProperties {
+
+    private List<Item> instruments = new ArrayList<>(List.of(
+            new Item(Instrument.DEFAULT_SYMBOL, AssetType.APPL, AssetType.USD, "0.01", "0.0001"),
+            new Item("TSLA/USD", AssetType.TSLA, AssetType.USD, "0.01", "0.0001"),
+            new Item("MSFT/USD", AssetType.MSFT, AssetType.USD, "0.01", "0.0001"),
+            // 数量精度 0.000001 BTC，保证 ticks*lots 不会溢出 long
+            new Item("BTC/USD", AssetType.BTC, AssetType.USD, "0.01", "0.000001")));
+
+    public List<Item> getInstruments() {
+        return instruments;
+    }
+
+    public void setInstruments(List<Item> instruments) {
+        this.instruments = instruments;
+    }
+
+    public static class Item {
+        private String symbol;
+        private AssetType baseAsset;  // 交易标的，如 APPL
+        private AssetType quoteAsset; // 计价货币，如 USD
+        private BigDecimal priceTick;
+        private BigDecimal quantityLot;
+
+        public Item() {
+        }
+
+        Item(String symbol, AssetType baseAsset, AssetType quoteAsset, String priceTick, String quantityLot) {
+            this.symbol = symbol;
+            this.baseAsset = baseAsset;
+            this.quoteAsset = quoteAsset;
+            this.priceTick = new BigDecimal(priceTick);
+            this.quantityLot = new BigDecimal(quantityLot);
+        }
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public void setSymbol(String symbol) {
+            this.symbol = symbol;
+        }
+
+        public AssetType getBaseAsset() {
+            return baseAsset;
+        }
+
+        public void setBaseAsset(AssetType baseAsset) {
+            this.baseAsset = baseAsset;
+        }
+
+        public AssetType getQuoteAsset() {
+            return quoteAsset;
+        }
+
+        public void setQuoteAsset(AssetType quoteAsset) {
+            this.quoteAsset = quoteAsset;
+        }
+
+        public BigDecimal getPriceTick() {
+            return priceTick;
+        }
+
+        public void setPriceTick(BigDecimal priceTick) {
+            this.priceTick = priceTick;
+        }
+
+        public BigDecimal getQuantityLot() {
+            return quantityLot;
+        }
+
+        public void setQuantityLot(BigDecimal quantityLot) {
+            this.quantityLot = quantityLot;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.example.mylearn.tradingengine.instrument;
+
+import org.example.mylearn.common.ErrorCode;
+import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.asset.AssetService;
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 品种注册表: symbol -> Instrument，品种来自配置 trading.instruments(见 InstrumentProperties)。
+ * 撮合服务为这里的每个品种各建一个报价簿和撮合线程，下单时按 symbol 路由。
+ * 只在启动时注册，之后只读；配置有误时启动失败。
+ */
+@Service
+public class InstrumentRegistry {
+
+    private final Map<String, Instrument> instruments = new LinkedHashMap<>();
+
+    // 默认品种，测试和基准测试用
+    public InstrumentRegistry() {
+        this(new InstrumentProperties());
+    }
+
+    @Autowired
+    public InstrumentRegistry(InstrumentProperties properties) {
+        for (InstrumentProperties.Item item : properties.getInstruments()) {
+            register(toInstrument(item));
+        }
+        if (instruments.isEmpty()) {
+            throw new IllegalStateException("no instrument configured in trading.instruments");
+        }
+    }
+
+    // 默认品种的定义和 Instrument.DEFAULT 一致时复用它，订单的默认品种和注册表中的是同一个对象
+    private static Instrument toInstrument(InstrumentProperties.Item item) {
+        String symbol = item.getSymbol();
+        if (symbol == null || symbol.isBlank()) {
+            throw new IllegalStateException("instrument symbol is missing");
+        }
+        if (item.getBaseAsset() == null || item.getQuoteAsset() == null
+                || item.getBaseAsset() == AssetType.INVALID || item.getQuoteAsset() == AssetType.INVALID
+                || item.getBaseAsset() == item.getQuoteAsset()) {
+            throw new IllegalStateException("instrument %s: invalid assets %s/%s"
+                    .formatted(symbol, item.getBaseAsset(), item.getQuoteAsset()));
+        }
+        if (item.getPriceTick() == null || item.getQuantityLot() == null) {
+            throw new IllegalStateException("instrument %s: priceTick and quantityLot are required".formatted(symbol));
+        }
+        Instrument instrument;
+        try {
+            instrument = new Instrument(symbol, item.getBaseAsset(), item.getQuoteAsset(), item.getPriceTick(), item.getQuantityLot());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("instrument %s: %s".formatted(symbol, e.getMessage()), e);
+        }
+        // 清算按余额表的定点数记账，一个成交额单位(tick*lot)、一手都必须能精确换算
+        try {
+            AssetService.toUnits(instrument.notionalToDecimal(1));
+            AssetService.toUnits(instrument.lotsToQuantity(1));
+        } catch (ArithmeticException e) {
+            throw new IllegalStateException("instrument %s: priceTick*quantityLot (%s) or quantityLot (%s) exceeds balance precision"
+                    .formatted(symbol, instrument.notionalToDecimal(1).toPlainString(), instrument.getQuantityLot().toPlainString()), e);
+        }
+        Instrument fallback = Instrument.DEFAULT;
+        if (symbol.equals(fallback.getSymbol()) && instrument.getBaseAsset() == fallback.getBaseAsset()
+                && instrument.getQuoteAsset() == fallback.getQuoteAsset()
+                && instrument.getPriceTick().compareTo(fallback.getPriceTick()) == 0
+                && instrument.getQuantityLot().compareTo(fallback.getQuantityLot()) == 0) {
+            return fallback;
+        }
+        return instrument;
+    }
+
+    private void register(Instrument instrument) {
+        if (instruments.putIfAbsent(instrument.getSymbol(), instrument) != null) {
+            throw new IllegalStateException("duplicated symbol: " + instrument.getSymbol());
+        }
+    }
+
+    // 未注册的品种返回 null
+    public Instrument get(String symbol) {
+        return symbol == null ? null : instruments.get(symbol);
+    }
+
+    public Result<Instrument> find(String symbol) {
+        Instrument instrument = get(symbol);
+        if (instrument == null) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, "unknown symbol '%s'".formatted(symbol));
+        }
+        return Result.ok(instrument);
+    }
+
+    public List<Instrument> getAll() {
+        return Collections.unmodifiableList(new ArrayList<>(instruments.values()));
+    }
+}
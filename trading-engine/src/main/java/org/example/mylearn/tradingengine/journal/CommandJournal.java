@@ -0,0 +1,404 @@
+package org.example.mylearn.tradingengine.journal;
+
+import org.example.mylearn.tradingengine.asset.AssetTransferType;
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.example.mylearn.tradingengine.match.QuotationReq;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TimeInForce;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * 撮合命令日志：内存映射、只追加、每条记录带 CRC32C 校验。
+ *
+ * 一个品种一个日志，只由该品种的撮合线程写入，写入顺序即撮合顺序，重放时按同样顺序执行即可得到同样的结果。
+ * 外部转账(充值、接口转账、新建资产)写在另一个同样格式的日志中，写入方持有 JournalSequencer 的写锁，同一时刻只有一个。
+ * 日志按固定大小分段(segment)，文件名为 name-起始序号.journal，写满后滚动到下一个文件。
+ * 记录格式: int 长度 | int CRC32C | 内容(序号、全局序号、命令类型、订单字段)。长度为0表示后面没有记录；
+ * 全局序号由 JournalSequencer 分配，各个日志共用，启动时按它合并重放；
+ * 止损单在 uid 之后多一个 long 触发价，由方向字节的 STOP_FLAG 位标记；最后是 long 命令时间(撮合线程取到命令时的 epoch millis)，
+ * 重放时成交、K线和订单更新时间都用它，得到和原来相同的结果；
+ * 外部转账记录的命令类型为 ASSET_OPEN 或 ASSET_TRANSFER，之后是转账类型、资产类型、是否检查余额、资产ID、金额(定点数)、冻结额和两个 uid；
+ * 长度写在最后，进程在写一半时崩溃，重启时读到的是校验失败的残缺记录，从这里截断。
+ *
+ * 刷盘(force)策略: PER_COMMAND 撮合线程每条命令刷一次；EVERY_N 撮合线程每 N 条刷一次；
+ * INTERVAL 撮合线程不刷盘。EVERY_N 和 INTERVAL 另有本日志自己的刷盘线程，每隔设定时间把还没刷盘的记录刷下去，
+ * 撮合线程空闲时没刷盘的记录最多停留一个间隔(EVERY_N 不满 N 条的尾巴也是)。
+ * 没刷盘的记录在进程崩溃时仍然在操作系统的页缓存里，只在操作系统崩溃或掉电时丢失。
+ */
+public class CommandJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(CommandJournal.class);
+
+    public enum FsyncPolicy {
+        PER_COMMAND,
+        EVERY_N,
+        INTERVAL
+    }
+
+    private static final String SUFFIX = ".journal";
+    private static final int HEADER = 8;           // 长度 + CRC32C
+    private static final int FIXED_PAYLOAD = 52;   // 不含 uid 字符
+    private static final int ASSET_PAYLOAD = 44;   // 外部转账记录，不含两个 uid 的字符
+    private static final int STOP_FLAG = 0x40;     // 方向字节中的止损单标记
+    private static final byte ASSET_OPEN = 0x7E;   // 命令类型字节：外部新建资产
+    private static final byte ASSET_TRANSFER = 0x7F; // 命令类型字节：外部转账
+    private static final TradeType[] TRADE_TYPES = TradeType.values();
+    private static final AssetTransferType[] TRANSFER_TYPES = AssetTransferType.values();
+    private static final AssetType[] ASSET_TYPES = AssetType.values();
+    private static final TimeInForce[] TIME_IN_FORCES = TimeInForce.values();
+    private static final QuotationReq.ReqType[] REQ_TYPES = QuotationReq.ReqType.values();
+
+    private final Path dir;
+    private final String name;
+    private final int segmentSize;
+    private final FsyncPolicy fsyncPolicy;
+    private final int fsyncEveryN;
+    private final long fsyncIntervalMillis;
+    private final CRC32C crc = new CRC32C();
+
+    private FileChannel channel;
+    // 刷盘线程也会读，换文件和刷盘都在 this 锁内
+    private volatile MappedByteBuffer segment;
+    private ByteBuffer crcView;
+    private int position;
+    private long nextSequence = 1;
+    // 最后一条写完整的记录的序号，记录写完之后才更新，刷盘线程按它判断有没有没刷盘的记录
+    private volatile long lastSequence;
+    private volatile long flushedSequence;
+    private ScheduledExecutorService flusher;
+
+    public CommandJournal(Path dir, String name, int segmentSize,
+                          FsyncPolicy fsyncPolicy, int fsyncEveryN, long fsyncIntervalMillis) {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("journal segment size too small: " + segmentSize);
+        }
+        this.dir = dir;
+        this.name = name.replaceAll("[^A-Za-z0-9_-]", "_");
+        this.segmentSize = segmentSize;
+        this.fsyncPolicy = fsyncPolicy;
+        this.fsyncEveryN = Math.max(1, fsyncEveryN);
+        this.fsyncIntervalMillis = Math.max(1, fsyncIntervalMillis);
+    }
+
+    /**
+     * 按顺序读出已有的全部记录交给 consumer，然后定位到末尾准备追加。
+     * 最后一个文件末尾的残缺记录会被截断；中间文件损坏则抛出 IllegalStateException。
+     * @return 最后一条有效记录的序号，没有记录时为0
+     */
+    public long open(Consumer<JournalRecord> consumer) throws IOException {
+        Files.createDirectories(dir);
+        List<Path> segments = listSegments();
+        if (!segments.isEmpty()) {
+            nextSequence = startSequence(segments.get(0)); // 更早的文件可能已经被清理
+        }
+        for (int i = 0; i < segments.size(); i++) {
+            boolean last = i == segments.size() - 1;
+            mapSegment(segments.get(i));
+            readSegment(segments.get(i), consumer, last);
+            if (!last) {
+                channel.close();
+            }
+        }
+        if (segment == null) {
+            newSegment();
+        }
+        lastSequence = flushedSequence = nextSequence - 1;
+        if (fsyncPolicy != FsyncPolicy.PER_COMMAND) {
+            flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "journal-flusher-" + name);
+                t.setDaemon(true);
+                return t;
+            });
+            flusher.scheduleWithFixedDelay(this::flush, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+        logger.info("journal {} opened at {}, last sequence {}", name, dir, nextSequence - 1);
+        return nextSequence - 1;
+    }
+
+    // 追加一条命令，timestamp 为命令时间(epoch millis)，globalSequence 由 JournalSequencer 分配，返回其日志序号
+    public long append(QuotationReq.ReqType reqType, OrderEntity order, long timestamp, long globalSequence) {
+        String uid = order.getUid() == null ? "" : order.getUid();
+        boolean stop = order.getTriggerPriceTicks() != 0;
+        int timestampAt = FIXED_PAYLOAD + uid.length() * 2 + (stop ? 8 : 0);
+        int length = timestampAt + 8;
+        int p = reserve(length);
+        segment.putLong(p + 8, globalSequence);
+        segment.put(p + 16, (byte) reqType.ordinal());
+        segment.putInt(p + 17, order.getId());
+        segment.putInt(p + 21, order.getSeqId() == null ? -1 : order.getSeqId());
+        // 低4位为买卖方向，4、5位为 TimeInForce，6位为止损单标记
+        segment.put(p + 25, (byte) (order.getTradeType() == null ? -1
+                : order.getTradeType().ordinal() | order.getTimeInForce().ordinal() << 4 | (stop ? STOP_FLAG : 0)));
+        segment.putLong(p + 26, order.getPriceTicks());
+        segment.putLong(p + 34, order.getAmountLots());
+        segment.putLong(p + 42, order.getCreatedAt() == null ? 0 : order.getCreatedAt().getTime());
+        segment.putShort(p + 50, (short) uid.length());
+        putChars(p + FIXED_PAYLOAD, uid);
+        if (stop) {
+            segment.putLong(p + FIXED_PAYLOAD + uid.length() * 2, order.getTriggerPriceTicks());
+        }
+        segment.putLong(p + timestampAt, timestamp);
+        return commit(p, length);
+    }
+
+    // 外部转账，重放时按同样的参数再执行一次；units 为定点数
+    public long appendTransfer(long globalSequence, AssetTransferType type, String fromUid, String toUid,
+                               AssetType assetType, long units, boolean check) {
+        return appendAsset(globalSequence, ASSET_TRANSFER, (byte) type.ordinal(), assetType, check, 0, units, 0, fromUid, toUid);
+    }
+
+    // 外部新建资产(接口、批量导入)，余额为定点数
+    public long appendOpen(long globalSequence, String uid, AssetType assetType, int id, long available, long frozen) {
+        return appendAsset(globalSequence, ASSET_OPEN, (byte) 0, assetType, false, id, available, frozen, uid, "");
+    }
+
+    private long appendAsset(long globalSequence, byte kind, byte transferType, AssetType assetType, boolean check,
+                             int id, long units, long frozen, String uid, String toUid) {
+        int length = ASSET_PAYLOAD + (uid.length() + toUid.length()) * 2;
+        int p = reserve(length);
+        segment.putLong(p + 8, globalSequence);
+        segment.put(p + 16, kind);
+        segment.put(p + 17, transferType);
+        segment.put(p + 18, (byte) assetType.ordinal());
+        segment.put(p + 19, (byte) (check ? 1 : 0));
+        segment.putInt(p + 20, id);
+        segment.putLong(p + 24, units);
+        segment.putLong(p + 32, frozen);
+        segment.putShort(p + 40, (short) uid.length());
+        segment.putShort(p + 42, (short) toUid.length());
+        putChars(p + ASSET_PAYLOAD, uid);
+        putChars(p + ASSET_PAYLOAD + uid.length() * 2, toUid);
+        return commit(p, length);
+    }
+
+    // 放不下时滚动到新文件，写入日志序号，返回内容的起始位置
+    private int reserve(int length) {
+        if (position + HEADER + length + 4 > segment.capacity()) {
+            rollSegment();
+        }
+        int p = position + HEADER;
+        segment.putLong(p, nextSequence++);
+        return p;
+    }
+
+    private void putChars(int at, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            segment.putChar(at + i * 2, s.charAt(i));
+        }
+    }
+
+    // 内容写完之后计算校验和，最后写长度，然后按刷盘策略刷盘
+    private long commit(int p, int length) {
+        long sequence = segment.getLong(p);
+        crcView.limit(p + length).position(p);
+        crc.reset();
+        crc.update(crcView);
+        segment.putInt(position + 4, (int) crc.getValue());
+        segment.putInt(position, length); // 最后写长度
+        position += HEADER + length;
+        lastSequence = sequence;
+
+        if (fsyncPolicy == FsyncPolicy.PER_COMMAND
+                || (fsyncPolicy == FsyncPolicy.EVERY_N && sequence - flushedSequence >= fsyncEveryN)) {
+            flush();
+        }
+        return sequence;
+    }
+
+    // 撮合线程和刷盘线程都会调用；换文件时旧文件已经刷过，所以只需刷当前文件
+    public synchronized void flush() {
+        long upTo = lastSequence;
+        if (upTo == flushedSequence) return;
+        segment.force();
+        flushedSequence = upTo;
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    // 已经刷盘的最后序号
+    long getFlushedSequence() {
+        return flushedSequence;
+    }
+
+    /**
+     * 删除其中所有记录的序号都不大于 sequence 的日志文件(已被快照覆盖)。当前正在写的文件不会被删除。
+     * 可以在撮合线程之外调用：只删除已经写完关闭的文件。
+     * @return 删除的文件数
+     */
+    public int deleteSegmentsBefore(long sequence) throws IOException {
+        List<Path> segments = listSegments();
+        int deleted = 0;
+        // 下一个文件的起始序号 - 1 即本文件的最后一条记录
+        for (int i = 0; i + 1 < segments.size(); i++) {
+            if (startSequence(segments.get(i + 1)) - 1 > sequence) break;
+            Files.deleteIfExists(segments.get(i));
+            deleted++;
+        }
+        if (deleted > 0) {
+            logger.info("journal {}: deleted {} segments covered by sequence {}", name, deleted, sequence);
+        }
+        return deleted;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel == null) return;
+        if (flusher != null) {
+            flusher.shutdownNow();
+            flusher = null;
+        }
+        flush();
+        channel.close();
+        channel = null;
+    }
+
+    private void readSegment(Path file, Consumer<JournalRecord> consumer, boolean last) {
+        int pos = 0;
+        int capacity = segment.capacity();
+        while (pos + HEADER <= capacity) {
+            int length = segment.getInt(pos);
+            if (length == 0) break;
+            JournalRecord record = length >= ASSET_PAYLOAD && pos + HEADER + length <= capacity
+                    ? decode(pos, length) : null;
+            if (record == null) {
+                if (!last) {
+                    throw new IllegalStateException("journal %s corrupted at offset %d".formatted(file, pos));
+                }
+                logger.warn("journal {} has a torn record at offset {}, truncated", file, pos);
+                for (int i = pos; i < capacity; i++) {
+                    segment.put(i, (byte) 0);
+                }
+                segment.force();
+                break;
+            }
+            consumer.accept(record);
+            nextSequence = record.sequence + 1;
+            pos += HEADER + length;
+        }
+        position = pos;
+    }
+
+    // 校验失败、序号不连续或长度不符时返回 null
+    private JournalRecord decode(int pos, int length) {
+        int p = pos + HEADER;
+        crcView.limit(p + length).position(p);
+        crc.reset();
+        crc.update(crcView);
+        if ((int) crc.getValue() != segment.getInt(pos + 4)) return null;
+        JournalRecord record = new JournalRecord();
+        record.sequence = segment.getLong(p);
+        if (record.sequence != nextSequence) return null;
+        record.globalSequence = segment.getLong(p + 8);
+        byte kind = segment.get(p + 16);
+        if (kind == ASSET_OPEN || kind == ASSET_TRANSFER) {
+            return decodeAsset(record, kind, p, length);
+        }
+        if (length < FIXED_PAYLOAD) return null;
+        record.reqType = REQ_TYPES[kind];
+        record.orderId = segment.getInt(p + 17);
+        record.orderSeqId = segment.getInt(p + 21);
+        byte tradeType = segment.get(p + 25);
+        record.tradeType = tradeType < 0 ? null : TRADE_TYPES[tradeType & 0x0F];
+        record.timeInForce = tradeType < 0 ? TimeInForce.GTC : TIME_IN_FORCES[(tradeType >> 4) & 0x03];
+        record.priceTicks = segment.getLong(p + 26);
+        record.amountLots = segment.getLong(p + 34);
+        record.createdAt = segment.getLong(p + 42);
+        int uidLength = segment.getShort(p + 50);
+        record.uid = getChars(p + FIXED_PAYLOAD, uidLength);
+        int timestampAt = FIXED_PAYLOAD + uidLength * 2;
+        if (tradeType > 0 && (tradeType & STOP_FLAG) != 0) {
+            record.triggerPriceTicks = segment.getLong(p + timestampAt);
+            timestampAt += 8;
+        }
+        if (length != timestampAt + 8) return null;
+        record.timestamp = segment.getLong(p + timestampAt);
+        return record;
+    }
+
+    private JournalRecord decodeAsset(JournalRecord record, byte kind, int p, int length) {
+        record.transferType = kind == ASSET_TRANSFER ? TRANSFER_TYPES[segment.get(p + 17)] : null;
+        record.assetType = ASSET_TYPES[segment.get(p + 18)];
+        record.check = segment.get(p + 19) != 0;
+        record.assetId = segment.getInt(p + 20);
+        record.units = segment.getLong(p + 24);
+        record.frozen = segment.getLong(p + 32);
+        int uidLength = segment.getShort(p + 40);
+        int toUidLength = segment.getShort(p + 42);
+        if (length != ASSET_PAYLOAD + (uidLength + toUidLength) * 2) return null;
+        record.uid = getChars(p + ASSET_PAYLOAD, uidLength);
+        record.toUid = getChars(p + ASSET_PAYLOAD + uidLength * 2, toUidLength);
+        return record;
+    }
+
+    private String getChars(int at, int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = segment.getChar(at + i * 2);
+        }
+        return new String(chars);
+    }
+
+    private synchronized void rollSegment() {
+        try {
+            segment.force();
+            flushedSequence = lastSequence;
+            channel.close();
+            newSegment();
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to roll journal " + name, e);
+        }
+    }
+
+    private void newSegment() throws IOException {
+        Path file = dir.resolve("%s-%020d%s".formatted(name, nextSequence, SUFFIX));
+        mapSegment(file);
+        position = 0;
+    }
+
+    private void mapSegment(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = Math.max(channel.size(), segmentSize);
+        segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        crcView = segment.duplicate();
+    }
+
+    private long startSequence(Path file) {
+        String fileName = file.getFileName().toString();
+        return Long.parseLong(fileName.substring(name.length() + 1, fileName.length() - SUFFIX.length()));
+    }
+
+    private List<Path> listSegments() throws IOException {
+        String prefix = name + "-";
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.filter(f -> {
+                String fileName = f.getFileName().toString();
+                return fileName.startsWith(prefix) && fileName.endsWith(SUFFIX);
+            }).forEach(segments::add);
+        }
+        // 文件名中的起始序号是定长的，按文件名排序即按序号排序
+        segments.sort(null);
+        return segments;
+    }
+}
@@ -0,0 +1,49 @@
+package org.example.mylearn.tradingengine.journal;
+
+import org.example.mylearn.tradingengine.asset.AssetTransferType;
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.example.mylearn.tradingengine.match.QuotationReq;
+import org.example.mylearn.tradingengine.order.TimeInForce;
+import org.example.mylearn.tradingengine.order.TradeType;
+
+/**
+ * 日志中的一条撮合命令。ADD 记录重建订单所需的全部字段，REMOVE 只需要订单ID。
+ * 外部转账记录的 reqType 为 null，uid 为转出方(新建资产时为资产所有者)，toUid 为转入方。
+ */
+public class JournalRecord {
+    public long sequence; // 日志序号，从1开始连续递增
+    public long globalSequence; // 所有日志共用的序号，按它合并重放
+    public QuotationReq.ReqType reqType;
+    public int orderId;
+    public int orderSeqId;
+    public String uid;
+    public TradeType tradeType;
+    public TimeInForce timeInForce;
+    public long priceTicks;
+    public long triggerPriceTicks; // 0 表示普通限价单
+    public long amountLots;
+    public long createdAt; // epoch millis
+    public long timestamp; // 命令时间(epoch millis)，重放时代替当前时间
+
+    public AssetTransferType transferType; // null 表示新建资产
+    public AssetType assetType;
+    public String toUid;
+    public int assetId;
+    public long units; // 转账金额或新建资产的可用余额(定点数)
+    public long frozen;
+    public boolean check;
+
+    public boolean isAssetChange() {
+        return reqType == null;
+    }
+
+    @Override
+    public String toString() {
+        if (isAssetChange()) {
+            return "JournalRecord{sequence=%d, globalSequence=%d, transferType=%s, uid=%s, toUid=%s, assetType=%s, assetId=%d, units=%d, frozen=%d, check=%b}"
+                    .formatted(sequence, globalSequence, transferType, uid, toUid, assetType, assetId, units, frozen, check);
+        }
+        return "JournalRecord{sequence=%d, globalSequence=%d, reqType=%s, orderId=%d, uid=%s, tradeType=%s, timeInForce=%s, priceTicks=%d, triggerPriceTicks=%d, amountLots=%d, timestamp=%d}"
+                .formatted(sequence, globalSequence, reqType, orderId, uid, tradeType, timeInForce, priceTicks, triggerPriceTicks, amountLots, timestamp);
+    }
+}
@@ -0,0 +1,56 @@
+package org.example.mylearn.tradingengine.journal;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 全局序号：所有品种的撮合命令和外部转账(充值、接口转账等)写日志时各取一个，启动时按它合并各个日志重放。
+ *
+ * 撮合线程在一条命令的取号、写日志和执行期间持有读锁，不同品种的命令可以同时进行；
+ * 外部转账在取号、写日志和修改余额期间持有写锁，和所有命令互斥，因此它和每条命令的先后与序号一致，重放时结果相同。
+ * 不同品种的命令之间不互斥，它们对同一账户余额的先后不一定和序号一致，重放时按序号执行，只在余额恰好不够时结果可能不同。
+ */
+public final class JournalSequencer {
+    private final AtomicLong last = new AtomicLong();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public void beginCommand() {
+        lock.readLock().lock();
+    }
+
+    public void endCommand() {
+        lock.readLock().unlock();
+    }
+
+    // 当前线程正在执行撮合命令：命令引起的余额变化由撮合日志重放，不再单独记录
+    public boolean inCommand() {
+        return lock.getReadHoldCount() > 0;
+    }
+
+    public void beginTransfer() {
+        lock.writeLock().lock();
+    }
+
+    public void endTransfer() {
+        lock.writeLock().unlock();
+    }
+
+    // 当前线程正在执行外部转账，其中的新建资产等不再单独记录
+    public boolean inTransfer() {
+        return lock.isWriteLockedByCurrentThread();
+    }
+
+    // 调用方持有读锁或写锁
+    public long next() {
+        return last.incrementAndGet();
+    }
+
+    public long last() {
+        return last.get();
+    }
+
+    // 启动恢复时调用：之后分配的序号大于快照和日志中已有的序号
+    public void advanceTo(long sequence) {
+        last.accumulateAndGet(sequence, Math::max);
+    }
+}
@@ -0,0 +1,34 @@
+package org.example.mylearn.tradingengine.marketdata;
+
+import org.example.mylearn.tradingengine.instrument.Instrument;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个品种各周期的K线：撮合线程每记录一笔成交就增量更新所有周期，查询不需要扫描成交明细。
+ */
+public class CandleAggregator {
+    private final Instrument instrument;
+    private final Map<CandleInterval, CandleSeries> series = new EnumMap<>(CandleInterval.class);
+
+    public CandleAggregator(Instrument instrument, int capacity) {
+        this.instrument = instrument;
+        for (CandleInterval interval : CandleInterval.values()) {
+            series.put(interval, new CandleSeries(interval, capacity));
+        }
+    }
+
+    // 只能由撮合线程调用
+    public void onTrade(long time, long priceTicks, long lots) {
+        for (CandleSeries s : series.values()) {
+            s.onTrade(time, priceTicks, lots);
+        }
+    }
+
+    // 开始时间在 [from, to] 之间的K线，最多 maxItems 根(取最近的)
+    public List<Candle> getCandles(CandleInterval interval, long from, long to, int maxItems) {
+        return series.get(interval).range(from, to, maxItems, instrument);
+    }
+}
@@ -0,0 +1,43 @@
+package org.example.mylearn.tradingengine.marketdata;
+
+/**
+ * K线周期。按 UTC 对齐: 1d 的K线从 UTC 0点开始。
+ */
+public enum CandleInterval {
+    S1("1s", 1_000L),
+    M1("1m", 60_000L),
+    M5("5m", 300_000L),
+    H1("1h", 3_600_000L),
+    D1("1d", 86_400_000L);
+
+    private final String code;
+    private final long millis;
+
+    CandleInterval(String code, long millis) {
+        this.code = code;
+        this.millis = millis;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public long getMillis() {
+        return millis;
+    }
+
+    // time 所在K线的开始时间
+    public long align(long time) {
+        return Math.floorDiv(time, millis) * millis;
+    }
+
+    // 按 code(如 "1m")查找，未知时返回 null
+    public static CandleInterval of(String code) {
+        for (CandleInterval interval : values()) {
+            if (interval.code.equals(code)) {
+                return interval;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,160 @@
+package org.example.mylearn.tradingengine.marketdata;
+
+import org.example.mylearn.tradingengine.instrument.Instrument;
+
+import java.lang.invoke.VarHandle;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 一个周期的K线，固定容量的环形数组，按时间顺序追加，只保存有成交的K线。
+ *
+ * 只由撮合线程写；读方无锁。每个槽位有一个版本号，写之前置为奇数、写完置为偶数，
+ * 读方前后两次读到同一个偶数版本号才说明读到的是一根完整的K线(当前K线会被不断更新)。
+ * 槽位中同时保存K线的逻辑序号，被下一圈覆盖的槽位序号对不上，读方据此跳过。
+ */
+final class CandleSeries {
+    private final CandleInterval interval;
+    private final int capacity;
+    private final AtomicLongArray versions;
+    private final long[] indexes;
+    private final long[] starts;
+    private final long[] opens;
+    private final long[] highs;
+    private final long[] lows;
+    private final long[] closes;
+    private final long[] volumes;
+    private final int[] counts;
+    private volatile long size; // 累计产生的K线数，最后一根的序号为 size - 1
+
+    CandleSeries(CandleInterval interval, int capacity) {
+        if (capacity < 2) {
+            throw new IllegalArgumentException("candle capacity too small: " + capacity);
+        }
+        this.interval = interval;
+        this.capacity = capacity;
+        this.versions = new AtomicLongArray(capacity);
+        this.indexes = new long[capacity];
+        this.starts = new long[capacity];
+        this.opens = new long[capacity];
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.closes = new long[capacity];
+        this.volumes = new long[capacity];
+        this.counts = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            indexes[i] = -1;
+        }
+    }
+
+    // 撮合线程调用：一笔成交
+    void onTrade(long time, long priceTicks, long lots) {
+        long n = size;
+        long start = interval.align(time);
+        if (n > 0) {
+            int cur = (int) ((n - 1) % capacity);
+            // 时钟回拨时计入当前K线，保证K线按时间递增
+            if (start <= starts[cur]) {
+                beginWrite(cur);
+                highs[cur] = Math.max(highs[cur], priceTicks);
+                lows[cur] = Math.min(lows[cur], priceTicks);
+                closes[cur] = priceTicks;
+                volumes[cur] += lots;
+                counts[cur]++;
+                endWrite(cur);
+                return;
+            }
+        }
+        int slot = (int) (n % capacity);
+        beginWrite(slot);
+        indexes[slot] = n;
+        starts[slot] = start;
+        opens[slot] = priceTicks;
+        highs[slot] = priceTicks;
+        lows[slot] = priceTicks;
+        closes[slot] = priceTicks;
+        volumes[slot] = lots;
+        counts[slot] = 1;
+        endWrite(slot);
+        size = n + 1;
+    }
+
+    private void beginWrite(int slot) {
+        versions.set(slot, versions.get(slot) + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite(int slot) {
+        versions.setRelease(slot, versions.get(slot) + 1);
+    }
+
+    /**
+     * 开始时间在 [from, to] 之间的K线，按时间顺序；超过 maxItems 根时返回最近的 maxItems 根。
+     * 二分查找起止位置，代价为 O(log n + 返回的K线数)。
+     */
+    List<Candle> range(long from, long to, int maxItems, Instrument instrument) {
+        long n = size;
+        // 最早的一个槽位可能正在被下一圈覆盖，不读
+        long oldest = Math.max(0, n - capacity + 1);
+        long first = lowerBound(oldest, n, interval.align(from));
+        long end = lowerBound(first, n, to == Long.MAX_VALUE ? to : to + 1); // 第一根开始时间 > to 的K线
+        first = Math.max(first, end - maxItems);
+
+        List<Candle> candles = new ArrayList<>((int) Math.max(0, end - first));
+        long[] bar = new long[6];
+        for (long idx = first; idx < end; idx++) {
+            int count = read(idx, bar);
+            if (count < 0) continue; // 已被覆盖
+            var candle = new Candle();
+            candle.setInterval(interval.getCode());
+            candle.setStartTime(new Timestamp(bar[0]));
+            candle.setOpen(instrument.ticksToPrice(bar[1]));
+            candle.setHigh(instrument.ticksToPrice(bar[2]));
+            candle.setLow(instrument.ticksToPrice(bar[3]));
+            candle.setClose(instrument.ticksToPrice(bar[4]));
+            candle.setVolume(instrument.lotsToQuantity(bar[5]));
+            candle.setTradeCount(count);
+            candles.add(candle);
+        }
+        return candles;
+    }
+
+    // [lo, hi) 中第一根开始时间 >= time 的K线序号；被覆盖的槽位视为更早
+    private long lowerBound(long lo, long hi, long time) {
+        long[] bar = new long[6];
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (read(mid, bar) < 0 || bar[0] < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    // 读取序号为 idx 的K线到 bar(开始时间、开高低收、成交量)，返回成交笔数；槽位已被覆盖时返回 -1
+    private int read(long idx, long[] bar) {
+        int slot = (int) (idx % capacity);
+        while (true) {
+            long version = versions.get(slot);
+            if ((version & 1) != 0) {
+                Thread.onSpinWait();
+                continue;
+            }
+            long index = indexes[slot];
+            bar[0] = starts[slot];
+            bar[1] = opens[slot];
+            bar[2] = highs[slot];
+            bar[3] = lows[slot];
+            bar[4] = closes[slot];
+            bar[5] = volumes[slot];
+            int count = counts[slot];
+            VarHandle.acquireFence();
+            if (versions.get(slot) != version) continue;
+            return index == idx ? count : -1;
+        }
+    }
+}
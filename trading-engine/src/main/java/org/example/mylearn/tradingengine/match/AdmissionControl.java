@@ -0,0 +1,69 @@
+package org.example.mylearn.tradingengine.match;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * 新订单的准入控制：命令环中未处理的命令数超过高水位后拒绝新订单，降到低水位以下才重新接收。
+ *
+ * 撮合线程跟不上时，新订单直接返回失败，而不是让请求线程阻塞在满的环上、或让客户端以为已经受理。
+ * 撤单、等待、查询等命令不受限制，仍可使用高水位到环大小之间的空间，过载时用户依然能撤单。
+ * 高低水位之间留出间隔，避免积压在高水位附近时反复切换。
+ */
+final class AdmissionControl {
+
+    private final CommandRingBuffer commandRing;
+    private final long highWatermark;
+    private final long lowWatermark;
+    private final Counter rejected;
+    // 只是一个状态标志，多个请求线程同时切换也不影响正确性
+    private volatile boolean shedding;
+
+    /**
+     * @param highPercent 高水位，占环大小的百分比
+     * @param lowPercent  低水位，占环大小的百分比
+     */
+    AdmissionControl(MeterRegistry registry, String symbol, CommandRingBuffer commandRing, int highPercent, int lowPercent) {
+        if (lowPercent <= 0 || lowPercent > highPercent || highPercent > 100) {
+            throw new IllegalArgumentException("watermarks should be 0 < low %d <= high %d <= 100"
+                    .formatted(lowPercent, highPercent));
+        }
+        this.commandRing = commandRing;
+        this.highWatermark = (long) commandRing.getSize() * highPercent / 100;
+        this.lowWatermark = (long) commandRing.getSize() * lowPercent / 100;
+        Gauge.builder("trading.match.queue.depth", commandRing, CommandRingBuffer::depth)
+                .description("commands in the command ring not yet processed by the match thread")
+                .tag("symbol", symbol)
+                .register(registry);
+        Gauge.builder("trading.match.admission.shedding", this, c -> c.shedding ? 1 : 0)
+                .description("1 while new orders are rejected because the command ring is above the high watermark")
+                .tag("symbol", symbol)
+                .register(registry);
+        this.rejected = Counter.builder("trading.match.admission.rejected")
+                .description("new orders rejected by admission control")
+                .tag("symbol", symbol)
+                .register(registry);
+    }
+
+    // 请求线程提交新订单前调用，返回 false 时不提交
+    boolean admit() {
+        long depth = commandRing.depth();
+        if (shedding) {
+            if (depth > lowWatermark) {
+                rejected.increment();
+                return false;
+            }
+            shedding = false;
+        } else if (depth >= highWatermark) {
+            shedding = true;
+            rejected.increment();
+            return false;
+        }
+        return true;
+    }
+
+    boolean isShedding() {
+        return shedding;
+    }
+}
@@ -0,0 +1,36 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.TradeType;
+
+/**
+ * 报价簿校验和：所有非空档位 level(side, priceTicks, volumeLots) 的异或。
+ * 档位变化时 checksum ^= level(旧量) ^ level(新量)，撮合线程和客户端都可以增量维护，不需要遍历整个报价簿。
+ */
+public final class BookChecksum {
+
+    private BookChecksum() {
+    }
+
+    public static long level(TradeType side, long priceTicks, long volumeLots) {
+        if (volumeLots == 0) return 0;
+        return mix(mix(priceTicks * 2 + side.ordinal()) + volumeLots);
+    }
+
+    public static long of(BookSnapshot snapshot) {
+        long checksum = 0;
+        for (BookLevel level : snapshot.bids) {
+            checksum ^= level(level.tradeType, level.priceTicks, level.volumeLots);
+        }
+        for (BookLevel level : snapshot.asks) {
+            checksum ^= level(level.tradeType, level.priceTicks, level.volumeLots);
+        }
+        return checksum;
+    }
+
+    // SplitMix64 的混淆函数
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,29 @@
+package org.example.mylearn.tradingengine.match;
+
+/**
+ * 报价簿增量：某个档位的挂单量变为 volume(0 表示档位删除)。
+ * sequence 在每个品种内从1开始连续递增，不连续即丢失了增量；checksum 为应用本条增量之后整个报价簿的校验和。
+ */
+public class BookDelta extends BookLevel {
+    public long sequence;
+    public long checksum;
+
+    public BookDelta() {
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+}
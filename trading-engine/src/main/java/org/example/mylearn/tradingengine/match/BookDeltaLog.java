@@ -0,0 +1,91 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.order.TradeType;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近 N 条报价簿增量，预分配的环形数组：撮合线程写，请求线程读。
+ *
+ * 每个槽位带一个序号，写槽位前先把序号置0，写完字段再写入新序号；读方读字段前后各读一次序号，
+ * 两次都等于期望的序号才说明读到的字段没有被下一圈覆盖。
+ * 撮合线程每批结束时 publish，读方只能看到已发布的增量。
+ */
+final class BookDeltaLog {
+    private static final TradeType[] TRADE_TYPES = TradeType.values();
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final byte[] sides;
+    private final long[] prices;
+    private final long[] volumes;
+    private final long[] checksums;
+    private volatile long published;
+
+    BookDeltaLog(int size) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("delta log size must be a power of 2: " + size);
+        }
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.sides = new byte[size];
+        this.prices = new long[size];
+        this.volumes = new long[size];
+        this.checksums = new long[size];
+    }
+
+    // 撮合线程调用，sequence 必须连续
+    void append(long sequence, TradeType side, long priceTicks, long volumeLots, long checksum) {
+        int i = (int) sequence & mask;
+        sequences.set(i, 0);
+        VarHandle.storeStoreFence();
+        sides[i] = (byte) side.ordinal();
+        prices[i] = priceTicks;
+        volumes[i] = volumeLots;
+        checksums[i] = checksum;
+        sequences.setRelease(i, sequence);
+    }
+
+    // 撮合线程调用：sequence 及之前的增量对读方可见
+    void publish(long sequence) {
+        published = sequence;
+    }
+
+    long getPublished() {
+        return published;
+    }
+
+    /**
+     * 读取序号大于 fromSequence 的已发布增量，最多 max 条。
+     * @return fromSequence 之后的增量已经被覆盖(客户端落后太多)时返回 null，需要重新取全量
+     */
+    List<BookDelta> since(long fromSequence, int max, Instrument instrument) {
+        long last = Math.min(published, fromSequence + max);
+        List<BookDelta> deltas = new ArrayList<>((int) Math.max(0, last - fromSequence));
+        for (long seq = fromSequence + 1; seq <= last; seq++) {
+            int i = (int) seq & mask;
+            if (sequences.get(i) != seq) return null;
+            byte side = sides[i];
+            long price = prices[i];
+            long volume = volumes[i];
+            long checksum = checksums[i];
+            VarHandle.acquireFence();
+            if (sequences.get(i) != seq) return null;
+
+            BookDelta delta = new BookDelta();
+            delta.setSequence(seq);
+            delta.setTradeType(TRADE_TYPES[side]);
+            delta.setPriceTicks(price);
+            delta.setVolumeLots(volume);
+            delta.setPrice(instrument.ticksToPrice(price));
+            delta.setVolume(instrument.lotsToQuantity(volume));
+            delta.setChecksum(checksum);
+            deltas.add(delta);
+        }
+        return deltas;
+    }
+}
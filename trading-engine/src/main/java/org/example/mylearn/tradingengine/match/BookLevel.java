@@ -0,0 +1,59 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.TradeType;
+
+import java.math.BigDecimal;
+
+/**
+ * 报价簿的一个价格档位。price/volume 用于展示；priceTicks/volumeLots 为引擎内部的定点数，校验和按定点数计算，见 BookChecksum。
+ */
+public class BookLevel {
+    public TradeType tradeType; // BUY, or SELL
+    public BigDecimal price;
+    public BigDecimal volume; // 0 表示档位已删除
+    public long priceTicks;
+    public long volumeLots;
+
+    public BookLevel() {
+    }
+
+    public TradeType getTradeType() {
+        return tradeType;
+    }
+
+    public void setTradeType(TradeType tradeType) {
+        this.tradeType = tradeType;
+    }
+
+    public BigDecimal getPrice() {
+        return price;
+    }
+
+    public void setPrice(BigDecimal price) {
+        this.price = price;
+    }
+
+    public BigDecimal getVolume() {
+        return volume;
+    }
+
+    public void setVolume(BigDecimal volume) {
+        this.volume = volume;
+    }
+
+    public long getPriceTicks() {
+        return priceTicks;
+    }
+
+    public void setPriceTicks(long priceTicks) {
+        this.priceTicks = priceTicks;
+    }
+
+    public long getVolumeLots() {
+        return volumeLots;
+    }
+
+    public void setVolumeLots(long volumeLots) {
+        this.volumeLots = volumeLots;
+    }
+}
@@ -0,0 +1,59 @@
+package org.example.mylearn.tradingengine.match;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 报价簿全量，以及它对应的增量序号和校验和。
+ * 客户端用法: 取全量，再从 sequence 之后拉取增量依次应用；序号不连续或校验和不一致时重新取全量。
+ */
+public class BookSnapshot {
+    public String symbol;
+    public long sequence; // 已包含的最后一条增量的序号
+    public long checksum;
+    public List<BookLevel> bids = new ArrayList<>(); // 买方，最优价在前
+    public List<BookLevel> asks = new ArrayList<>(); // 卖方，最优价在前
+
+    public BookSnapshot() {
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(String symbol) {
+        this.symbol = symbol;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public void setSequence(long sequence) {
+        this.sequence = sequence;
+    }
+
+    public long getChecksum() {
+        return checksum;
+    }
+
+    public void setChecksum(long checksum) {
+        this.checksum = checksum;
+    }
+
+    public List<BookLevel> getBids() {
+        return bids;
+    }
+
+    public void setBids(List<BookLevel> bids) {
+        this.bids = bids;
+    }
+
+    public List<BookLevel> getAsks() {
+        return asks;
+    }
+
+    public void setAsks(List<BookLevel> asks) {
+        this.asks = asks;
+    }
+}
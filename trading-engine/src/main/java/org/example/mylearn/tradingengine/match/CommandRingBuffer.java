@@ -0,0 +1,107 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.OrderEntity;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 撮合命令的环形缓冲区：多生产者(请求线程)、单消费者(撮合线程)。
+ *
+ * 槽位(QuotationReq)在创建时一次性分配并循环使用，提交命令不再分配队列节点。
+ * 生产者用 cursor.getAndIncrement() 认领序号，环满时等待撮合线程释放槽位；
+ * 写好槽位后在 published[idx] 中写入该序号所在的圈数(lap)，表示已发布。
+ * 撮合线程一次取出一批连续已发布的命令，按序号依次处理，整批处理完后 release，
+ * 槽位才能被下一圈的生产者重用。
+ */
+class CommandRingBuffer {
+
+    private final int size;
+    private final int mask;
+    private final int indexShift;
+    private final QuotationReq[] slots;
+    private final AtomicIntegerArray published;
+    private final AtomicLong cursor = new AtomicLong(0);      // 下一个待认领的序号
+    private final AtomicLong consumed = new AtomicLong(-1);   // 撮合线程已处理完的序号
+    private final WaitStrategy waitStrategy;
+
+    CommandRingBuffer(int size, WaitStrategy waitStrategy) {
+        if (size <= 0 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("ring size must be a power of 2: " + size);
+        }
+        this.size = size;
+        this.mask = size - 1;
+        this.indexShift = Integer.numberOfTrailingZeros(size);
+        this.slots = new QuotationReq[size];
+        this.published = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new QuotationReq();
+            published.set(i, -1);
+        }
+        this.waitStrategy = waitStrategy;
+    }
+
+    int getSize() {
+        return size;
+    }
+
+    // 已认领、撮合线程还没处理完的命令数，包括正在等待空槽位的生产者；请求线程读取时只是近似值
+    long depth() {
+        return Math.max(0, cursor.get() - 1 - consumed.get());
+    }
+
+    // 生产者：提交一个命令，环满时等待
+    long publish(QuotationReq.ReqType reqType, OrderEntity order) {
+        return publish(reqType, order, null);
+    }
+
+    long publish(QuotationReq.ReqType reqType, OrderEntity order, Object attachment) {
+        long sequence = cursor.getAndIncrement();
+        // 槽位上一圈的命令还没处理完
+        while (sequence - size > consumed.get()) {
+            LockSupport.parkNanos(1);
+        }
+        QuotationReq slot = slots[(int) sequence & mask];
+        slot.reqType = reqType;
+        slot.order = order;
+        slot.attachment = attachment;
+        published.set((int) sequence & mask, lap(sequence));
+        waitStrategy.signal();
+        return sequence;
+    }
+
+    // 消费者：等待 sequence 被发布
+    void waitFor(long sequence) throws InterruptedException {
+        waitStrategy.waitFor(this, sequence);
+    }
+
+    // 消费者：等待 sequence 被发布，返回从 sequence 开始连续已发布的最大序号，一批最多 maxBatchSize 个
+    long waitForBatch(long sequence, int maxBatchSize) throws InterruptedException {
+        waitStrategy.waitFor(this, sequence);
+        long limit = sequence + Math.min(maxBatchSize, size) - 1;
+        long available = sequence;
+        while (available < limit && isPublished(available + 1)) {
+            available++;
+        }
+        return available;
+    }
+
+    // 消费者：取 sequence 对应的槽位，只在 release 之前有效
+    QuotationReq get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    // 消费者：sequence 及之前的槽位已处理完(槽位由消费者 clear)，可以被重用
+    void release(long sequence) {
+        consumed.set(sequence);
+    }
+
+    boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == lap(sequence);
+    }
+
+    private int lap(long sequence) {
+        return (int) (sequence >>> indexShift);
+    }
+}
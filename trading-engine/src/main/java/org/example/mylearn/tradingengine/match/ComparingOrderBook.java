@@ -0,0 +1,87 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 两个报价簿实现同时运行：所有修改同时作用于 primary 和 shadow，查询以 primary 为准。
+ * 两者共享同一批 QuotationItem 对象，所以只需比较返回的档位是否为同一个对象。
+ * 只在撮合线程上做比较，其他线程的读请求可能与修改交错，不做比较。
+ */
+class ComparingOrderBook implements OrderBook {
+    private final Logger logger = LoggerFactory.getLogger(ComparingOrderBook.class);
+
+    private final OrderBook primary;
+    private final OrderBook shadow;
+    private volatile Thread writer;
+    private long mismatches;
+
+    ComparingOrderBook(OrderBook primary, OrderBook shadow) {
+        this.primary = primary;
+        this.shadow = shadow;
+    }
+
+    @Override
+    public QuotationItem best(TradeType side) {
+        QuotationItem level = primary.best(side);
+        if (Thread.currentThread() == writer) {
+            check("best", side, 0, level, shadow.best(side));
+        }
+        return level;
+    }
+
+    @Override
+    public QuotationItem get(TradeType side, long price) {
+        QuotationItem level = primary.get(side, price);
+        if (Thread.currentThread() == writer) {
+            check("get", side, price, level, shadow.get(side, price));
+        }
+        return level;
+    }
+
+    @Override
+    public QuotationItem next(TradeType side, long price) {
+        QuotationItem level = primary.next(side, price);
+        if (Thread.currentThread() == writer) {
+            check("next", side, price, level, shadow.next(side, price));
+        }
+        return level;
+    }
+
+    @Override
+    public void add(QuotationItem level) {
+        writer = Thread.currentThread();
+        primary.add(level);
+        shadow.add(level);
+    }
+
+    @Override
+    public void remove(QuotationItem level) {
+        writer = Thread.currentThread();
+        primary.remove(level);
+        shadow.remove(level);
+    }
+
+    @Override
+    public int size(TradeType side) {
+        int size = primary.size(side);
+        if (Thread.currentThread() == writer && size != shadow.size(side)) {
+            mismatches++;
+            logger.warn("order book mismatch on size({}): primary={}, shadow={}", side, size, shadow.size(side));
+        }
+        return size;
+    }
+
+    long getMismatches() {
+        return mismatches;
+    }
+
+    private void check(String op, TradeType side, long price, QuotationItem expected, QuotationItem actual) {
+        if (expected != actual) {
+            mismatches++;
+            logger.warn("order book mismatch on {}({}, {}): primary={}, shadow={}", op, side, price,
+                    expected == null ? null : expected.getPrice(), actual == null ? null : actual.getPrice());
+        }
+    }
+}
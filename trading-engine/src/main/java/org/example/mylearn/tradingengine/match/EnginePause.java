@@ -0,0 +1,51 @@
+package org.example.mylearn.tradingengine.match;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 让所有撮合线程在命令流中的同一位置停下来：每个引擎处理到 SNAPSHOT 命令时登记自己的日志序号并等待，
+ * 发起方等到全部到齐后读取状态，然后放行。撮合线程停顿的时间就是发起方读取状态的时间。
+ */
+final class EnginePause {
+    private final CountDownLatch arrived;
+    private final CountDownLatch resume = new CountDownLatch(1);
+    private final Map<String, Long> journalSequences = new ConcurrentHashMap<>();
+
+    EnginePause(int engines) {
+        this.arrived = new CountDownLatch(engines);
+    }
+
+    // 撮合线程调用
+    void arriveAndWait(String symbol, long journalSequence) {
+        journalSequences.put(symbol, journalSequence);
+        arrived.countDown();
+        boolean interrupted = false;
+        while (true) {
+            try {
+                resume.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // 发起方调用，全部引擎到齐返回 true
+    boolean awaitAll(long timeoutMillis) throws InterruptedException {
+        return arrived.await(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void resume() {
+        resume.countDown();
+    }
+
+    Map<String, Long> getJournalSequences() {
+        return journalSequences;
+    }
+}
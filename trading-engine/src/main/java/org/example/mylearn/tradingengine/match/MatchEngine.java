@@ -0,0 +1,938 @@
+package org.example.mylearn.tradingengine.match;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.example.mylearn.common.ErrorCode;
+import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.clearing.ClearingService;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.journal.CommandJournal;
+import org.example.mylearn.tradingengine.journal.JournalSequencer;
+import org.example.mylearn.tradingengine.marketdata.Candle;
+import org.example.mylearn.tradingengine.marketdata.CandleAggregator;
+import org.example.mylearn.tradingengine.marketdata.CandleInterval;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.OrderStatus;
+import org.example.mylearn.tradingengine.order.TimeInForce;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 单个品种的撮合引擎：一个报价簿、一个命令环形缓冲区、一个独占的撮合线程。
+ * 报价簿和挂单索引只由本品种的撮合线程修改；不同品种互不共享状态，可以在多个CPU核上并行撮合。
+ */
+class MatchEngine {
+    private final Logger logger = LoggerFactory.getLogger(MatchEngine.class);
+
+    // 撮合内部的价格、数量都是定点数(ticks/lots)，只在对外展示时换算为BigDecimal
+    private final Instrument instrument;
+    private final ClearingService clearingService;
+    private final OrderBook orderBook;
+    // 挂单索引: orderId -> 档位链表中的节点，撤单时直接定位，不需要扫描档位
+    private final OrderIndex orderIndex = new OrderIndex(1 << 16);
+    private final CommandRingBuffer commandRing;
+    // 报价簿增量：档位挂单量每变化一次产生一条，序号和校验和只由撮合线程修改
+    private final BookDeltaLog deltaLog;
+    // 各周期K线，随成交增量更新
+    private final CandleAggregator candles;
+    // 最近的成交 tick，按时间二分查找
+    private final TickRing tickRing;
+    // 最后一笔成交的ID：本品种内从1开始递增，由撮合线程分配，不调用序号服务；快照保存、日志重放时重新生成相同的ID
+    private int lastTradeId;
+    private long bookSequence;
+    private long bookChecksum;
+    // 报价查询使用的前 N 档深度视图：撮合线程每批结束后整体替换，发布后不再修改，读方无锁
+    private final int depthLevels;
+    private volatile Map<TradeType, List<QuotationInfo>> depthView;
+    private long depthViewSequence = -1;
+
+    // 成交明细，按成交顺序只追加，每批结束时发布，读方无锁
+    private final TradeTape tradeTape;
+    // 撮合用的临时列表和空闲的挂单节点、档位，只由撮合线程访问，稳定运行时撮合不分配对象
+    private final List<OrderEntity> matchedOrders = new ArrayList<>();
+    private final List<OrderEntity> partialOrders = new ArrayList<>();
+    private OrderNode freeNodes; // 经 next 串起来
+    private final ArrayDeque<QuotationItem> freeLevels = new ArrayDeque<>();
+    // 等待触发的止损单，以及本条命令的成交触发、尚未撮合的止损单
+    private final StopOrderBook stopBook = new StopOrderBook();
+    private final List<OrderEntity> triggeredStops = new ArrayList<>();
+    // 一批最多处理的命令数，突发流量下限制单批耗时
+    private final int maxBatchSize;
+    private final DistributionSummary batchSizes;
+    private final OrderStageTimers stageTimers;
+    // 新订单的准入控制，撤单不经过
+    private final AdmissionControl admission;
+    // 撮合命令日志，未启用时为 null
+    private CommandJournal journal;
+    // 全局序号，和 journal 一起设置；命令取号、写日志和执行期间持有它的读锁，和外部转账互斥
+    private JournalSequencer sequencer;
+    // 快照对应的日志序号，启动时只重放此序号之后的日志
+    private long replayFrom;
+    // 当前命令的时间(epoch millis)：撮合线程取到命令时读一次时钟并写入日志，重放时用日志中的值；
+    // 成交、K线、tick 和订单的更新时间都用它，同样的命令序列重放得到同样的结果
+    private long commandTime;
+    // 快照时刻的订单视图，快照线程复制订单期间不为 null，见 OrderCut
+    private volatile OrderCut orderCut;
+    private Thread thread;
+
+    private final static Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    MatchEngine(Instrument instrument, OrderBook orderBook, CommandRingBuffer commandRing, BookDeltaLog deltaLog,
+                CandleAggregator candles, TickRing tickRing, TradeTape tradeTape, int depthLevels, int maxBatchSize, ClearingService clearingService,
+                MeterRegistry meterRegistry, OrderStageTimers stageTimers, AdmissionControl admission) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("max batch size must be positive: " + maxBatchSize);
+        }
+        this.instrument = instrument;
+        this.orderBook = orderBook;
+        this.commandRing = commandRing;
+        this.deltaLog = deltaLog;
+        this.candles = candles;
+        this.tickRing = tickRing;
+        this.tradeTape = tradeTape;
+        if (depthLevels <= 0) {
+            throw new IllegalArgumentException("depth levels must be positive: " + depthLevels);
+        }
+        this.depthLevels = depthLevels;
+        publishBook();
+        this.maxBatchSize = maxBatchSize;
+        this.batchSizes = DistributionSummary.builder("trading.match.batch.size")
+                .description("number of commands drained from the command ring per match loop iteration")
+                .tag("symbol", instrument.getSymbol())
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+        this.clearingService = clearingService;
+        this.stageTimers = stageTimers;
+        this.admission = admission;
+    }
+
+    OrderStageTimers getStageTimers() {
+        return stageTimers;
+    }
+
+    Instrument getInstrument() {
+        return instrument;
+    }
+
+    void setJournal(CommandJournal journal, JournalSequencer sequencer) {
+        this.journal = journal;
+        this.sequencer = sequencer;
+    }
+
+    CommandJournal getJournal() {
+        return journal;
+    }
+
+    // 启动恢复时调用(撮合线程启动之前)：按日志中的命令时间重放一条命令，不再写日志
+    void replay(QuotationReq.ReqType reqType, OrderEntity order, long timestamp) {
+        order.setStatus(OrderStatus.PREPARING);
+        QuotationReq req = new QuotationReq();
+        req.reqType = reqType;
+        req.order = order;
+        commandTime = timestamp;
+        execute(req);
+    }
+
+    // 重放结束，发布成交明细
+    void finishReplay() {
+        tickRing.publish();
+        tradeTape.publish();
+        publishBook();
+    }
+
+    void start() {
+        thread = new Thread(()->{
+            logger.warn("Thread {} started.", Thread.currentThread().getName());
+            matchExecutor();
+        },"match-executor-" + instrument.getSymbol());
+        thread.start();
+    }
+
+    void stop() {
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            logger.warn("Thread {} terminated.", thread.getName());
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                logger.warn("close journal failed", e);
+            }
+        }
+    }
+
+    Result<OrderEntity> submitOrder(OrderEntity order) {
+        if (!admission.admit()) {
+            // 没有进入命令环，不会写日志；订单直接失败，awaitProcessed 立即返回
+            order.setStatus(OrderStatus.FAILED);
+            order.setMessge(ErrorCode.MATCHER_OVERLOADED.getMessage());
+            order.markProcessed();
+            return Result.fail(order, ErrorCode.MATCHER_OVERLOADED,
+                    "match engine %s is overloaded, order %d rejected".formatted(instrument.getSymbol(), order.getId()));
+        }
+        order.setStatus(OrderStatus.PREPARING);
+        order.setSubmittedNanos(System.nanoTime());
+        commandRing.publish(QuotationReq.ReqType.ADD, order);// 提交
+        return Result.ok(order);
+    }
+
+    // 撮合线程处理完这笔已提交的订单(挂单、成交或被拒绝)后完成；已经处理过的订单直接返回已完成的 future。
+    // 不能看订单状态判断：撮合线程可能正在处理这笔订单，此时看到的 TRADING/CLEARING 只是中间状态。
+    // 等待方登记在订单上，不占命令环，环满时也不会阻塞调用线程
+    CompletableFuture<OrderEntity> awaitProcessed(OrderEntity order) {
+        return order.whenProcessed();
+    }
+
+    Result<OrderEntity> cancelOrder(OrderEntity order) {
+        // 订单状态只由撮合线程修改，撤单成功后由撮合线程置为 CANCELED
+        commandRing.publish(QuotationReq.ReqType.REMOVE, order);
+        return Result.ok(order);
+    }
+
+    // 读已发布的深度视图，不访问撮合线程的报价簿，也不复制
+    Map<TradeType, List<QuotationInfo>> getQuotationInfo() {
+        return depthView;
+    }
+
+    // 撮合线程在每批结束时调用：增量可见，报价簿有变化时重建前 N 档深度视图
+    private void publishBook() {
+        deltaLog.publish(bookSequence);
+        if (depthViewSequence == bookSequence) return;
+        Map<TradeType, List<QuotationInfo>> view = new EnumMap<>(TradeType.class);
+        for (TradeType side : TradeType.values()) {
+            List<QuotationInfo> levels = new ArrayList<>(depthLevels);
+            for (var q = orderBook.best(side); q != null && levels.size() < depthLevels; q = orderBook.next(side, q.getPrice())) {
+                levels.add(dumpQuotationItemToQuotationInfo(q));
+            }
+            view.put(side, Collections.unmodifiableList(levels));
+        }
+        depthView = Collections.unmodifiableMap(view);
+        depthViewSequence = bookSequence;
+    }
+
+    // 经命令环由撮合线程生成全量，与增量序号严格对齐
+    Result<BookSnapshot> getBookSnapshot(long timeoutMillis) {
+        var reply = new CompletableFuture<BookSnapshot>();
+        commandRing.publish(QuotationReq.ReqType.BOOK, null, reply);
+        try {
+            return Result.ok(reply.get(timeoutMillis, TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            return Result.fail(null, ErrorCode.SERVICE_UNAVAILABLE,
+                    "match engine %s did not answer in %d ms".formatted(instrument.getSymbol(), timeoutMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.fail(null, ErrorCode.SERVICE_UNAVAILABLE, "interrupted");
+        } catch (ExecutionException e) {
+            return Result.fail(null, ErrorCode.INTERNAL_ERROR, e.getCause().getMessage());
+        }
+    }
+
+    Result<List<BookDelta>> getBookDeltas(long fromSequence, int maxItems) {
+        if (fromSequence < 0 || maxItems <= 0) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM,
+                    "fromSequence %d or maxItems %d is invalid".formatted(fromSequence, maxItems));
+        }
+        List<BookDelta> deltas = deltaLog.since(fromSequence, maxItems, instrument);
+        if (deltas == null) {
+            return Result.fail(null, ErrorCode.BOOK_RESYNC_REQUIRED,
+                    "deltas after %d are no longer retained, reload the book snapshot".formatted(fromSequence));
+        }
+        return Result.ok(deltas);
+    }
+
+    Result<List<Candle>> getCandles(CandleInterval interval, Timestamp start, Timestamp end, int maxItems) {
+        if (maxItems <= 0) {
+            return Result.fail(null, ErrorCode.INVALID_PARAM, "maxItems %d should be positive".formatted(maxItems));
+        }
+        long from = start == null ? 0 : start.getTime();
+        long to = end == null ? Long.MAX_VALUE : end.getTime();
+        return Result.ok(candles.getCandles(interval, from, to, maxItems));
+    }
+
+    Result<List<TradingDetail>> getTradingDetails(int lastNumItems){
+        if(lastNumItems <=0){
+            return Result.fail(null, ErrorCode.INVALID_PARAM,
+                    "lastNumItems %s is null or lower than 0".formatted(lastNumItems));
+        }
+        // 复制一份，不持有撮合线程之后追加的成交
+        return Result.ok(tradeTape.latest(lastNumItems));
+    }
+
+    // 按成交ID查询仍在内存中的成交
+    Result<TradingDetail> getTradingDetail(int tradeId) {
+        TradingDetail detail = tradeTape.get(tradeId);
+        if (detail == null) {
+            return Result.fail(null, ErrorCode.RESOURCE_NOT_FOUND,
+                    "trade %d of %s not found or no longer retained".formatted(tradeId, instrument.getSymbol()));
+        }
+        return Result.ok(detail);
+    }
+
+    // 最新的在前；numTicks < 0 表示不限(最多为 tick 环的容量)
+    Result<List<RealTimeTick>> getRealTimeTicks(Timestamp start, int numTicks){
+        if(numTicks == 0){ // do nothing!
+            return Result.ok(new ArrayList<>());
+        }
+        if(numTicks < 0) numTicks = Integer.MAX_VALUE;
+        long from = start == null ? 0 : start.getTime(); //最早时间， 1970..
+        return Result.ok(tickRing.latest(from, numTicks, instrument));
+    }
+
+    // 撮合线程调用
+    private BookSnapshot dumpBookSnapshot() {
+        var snapshot = new BookSnapshot();
+        snapshot.setSymbol(instrument.getSymbol());
+        snapshot.setSequence(bookSequence);
+        snapshot.setChecksum(bookChecksum);
+        for (TradeType side : TradeType.values()) {
+            List<BookLevel> levels = side == TradeType.BUY ? snapshot.bids : snapshot.asks;
+            for (var q = orderBook.best(side); q != null; q = orderBook.next(side, q.getPrice())) {
+                var level = new BookLevel();
+                level.setTradeType(side);
+                level.setPriceTicks(q.getPrice());
+                level.setVolumeLots(q.getVolume());
+                level.setPrice(instrument.ticksToPrice(q.getPrice()));
+                level.setVolume(instrument.lotsToQuantity(q.getVolume()));
+                levels.add(level);
+            }
+        }
+        return snapshot;
+    }
+
+    // 档位挂单量由 oldVolume 变为 newVolume(0 表示档位删除)：更新校验和，记录一条增量
+    private void levelChanged(TradeType side, long priceTicks, long oldVolume, long newVolume) {
+        if (oldVolume == newVolume) return;
+        bookChecksum ^= BookChecksum.level(side, priceTicks, oldVolume) ^ BookChecksum.level(side, priceTicks, newVolume);
+        deltaLog.append(++bookSequence, side, priceTicks, newVolume, bookChecksum);
+    }
+
+    private QuotationInfo dumpQuotationItemToQuotationInfo(QuotationItem item) {
+        var info = new QuotationInfo();
+        info.setPrice(instrument.ticksToPrice(item.getPrice()));
+        info.setVolume(instrument.lotsToQuantity(item.getVolume()));
+        info.setTradeType(item.getTradeType());
+        return info;
+    }
+
+    private void matchExecutor() {
+        logger.warn("matchExecutor start...");
+
+        long sequence = 0;
+        while (true) {
+            long last;
+            try {
+                // 取出当前所有已提交的命令(最多 maxBatchSize 个)，作为一批处理
+                last = commandRing.waitForBatch(sequence, maxBatchSize);
+            } catch (InterruptedException e) {
+                logger.debug("Thread {} Interrupted, exit now!", Thread.currentThread().getName());
+                // 关键：重新设置中断状态，让上层调用者知道线程该停止了
+                Thread.currentThread().interrupt();
+                return;
+            }
+            for (long seq = sequence; seq <= last; seq++) {
+                QuotationReq req = commandRing.get(seq);
+                try {
+                    processCommand(req);
+                } catch (Exception e) {
+                    logger.warn("Thread get a unexpected Exception, SKIPPED it! ", e);
+                } finally {
+                    // 处理中抛出异常的新订单也要完成等待方，否则 awaitProcessed 的等待方一直等到超时；重复调用无害
+                    if (req.reqType == QuotationReq.ReqType.ADD) {
+                        req.getOrder().markProcessed();
+                    }
+                    req.clear();
+                }
+            }
+            try {
+                finishBatch(last - sequence + 1);
+            } catch (Exception e) {
+                logger.warn("finishBatch get a unexpected Exception! ", e);
+            }
+            commandRing.release(last);
+            sequence = last + 1;
+        }
+    }
+
+    private void processCommand(QuotationReq req) {
+        commandTime = System.currentTimeMillis();
+        if (journal != null && (req.reqType == QuotationReq.ReqType.ADD || req.reqType == QuotationReq.ReqType.REMOVE)) {
+            sequencer.beginCommand();
+            try {
+                journal.append(req.reqType, req.order, commandTime, sequencer.next()); // 先写日志，再撮合
+                execute(req);
+            } finally {
+                sequencer.endCommand();
+            }
+            return;
+        }
+        execute(req);
+    }
+
+    private void execute(QuotationReq req) {
+        switch (req.reqType) {
+            case ADD: {
+                long start = System.nanoTime();
+                beforeChange(req.getOrder());
+                addOrderToTrading(req.getOrder()); // 失败原因记在订单的 messge 中
+                activateTriggeredStops();
+                stageTimers.recordProcessed(req.getOrder(), start, System.nanoTime());
+                req.getOrder().markProcessed(); // 完成 awaitProcessed 的等待方，回调在撮合线程中执行，只能做很轻的工作
+                break;
+            }
+            case REMOVE: {
+                removeOrderFromTrading(req.getOrder());
+                break;
+            }
+            case SNAPSHOT: {
+                // 本批之前的成交明细先追加，然后停下等待快照读取状态
+                finishReplay();
+                ((EnginePause) req.attachment).arriveAndWait(instrument.getSymbol(), getJournalSequence());
+                break;
+            }
+            case BOOK: {
+                @SuppressWarnings("unchecked")
+                var reply = (CompletableFuture<BookSnapshot>) req.attachment;
+                reply.complete(dumpBookSnapshot());
+                break;
+            }
+            default: {
+                throw new IllegalStateException("unexpected request type: " + req.reqType);
+            }
+        }
+    }
+
+    // 已处理到的日志序号；未启用日志时为0
+    long getJournalSequence() {
+        return journal == null ? replayFrom : journal.getLastSequence();
+    }
+
+    // 在撮合线程停下时设置，快照线程复制完订单后清除
+    void setOrderCut(OrderCut cut) {
+        this.orderCut = cut;
+    }
+
+    // 快照线程正在复制订单时，修改订单之前先记下它快照时刻的值
+    private void beforeChange(OrderEntity order) {
+        OrderCut cut = orderCut;
+        if (cut != null) {
+            cut.preserve(order);
+        }
+    }
+
+    // 让撮合线程处理到此命令时停下
+    void requestPause(EnginePause pause) {
+        commandRing.publish(QuotationReq.ReqType.SNAPSHOT, null, pause);
+    }
+
+    // 快照用：按价格优先、时间优先的顺序列出某方向的挂单ID，只能在撮合线程停下时调用
+    int[] getRestingOrderIds(TradeType side) {
+        int count = 0;
+        for (var q = orderBook.best(side); q != null; q = orderBook.next(side, q.getPrice())) {
+            count += q.getOrderCount();
+        }
+        int[] ids = new int[count];
+        int i = 0;
+        for (var q = orderBook.best(side); q != null; q = orderBook.next(side, q.getPrice())) {
+            for (OrderNode node = q.head; node != null; node = node.next) {
+                ids[i++] = node.order.getId();
+            }
+        }
+        return ids;
+    }
+
+    // 快照用：按触发顺序列出等待触发的止损单ID，只能在撮合线程停下时调用
+    int[] getStopOrderIds() {
+        return stopBook.getOrderIds();
+    }
+
+    // 快照用：最后一笔成交的ID，只能在撮合线程停下时调用
+    int getLastTradeId() {
+        return lastTradeId;
+    }
+
+    /**
+     * 快照恢复用(撮合线程启动之前)：按顺序把订单直接挂入报价簿、止损单放回触发簿，不撮合、不冻结资产(冻结额已在资产快照中)，
+     * 并记录快照对应的日志序号和最后的成交ID，之后只重放该序号之后的日志，成交ID和 tick id 接着分配。
+     */
+    void restoreBook(long journalSequence, int lastTradeId, List<OrderEntity> restingOrders, List<OrderEntity> stopOrders) {
+        for (OrderEntity order : stopOrders) {
+            stopBook.add(order);
+        }
+        for (OrderEntity order : restingOrders) {
+            TradeType side = order.getTradeType();
+            OrderNode node = newNode(order);
+            long remainingVol = order.getRemainingLots();
+            QuotationItem item = orderBook.get(side, order.getPriceTicks());
+            if (item == null) {
+                item = newLevel(order.getPriceTicks(), 0, side);
+                orderBook.add(item);
+            }
+            item.append(node);
+            levelChanged(side, item.getPrice(), item.getVolume(), item.getVolume() + remainingVol);
+            item.setVolume(item.getVolume() + remainingVol);
+            orderIndex.put(order.getId(), node);
+        }
+        publishBook();
+        this.replayFrom = journalSequence;
+        this.lastTradeId = lastTradeId;
+        tickRing.startAfter(lastTradeId);
+    }
+
+    long getReplayFrom() {
+        return replayFrom;
+    }
+
+    // 每批命令处理完后做一次的工作：发布本批的成交明细和报价簿，记录批大小
+    private void finishBatch(long batchSize) {
+        tickRing.publish();
+        tradeTape.publish();
+        publishBook();
+        batchSizes.record(batchSize);
+    }
+
+    // 成功返回 true；失败时原因记在订单的 messge 中。
+    // 撤单请求中的订单只用来取ID，修改的是报价簿、触发簿中挂着的那个实例
+    private boolean removeOrderFromTrading(OrderEntity order) {
+        OrderNode node = orderIndex.remove(order.getId());
+        if (node == null) {
+            OrderEntity stop = stopBook.remove(order.getId());
+            if (stop != null) {
+                // 还没有触发的止损单：从触发簿中移除，解冻
+                beforeChange(stop);
+                return cancelRemaining(stop);
+            }
+            // 已经成交完毕、已撤销，或者还没有进入报价簿
+            var msg = "order {%s} is not in order book, status=%s".formatted(order.getId(), order.getStatus());
+            logger.debug(msg);
+            order.setMessge(msg);
+            return false;
+        }
+        OrderEntity resting = node.order;
+        beforeChange(resting);
+        QuotationItem level = node.level;
+        long remainingVol = resting.getRemainingLots();
+        level.unlink(node);
+        freeNode(node);
+        levelChanged(level.getTradeType(), level.getPrice(), level.getVolume(), level.getVolume() - remainingVol);
+        level.setVolume(level.getVolume() - remainingVol);
+        if (level.isEmpty()) {
+            orderBook.remove(level);
+            freeLevel(level);
+        }
+        // 解冻未成交部分
+        return cancelRemaining(resting);
+    }
+
+    // 成功返回 true；失败时原因记在订单的 messge 中
+    private boolean addOrderToTradingInternal(
+            OrderEntity order,
+            TradeType thisDir,  // 本方向，订单未成交部分挂在这里
+            TradeType otherDir, // 对手方向
+            boolean prepared) { // 资产已经冻结(被触发的止损单)
+        {
+            // FOK、IOC：先在不修改报价簿的情况下检查能否成交，FOK 要能全部成交，IOC 要能和对手方最优价成交；
+            // 不能时整单撤销，不冻结资产
+            if (order.getTimeInForce() == TimeInForce.FOK && !canFillCompletely(order, otherDir)) {
+                order.setMessge("FOK order can not be filled completely");
+                if (prepared) {
+                    return cancelRemaining(order);
+                }
+                order.setStatus(OrderStatus.CANCELED);
+                order.getUpdatedAt().setTime(commandTime);
+                return true;
+            }
+            if (order.getTimeInForce() == TimeInForce.IOC && !canFill(order, otherDir)) {
+                order.setMessge("IOC order can not be filled");
+                if (prepared) {
+                    return cancelRemaining(order);
+                }
+                order.setStatus(OrderStatus.CANCELED);
+                order.getUpdatedAt().setTime(commandTime);
+                return true;
+            }
+            // 冻结资金
+            if (!prepared && !prepareTrading(order)) {
+                return false;
+            }
+
+            QuotationItem best = orderBook.best(otherDir);
+            if(best != null && isCrossed(order, best)){ // 对手方最优价可成交
+                processMatch(order);
+                if(order.getStatus() == OrderStatus.FINISHED) {
+                    // 不用 Assert.isTrue(boolean, Supplier)：捕获 order 的 lambda 每次都要分配
+                    if (order.getFinishedLots() != order.getAmountLots()) {
+                        throw new IllegalArgumentException("OrderStatus.FINISHED, but order amount not consistent, amount=%s, and finished=%s"
+                                .formatted(order.getAmount(), order.getFinishedAmount()));
+                    }
+                    return true;
+                }
+                if (order.getStatus() == OrderStatus.FAILED) {
+                    // 清算失败，挂单已恢复，原因已记在订单中，见 rollbackOrders()
+                    return false;
+                }
+                if(order.getStatus() != OrderStatus.TRADING){
+                    var msg = "Get strange error, MAY be internal issues need to check, %s".formatted(GSON.toJson(order));
+                    logger.warn(msg);
+                    order.setMessge(msg);
+                    return false;
+                }
+            }
+            if (order.getTimeInForce() != TimeInForce.GTC) {
+                // IOC 的剩余部分(FOK 已预先检查过，不会走到这里)不挂单，直接撤销并解冻
+                return cancelRemaining(order);
+            }
+            if (logger.isTraceEnabled()) {
+                logger.trace("add order to trading Q, order = {}", GSON.toJson(order));
+            }
+
+            order.setStatus(OrderStatus.TRADING);
+            long remainingVol = order.getRemainingLots();
+            OrderNode node = newNode(order);
+            QuotationItem item = orderBook.get(thisDir, order.getPriceTicks());
+            if(item == null){
+                QuotationItem newItem = newLevel(order.getPriceTicks(), remainingVol, thisDir);
+                newItem.append(node);
+                orderBook.add(newItem);
+                levelChanged(thisDir, order.getPriceTicks(), 0, remainingVol);
+            }else{
+                item.append(node);
+                levelChanged(thisDir, item.getPrice(), item.getVolume(), item.getVolume() + remainingVol);
+                // 本价格下的总挂单额 = 原挂单额 + （订单总额-订单已成交额）
+                item.setVolume(item.getVolume() + remainingVol);
+            }
+            orderIndex.put(order.getId(), node);
+            return true;
+        }
+    }
+    // 对手方最优价能否和 order 成交，只读报价簿
+    private boolean canFill(OrderEntity order, TradeType otherDir) {
+        QuotationItem best = orderBook.best(otherDir);
+        return best != null && isCrossed(order, best);
+    }
+
+    // 对手方可成交的挂单量是否够 order 全部成交，只读报价簿
+    private boolean canFillCompletely(OrderEntity order, TradeType otherDir) {
+        long needed = order.getRemainingLots();
+        for (var q = orderBook.best(otherDir); q != null && isCrossed(order, q); q = orderBook.next(otherDir, q.getPrice())) {
+            needed -= q.getVolume();
+            if (needed <= 0) return true;
+        }
+        return false;
+    }
+
+    // 不挂单的订单：未成交部分撤销并解冻，已成交部分保留
+    private boolean cancelRemaining(OrderEntity order) {
+        order.setStatus(OrderStatus.CANCELED);
+        order.getUpdatedAt().setTime(commandTime);
+        var result = clearingService.cancelTrading(order);
+        if (!result.isSuccess()) {
+            logger.warn("cancelTrading failed, order={}, msg={}", order.getId(), result.getMessage());
+            order.setMessge(result.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    private boolean prepareTrading(OrderEntity order) {
+        long start = System.nanoTime();
+        Result<Void> result = clearingService.prepareTrading(order);
+        stageTimers.record(OrderStageTimers.Stage.FREEZE, System.nanoTime() - start);
+        if (!result.isSuccess()){
+            order.setStatus(OrderStatus.FAILED);
+            order.setMessge(result.getMessage());
+            logger.debug(result.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    private boolean addOrderToTrading(OrderEntity order){
+        if (logger.isTraceEnabled()) {
+            logger.trace("addOrderToQ(), get an order: {}", GSON.toJson(order));
+        }
+        if (order.getTriggerPriceTicks() != 0) {
+            // 止损单：先冻结资产，放入触发簿，等成交价触发后再撮合；触发只看之后的成交，重放时结果相同
+            if (!prepareTrading(order)) {
+                return false;
+            }
+            order.setStatus(OrderStatus.TRADING);
+            stopBook.add(order);
+            return true;
+        }
+        return matchOrder(order, false);
+    }
+
+    // 本条命令的成交触发的止损单，按触发顺序作为限价单撮合；它们的成交可能继续触发，直到没有新的触发
+    private void activateTriggeredStops() {
+        for (int i = 0; i < triggeredStops.size(); i++) {
+            OrderEntity order = triggeredStops.get(i);
+            beforeChange(order);
+            if (logger.isDebugEnabled()) {
+                logger.debug("stop order {} triggered", order.getId());
+            }
+            matchOrder(order, true);
+        }
+        triggeredStops.clear();
+    }
+
+    private boolean matchOrder(OrderEntity order, boolean prepared) {
+        switch (order.getTradeType()){
+            case BUY: {
+                return addOrderToTradingInternal(order, TradeType.BUY, TradeType.SELL, prepared);
+            }
+            case SELL: {
+                return addOrderToTradingInternal(order, TradeType.SELL, TradeType.BUY, prepared);
+            }
+            default:{
+                var msg = String.format("invalid request TYPE {%s}", order.getTradeType());
+                throw new IllegalStateException(msg);
+            }
+        }
+    }
+
+    private void processMatch(OrderEntity order) {
+
+        matchedOrders.clear();
+        final TradeType workingDir = order.getTradeType() == TradeType.BUY ? TradeType.SELL : TradeType.BUY;
+        // 寻找可撮合的交易
+        long start = System.nanoTime();
+        findMatchedOrders(order, matchedOrders, workingDir);
+        long matched = System.nanoTime();
+        stageTimers.record(OrderStageTimers.Stage.MATCH, matched - start);
+        if(matchedOrders.isEmpty()) return;
+        //清算，资金划拨、解冻
+        boolean cleared = clearOrders(order, matchedOrders);
+        stageTimers.record(OrderStageTimers.Stage.CLEAR, System.nanoTime() - matched);
+        if(!cleared){
+            logger.warn("clearOrders failed, call rollback()");
+            rollbackOrders(order, matchedOrders);
+        }
+        matchedOrders.clear(); // 不再持有已成交的订单
+    }
+
+    // 清算失败时余额没有任何变化(applyDeltas 全部检查通过后才修改)，这里把报价簿恢复到撮合之前：
+    // 被吃掉的挂单按原来的时间顺序放回档位队头，部分成交的挂单只恢复档位挂单量；吃单方撤销并解冻。
+    // 恢复过程只依赖撮合前的状态，重放日志时得到相同的报价簿、增量序号和校验和
+    private void rollbackOrders(OrderEntity order, List<OrderEntity> matchedOrders) {
+        for (int i = matchedOrders.size() - 1; i >= 0; i--) {
+            OrderEntity maker = matchedOrders.get(i);
+            long lots = maker.getProcessingLots();
+            maker.setProcessingLots(0);
+            maker.setStatus(OrderStatus.TRADING);
+            OrderNode node = orderIndex.get(maker.getId());
+            TradeType side = maker.getTradeType();
+            if (node != null) {
+                // 部分成交的挂单还在档位中
+                QuotationItem level = node.level;
+                levelChanged(side, level.getPrice(), level.getVolume(), level.getVolume() + lots);
+                level.setVolume(level.getVolume() + lots);
+                continue;
+            }
+            node = newNode(maker);
+            QuotationItem level = orderBook.get(side, maker.getPriceTicks());
+            if (level == null) {
+                level = newLevel(maker.getPriceTicks(), 0, side);
+                orderBook.add(level);
+            }
+            level.prepend(node);
+            levelChanged(side, level.getPrice(), level.getVolume(), level.getVolume() + lots);
+            level.setVolume(level.getVolume() + lots);
+            orderIndex.put(maker.getId(), node);
+        }
+        order.setProcessingLots(0);
+        var result = clearingService.cancelTrading(order);
+        if (!result.isSuccess()) {
+            // 冻结的资产解不开说明余额表已经和订单不一致，不能继续撮合
+            throw new IllegalStateException("rollback of order %s failed: %s".formatted(order.getId(), result.getMessage()));
+        }
+    }
+
+    private void logTradingDetail(OrderEntity order, List<OrderEntity> finishedOrders){
+        long now = commandTime;
+        var status = (order.getStatus()==OrderStatus.FAILED)? OrderStatus.FAILED:OrderStatus.FINISHED;
+        for (int i = 0; i < finishedOrders.size(); i++) {
+            OrderEntity orderTo = finishedOrders.get(i);
+            int id = ++lastTradeId;
+            // 成交价是挂单方(maker)的价格，与清算一致；主动卖单的限价只是它能接受的最低价
+            long price = orderTo.getPriceTicks();
+            long amount = orderTo.getProcessingLots();
+            // 本批处理完后统一发布，见 finishBatch()
+            tradeTape.add(id, order.getId(), orderTo.getId(), order.getTradeType(), status,
+                    price, amount, now);
+            candles.onTrade(now, price, amount);
+            tickRing.append(now, price, amount);
+            if (stopBook.size() > 0) {
+                stopBook.trigger(price, triggeredStops); // 本条命令处理完后撮合，见 activateTriggeredStops()
+            }
+        }
+    }
+    private boolean clearOrders(OrderEntity order, List<OrderEntity> finishedOrders) {
+        var now = commandTime;
+        // 清算资金，解冻、转账
+        var result = clearingService.finishTrading(order, finishedOrders);
+        if(result.isSuccess()){
+            logTradingDetail(order, finishedOrders); //记录交易明细
+            for (int i = 0; i < finishedOrders.size(); i++) {
+                updateOrder(finishedOrders.get(i), now);
+            }
+            updateOrder(order, now);
+            return true;
+        }
+        // 清算服务失败，理论上不应该运行到这里，因为资金都是冻结过的
+        // 在清算服务中，对失败订单，只修改订单状态
+        order.setStatus(OrderStatus.FAILED);
+        order.getUpdatedAt().setTime(now);
+        finishedOrders.forEach(o ->{
+            //o.setProcessingLots(0); // 暂不修改中间变量，留给上层处理，看具体是什么问题，决定后续流程
+            o.setStatus(OrderStatus.FAILED);
+            o.getUpdatedAt().setTime(now);
+        });
+        logger.warn(result.getMessage());
+        order.setMessge(result.getMessage());
+        return false;
+    }
+
+    private static void updateOrder(OrderEntity order, long now) {
+        order.setFinishedLots(order.getFinishedLots() + order.getProcessingLots());
+        order.setProcessingLots(0);
+        var status = (order.getAmountLots() == order.getFinishedLots()) ? OrderStatus.FINISHED : OrderStatus.TRADING;
+        order.setStatus(status);
+        order.getUpdatedAt().setTime(now);
+    }
+
+    // 对手方档位价格是否可与 order 成交
+    private static boolean isCrossed(OrderEntity order, QuotationItem level) {
+        return order.getTradeType() == TradeType.BUY
+                ? level.getPrice() <= order.getPriceTicks()
+                : level.getPrice() >= order.getPriceTicks();
+    }
+
+    private void findMatchedOrders(OrderEntity order, List<OrderEntity> finishedOrders, TradeType quotationDir) {
+
+        long tobeFinished = order.getRemainingLots();
+        partialOrders.clear();
+        long now = commandTime;
+
+        // 从对手方最优价开始逐档撮合，被完全吃掉的档位立即删除，下一个最优价即为下一档
+        QuotationItem quotationItem;
+        while (tobeFinished > 0 && (quotationItem = orderBook.best(quotationDir)) != null && isCrossed(order, quotationItem)) {
+            if(quotationItem.getVolume() <= tobeFinished) {
+                // 完全吃掉了此价格的卖单
+                for (OrderNode node = quotationItem.head; node != null; ) {
+                    OrderNode next = node.next;
+                    finishedOrders.add(node.order);
+                    orderIndex.remove(node.order.getId());
+                    freeNode(node);
+                    node = next;
+                }
+                tobeFinished -= quotationItem.getVolume();
+                orderBook.remove(quotationItem);//删除被吃掉的卖单
+                levelChanged(quotationDir, quotationItem.getPrice(), quotationItem.getVolume(), 0);
+                freeLevel(quotationItem);
+            } else{
+                //只能吃掉此价格的部分卖单，按时间顺序从队头开始
+                long levelVolume = quotationItem.getVolume();
+                OrderNode node = quotationItem.head;
+                while (node != null && tobeFinished > 0) {
+                    OrderNode next = node.next;
+                    OrderEntity orderEntity = node.order;
+                    long orderRemainingVol = orderEntity.getRemainingLots(); //减掉已经完成的部分
+                    if(orderRemainingVol <= tobeFinished){
+                        finishedOrders.add(orderEntity);
+                        //删除被吃掉的卖单，部分成交的订单不能被删除！
+                        quotationItem.unlink(node);
+                        orderIndex.remove(orderEntity.getId());
+                        freeNode(node);
+                        quotationItem.setVolume(quotationItem.getVolume() - orderRemainingVol);
+                        tobeFinished -= orderRemainingVol;
+                    }else{
+                        // 处理partial order，即只满足了部分成交的订单，可能用子订单会更好一些
+                        beforeChange(orderEntity);
+                        orderEntity.setStatus(OrderStatus.CLEARING);
+                        orderEntity.setProcessingLots(tobeFinished);
+                        orderEntity.getUpdatedAt().setTime(now);
+                        partialOrders.add(orderEntity);
+
+                        quotationItem.setVolume(quotationItem.getVolume() - tobeFinished);
+                        tobeFinished = 0;
+                    }
+                    node = next;
+                }
+                levelChanged(quotationDir, quotationItem.getPrice(), levelVolume, quotationItem.getVolume());
+            }
+        }
+        for (int i = 0; i < finishedOrders.size(); i++) {
+            OrderEntity e = finishedOrders.get(i);
+            beforeChange(e);
+            e.setStatus(OrderStatus.CLEARING);
+            e.setProcessingLots(e.getRemainingLots());
+            e.getUpdatedAt().setTime(now);
+        }
+
+        for (int i = 0; i < partialOrders.size(); i++) {
+            finishedOrders.add(partialOrders.get(i));
+        }
+        partialOrders.clear();
+        // SETUP original order properly
+        order.setStatus(OrderStatus.CLEARING);
+        order.setProcessingLots(order.getRemainingLots() - tobeFinished); // 考虑到还有未满足的数量
+        order.getUpdatedAt().setTime(now);
+    }
+
+    private OrderNode newNode(OrderEntity order) {
+        OrderNode node = freeNodes;
+        if (node == null) {
+            return new OrderNode(order);
+        }
+        freeNodes = node.next;
+        node.next = null;
+        node.order = order;
+        return node;
+    }
+
+    // 节点已从档位和挂单索引中摘除
+    private void freeNode(OrderNode node) {
+        node.order = null;
+        node.level = null;
+        node.prev = null;
+        node.next = freeNodes;
+        freeNodes = node;
+    }
+
+    private QuotationItem newLevel(long price, long volume, TradeType side) {
+        QuotationItem level = freeLevels.pollFirst();
+        if (level == null) {
+            return new QuotationItem(price, volume, side);
+        }
+        level.setPrice(price);
+        level.setVolume(volume);
+        level.setTradeType(side);
+        return level;
+    }
+
+    // 档位已从报价簿中删除，其中的节点已回收
+    private void freeLevel(QuotationItem level) {
+        level.head = null;
+        level.tail = null;
+        level.orderCount = 0;
+        level.setVolume(0);
+        freeLevels.addFirst(level);
+    }
+}
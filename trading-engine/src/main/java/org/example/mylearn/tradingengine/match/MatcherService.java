@@ -1,30 +1,100 @@
 package org.example.mylearn.tradingengine.match;
 
 import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.marketdata.Candle;
+import org.example.mylearn.tradingengine.marketdata.CandleInterval;
 import org.example.mylearn.tradingengine.order.OrderEntity;
 import org.example.mylearn.tradingengine.order.TradeType;
 
 import java.sql.Timestamp;
-import java.util.HashMap;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public interface MatcherService {
 
-    // Submit order to match engine
+    // Submit order to match engine, routed by order's symbol
     public Result<OrderEntity> submitOrder(OrderEntity order);
 
     public Result<OrderEntity> cancelOrder(OrderEntity order);
 
+    // 品种的订单各阶段耗时统计，品种不存在时返回 null
+    public OrderStageTimers getStageTimers(String symbol);
+
+    /**
+     * 撮合线程处理完这笔已提交的订单(挂单、部分/全部成交或被拒绝)后完成，代替轮询订单状态。
+     * 已经处理过的订单立即完成；future 的回调在撮合线程中执行，不能阻塞。
+     */
+    public CompletableFuture<OrderEntity> awaitProcessed(OrderEntity order);
+
     /**
      * Gte last N tradingDetails ordered by trading time
      *  lastNumItems: >0: number of items; -1: all items
     */
-    public Result<List<TradingDetail>> getTradingDetails(int lastNumItems);
+    public Result<List<TradingDetail>> getTradingDetails(String symbol, int lastNumItems);
+
+    // 按成交ID(品种内连续分配)查询一笔成交，只能查到仍在内存中的成交
+    public Result<TradingDetail> getTradingDetail(String symbol, int tradeId);
+
+    // 获取前 N 档报价(撮合线程每批结束后发布的只读视图，买卖双方均为最优价在前)，symbol 未注册时返回 null
+    public Map<TradeType, List<QuotationInfo>> getQuotationInfo(String symbol);
+
+    public Result<List<RealTimeTick>> getRealTimeTicks(String symbol, Timestamp start, int numTicks);
+
+    // 开始时间在 [start, end] 之间的K线(为 null 时不限)，超过 maxItems 根时返回最近的 maxItems 根
+    public Result<List<Candle>> getCandles(String symbol, CandleInterval interval, Timestamp start, Timestamp end, int maxItems);
+
+    // 报价簿全量，带对应的增量序号和校验和
+    public Result<BookSnapshot> getBookSnapshot(String symbol);
+
+    // 序号大于 fromSequence 的报价簿增量，最多 maxItems 条；落后太多时返回 BOOK_RESYNC_REQUIRED
+    public Result<List<BookDelta>> getBookDeltas(String symbol, long fromSequence, int maxItems);
+
+    // 启动时在资产初始化之后调用：按全局序号合并重放撮合日志和转账日志，然后启动撮合线程(未启用日志时撮合线程已经启动)
+    public void recover();
+
+    /**
+     * 快照用：让所有撮合线程停在命令流中的同一位置，执行 action(参数为 symbol -> 已处理到的日志序号)，然后放行。
+     * 撮合线程尚未启动或等待超时返回 false。
+     */
+    public boolean runPaused(Consumer<Map<String, Long>> action);
+
+    // 按价格优先、时间优先的顺序列出挂单ID，只能在 runPaused 的 action 中调用
+    public int[] getRestingOrderIds(String symbol, TradeType side);
+
+    // 按触发顺序列出等待触发的止损单ID，只能在 runPaused 的 action 中调用
+    public int[] getStopOrderIds(String symbol);
+
+    // 最后一笔成交的ID(成交ID按品种由撮合线程分配)，只能在 runPaused 的 action 中调用
+    public int getLastTradeId(String symbol);
+
+    // 开始记录订单在此刻的值，只能在 runPaused 的 action 中调用；快照线程读完订单后调用 endOrderCut
+    public OrderCut beginOrderCut();
+
+    public void endOrderCut();
+
+    // 快照恢复用，在 recover() 之前调用：按顺序挂入订单、放回止损单(不撮合、不冻结)，recover() 只重放 journalSequence 之后的日志，
+    // 成交ID从 lastTradeId 之后接着分配
+    public void restoreBook(String symbol, long journalSequence, int lastTradeId, List<OrderEntity> restingOrders, List<OrderEntity> stopOrders);
+
+    // 快照恢复用，在 recover() 之前调用：之后分配的全局序号大于 globalSequence，recover() 只重放 transferSequence 之后的转账
+    public void restoreTransferPosition(long globalSequence, long transferSequence);
+
+    // 快照写入后调用：删除只包含已被快照覆盖的命令、转账的日志文件
+    public void truncateJournals(Map<String, Long> journalSequences, long transferSequence);
 
-    // 获取实时报价信息
-    public HashMap<TradeType, TreeSet<QuotationInfo>> getQuotationInfo();
+    // 以下为默认品种(APPL/USD)的便捷方法
+    default Result<List<TradingDetail>> getTradingDetails(int lastNumItems) {
+        return getTradingDetails(Instrument.DEFAULT_SYMBOL, lastNumItems);
+    }
 
-    public Result<List<RealTimeTick>> getRealTimeTicks(Timestamp start, int numTicks);
+    default Map<TradeType, List<QuotationInfo>> getQuotationInfo() {
+        return getQuotationInfo(Instrument.DEFAULT_SYMBOL);
+    }
 
+    default Result<List<RealTimeTick>> getRealTimeTicks(Timestamp start, int numTicks) {
+        return getRealTimeTicks(Instrument.DEFAULT_SYMBOL, start, numTicks);
+    }
 }
@@ -1,403 +1,475 @@
 package org.example.mylearn.tradingengine.match;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.example.mylearn.common.ErrorCode;
 import org.example.mylearn.common.Result;
-import org.example.mylearn.common.util.SnapshotList;
+import org.example.mylearn.tradingengine.asset.AssetService;
 import org.example.mylearn.tradingengine.clearing.ClearingService;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.instrument.InstrumentRegistry;
+import org.example.mylearn.tradingengine.journal.CommandJournal;
+import org.example.mylearn.tradingengine.journal.JournalRecord;
+import org.example.mylearn.tradingengine.journal.JournalSequencer;
+import org.example.mylearn.tradingengine.marketdata.Candle;
+import org.example.mylearn.tradingengine.marketdata.CandleAggregator;
+import org.example.mylearn.tradingengine.marketdata.CandleInterval;
 import org.example.mylearn.tradingengine.order.OrderEntity;
-import org.example.mylearn.tradingengine.order.OrderStatus;
+import org.example.mylearn.tradingengine.order.OrderService;
 import org.example.mylearn.tradingengine.order.TradeType;
-import org.example.mylearn.tradingengine.rpcclient.SequenceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.util.Assert;
 
-import java.math.BigDecimal;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.util.*;
-import java.util.concurrent.ConcurrentSkipListSet;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
+/**
+ * 撮合服务：为 InstrumentRegistry 中的每个品种创建一个 MatchEngine(报价簿 + 撮合线程)，
+ * 并按订单的 symbol 把命令路由到对应的引擎。
+ */
 @Service
 public class MatcherServiceImpl implements MatcherService {
     @Autowired
     ClearingService  clearingService;
     @Autowired
-    SequenceService sequenceService;
-    
-    private final Logger logger = LoggerFactory.getLogger(MatcherServiceImpl.class);
-
-    private final ConcurrentSkipListSet<QuotationItem> buyQuotations =
-            new ConcurrentSkipListSet<>(Comparator.comparing(QuotationItem::getPrice).reversed()); //降序
-    private final ConcurrentSkipListSet<QuotationItem> sellQuotations =
-            new ConcurrentSkipListSet<>(Comparator.comparing(QuotationItem::getPrice)); // 升序
+    InstrumentRegistry instrumentRegistry;
 
-    private final SnapshotList<TradingDetail> tradingDetailList = new SnapshotList<>(new LinkedList<>()) ;
-    private final LinkedBlockingQueue<QuotationReq> waitingOrderQueue = new LinkedBlockingQueue<>();
-    private final List<Thread> threads = new ArrayList<>();
+    private final Logger logger = LoggerFactory.getLogger(MatcherServiceImpl.class);
 
-    private final static Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-    private final static RandomStringUtils RANDOM = RandomStringUtils.secure();
+    // 报价簿实现: LADDER(默认), SKIPLIST(原实现), COMPARE(两者同时运行并比对)
+    @Value("${trading.match.order-book:LADDER}")
+    OrderBook.OrderBookType orderBookType = OrderBook.OrderBookType.LADDER;
+    // LADDER 报价簿的数组窗口大小(tick数)，窗口外的价格进入稀疏表
+    @Value("${trading.match.ladder-size:65536}")
+    int ladderSize = 65536;
+    // 撮合命令环形缓冲区大小(2的幂)，以及撮合线程等待新命令的方式
+    @Value("${trading.match.ring-size:65536}")
+    int ringSize = 65536;
+    // 环中未处理的命令超过 high 百分比后拒绝新订单，降到 low 百分比以下才恢复；撤单不受限制
+    @Value("${trading.match.admission-high-watermark-percent:75}")
+    int admissionHighPercent = 75;
+    @Value("${trading.match.admission-low-watermark-percent:50}")
+    int admissionLowPercent = 50;
+    @Value("${trading.match.wait-strategy:BLOCKING}")
+    WaitStrategy.WaitStrategyType waitStrategyType = WaitStrategy.WaitStrategyType.BLOCKING;
+    // 保留最近多少条报价簿增量(2的幂)，以及查询全量时等待撮合线程的最长时间
+    @Value("${trading.match.book-delta-log-size:65536}")
+    int bookDeltaLogSize = 65536;
+    @Value("${trading.match.book-query-timeout-ms:1000}")
+    long bookQueryTimeoutMs = 1000;
+    // 报价查询(listQuotation)返回的档位数
+    @Value("${trading.match.depth-levels:50}")
+    int depthLevels = 50;
+    // 每个周期保留的K线根数
+    @Value("${trading.match.candle-capacity:1440}")
+    int candleCapacity = 1440;
+    // 保留的最近成交 tick 笔数(2的幂)
+    @Value("${trading.match.tick-capacity:65536}")
+    int tickCapacity = 65536;
+    // 内存中保留的成交明细：每块笔数、块数(都是2的幂)；淘汰的成交写入 archive-dir，为空时丢弃
+    @Value("${trading.match.trade-chunk-size:4096}")
+    int tradeChunkSize = 4096;
+    @Value("${trading.match.trade-retain-chunks:64}")
+    int tradeRetainChunks = 64;
+    @Value("${trading.match.trade-archive-dir:}")
+    String tradeArchiveDir = "";
+    // 订单各阶段耗时的百分位统计窗口，分成 stage-buffer-length 段轮换
+    @Value("${trading.metrics.stage-window:60s}")
+    Duration stageWindow = Duration.ofSeconds(60);
+    @Value("${trading.metrics.stage-buffer-length:3}")
+    int stageBufferLength = 3;
+    // 撮合线程一批最多处理的命令数
+    @Value("${trading.match.max-batch-size:1024}")
+    int maxBatchSize = 1024;
+    // 开启快照时，由 recover() 在快照恢复之后再启动撮合线程
+    @Value("${trading.snapshot.enabled:false}")
+    boolean snapshotEnabled = false;
+    // 撮合命令日志，默认关闭；开启后由 recover() 重放日志后再启动撮合线程
+    @Value("${trading.journal.enabled:false}")
+    boolean journalEnabled = false;
+    @Value("${trading.journal.dir:./data/journal}")
+    String journalDir = "./data/journal";
+    @Value("${trading.journal.segment-size:67108864}")
+    int journalSegmentSize = 64 << 20;
+    @Value("${trading.journal.fsync:INTERVAL}")
+    CommandJournal.FsyncPolicy journalFsync = CommandJournal.FsyncPolicy.INTERVAL;
+    @Value("${trading.journal.fsync-every-n:64}")
+    int journalFsyncEveryN = 64;
+    @Value("${trading.journal.fsync-interval-ms:10}")
+    long journalFsyncIntervalMs = 10;
+    // 快照时等待全部撮合线程停下的最长时间
+    @Value("${trading.snapshot.pause-timeout-ms:1000}")
+    long pauseTimeoutMs = 1000;
+    // 重放日志时重建订单
+    @Autowired
+    OrderService orderService;
+    // 撮合日志开启时，外部转账写入同一目录下的转账日志，和撮合命令共用全局序号；没有资产服务时(如单元测试)不记录
+    @Autowired(required = false)
+    AssetService assetService;
+    // 没有 actuator 时(如单元测试)使用本地的 SimpleMeterRegistry
+    @Autowired(required = false)
+    MeterRegistry meterRegistry;
+
+    // symbol -> 撮合引擎，init() 之后只读
+    private final Map<String, MatchEngine> engines = new HashMap<>();
+    private volatile boolean recovered;
+    private final List<TradeArchive> tradeArchives = new ArrayList<>();
+    private static final String TRANSFER_JOURNAL = "_transfers";
+    private final JournalSequencer sequencer = new JournalSequencer();
+    private CommandJournal transferJournal;
+    // 快照已包含此序号及之前的转账
+    private long transferReplayFrom;
 
     @Override
     public Result<OrderEntity> submitOrder(OrderEntity order) {
-        QuotationReq req = new QuotationReq();
-        order.setStatus(OrderStatus.PREPARING);
-        req.setOrder(order);
-        req.setAdd();// 提交
-        waitingOrderQueue.add(req);
-        return Result.ok(order);
+        MatchEngine engine = engines.get(order.getInstrument().getSymbol());
+        if (engine == null) {
+            return unknownSymbol(order, order.getInstrument().getSymbol());
+        }
+        return engine.submitOrder(order);
     }
 
     @Override
-    public Result<OrderEntity> cancelOrder(OrderEntity order) {
-        QuotationReq req = new QuotationReq();
-        order.setStatus(OrderStatus.CANCELLING);
-        req.setOrder(order);
-        req.setRmove();
-        waitingOrderQueue.add(req);
-        return Result.ok(order);
+    public CompletableFuture<OrderEntity> awaitProcessed(OrderEntity order) {
+        MatchEngine engine = engines.get(order.getInstrument().getSymbol());
+        if (engine == null) {
+            return CompletableFuture.completedFuture(order); // 不会被撮合
+        }
+        return engine.awaitProcessed(order);
     }
 
     @Override
-    public HashMap<TradeType, TreeSet<QuotationInfo>> getQuotationInfo() {
-
-        HashMap<TradeType, TreeSet<QuotationInfo>> map = new HashMap<>();
-        TreeSet<QuotationInfo> sellSet =  new TreeSet<>(Comparator.comparing(QuotationInfo::getPrice));
-        TreeSet<QuotationInfo> buySet =  new TreeSet<>((o1, o2) -> o2.getPrice().compareTo(o1.getPrice()));
-        map.put(TradeType.BUY, buySet);
-        map.put(TradeType.SELL,sellSet);
-        sellQuotations.forEach( q -> {
-            QuotationInfo info = dumpQuotationItemToQuotationInfo(q);
-            map.get(q.getTradeType()).add(info);
-        });
-        buyQuotations.forEach( q -> {
-            QuotationInfo info = dumpQuotationItemToQuotationInfo(q);
-            map.get(q.getTradeType()).add(info);
-        });
-        return map;
+    public OrderStageTimers getStageTimers(String symbol) {
+        MatchEngine engine = engines.get(symbol);
+        return engine == null ? null : engine.getStageTimers();
     }
 
     @Override
-    public Result<List<TradingDetail>> getTradingDetails(int lastNumItems){
-        if(lastNumItems <=0){
-            return Result.fail(null, ErrorCode.INVALID_PARAM,
-                    "lastNumItems %s is null or lower than 0".formatted(lastNumItems));
+    public Result<OrderEntity> cancelOrder(OrderEntity order) {
+        MatchEngine engine = engines.get(order.getInstrument().getSymbol());
+        if (engine == null) {
+            return unknownSymbol(order, order.getInstrument().getSymbol());
         }
-        int start = Math.max(0, tradingDetailList.size() - lastNumItems);
-        int end = tradingDetailList.size();
-        List<TradingDetail> list = tradingDetailList.subList(start, end);
-        return Result.ok(list);
+        return engine.cancelOrder(order);
     }
 
     @Override
-    public Result<List<RealTimeTick>> getRealTimeTicks(Timestamp start, int numTicks){
-        var ticks = new ArrayList<RealTimeTick>();
-        if(numTicks == 0){ // do nothing!
-            return Result.ok(ticks);
-        }
-        if(numTicks < 0) numTicks = Integer.MAX_VALUE;
-        if(start == null) start = new Timestamp(0); //最早时间， 1970..
-        int pickedTicks = 0;
-
-        var ssTradingDetailList = tradingDetailList.snapshot();
-        ListIterator<TradingDetail> it = ssTradingDetailList.listIterator(ssTradingDetailList.size());
-        //for(var item : ssTradingDetailList){
-        while (it.hasPrevious()){
-            TradingDetail item = it.previous();
-            if(item.getUpdatedAt().before(start) || pickedTicks >= numTicks){
-                return Result.ok(ticks);
-            }
-            var seqRlt = sequenceService.newSequence();
-            if(!seqRlt.isSuccess()){
-                var msg = "generate Id fail! msg: %s".formatted(seqRlt.getMessage());
-                logger.warn(msg);
-                return Result.fail(null, seqRlt.getErrorCode(), seqRlt.getMessage());
-            }
-            var tick = new RealTimeTick();
-            tick.setId(seqRlt.getData());
-            tick.setTime(item.getUpdatedAt());
-            tick.setPrice(item.getPrice());
-            tick.setAmount(item.getAmount());
-            ticks.add(tick);
-            pickedTicks++;
+    public Map<TradeType, List<QuotationInfo>> getQuotationInfo(String symbol) {
+        MatchEngine engine = engines.get(symbol);
+        if (engine == null) {
+            return null;
         }
-        return Result.ok(ticks);
+        return engine.getQuotationInfo();
     }
 
-    private QuotationInfo dumpQuotationItemToQuotationInfo(QuotationItem item) {
-        var info = new QuotationInfo();
-        info.setPrice(item.getPrice());
-        info.setVolume(item.getVolume());
-        info.setTradeType(item.getTradeType());
-        return info;
+    @Override
+    public Result<List<TradingDetail>> getTradingDetails(String symbol, int lastNumItems) {
+        MatchEngine engine = engines.get(symbol);
+        if (engine == null) {
+            return unknownSymbol(null, symbol);
+        }
+        return engine.getTradingDetails(lastNumItems);
     }
 
-    @PostConstruct
-    public void init(){
-        Thread t = new Thread(()->{
-            logger.warn("Thread {} started.", Thread.currentThread().getName());
-            matchExecutor();
-        },"match-executor-thread");
+    @Override
+    public Result<TradingDetail> getTradingDetail(String symbol, int tradeId) {
+        MatchEngine engine = engines.get(symbol);
+        if (engine == null) {
+            return unknownSymbol(null, symbol);
+        }
+        return engine.getTradingDetail(tradeId);
+    }
 
-        t.start();
-        threads.add(t);
+    @Override
+    public Result<List<RealTimeTick>> getRealTimeTicks(String symbol, Timestamp start, int numTicks) {
+        MatchEngine engine = engines.get(symbol);
+        if (engine == null) {
+            return unknownSymbol(null, symbol);
+        }
+        return engine.getRealTimeTicks(start, numTicks);
     }
-    @PreDestroy
-    public void destroy(){
-        for (Thread t : threads){
-            t.interrupt();
-            logger.warn("Thread {} terminated.", t.getName());
+
+    @Override
+    public Result<List<Candle>> getCandles(String symbol, CandleInterval interval, Timestamp start, Timestamp end, int maxItems) {
+        MatchEngine engine = engines.get(symbol);
+        if (engine == null) {
+            return unknownSymbol(null, symbol);
         }
+        return engine.getCandles(interval, start, end, maxItems);
     }
 
-    private void matchExecutor() {
-        logger.warn("matchExecutor start...");
+    @Override
+    public Result<BookSnapshot> getBookSnapshot(String symbol) {
+        MatchEngine engine = engines.get(symbol);
+        if (engine == null) {
+            return unknownSymbol(null, symbol);
+        }
+        return engine.getBookSnapshot(bookQueryTimeoutMs);
+    }
 
-        while (true) {
-            try {
-                QuotationReq req = waitingOrderQueue.take();
-                switch (req.reqType) {
-                    case ADD: {
-                        var order = req.getOrder();
-                        var result = addOrderToTrading(order);
-                        if (!result.isSuccess()) {
-                            order.setMessge(result.getMessage());
-                        }
-                        break;
-                    }
-                    case REMOVE: {
-                        var order = req.getOrder();
-                        var result = removeOrderFromTrading(order);
-                        if (!result.isSuccess()) {
-                            order.setMessge(result.getMessage());
-                        }
-                        break;
-                    }
-                    default: {
-                        throw new IllegalStateException("unexpected request type: " + req.reqType);
-                    }
-                }
-            } catch (InterruptedException e) {
-                logger.debug("Thread {} Interrupted, exit now!", Thread.currentThread().getName());
-                // 关键：重新设置中断状态，让上层调用者知道线程该停止了
-                Thread.currentThread().interrupt();
-                return;
-            } catch (Exception e) {
-                logger.warn("Thread get a unexpected Exception, SKIPPED it! ", e);
-            }
+    @Override
+    public Result<List<BookDelta>> getBookDeltas(String symbol, long fromSequence, int maxItems) {
+        MatchEngine engine = engines.get(symbol);
+        if (engine == null) {
+            return unknownSymbol(null, symbol);
         }
+        return engine.getBookDeltas(fromSequence, maxItems);
     }
 
-    private Result<OrderEntity> removeOrderFromTrading(OrderEntity order) {
-        return new Result<>(true, order, ErrorCode.DEFAULT, "{ok}");
+    private static <T> Result<T> unknownSymbol(T data, String symbol) {
+        return Result.fail(data, ErrorCode.INVALID_PARAM, "unknown symbol '%s'".formatted(symbol));
     }
 
-    private Result<OrderEntity> addOrderToTradingInternal(
-            OrderEntity order,
-            ConcurrentSkipListSet<QuotationItem> thisDirQ,  // if BUY, this is buyQuotations, if SELL, this sellQuotations
-            ConcurrentSkipListSet<QuotationItem> otherDirQ) {
-        {
-            // 冻结资金
-            Result<OrderEntity> result = clearingService.prepareTrading(order);
-            if (!result.isSuccess()){
-                order.setStatus(OrderStatus.FAILED);
-                logger.debug(result.getMessage());
-                return result;
+    @PostConstruct
+    public void init(){
+        logger.info("order book type: {}, command ring size: {}, wait strategy: {}, max batch size: {}",
+                orderBookType, ringSize, waitStrategyType, maxBatchSize);
+        if (meterRegistry == null) {
+            meterRegistry = new SimpleMeterRegistry();
+        }
+        for (Instrument instrument : instrumentRegistry.getAll()) {
+            TradeArchive archive = null;
+            if (!tradeArchiveDir.isBlank()) {
+                archive = new TradeArchive(Path.of(tradeArchiveDir), instrument.getSymbol());
+                tradeArchives.add(archive);
             }
+            var commandRing = new CommandRingBuffer(ringSize, WaitStrategy.create(waitStrategyType));
+            var engine = new MatchEngine(instrument,
+                    OrderBook.create(orderBookType, ladderSize),
+                    commandRing,
+                    new BookDeltaLog(bookDeltaLogSize), new CandleAggregator(instrument, candleCapacity),
+                    new TickRing(tickCapacity), new TradeTape(instrument, tradeChunkSize, tradeRetainChunks, archive),
+                    depthLevels, maxBatchSize, clearingService, meterRegistry,
+                    new OrderStageTimers(meterRegistry, instrument.getSymbol(), stageWindow, stageBufferLength),
+                    new AdmissionControl(meterRegistry, instrument.getSymbol(), commandRing, admissionHighPercent, admissionLowPercent));
+            engines.put(instrument.getSymbol(), engine);
+            if (journalEnabled) {
+                engine.setJournal(new CommandJournal(Path.of(journalDir), instrument.getSymbol(), journalSegmentSize,
+                        journalFsync, journalFsyncEveryN, journalFsyncIntervalMs), sequencer);
+            }
+        }
+        if (journalEnabled && assetService != null) {
+            transferJournal = new CommandJournal(Path.of(journalDir), TRANSFER_JOURNAL, journalSegmentSize,
+                    journalFsync, journalFsyncEveryN, journalFsyncIntervalMs);
+        }
+        if (!journalEnabled && !snapshotEnabled) {
+            recovered = true;
+            engines.values().forEach(MatchEngine::start);
+        }
+    }
 
-            QuotationItem newItem = new QuotationItem(order.getPrice(), order.getAmount(), order.getTradeType(),new ArrayList<>());
-            if(!otherDirQ.headSet(newItem, true).isEmpty()){ // retieve all possible orders by prices
-                processMatch(order);
-                if(order.getStatus() == OrderStatus.FINISHED) {
-                    Assert.isTrue(
-                            order.getFinishedAmount().compareTo(order.getAmount()) == 0,
-                            "OrderStatus.FINISHED, but order amount not consistent, amount=%s, and finished=%s"
-                                    .formatted(order.getAmount(), order.getFinishedAmount()));
-                    return Result.ok(order);
-                }
-                if(order.getStatus() != OrderStatus.TRADING){
-                    var msg = "Get strange error, MAY be internal issues need to check, %s".formatted(GSON.toJson(order));
-                    logger.warn(msg);
-                    return Result.fail(order, ErrorCode.INTERNAL_ERROR, "msg");
-                }
+    /**
+     * 资产初始化之后调用：读出每个品种的撮合日志和转账日志中快照之后的记录，按全局序号合并重放，然后启动撮合线程。
+     * 外部转账和各品种命令的先后和原来一致，订单冻结时用到的充值不会因为重放顺序而不够。
+     * 重放期间提交的新命令留在环形缓冲区中，撮合线程启动后接着处理。
+     */
+    @Override
+    public synchronized void recover() {
+        if (recovered) return;
+        List<JournalRecord> records = new ArrayList<>();
+        long[] last = {sequencer.last()};
+        Map<JournalRecord, MatchEngine> owners = new IdentityHashMap<>();
+        for (MatchEngine engine : engines.values()) {
+            if (engine.getJournal() == null) continue;
+            long replayFrom = engine.getReplayFrom(); // 快照已包含此序号及之前的命令
+            long end = openJournal(engine.getJournal(), engine.getInstrument().getSymbol(), record -> {
+                last[0] = Math.max(last[0], record.globalSequence);
+                if (record.sequence <= replayFrom) return;
+                records.add(record);
+                owners.put(record, engine);
+            });
+            if (end < replayFrom) {
+                logger.warn("{}: journal ends at {} but snapshot is at {}, journal lost?", engine.getInstrument().getSymbol(), end, replayFrom);
             }
-            logger.trace("add order to trading Q, order = {}", GSON.toJson(order));
-
-            order.setStatus(OrderStatus.TRADING);
-            BigDecimal remainingVol = order.getAmount().subtract(order.getFinishedAmount());
-            newItem.setVolume(remainingVol);
-            var exist = thisDirQ.subSet(newItem, true, newItem,  true);
-            if(exist.isEmpty()){
-                newItem.getOrders().addLast(order);
-                thisDirQ.add(newItem);
-            }else{
-                QuotationItem item = exist.first(); //不要使用poll,pollFirst类,因为poll()会从queue中删除元素!
-                item.getOrders().addLast(order);
-                // 本价格下的总挂单额 = 原挂单额 + （订单总额-订单已成交额）
-                item.setVolume(item.getVolume().add(remainingVol));
+        }
+        if (transferJournal != null) {
+            long end = openJournal(transferJournal, TRANSFER_JOURNAL, record -> {
+                last[0] = Math.max(last[0], record.globalSequence);
+                if (record.sequence > transferReplayFrom) records.add(record);
+            });
+            if (end < transferReplayFrom) {
+                logger.warn("transfer journal ends at {} but snapshot is at {}, journal lost?", end, transferReplayFrom);
             }
-            return new Result<>(true, order, ErrorCode.DEFAULT, "{ok}");
         }
-    }
-    private Result<OrderEntity> addOrderToTrading(OrderEntity order){
-        logger.trace("addOrderToQ(), get an order: {}", GSON.toJson(order));
-        switch (order.getTradeType()){
-            case BUY: {
-                return addOrderToTradingInternal(order, buyQuotations, sellQuotations);
+        records.sort(Comparator.comparingLong(record -> record.globalSequence));
+        long replayed = 0;
+        for (JournalRecord record : records) {
+            if (record.isAssetChange()) {
+                assetService.replayTransfer(record);
+                replayed++;
+                continue;
             }
-            case SELL: {
-                return addOrderToTradingInternal(order, sellQuotations, buyQuotations);
+            MatchEngine engine = owners.get(record);
+            OrderEntity order = restoreOrder(engine.getInstrument(), record);
+            if (order != null) {
+                engine.replay(record.reqType, order, record.timestamp);
+                replayed++;
             }
-            default:{
-                var msg = String.format("invalid request TYPE {%s}", order.getTradeType());
-                throw new IllegalStateException(msg);
+        }
+        sequencer.advanceTo(last[0]);
+        if (transferJournal != null) {
+            assetService.startTransferLog(transferJournal, sequencer);
+        }
+        for (MatchEngine engine : engines.values()) {
+            if (engine.getJournal() != null) {
+                engine.finishReplay();
             }
+            engine.start();
+        }
+        if (!records.isEmpty() || last[0] > 0) {
+            logger.info("replayed {} of {} journal records, global sequence at {}", replayed, records.size(), last[0]);
         }
+        recovered = true;
     }
 
-    private void processMatch(OrderEntity order) {
-
-        List<OrderEntity> matchedOrders = new ArrayList<>();
-        final ConcurrentSkipListSet<QuotationItem> workingQ = order.getTradeType().compareTo(TradeType.BUY) == 0 ? sellQuotations : buyQuotations;
-        // 寻找可撮合的交易
-        findMatchedOrders(order, matchedOrders, workingQ);
-        if(matchedOrders.isEmpty()) return;
-        //清算，资金划拨、解冻
-        if(!clearOrders(order, matchedOrders).isSuccess()){
-            logger.warn("clearOrders failed, call rollback()");
-            rollbackOrders(matchedOrders);
+    private static long openJournal(CommandJournal journal, String name, Consumer<JournalRecord> consumer) {
+        try {
+            return journal.open(consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException("failed to open journal for " + name, e);
         }
     }
 
-    private void rollbackOrders(List<OrderEntity> matchedOrders) {
-        // TODO: 把单子重新加到交易池中
+    @Override
+    public boolean runPaused(Consumer<Map<String, Long>> action) {
+        if (!recovered) return false;
+        EnginePause pause = new EnginePause(engines.size());
+        engines.values().forEach(engine -> engine.requestPause(pause));
+        try {
+            if (!pause.awaitAll(pauseTimeoutMs)) {
+                logger.warn("match engines did not pause within {} ms", pauseTimeoutMs);
+                return false;
+            }
+            action.accept(pause.getJournalSequences());
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            pause.resume(); // 已经停下的引擎和之后才到达的引擎都会被放行
+        }
     }
 
-    private void logTradingDetail(OrderEntity order, List<OrderEntity> finishedOrders){
-
-        finishedOrders.forEach((orderTo) -> {
-            var detail = new TradingDetail();
+    @Override
+    public int[] getRestingOrderIds(String symbol, TradeType side) {
+        MatchEngine engine = engines.get(symbol);
+        return engine == null ? new int[0] : engine.getRestingOrderIds(side);
+    }
 
-            var seqRlt = sequenceService.newSequence();
-            if(!seqRlt.isSuccess()){
-                var msg = "get sequence id fail! msg: %s".formatted(seqRlt.getMessage());
-                logger.warn(msg);
-            }
-            detail.setId(seqRlt.getData());
-            detail.setFromOrderId(order.getId());
-            detail.setToOrderId(orderTo.getId());
+    @Override
+    public int[] getStopOrderIds(String symbol) {
+        MatchEngine engine = engines.get(symbol);
+        return engine == null ? new int[0] : engine.getStopOrderIds();
+    }
 
-            BigDecimal price = (order.getTradeType()==TradeType.SELL)?order.getPrice():orderTo.getPrice();
-            detail.setPrice(price);
-            detail.setAmount(orderTo.getProcessingAmount());
+    @Override
+    public int getLastTradeId(String symbol) {
+        MatchEngine engine = engines.get(symbol);
+        return engine == null ? 0 : engine.getLastTradeId();
+    }
 
-            detail.setTradeType(order.getTradeType());
-            var status = (order.getStatus()==OrderStatus.FAILED)? OrderStatus.FAILED:OrderStatus.FINISHED;
-            detail.setOrderStatus(status);
+    @Override
+    public OrderCut beginOrderCut() {
+        OrderCut cut = new OrderCut();
+        engines.values().forEach(engine -> engine.setOrderCut(cut));
+        return cut;
+    }
 
-            Timestamp now = new Timestamp(System.currentTimeMillis());
-            detail.setCreatedAt(now);
-            detail.setUpdatedAt(now);
+    @Override
+    public void endOrderCut() {
+        engines.values().forEach(engine -> engine.setOrderCut(null));
+    }
 
-            tradingDetailList.addLast(detail);
-        });
+    @Override
+    public synchronized void restoreBook(String symbol, long journalSequence, int lastTradeId, List<OrderEntity> restingOrders,
+                                         List<OrderEntity> stopOrders) {
+        if (recovered) {
+            throw new IllegalStateException("match engines already started");
+        }
+        MatchEngine engine = engines.get(symbol);
+        if (engine == null) {
+            logger.warn("snapshot contains unknown symbol {}, skipped", symbol);
+            return;
+        }
+        engine.restoreBook(journalSequence, lastTradeId, restingOrders, stopOrders);
     }
-    private Result<OrderEntity> clearOrders(OrderEntity order, List<OrderEntity> finishedOrders) {
-        var now = System.currentTimeMillis();
-        // 清算资金，解冻、转账
-        var result = clearingService.finishTrading(order, finishedOrders);
-        if(result.isSuccess()){
-            logTradingDetail(order, finishedOrders); //记录交易明细
-            finishedOrders.forEach(orderTo -> updateOrder(orderTo, now));
-            updateOrder(order, now);
-            return Result.ok(order);
+
+    @Override
+    public synchronized void restoreTransferPosition(long globalSequence, long transferSequence) {
+        if (recovered) {
+            throw new IllegalStateException("match engines already started");
         }
-        // 清算服务失败，理论上不应该运行到这里，因为资金都是冻结过的
-        // 在清算服务中，对失败订单，只修改订单状态
-        order.setStatus(OrderStatus.FAILED);
-        order.getUpdatedAt().setTime(now);
-        finishedOrders.forEach(o ->{
-            //o.setProcessingAmount(BigDecimal.ZERO); // 暂不修改中间变量，留给上层处理，看具体是什么问题，决定后续流程
-            o.setStatus(OrderStatus.FAILED);
-            o.getUpdatedAt().setTime(now);
-        });
-        logger.warn(result.getMessage());
-        return Result.fail(order, ErrorCode.INTERNAL_ERROR, result.getMessage());
+        sequencer.advanceTo(globalSequence);
+        transferReplayFrom = transferSequence;
     }
 
-    private static void updateOrder(OrderEntity order, long now) {
-        order.setFinishedAmount(order.getFinishedAmount().add(order.getProcessingAmount()));
-        order.setProcessingAmount(BigDecimal.ZERO);
-        var status = (order.getAmount().compareTo(order.getFinishedAmount()) == 0) ? OrderStatus.FINISHED : OrderStatus.TRADING;
-        order.setStatus(status);
-        order.getUpdatedAt().setTime(now);
+    @Override
+    public void truncateJournals(Map<String, Long> journalSequences, long transferSequence) {
+        if (transferJournal != null) {
+            try {
+                transferJournal.deleteSegmentsBefore(transferSequence);
+            } catch (IOException e) {
+                logger.warn("truncate transfer journal failed", e);
+            }
+        }
+        journalSequences.forEach((symbol, sequence) -> {
+            MatchEngine engine = engines.get(symbol);
+            if (engine == null || engine.getJournal() == null) return;
+            try {
+                engine.getJournal().deleteSegmentsBefore(sequence);
+            } catch (IOException e) {
+                logger.warn("truncate journal of {} failed", symbol, e);
+            }
+        });
     }
 
-    private void findMatchedOrders(OrderEntity order, List<OrderEntity> finishedOrders, ConcurrentSkipListSet<QuotationItem> quotationQ) {
-
-        List<QuotationItem> matchedQuo = new ArrayList<>();
-        BigDecimal tobeFinished = new BigDecimal(order.getAmount().toString());
-        List<OrderEntity> partialOrders = new ArrayList<>();
-        long now = System.currentTimeMillis();
-
-        var parameter = new QuotationItem(order.getPrice(), null, null, null);
-        NavigableSet<QuotationItem> matchedQutation = quotationQ.headSet(parameter, true);
-        for(QuotationItem quotationItem : matchedQutation){
-            if(tobeFinished.compareTo(BigDecimal.ZERO)<=0) break;
-            if(quotationItem.getVolume().compareTo(tobeFinished) <= 0 ) {
-                // 完全吃掉了此价格的卖单
-                finishedOrders.addAll(quotationItem.getOrders());
-                tobeFinished = tobeFinished.subtract(quotationItem.getVolume());
-                matchedQuo.add(quotationItem);
-            } else{
-                //只能吃掉此价格的部分卖单
-                var orders = quotationItem.getOrders();
-                var matchOrders = new ArrayList<OrderEntity>();
-                for(OrderEntity orderEntity : orders){
-                    if(tobeFinished.compareTo(BigDecimal.ZERO)<=0) break;
-                    BigDecimal orderRemainingVol = orderEntity.getAmount().subtract(orderEntity.getFinishedAmount()); //减掉已经完成的部分
-                    if(orderRemainingVol.compareTo(tobeFinished) <= 0){
-                        finishedOrders.add(orderEntity);
-                        matchOrders.add(orderEntity);
-                        quotationItem.setVolume(quotationItem.getVolume().subtract(orderRemainingVol));
-                        tobeFinished = tobeFinished.subtract(orderRemainingVol);
-                    }else{
-                        // 处理partial order，即只满足了部分成交的订单，可能用子订单会更好一些
-                        orderEntity.setStatus(OrderStatus.CLEARING);
-                        orderEntity.setProcessingAmount(tobeFinished);
-                        orderEntity.getUpdatedAt().setTime(now);
-                        partialOrders.add(orderEntity);
-
-                        quotationItem.setVolume(quotationItem.getVolume().subtract(tobeFinished));
-                        tobeFinished = BigDecimal.ZERO;
-                    }
+    private OrderEntity restoreOrder(Instrument instrument, JournalRecord record) {
+        switch (record.reqType) {
+            case ADD -> {
+                var result = orderService.restoreOrder(record.orderId, record.orderSeqId, record.uid, instrument,
+                        record.tradeType, record.priceTicks, record.amountLots, new Timestamp(record.createdAt));
+                if (!result.isSuccess()) {
+                    logger.warn("restore order failed, {}, msg: {}", record, result.getMessage());
+                    return null;
+                }
+                result.getData().setTimeInForce(record.timeInForce);
+                result.getData().setTriggerPriceTicks(record.triggerPriceTicks);
+                return result.getData();
+            }
+            case REMOVE -> {
+                var result = orderService.getOrderById(record.orderId);
+                if (!result.isSuccess()) {
+                    logger.warn("order to cancel not found, {}", record);
+                    return null;
                 }
-                orders.removeAll(matchOrders);//删除被吃掉的卖单，部分成交的订单不能被删除！
+                return result.getData();
             }
+            default -> throw new IllegalStateException("unexpected request type: " + record.reqType);
         }
-        /**
-         * quotationQ.removeAll(matchedQuo)的坑, 可以实现相同的功能，但效率可能非常低:
-         * 因为，removeAll()可能会内部实现为“Set做外循环，List做内循环”，但List中查找元素那可就慢了--O（N)，而Set一般是Hash查找-O(1)
-         */
-        matchedQuo.forEach(quotationQ::remove);//删除被吃掉的卖单
-        finishedOrders.forEach(e -> {
-            e.setStatus(OrderStatus.CLEARING);
-            e.setProcessingAmount(e.getAmount().subtract(e.getFinishedAmount()));
-            e.getUpdatedAt().setTime(now);
-        });
+    }
 
-        finishedOrders.addAll(partialOrders);
-        // SETUP original order properly
-        order.setStatus(OrderStatus.CLEARING);
-        order.setProcessingAmount(order.getAmount().subtract(tobeFinished)); // 考虑到还有未满足的数量
-        order.getUpdatedAt().setTime(now);
+    @PreDestroy
+    public void destroy(){
+        engines.values().forEach(MatchEngine::stop);
+        if (transferJournal != null) {
+            assetService.stopTransferLog();
+            try {
+                transferJournal.close();
+            } catch (IOException e) {
+                logger.warn("close transfer journal failed", e);
+            }
+        }
+        tradeArchives.forEach(TradeArchive::close);
     }
 }
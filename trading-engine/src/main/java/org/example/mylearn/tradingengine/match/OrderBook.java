@@ -0,0 +1,44 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.TradeType;
+
+/**
+ * 报价簿：按价格索引 QuotationItem(价格档位)，价格为定点数 ticks。
+ *
+ * OrderBook 只负责档位的索引(按价格查找、最优价、按价格优先顺序遍历)，
+ * 档位内的挂单和数量由撮合线程直接维护。只能由撮合线程修改。
+ */
+public interface OrderBook {
+
+    // 最优档位: BUY 为最高价，SELL 为最低价；没有挂单时返回 null
+    QuotationItem best(TradeType side);
+
+    // 指定价格的档位，不存在时返回 null
+    QuotationItem get(TradeType side, long price);
+
+    // 比 price 差一档的档位(BUY 更低，SELL 更高)，用于从最优价开始遍历，不存在时返回 null
+    QuotationItem next(TradeType side, long price);
+
+    // 添加一个新档位，调用方需保证该价格的档位不存在
+    void add(QuotationItem level);
+
+    // 删除一个档位
+    void remove(QuotationItem level);
+
+    // 某一方向的档位数
+    int size(TradeType side);
+
+    static OrderBook create(OrderBookType type, int ladderSize) {
+        return switch (type) {
+            case LADDER -> new PriceLadderOrderBook(ladderSize);
+            case SKIPLIST -> new SkipListOrderBook();
+            case COMPARE -> new ComparingOrderBook(new PriceLadderOrderBook(ladderSize), new SkipListOrderBook());
+        };
+    }
+
+    enum OrderBookType {
+        LADDER,   // 按 tick 下标的数组报价簿，远端价格落入稀疏表
+        SKIPLIST, // 原来的 ConcurrentSkipListSet 实现
+        COMPARE   // 两种实现同时运行，以 LADDER 为准，结果不一致时告警
+    }
+}
@@ -0,0 +1,44 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.OrderStatus;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 快照时刻的订单视图：撮合线程停下时开始(MatcherService.beginOrderCut)，之后撮合线程第一次修改一笔订单之前
+ * 先记下它的成交量、状态和更新时间。快照线程在撮合线程恢复之后逐笔读取订单，有记录的用记录，没有的说明
+ * 快照之后没有被修改过，直接读当前值，得到的都是快照时刻的值。
+ *
+ * 读写同一笔订单都在该订单的监视器内：撮合线程记录完之后才修改订单，快照线程读当前值时撮合线程还没开始修改。
+ * 订单的其他字段(价格、数量、方向等)在撮合中不变，不需要记录。
+ */
+public final class OrderCut {
+    // 快照时刻可变字段的值；processingLots 在命令之间总是 0，不记录
+    public record Image(long finishedLots, OrderStatus status, long updatedAt) {
+    }
+
+    private final Map<Integer, Image> images = new ConcurrentHashMap<>();
+
+    // 撮合线程在修改订单之前调用；同一笔订单只由一个撮合线程修改，之后再调用不覆盖
+    void preserve(OrderEntity order) {
+        if (images.containsKey(order.getId())) return;
+        synchronized (order) {
+            images.putIfAbsent(order.getId(), image(order));
+        }
+    }
+
+    // 快照时刻的值；快照时还没进入撮合的订单状态为 INIT 或 PREPARING
+    public Image read(OrderEntity order) {
+        synchronized (order) {
+            Image image = images.get(order.getId());
+            return image != null ? image : image(order);
+        }
+    }
+
+    private static Image image(OrderEntity order) {
+        return new Image(order.getFinishedLots(), order.getStatus(),
+                order.getUpdatedAt() == null ? 0 : order.getUpdatedAt().getTime());
+    }
+}
@@ -0,0 +1,111 @@
+package org.example.mylearn.tradingengine.match;
+
+import java.util.Arrays;
+
+/**
+ * 订单ID -> OrderNode 的索引，只由撮合线程访问。
+ * 开放寻址(线性探测)，key 为原始 int，避免 HashMap<Integer, ...> 的装箱和 Entry 对象；
+ * 删除时做后移(backward shift)，不留墓碑。
+ */
+final class OrderIndex {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private int[] keys;
+    private OrderNode[] values;
+    private int mask;
+    private int size;
+    private int resizeAt;
+
+    OrderIndex(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    OrderNode get(int key) {
+        for (int i = hash(key) & mask; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) return values[i];
+        }
+        return null;
+    }
+
+    // 返回被替换的旧值
+    OrderNode put(int key, OrderNode value) {
+        int i = hash(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                OrderNode old = values[i];
+                values[i] = value;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size >= resizeAt) {
+            rehash(keys.length << 1);
+        }
+        return null;
+    }
+
+    OrderNode remove(int key) {
+        int i = hash(key) & mask;
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                OrderNode old = values[i];
+                shiftBack(i);
+                size--;
+                return old;
+            }
+        }
+        return null;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    // 删除 slot 后，把后面同一探测链上的元素前移，保证查找不中断
+    private void shiftBack(int slot) {
+        int gap = slot;
+        for (int i = (gap + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            // home 不在 (gap, i] 区间内的元素可以移到 gap
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        OrderNode[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int j = hash(oldKeys[i]) & mask;
+                while (values[j] != null) j = (j + 1) & mask;
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new OrderNode[capacity];
+        mask = capacity - 1;
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9; // 订单ID基本连续，打散一下
+        return h ^ (h >>> 16);
+    }
+}
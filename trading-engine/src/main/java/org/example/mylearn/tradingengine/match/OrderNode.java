@@ -0,0 +1,18 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.OrderEntity;
+
+/**
+ * 挂单在价格档位 FIFO 队列中的节点(双向链表)，由 OrderIndex 按订单ID索引，
+ * 撤单时可以 O(1) 找到节点并从所在档位中摘除。
+ */
+final class OrderNode {
+    OrderEntity order;
+    QuotationItem level;
+    OrderNode prev;
+    OrderNode next;
+
+    OrderNode(OrderEntity order) {
+        this.order = order;
+    }
+}
@@ -0,0 +1,62 @@
+package org.example.mylearn.tradingengine.match;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个品种的订单各阶段耗时，见 /actuator/metrics/trading.order.stage?tag=stage:queue&tag=symbol:APPL/USD。
+ *
+ * 每个阶段一个 Micrometer Timer，发布 p50/p99/p99.9；百分位由 Micrometer 内部的 HdrHistogram 计算，记录时无锁。
+ * 百分位统计的是最近 window 内的数据：窗口分成 bufferLength 段轮换，每段过期后清零，
+ * 因此看到的是最近一段时间的分布，而不是启动以来的累计值。
+ */
+public final class OrderStageTimers {
+
+    public enum Stage {
+        SEQUENCE, // TradingService 向 sequence-engine 取订单ID(Feign 调用)
+        ACCEPT,   // 进入 TradingService 到提交进命令环，含取ID、建订单
+        QUEUE,    // 在命令环中等待撮合线程
+        FREEZE,   // prepareTrading 冻结资产
+        MATCH,    // 在报价簿中寻找对手方
+        CLEAR,    // finishTrading 清算并记录成交明细
+        PROCESS,  // 撮合线程处理这条命令的总时间(含触发的止损单)
+        TOTAL     // 进入 TradingService 到撮合线程处理完
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final Timer[] timers = new Timer[STAGES.length];
+
+    OrderStageTimers(MeterRegistry registry, String symbol, Duration window, int bufferLength) {
+        for (Stage stage : STAGES) {
+            timers[stage.ordinal()] = Timer.builder("trading.order.stage")
+                    .description("latency of one stage of the order lifecycle")
+                    .tag("stage", stage.name().toLowerCase())
+                    .tag("symbol", symbol)
+                    .publishPercentiles(0.5, 0.99, 0.999)
+                    .distributionStatisticExpiry(window)
+                    .distributionStatisticBufferLength(bufferLength)
+                    .register(registry);
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        timers[stage.ordinal()].record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // 撮合线程处理完一条 ADD 命令：start/end 为处理的起止时间，其余阶段取订单上的时间戳(日志重放的订单没有)
+    void recordProcessed(OrderEntity order, long start, long end) {
+        record(Stage.PROCESS, end - start);
+        long submitted = order.getSubmittedNanos();
+        if (submitted == 0) return;
+        record(Stage.QUEUE, start - submitted);
+        long accepted = order.getAcceptedNanos();
+        if (accepted == 0) return;
+        record(Stage.ACCEPT, submitted - accepted);
+        record(Stage.TOTAL, end - accepted);
+    }
+}
@@ -0,0 +1,386 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.TradeType;
+
+import java.util.Arrays;
+
+/**
+ * 按 tick 下标的数组报价簿。
+ *
+ * 以 base 为起点、长度为 size 的价格窗口内，档位直接存放在数组 slots[price - base] 中，
+ * 查找为 O(1)；每个方向维护一个最优价游标 bestIdx，以及一个占用位图，
+ * 最优档位被吃掉后，借助位图按 64 个 tick 一组向后扫描下一个最优档位，不产生任何对象。
+ * 窗口之外的远端价格放入稀疏表(按价格排序的 long[] + QuotationItem[]，二分查找，不装箱)。
+ * 买卖双方共享同一个窗口：双方都为空时，下一次 add 以新价格为中心定位窗口；
+ * 某一方的最优价离开窗口时(落到稀疏表)，把窗口平移到盘口附近，移出窗口的档位放入稀疏表，
+ * 进入窗口的稀疏档位搬回数组。报价簿只由撮合线程访问，不需要并发容器。
+ */
+class PriceLadderOrderBook implements OrderBook {
+
+    private final int size;
+    private final Side bids;
+    private final Side asks;
+    private long base; // slots[0] 对应的价格
+
+    PriceLadderOrderBook(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("ladder size must be positive: " + size);
+        }
+        this.size = (size + 63) & ~63; // 按位图的 word 对齐
+        this.bids = new Side(true, this.size);
+        this.asks = new Side(false, this.size);
+    }
+
+    @Override
+    public QuotationItem best(TradeType side) {
+        Side s = side(side);
+        QuotationItem sparse = s.sparse.best(s.descending);
+        if (s.descending) {
+            // 窗口上方的买价一定优于窗口内的
+            if (sparse != null && sparse.getPrice() >= base + size) return sparse;
+        } else {
+            // 窗口下方的卖价一定优于窗口内的
+            if (sparse != null && sparse.getPrice() < base) return sparse;
+        }
+        int idx = s.bestIdx;
+        if (idx >= 0) {
+            QuotationItem level = s.slots[idx];
+            if (level != null) return level;
+        }
+        return sparse;
+    }
+
+    @Override
+    public QuotationItem get(TradeType side, long price) {
+        Side s = side(side);
+        if (inWindow(price)) {
+            return s.slots[(int) (price - base)];
+        }
+        return s.sparse.get(price);
+    }
+
+    @Override
+    public QuotationItem next(TradeType side, long price) {
+        Side s = side(side);
+        long hi = base + size;
+        if (s.descending) {
+            // 买方向下遍历：窗口上方稀疏档位 -> 窗口内 -> 窗口下方稀疏档位
+            int from;
+            if (price >= hi) {
+                QuotationItem level = s.sparse.lower(price);
+                if (level != null && level.getPrice() >= hi) return level;
+                from = size - 1;
+            } else if (price >= base) {
+                from = (int) (price - base) - 1;
+            } else {
+                return s.sparse.lower(price);
+            }
+            int idx = s.highestAtOrBelow(from);
+            if (idx >= 0) return s.slots[idx];
+            return s.sparse.lower(base);
+        } else {
+            // 卖方向上遍历：窗口下方稀疏档位 -> 窗口内 -> 窗口上方稀疏档位
+            int from;
+            if (price < base) {
+                QuotationItem level = s.sparse.higher(price);
+                if (level != null && level.getPrice() < base) return level;
+                from = 0;
+            } else if (price < hi) {
+                from = (int) (price - base) + 1;
+            } else {
+                return s.sparse.higher(price);
+            }
+            int idx = s.lowestAtOrAbove(from);
+            if (idx >= 0) return s.slots[idx];
+            return s.sparse.higher(hi - 1);
+        }
+    }
+
+    @Override
+    public void add(QuotationItem level) {
+        long price = level.getPrice();
+        if (bids.isEmpty() && asks.isEmpty()) {
+            base = price - size / 2; // 重新定位窗口，使新价格位于中间
+        }
+        Side s = side(level.getTradeType());
+        if (inWindow(price)) {
+            s.set((int) (price - base), level);
+        } else {
+            s.sparse.put(price, level);
+            if (best(level.getTradeType()) == level) {
+                recentre(s); // 新的最优价在窗口之外
+            }
+        }
+    }
+
+    @Override
+    public void remove(QuotationItem level) {
+        long price = level.getPrice();
+        Side s = side(level.getTradeType());
+        if (inWindow(price)) {
+            int idx = (int) (price - base);
+            if (s.slots[idx] == level) {
+                s.clear(idx);
+                if (s.count == 0 && s.sparse.size > 0) {
+                    recentre(s); // 窗口内已空，最优价落到稀疏表
+                }
+            }
+        } else {
+            s.sparse.remove(price, level);
+        }
+    }
+
+    @Override
+    public int size(TradeType side) {
+        Side s = side(side);
+        return s.count + s.sparse.size;
+    }
+
+    // 当前窗口起点，测试用
+    long base() {
+        return base;
+    }
+
+    private boolean inWindow(long price) {
+        return price >= base && price - base < size;
+    }
+
+    private Side side(TradeType side) {
+        return side == TradeType.BUY ? bids : asks;
+    }
+
+    /**
+     * 把窗口平移到盘口附近。双方都有报价且价差能放进半个窗口时，以买卖中间价为中心，
+     * 否则以触发方的最优价为中心，保证触发方的最优价回到窗口内。
+     * 代价是 O(size / 64) 的位图平移、一次数组拷贝，加上搬动的档位数，只在盘口移出窗口时发生。
+     */
+    private void recentre(Side trigger) {
+        QuotationItem bestBid = best(TradeType.BUY);
+        QuotationItem bestAsk = best(TradeType.SELL);
+        long anchor;
+        if (bestBid != null && bestAsk != null && bestAsk.getPrice() - bestBid.getPrice() < size / 2) {
+            anchor = bestBid.getPrice() + (bestAsk.getPrice() - bestBid.getPrice()) / 2;
+        } else {
+            QuotationItem best = trigger == bids ? bestBid : bestAsk;
+            if (best == null) return;
+            anchor = best.getPrice();
+        }
+        long newBase = anchor - size / 2;
+        if (newBase == base) return;
+        long delta = newBase - base;
+        bids.shift(delta, base);
+        asks.shift(delta, base);
+        base = newBase;
+        bids.absorb(base);
+        asks.absorb(base);
+    }
+
+    private static final class Side {
+        final boolean descending; // 买方向，价格越高越优
+        final QuotationItem[] slots;
+        final long[] occupied; // slots 的占用位图
+        int bestIdx = -1;
+        int count;
+        final SparseLevels sparse = new SparseLevels();
+
+        Side(boolean descending, int size) {
+            this.descending = descending;
+            this.slots = new QuotationItem[size];
+            this.occupied = new long[size >>> 6];
+        }
+
+        boolean isEmpty() {
+            return count == 0 && sparse.size == 0;
+        }
+
+        void set(int idx, QuotationItem level) {
+            slots[idx] = level;
+            occupied[idx >>> 6] |= 1L << idx;
+            count++;
+            if (bestIdx < 0 || (descending ? idx > bestIdx : idx < bestIdx)) {
+                bestIdx = idx;
+            }
+        }
+
+        void clear(int idx) {
+            slots[idx] = null;
+            occupied[idx >>> 6] &= ~(1L << idx);
+            count--;
+            if (idx == bestIdx) {
+                bestIdx = count == 0 ? -1 : (descending ? highestAtOrBelow(idx - 1) : lowestAtOrAbove(idx + 1));
+            }
+        }
+
+        /**
+         * 窗口起点移动 delta 个 tick：新窗口之外的档位放入稀疏表，其余档位的下标减去 delta。
+         */
+        void shift(long delta, long oldBase) {
+            int size = slots.length;
+            if (count == 0) return;
+            // 移出新窗口的档位
+            if (delta >= size || delta <= -size) {
+                for (int idx = lowestAtOrAbove(0); idx >= 0; idx = lowestAtOrAbove(idx + 1)) {
+                    sparse.put(oldBase + idx, slots[idx]);
+                }
+                Arrays.fill(slots, null);
+                Arrays.fill(occupied, 0);
+                count = 0;
+                bestIdx = -1;
+                return;
+            }
+            int d = (int) delta;
+            if (d > 0) {
+                for (int idx = lowestAtOrAbove(0); idx >= 0 && idx < d; idx = lowestAtOrAbove(idx + 1)) {
+                    sparse.put(oldBase + idx, slots[idx]);
+                }
+                System.arraycopy(slots, d, slots, 0, size - d);
+                Arrays.fill(slots, size - d, size, null);
+            } else {
+                for (int idx = highestAtOrBelow(size - 1); idx >= size + d; idx = highestAtOrBelow(idx - 1)) {
+                    sparse.put(oldBase + idx, slots[idx]);
+                }
+                System.arraycopy(slots, 0, slots, -d, size + d);
+                Arrays.fill(slots, 0, -d, null);
+            }
+            shiftBits(d);
+            count = 0;
+            for (long word : occupied) {
+                count += Long.bitCount(word);
+            }
+            bestIdx = count == 0 ? -1 : (descending ? highestAtOrBelow(size - 1) : lowestAtOrAbove(0));
+        }
+
+        // 位图整体平移：第 i 位移到第 i - d 位，移出范围的位丢弃
+        private void shiftBits(int d) {
+            int words = occupied.length;
+            if (d > 0) {
+                int ws = d >>> 6, bs = d & 63;
+                for (int w = 0; w < words; w++) {
+                    long lo = w + ws < words ? occupied[w + ws] : 0;
+                    long hi = w + ws + 1 < words ? occupied[w + ws + 1] : 0;
+                    occupied[w] = bs == 0 ? lo : (lo >>> bs) | (hi << (64 - bs));
+                }
+            } else {
+                int n = -d, ws = n >>> 6, bs = n & 63;
+                for (int w = words - 1; w >= 0; w--) {
+                    long hi = w - ws >= 0 ? occupied[w - ws] : 0;
+                    long lo = w - ws - 1 >= 0 ? occupied[w - ws - 1] : 0;
+                    occupied[w] = bs == 0 ? hi : (hi << bs) | (lo >>> (64 - bs));
+                }
+            }
+        }
+
+        // 稀疏表中落入新窗口 [base, base + size) 的档位搬回数组
+        void absorb(long base) {
+            int from = sparse.ceilingIndex(base);
+            int to = sparse.ceilingIndex(base + slots.length);
+            for (int i = from; i < to; i++) {
+                set((int) (sparse.prices[i] - base), sparse.levels[i]);
+            }
+            sparse.removeRange(from, to);
+        }
+
+        int highestAtOrBelow(int from) {
+            if (from < 0) return -1;
+            int word = from >>> 6;
+            long bits = occupied[word] & (-1L >>> (63 - (from & 63)));
+            while (true) {
+                if (bits != 0) {
+                    return (word << 6) + 63 - Long.numberOfLeadingZeros(bits);
+                }
+                if (--word < 0) return -1;
+                bits = occupied[word];
+            }
+        }
+
+        int lowestAtOrAbove(int from) {
+            if (from >= slots.length) return -1;
+            int word = from >>> 6;
+            long bits = occupied[word] & (-1L << (from & 63));
+            while (true) {
+                if (bits != 0) {
+                    return (word << 6) + Long.numberOfTrailingZeros(bits);
+                }
+                if (++word >= occupied.length) return -1;
+                bits = occupied[word];
+            }
+        }
+    }
+
+    /**
+     * 窗口外的档位：按价格升序的平行数组，二分查找。远端档位很少，插入删除的数组搬移可以接受，
+     * 查找不装箱、只查一次。
+     */
+    private static final class SparseLevels {
+        long[] prices = new long[16];
+        QuotationItem[] levels = new QuotationItem[16];
+        int size;
+
+        // 第一个 >= price 的下标
+        int ceilingIndex(long price) {
+            int lo = 0, hi = size;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (prices[mid] < price) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        QuotationItem get(long price) {
+            int i = ceilingIndex(price);
+            return i < size && prices[i] == price ? levels[i] : null;
+        }
+
+        QuotationItem best(boolean descending) {
+            if (size == 0) return null;
+            return descending ? levels[size - 1] : levels[0];
+        }
+
+        // 价格严格小于 price 的最高档位
+        QuotationItem lower(long price) {
+            int i = ceilingIndex(price) - 1;
+            return i >= 0 ? levels[i] : null;
+        }
+
+        // 价格严格大于 price 的最低档位
+        QuotationItem higher(long price) {
+            int i = ceilingIndex(price);
+            if (i < size && prices[i] == price) i++;
+            return i < size ? levels[i] : null;
+        }
+
+        void put(long price, QuotationItem level) {
+            int i = ceilingIndex(price);
+            if (i < size && prices[i] == price) {
+                levels[i] = level;
+                return;
+            }
+            if (size == prices.length) {
+                prices = Arrays.copyOf(prices, size * 2);
+                levels = Arrays.copyOf(levels, size * 2);
+            }
+            System.arraycopy(prices, i, prices, i + 1, size - i);
+            System.arraycopy(levels, i, levels, i + 1, size - i);
+            prices[i] = price;
+            levels[i] = level;
+            size++;
+        }
+
+        void remove(long price, QuotationItem level) {
+            int i = ceilingIndex(price);
+            if (i < size && prices[i] == price && levels[i] == level) {
+                removeRange(i, i + 1);
+            }
+        }
+
+        void removeRange(int from, int to) {
+            if (from >= to) return;
+            System.arraycopy(prices, to, prices, from, size - to);
+            System.arraycopy(levels, to, levels, from, size - to);
+            int newSize = size - (to - from);
+            Arrays.fill(levels, newSize, size, null);
+            size = newSize;
+        }
+    }
+}
@@ -3,38 +3,42 @@ package org.example.mylearn.tradingengine.match;
 import org.example.mylearn.tradingengine.order.OrderEntity;
 import org.example.mylearn.tradingengine.order.TradeType;
 
-import java.math.BigDecimal;
+import java.util.ArrayList;
 import java.util.List;
 
+// 报价簿中的一个价格档位，price/volume 为定点数(ticks/lots)，见 Instrument
+// 档位内的挂单按时间先后组成双向链表(FIFO)，撤单时可以 O(1) 摘除
 public class QuotationItem {
-    public BigDecimal price;
-    public BigDecimal volume;
+    public long price;
+    public long volume;
     public TradeType tradeType;
-    public List<OrderEntity> orders;
+
+    OrderNode head;
+    OrderNode tail;
+    int orderCount;
 
     public QuotationItem() {
     }
 
-    public QuotationItem(BigDecimal price, BigDecimal volume, TradeType tradeType, List<OrderEntity> orders) {
+    public QuotationItem(long price, long volume, TradeType tradeType) {
         this.price = price;
         this.volume = volume;
         this.tradeType = tradeType;
-        this.orders = orders;
     }
 
-    public BigDecimal getPrice() {
+    public long getPrice() {
         return price;
     }
 
-    public void setPrice(BigDecimal price) {
+    public void setPrice(long price) {
         this.price = price;
     }
 
-    public BigDecimal getVolume() {
+    public long getVolume() {
         return volume;
     }
 
-    public void setVolume(BigDecimal volume) {
+    public void setVolume(long volume) {
         this.volume = volume;
     }
 
@@ -46,11 +50,65 @@ public class QuotationItem {
         this.tradeType = tradeType;
     }
 
+    public int getOrderCount() {
+        return orderCount;
+    }
+
+    // 按时间顺序复制出本档位的挂单，仅用于展示、调试
     public List<OrderEntity> getOrders() {
+        List<OrderEntity> orders = new ArrayList<>(orderCount);
+        for (OrderNode node = head; node != null; node = node.next) {
+            orders.add(node.order);
+        }
         return orders;
     }
 
-    public void setOrders(List<OrderEntity> orders) {
-        this.orders = orders;
+    boolean isEmpty() {
+        return head == null;
+    }
+
+    // 追加到队尾
+    void append(OrderNode node) {
+        node.level = this;
+        node.prev = tail;
+        node.next = null;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        orderCount++;
+    }
+
+    // 插入到队头，清算失败时放回被吃掉的挂单
+    void prepend(OrderNode node) {
+        node.level = this;
+        node.prev = null;
+        node.next = head;
+        if (head == null) {
+            tail = node;
+        } else {
+            head.prev = node;
+        }
+        head = node;
+        orderCount++;
+    }
+
+    void unlink(OrderNode node) {
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        node.level = null;
+        orderCount--;
     }
 }
@@ -6,6 +6,8 @@ public class QuotationReq {
 
     public ReqType reqType;
     public OrderEntity order;
+    // 非订单命令的参数: SNAPSHOT 为 EnginePause，BOOK 为 CompletableFuture<BookSnapshot>
+    Object attachment;
 
     public QuotationReq() {
     }
@@ -33,8 +35,17 @@ public class QuotationReq {
         this.order = order;
     }
 
+    // 槽位在 CommandRingBuffer 中循环使用，处理完后清空，不再持有订单
+    public void clear() {
+        this.reqType = null;
+        this.order = null;
+        this.attachment = null;
+    }
+
     public static enum ReqType{
         ADD,
-        REMOVE
+        REMOVE,
+        SNAPSHOT, // 快照：撮合线程在此处停下，不写日志
+        BOOK // 查询报价簿全量及其增量序号，不写日志
     }
 }
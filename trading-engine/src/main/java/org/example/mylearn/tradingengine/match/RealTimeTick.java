@@ -4,7 +4,7 @@ import java.math.BigDecimal;
 import java.sql.Timestamp;
 
 public class RealTimeTick {
-    Integer id;
+    Long id; // 品种内递增的 tick id
     BigDecimal price;
     BigDecimal amount;
     Timestamp time;
@@ -12,11 +12,11 @@ public class RealTimeTick {
     public RealTimeTick() {
     }
 
-    public Integer getId() {
+    public Long getId() {
         return id;
     }
 
-    public void setId(Integer id) {
+    public void setId(Long id) {
         this.id = id;
     }
 
@@ -0,0 +1,62 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.TradeType;
+
+import java.util.Comparator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * 原有的报价簿实现：每个方向一个 ConcurrentSkipListSet，按价格查找时用一个复用的 QuotationItem 作为探针。
+ * 保留用于和 PriceLadderOrderBook 对比。
+ */
+class SkipListOrderBook implements OrderBook {
+
+    private final ConcurrentSkipListSet<QuotationItem> buyQuotations =
+            new ConcurrentSkipListSet<>(Comparator.comparingLong(QuotationItem::getPrice).reversed()); //降序
+    private final ConcurrentSkipListSet<QuotationItem> sellQuotations =
+            new ConcurrentSkipListSet<>(Comparator.comparingLong(QuotationItem::getPrice)); // 升序
+    // 查找用的探针，报价簿只由撮合线程访问
+    private final QuotationItem probe = new QuotationItem();
+
+    @Override
+    public QuotationItem best(TradeType side) {
+        try {
+            return quotations(side).first();
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public QuotationItem get(TradeType side, long price) {
+        probe.setPrice(price);
+        var exist = quotations(side).ceiling(probe);
+        return exist != null && exist.getPrice() == price ? exist : null;
+    }
+
+    @Override
+    public QuotationItem next(TradeType side, long price) {
+        probe.setPrice(price);
+        return quotations(side).higher(probe);
+    }
+
+    @Override
+    public void add(QuotationItem level) {
+        quotations(level.getTradeType()).add(level);
+    }
+
+    @Override
+    public void remove(QuotationItem level) {
+        quotations(level.getTradeType()).remove(level);
+    }
+
+    @Override
+    public int size(TradeType side) {
+        return quotations(side).size();
+    }
+
+    private ConcurrentSkipListSet<QuotationItem> quotations(TradeType side) {
+        return side == TradeType.BUY ? buyQuotations : sellQuotations;
+    }
+}
@@ -0,0 +1,88 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TradeType;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 止损单的触发簿：按触发价索引，与报价簿分开，不参与撮合、不出现在深度中。只由撮合线程访问。
+ *
+ * BUY 止损单在最新成交价 >= 触发价时触发，按触发价升序；SELL 止损单在最新成交价 <= 触发价时触发，按触发价降序。
+ * 两侧都从头部开始检查，遇到第一个未触发的档位即停止，每次成交的检查为 O(log n + 触发数)。
+ * 同一触发价的止损单按提交顺序触发；撤单经 OrderIndex 定位节点，O(1) 摘除。
+ */
+final class StopOrderBook {
+    private final TreeMap<Long, QuotationItem> buyStops = new TreeMap<>();
+    private final TreeMap<Long, QuotationItem> sellStops = new TreeMap<>(Comparator.reverseOrder());
+    private final OrderIndex index = new OrderIndex(1024);
+
+    int size() {
+        return index.size();
+    }
+
+    void add(OrderEntity order) {
+        TradeType side = order.getTradeType();
+        long trigger = order.getTriggerPriceTicks();
+        QuotationItem level = stops(side).computeIfAbsent(trigger, price -> new QuotationItem(price, 0, side));
+        OrderNode node = new OrderNode(order);
+        level.append(node);
+        level.setVolume(level.getVolume() + order.getRemainingLots());
+        index.put(order.getId(), node);
+    }
+
+    // 撤单：不在触发簿中时返回 null
+    OrderEntity remove(int orderId) {
+        OrderNode node = index.remove(orderId);
+        if (node == null) return null;
+        OrderEntity order = node.order;
+        QuotationItem level = node.level;
+        level.unlink(node);
+        level.setVolume(level.getVolume() - order.getRemainingLots());
+        if (level.isEmpty()) {
+            stops(level.getTradeType()).remove(level.getPrice());
+        }
+        return order;
+    }
+
+    /**
+     * 最新成交价为 lastPrice：按触发顺序把被触发的止损单移出触发簿，追加到 triggered
+     */
+    void trigger(long lastPrice, List<OrderEntity> triggered) {
+        pop(buyStops, true, lastPrice, triggered);
+        pop(sellStops, false, lastPrice, triggered);
+    }
+
+    private void pop(TreeMap<Long, QuotationItem> stops, boolean buySide, long lastPrice, List<OrderEntity> triggered) {
+        Map.Entry<Long, QuotationItem> first;
+        while ((first = stops.firstEntry()) != null
+                && (buySide ? first.getKey() <= lastPrice : first.getKey() >= lastPrice)) {
+            for (OrderNode node = first.getValue().head; node != null; node = node.next) {
+                index.remove(node.order.getId());
+                triggered.add(node.order);
+            }
+            stops.pollFirstEntry();
+        }
+    }
+
+    // 快照用：按触发顺序列出止损单ID，BUY 侧在前
+    int[] getOrderIds() {
+        int[] ids = new int[index.size()];
+        int i = 0;
+        for (var stops : List.of(buyStops, sellStops)) {
+            for (QuotationItem level : stops.values()) {
+                for (OrderNode node = level.head; node != null; node = node.next) {
+                    ids[i++] = node.order.getId();
+                }
+            }
+        }
+        return ids;
+    }
+
+    private TreeMap<Long, QuotationItem> stops(TradeType side) {
+        return side == TradeType.BUY ? buyStops : sellStops;
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.instrument.Instrument;
+
+import java.lang.invoke.VarHandle;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近 N 笔成交(tick)，预分配的环形数组：撮合线程写，请求线程无锁读。
+ *
+ * tick id 为本品种撮合引擎内从1开始递增的序号，不需要调用序号服务；每笔成交一个 tick，与成交ID相同。
+ * 快照恢复时从快照中的最后成交ID接着编号，重启后 tick id 不会从1重新开始。
+ * 成交时间单调不减(时钟回拨时沿用上一笔的时间)，按时间查询时二分查找起点，代价 O(log n + k)。
+ * 每个槽位保存 tick id，写前置0、写完再写入 id；读方前后两次读到期望的 id 才说明没有被下一圈覆盖。
+ */
+final class TickRing {
+    private final int mask;
+    private final int capacity;
+    private final AtomicLongArray ids;
+    private final long[] times;
+    private final long[] prices;
+    private final long[] amounts;
+    private long lastId;       // 只由撮合线程访问
+    private long lastTime;
+    private volatile long published; // 读方可见的最大 tick id
+
+    TickRing(int capacity) {
+        if (capacity <= 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("tick ring capacity must be a power of 2: " + capacity);
+        }
+        this.capacity = capacity;
+        this.mask = capacity - 1;
+        this.ids = new AtomicLongArray(capacity);
+        this.times = new long[capacity];
+        this.prices = new long[capacity];
+        this.amounts = new long[capacity];
+    }
+
+    // 快照恢复用(撮合线程启动之前)：之后的 tick 从 lastId + 1 开始编号
+    void startAfter(long lastId) {
+        this.lastId = lastId;
+        this.published = lastId;
+    }
+
+    // 撮合线程调用
+    void append(long time, long priceTicks, long lots) {
+        long id = ++lastId;
+        lastTime = Math.max(lastTime, time);
+        int i = (int) id & mask;
+        ids.set(i, 0);
+        VarHandle.storeStoreFence();
+        times[i] = lastTime;
+        prices[i] = priceTicks;
+        amounts[i] = lots;
+        ids.setRelease(i, id);
+    }
+
+    // 撮合线程在每批结束时调用
+    void publish() {
+        published = lastId;
+    }
+
+    /**
+     * 时间不早于 start 的最近 numTicks 笔成交，最新的在前(与原来倒序遍历成交明细的结果一致)。
+     */
+    List<RealTimeTick> latest(long start, int numTicks, Instrument instrument) {
+        long last = published;
+        // 最早的一个槽位可能正在被下一圈覆盖，不读
+        long lo = Math.max(1, last - capacity + 2);
+        long hi = last + 1;
+        while (lo < hi) { // 第一笔时间 >= start 的成交
+            long mid = (lo + hi) >>> 1;
+            long time = readTime(mid);
+            if (time < start) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        long first = Math.max(lo, last - numTicks + 1);
+        List<RealTimeTick> ticks = new ArrayList<>((int) Math.max(0, last - first + 1));
+        for (long id = last; id >= first; id--) {
+            int i = (int) id & mask;
+            long time = times[i];
+            long price = prices[i];
+            long amount = amounts[i];
+            VarHandle.acquireFence();
+            if (ids.get(i) != id) break; // 被覆盖，更早的也一样
+            var tick = new RealTimeTick();
+            tick.setId(id);
+            tick.setTime(new Timestamp(time));
+            tick.setPrice(instrument.ticksToPrice(price));
+            tick.setAmount(instrument.lotsToQuantity(amount));
+            ticks.add(tick);
+        }
+        return ticks;
+    }
+
+    // 已被覆盖的 tick 视为最早
+    private long readTime(long id) {
+        int i = (int) id & mask;
+        long time = times[i];
+        VarHandle.acquireFence();
+        return ids.get(i) == id ? time : Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,71 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 从成交明细带淘汰出来的成交，追加写到 dir/品种-trades.csv。
+ * 撮合线程只把淘汰的块交给后台线程，不等待文件写完。
+ */
+final class TradeArchive implements Consumer<List<TradingDetail>>, AutoCloseable {
+    private final Logger logger = LoggerFactory.getLogger(TradeArchive.class);
+
+    private final Path file;
+    private final ExecutorService writer;
+
+    TradeArchive(Path dir, String symbol) {
+        this.file = dir.resolve(symbol.replaceAll("[^A-Za-z0-9_-]", "_") + "-trades.csv");
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "trade-archive-" + symbol);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void accept(List<TradingDetail> details) {
+        writer.execute(() -> write(details));
+    }
+
+    private void write(List<TradingDetail> details) {
+        try {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (TradingDetail d : details) {
+                    // id,fromOrderId,toOrderId,tradeType,price,amount,time
+                    out.write("%s,%s,%s,%s,%s,%s,%d%n".formatted(d.getId(), d.getFromOrderId(), d.getToOrderId(),
+                            d.getTradeType(), d.getPrice().toPlainString(), d.getAmount().toPlainString(),
+                            d.getUpdatedAt() == null ? 0 : d.getUpdatedAt().getTime()));
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("archive {} trades to {} failed", details.size(), file, e);
+        }
+    }
+
+    // 写完已经提交的块
+    @Override
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("trade archive {} not finished in time", file);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.order.OrderStatus;
+import org.example.mylearn.tradingengine.order.TradeType;
+
+import java.lang.invoke.VarHandle;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * 成交明细带：按成交顺序只追加，分块存储。撮合线程是唯一的写者，读方无锁。
+ *
+ * 第 n 笔成交(从0开始)在第 n / chunkSize 块的第 n % chunkSize 行，按序号访问是 O(1)。
+ * 同一品种的成交ID连续分配，第 n 笔成交的ID是第一笔的ID + n，按成交ID查找也是 O(1)；
+ * 快照恢复后成交ID接着快照中的最后成交ID分配，而成交带从空开始，所以记下第一笔的ID而不是假定从1开始。
+ * 内存中最多保留 retainChunks 块，写满后最旧的一块被淘汰(交给 archive)并复用为新块。
+ * 块内按列存放定点数和ID，撮合线程追加成交不分配对象；TradingDetail 只在读取时生成，读方拿到的都是副本。
+ * 复用一块前先改写块号，读方读完一行后再核对块号，对不上说明这一行已被覆盖。
+ */
+final class TradeTape {
+    private static final TradeType[] TRADE_TYPES = TradeType.values();
+    private static final OrderStatus[] STATUSES = OrderStatus.values();
+
+    private static final class Chunk {
+        volatile long number = -1;
+        final int[] ids;
+        final int[] fromOrderIds;
+        final int[] toOrderIds;
+        final long[] prices;
+        final long[] amounts;
+        final long[] times;
+        final byte[] tradeTypes;
+        final byte[] statuses;
+
+        Chunk(int size) {
+            ids = new int[size];
+            fromOrderIds = new int[size];
+            toOrderIds = new int[size];
+            prices = new long[size];
+            amounts = new long[size];
+            times = new long[size];
+            tradeTypes = new byte[size];
+            statuses = new byte[size];
+        }
+    }
+
+    private final Instrument instrument;
+    private final int shift;
+    private final int chunkMask;
+    private final int dirMask;
+    private final AtomicReferenceArray<Chunk> directory;
+    private final Consumer<List<TradingDetail>> archive;
+    private Chunk current;           // 只由撮合线程访问
+    private long appended;           // 已追加(可能未发布)的成交数
+    private int firstId;             // 第一笔成交的ID，随 size 一起发布
+    private volatile long size;      // 已发布的成交数，读方可见
+
+    /**
+     * @param chunkSize    每块的成交数，2的幂
+     * @param retainChunks 内存中保留的块数，2的幂
+     * @param archive      被淘汰的成交(按成交顺序)，在撮合线程中调用；为 null 时直接丢弃
+     */
+    TradeTape(Instrument instrument, int chunkSize, int retainChunks, Consumer<List<TradingDetail>> archive) {
+        if (chunkSize <= 0 || Integer.bitCount(chunkSize) != 1) {
+            throw new IllegalArgumentException("trade chunk size must be a power of 2: " + chunkSize);
+        }
+        if (retainChunks < 2 || Integer.bitCount(retainChunks) != 1) {
+            throw new IllegalArgumentException("retained trade chunks must be a power of 2 and >= 2: " + retainChunks);
+        }
+        this.instrument = instrument;
+        this.shift = Integer.numberOfTrailingZeros(chunkSize);
+        this.chunkMask = chunkSize - 1;
+        this.dirMask = retainChunks - 1;
+        this.directory = new AtomicReferenceArray<>(retainChunks);
+        this.archive = archive;
+    }
+
+    // 撮合线程调用，发布之前读方不可见
+    void add(int id, int fromOrderId, int toOrderId, TradeType tradeType, OrderStatus status,
+             long priceTicks, long amountLots, long time) {
+        long n = appended;
+        if (n == 0) {
+            firstId = id;
+        }
+        int row = (int) n & chunkMask;
+        if (row == 0) {
+            current = nextChunk(n >>> shift);
+        }
+        Chunk c = current;
+        c.ids[row] = id;
+        c.fromOrderIds[row] = fromOrderId;
+        c.toOrderIds[row] = toOrderId;
+        c.tradeTypes[row] = (byte) tradeType.ordinal();
+        c.statuses[row] = (byte) status.ordinal();
+        c.prices[row] = priceTicks;
+        c.amounts[row] = amountLots;
+        c.times[row] = time;
+        appended = n + 1;
+    }
+
+    // 第一圈分配新块，之后淘汰并复用目录中同一位置的旧块
+    private Chunk nextChunk(long number) {
+        int i = (int) number & dirMask;
+        Chunk c = directory.get(i);
+        if (c == null) {
+            c = new Chunk(chunkMask + 1);
+            c.number = number;
+            directory.set(i, c);
+            return c;
+        }
+        if (archive != null) {
+            archive.accept(rows(c, c.number, chunkMask + 1));
+        }
+        c.number = number;
+        VarHandle.storeStoreFence(); // 改写块号先于改写行
+        return c;
+    }
+
+    // 撮合线程在每批结束时调用
+    void publish() {
+        size = appended;
+    }
+
+    long size() {
+        return size;
+    }
+
+    // 仍在内存中的最早一笔成交的序号
+    long firstRetained() {
+        long published = size;
+        long chunks = published >>> shift;
+        if ((published & chunkMask) != 0) chunks++;
+        return Math.max(0, chunks - (dirMask + 1)) << shift;
+    }
+
+    /**
+     * 成交ID为 tradeId 的成交；尚未发布、已被淘汰或不存在时返回 null
+     */
+    TradingDetail get(int tradeId) {
+        if (size == 0) {
+            return null;
+        }
+        return at(tradeId - (long) firstId);
+    }
+
+    // 第 index 笔成交；尚未发布或已被淘汰时返回 null
+    private TradingDetail at(long index) {
+        if (index < 0 || index >= size) {
+            return null;
+        }
+        long number = index >>> shift;
+        Chunk c = directory.get((int) number & dirMask);
+        return c == null ? null : read(c, number, (int) index & chunkMask);
+    }
+
+    /**
+     * 最近 n 笔成交的副本，按成交顺序；之后的追加、淘汰都不会影响返回的列表
+     */
+    List<TradingDetail> latest(int n) {
+        long end = size;
+        long from = Math.max(firstRetained(), end - n);
+        List<TradingDetail> copy = new ArrayList<>((int) Math.max(0, end - from));
+        for (long index = from; index < end; index++) {
+            TradingDetail detail = at(index);
+            if (detail == null) {
+                // 读的过程中被淘汰，已经复制的更早，丢弃
+                copy.clear();
+                continue;
+            }
+            copy.add(detail);
+        }
+        return copy;
+    }
+
+    private List<TradingDetail> rows(Chunk c, long number, int count) {
+        List<TradingDetail> details = new ArrayList<>(count);
+        for (int row = 0; row < count; row++) {
+            details.add(read(c, number, row));
+        }
+        return details;
+    }
+
+    // 块号不是 number 时(已被复用)返回 null
+    private TradingDetail read(Chunk c, long number, int row) {
+        if (c.number != number) return null;
+        int id = c.ids[row];
+        int fromOrderId = c.fromOrderIds[row];
+        int toOrderId = c.toOrderIds[row];
+        byte tradeType = c.tradeTypes[row];
+        byte status = c.statuses[row];
+        long price = c.prices[row];
+        long amount = c.amounts[row];
+        long time = c.times[row];
+        VarHandle.acquireFence();
+        if (c.number != number) return null;
+
+        var detail = new TradingDetail();
+        detail.setId(id);
+        detail.setFromOrderId(fromOrderId);
+        detail.setToOrderId(toOrderId);
+        detail.setInstrument(instrument);
+        detail.setTradeType(TRADE_TYPES[tradeType]);
+        detail.setOrderStatus(STATUSES[status]);
+        detail.setPriceTicks(price);
+        detail.setAmountLots(amount);
+        Timestamp ts = new Timestamp(time);
+        detail.setCreatedAt(ts);
+        detail.setUpdatedAt(ts);
+        return detail;
+    }
+}
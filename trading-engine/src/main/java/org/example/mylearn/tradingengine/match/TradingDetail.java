@@ -1,5 +1,7 @@
 package org.example.mylearn.tradingengine.match;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.example.mylearn.tradingengine.instrument.Instrument;
 import org.example.mylearn.tradingengine.order.OrderStatus;
 import org.example.mylearn.tradingengine.order.TradeType;
 
@@ -11,8 +13,10 @@ public class TradingDetail {
     Integer fromOrderId;
     Integer toOrderId;
 
-    BigDecimal price;
-    BigDecimal amount;
+    transient Instrument instrument;
+    // 定点数(ticks/lots)，撮合线程只写long，BigDecimal在读取时换算
+    long priceTicks;
+    long amountLots;
 
     TradeType tradeType;
     OrderStatus orderStatus;
@@ -22,6 +26,7 @@ public class TradingDetail {
     Timestamp updatedAt;
 
     public TradingDetail() {
+        this.instrument = Instrument.DEFAULT;
     }
 
     public Integer getId() {
@@ -48,20 +53,47 @@ public class TradingDetail {
         this.toOrderId = toOrderId;
     }
 
+    @JsonIgnore
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    public void setInstrument(Instrument instrument) {
+        this.instrument = instrument;
+    }
+
     public BigDecimal getPrice() {
-        return price;
+        return instrument.ticksToPrice(priceTicks);
     }
 
     public void setPrice(BigDecimal price) {
-        this.price = price;
+        this.priceTicks = instrument.priceToTicks(price);
+    }
+
+    @JsonIgnore
+    public long getPriceTicks() {
+        return priceTicks;
+    }
+
+    public void setPriceTicks(long priceTicks) {
+        this.priceTicks = priceTicks;
     }
 
     public BigDecimal getAmount() {
-        return amount;
+        return instrument.lotsToQuantity(amountLots);
     }
 
     public void setAmount(BigDecimal amount) {
-        this.amount = amount;
+        this.amountLots = instrument.quantityToLots(amount);
+    }
+
+    @JsonIgnore
+    public long getAmountLots() {
+        return amountLots;
+    }
+
+    public void setAmountLots(long amountLots) {
+        this.amountLots = amountLots;
     }
 
     public TradeType getTradeType() {
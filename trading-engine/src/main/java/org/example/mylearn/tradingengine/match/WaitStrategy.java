@@ -0,0 +1,102 @@
+package org.example.mylearn.tradingengine.match;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 撮合线程(唯一消费者)在 CommandRingBuffer 上等待新命令的方式。
+ * BLOCKING: 锁+条件变量，空闲时不占CPU，唤醒有 park/unpark 延迟；
+ * YIELDING: 先自旋，再 Thread.yield()，延迟低，空闲时仍会占用CPU；
+ * BUSY_SPIN: 一直自旋，延迟最低，独占一个CPU核。
+ */
+interface WaitStrategy {
+
+    // 等待 sequence 被发布；线程被中断时抛出 InterruptedException
+    void waitFor(CommandRingBuffer ring, long sequence) throws InterruptedException;
+
+    // 生产者发布后调用
+    void signal();
+
+    static WaitStrategy create(WaitStrategyType type) {
+        return switch (type) {
+            case BLOCKING -> new Blocking();
+            case YIELDING -> new Yielding();
+            case BUSY_SPIN -> new BusySpin();
+        };
+    }
+
+    enum WaitStrategyType {
+        BLOCKING,
+        YIELDING,
+        BUSY_SPIN
+    }
+
+    final class Blocking implements WaitStrategy {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition published = lock.newCondition();
+        // 消费者正在等待时生产者才需要加锁唤醒
+        private volatile boolean waiting;
+
+        @Override
+        public void waitFor(CommandRingBuffer ring, long sequence) throws InterruptedException {
+            if (ring.isPublished(sequence)) return;
+            lock.lock();
+            try {
+                waiting = true;
+                while (!ring.isPublished(sequence)) {
+                    published.await();
+                }
+            } finally {
+                waiting = false;
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void signal() {
+            if (!waiting) return;
+            lock.lock();
+            try {
+                published.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    final class Yielding implements WaitStrategy {
+        private static final int SPIN_TRIES = 100;
+
+        @Override
+        public void waitFor(CommandRingBuffer ring, long sequence) throws InterruptedException {
+            int counter = SPIN_TRIES;
+            while (!ring.isPublished(sequence)) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                if (counter > 0) {
+                    counter--;
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+
+    final class BusySpin implements WaitStrategy {
+        @Override
+        public void waitFor(CommandRingBuffer ring, long sequence) throws InterruptedException {
+            while (!ring.isPublished(sequence)) {
+                if (Thread.interrupted()) throw new InterruptedException();
+                Thread.onSpinWait();
+            }
+        }
+
+        @Override
+        public void signal() {
+        }
+    }
+}
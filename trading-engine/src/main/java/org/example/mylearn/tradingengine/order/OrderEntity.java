@@ -1,19 +1,33 @@
 package org.example.mylearn.tradingengine.order;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+
 import java.math.BigDecimal;
 import java.sql.Timestamp;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class OrderEntity {
     Integer id;
     String uid;
     Integer seqId;
 
-    BigDecimal price;
+    transient Instrument instrument;
+
+    BigDecimal price; // 下单时的原始报价，仅用于展示
     TradeType tradeType;
+    TimeInForce timeInForce;
 
-    BigDecimal amount;
-    BigDecimal finishedAmount;//已经成交的数量，理论上使用子订单更合理？
-    BigDecimal processingAmount;
+    BigDecimal amount; // 下单时的原始数量，仅用于展示
+
+    // 撮合、清算使用的定点数，见 Instrument；REST 响应中只出现对应的 BigDecimal 字段
+    long priceTicks;
+    long amountLots;
+    long finishedLots;//已经成交的数量，理论上使用子订单更合理？
+    long processingLots;
+    // 止损触发价(ticks)，0 表示普通限价单；触发后按 priceTicks 作为限价单撮合
+    long triggerPriceTicks;
 
     OrderStatus status;
     String messge;
@@ -21,16 +35,33 @@ public class OrderEntity {
     Timestamp createdAt;
     Timestamp updatedAt;
 
+    // 各阶段耗时统计用的 System.nanoTime()，0 表示没有经过该阶段(如日志重放)；不序列化
+    transient long acceptedNanos;  // 进入 TradingService
+    transient long submittedNanos; // 提交进命令环
+    // 撮合线程处理完这笔订单的 ADD 命令(挂单、成交或被拒绝)后置位，只由撮合线程写(准入控制拒绝的除外)
+    transient volatile boolean processed;
+    // whenProcessed() 的等待方，第一次等待时创建，processed 置位后完成；不经过撮合线程的命令环
+    transient volatile CompletableFuture<OrderEntity> processedFuture;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<OrderEntity, CompletableFuture> PROCESSED_FUTURE =
+            AtomicReferenceFieldUpdater.newUpdater(OrderEntity.class, CompletableFuture.class, "processedFuture");
+
 
     public OrderEntity() {
         this.id = -1;
         this.uid = "-1";
         this.seqId = -1;
+        this.instrument = Instrument.DEFAULT;
         this.price = BigDecimal.ZERO;
         this.tradeType = null;
+        this.timeInForce = TimeInForce.GTC;
         this.amount = BigDecimal.ZERO;
-        this.finishedAmount = BigDecimal.ZERO;
-        this.processingAmount = BigDecimal.ZERO;
+        this.priceTicks = 0;
+        this.amountLots = 0;
+        this.finishedLots = 0;
+        this.processingLots = 0;
+        this.triggerPriceTicks = 0;
         this.status = OrderStatus.INIT;
         this.messge = "";
         this.createdAt = null;
@@ -53,6 +84,14 @@ public class OrderEntity {
         this.uid = uid;
     }
 
+    public TimeInForce getTimeInForce() {
+        return timeInForce;
+    }
+
+    public void setTimeInForce(TimeInForce timeInForce) {
+        this.timeInForce = timeInForce;
+    }
+
     public Integer getSeqId() {
         return seqId;
     }
@@ -61,24 +100,78 @@ public class OrderEntity {
         this.seqId = seqId;
     }
 
+    public String getSymbol() {
+        return instrument.getSymbol();
+    }
+
+    @JsonIgnore
+    public Instrument getInstrument() {
+        return instrument;
+    }
+
+    // 切换品种时，按新品种的 tick/lot 重新换算定点数
+    public void setInstrument(Instrument instrument) {
+        BigDecimal finished = getFinishedAmount();
+        BigDecimal processing = getProcessingAmount();
+        this.instrument = instrument;
+        setPrice(price);
+        setAmount(amount);
+        setFinishedAmount(finished);
+        setProcessingAmount(processing);
+    }
+
     public BigDecimal getPrice() {
         return price;
     }
 
     public void setPrice(BigDecimal price) {
+        this.priceTicks = instrument.priceToTicks(price);
         this.price = price;
     }
 
+    @JsonIgnore
+    public long getPriceTicks() {
+        return priceTicks;
+    }
+
+    public void setPriceTicks(long priceTicks) {
+        this.priceTicks = priceTicks;
+        this.price = instrument.ticksToPrice(priceTicks);
+    }
+
+    @JsonIgnore
+    public long getTriggerPriceTicks() {
+        return triggerPriceTicks;
+    }
+
+    public void setTriggerPriceTicks(long triggerPriceTicks) {
+        this.triggerPriceTicks = triggerPriceTicks;
+    }
+
+    // 仅用于展示，普通限价单为 null
+    public BigDecimal getTriggerPrice() {
+        return triggerPriceTicks == 0 ? null : instrument.ticksToPrice(triggerPriceTicks);
+    }
+
     public TradeType getTradeType() {
         return tradeType;
     }
 
     public BigDecimal getProcessingAmount() {
-        return processingAmount;
+        return instrument.lotsToQuantity(processingLots);
     }
 
     public void setProcessingAmount(BigDecimal processingAmount) {
-        this.processingAmount = processingAmount;
+        this.processingLots = instrument.quantityToLots(processingAmount);
+    }
+
+    @JsonIgnore
+    public long getProcessingLots() {
+        return processingLots;
+    }
+
+    public void setProcessingLots(long processingLots) {
+        this.processingLots = processingLots;
     }
     public void setTradeType(TradeType tradeType) {
         this.tradeType = tradeType;
@@ -97,15 +190,95 @@ public class OrderEntity {
     }
 
     public void setAmount(BigDecimal amount) {
+        this.amountLots = instrument.quantityToLots(amount);
         this.amount = amount;
     }
 
+    @JsonIgnore
+    public long getAmountLots() {
+        return amountLots;
+    }
+
+    public void setAmountLots(long amountLots) {
+        this.amountLots = amountLots;
+        this.amount = instrument.lotsToQuantity(amountLots);
+    }
+
     public BigDecimal getFinishedAmount() {
-        return finishedAmount;
+        return instrument.lotsToQuantity(finishedLots);
     }
 
     public void setFinishedAmount(BigDecimal finishedAmount) {
-        this.finishedAmount = finishedAmount;
+        this.finishedLots = instrument.quantityToLots(finishedAmount);
+    }
+
+    @JsonIgnore
+    public long getFinishedLots() {
+        return finishedLots;
+    }
+
+    public void setFinishedLots(long finishedLots) {
+        this.finishedLots = finishedLots;
+    }
+
+    // 撮合线程是否已经处理完这笔订单，见 markProcessed()
+    @JsonIgnore
+    public boolean isProcessed() {
+        return processed;
+    }
+
+    // 撮合线程处理完这笔订单后调用(准入控制拒绝时由请求线程调用)：volatile 写之前对订单的修改对等待方可见，
+    // 然后完成已经登记的等待方，回调在调用线程中执行
+    public void markProcessed() {
+        processed = true;
+        CompletableFuture<OrderEntity> future = processedFuture;
+        if (future != null) {
+            future.complete(this);
+        }
+    }
+
+    /**
+     * 订单处理完(挂单、成交或被拒绝)后完成的 future，已经处理过时直接返回已完成的 future。
+     * 等待方和撮合线程各自先写后读两个 volatile 字段，至少有一方看到对方的写，future 一定会被完成。
+     */
+    @SuppressWarnings("unchecked")
+    public CompletableFuture<OrderEntity> whenProcessed() {
+        if (processed) {
+            return CompletableFuture.completedFuture(this);
+        }
+        CompletableFuture<OrderEntity> future = processedFuture;
+        if (future == null) {
+            var created = new CompletableFuture<OrderEntity>();
+            future = PROCESSED_FUTURE.compareAndSet(this, null, created) ? created : processedFuture;
+        }
+        if (processed) { // 撮合线程在登记之前已经处理完，可能没有看到这个 future
+            future.complete(this);
+        }
+        return future;
+    }
+
+    @JsonIgnore
+    public long getAcceptedNanos() {
+        return acceptedNanos;
+    }
+
+    public void setAcceptedNanos(long acceptedNanos) {
+        this.acceptedNanos = acceptedNanos;
+    }
+
+    @JsonIgnore
+    public long getSubmittedNanos() {
+        return submittedNanos;
+    }
+
+    public void setSubmittedNanos(long submittedNanos) {
+        this.submittedNanos = submittedNanos;
+    }
+
+    // 尚未成交的数量
+    @JsonIgnore
+    public long getRemainingLots() {
+        return amountLots - finishedLots;
     }
 
     public Timestamp getCreatedAt() {
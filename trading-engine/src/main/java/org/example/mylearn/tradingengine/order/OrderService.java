@@ -6,6 +6,7 @@ import org.example.mylearn.common.ErrorCode;
 import org.example.mylearn.common.Result;
 import org.example.mylearn.tradingengine.asset.AssetService;
 import org.example.mylearn.tradingengine.asset.AssetType;
+import org.example.mylearn.tradingengine.instrument.Instrument;
 import org.example.mylearn.tradingengine.rpcclient.SequenceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,14 +35,50 @@ public class OrderService {
     // 跟踪用户活动订单: User ID => Map(Order ID => OrderEntity)
     final ConcurrentMap<String, ConcurrentMap<Integer, OrderEntity>> userOrdersDB = new ConcurrentHashMap<>();
 
-    public Result<OrderEntity> createNewOrder(Integer sequenceId, String userId,
-                           TradeType type, BigDecimal price, BigDecimal amont){
-        return createOrder(sequenceId, userId, type, price, amont, OrderStatus.INIT, false);
+    // price/amont 已在REST边界换算为定点数，见 Instrument
+    public Result<OrderEntity> createNewOrder(Integer sequenceId, String userId, Instrument instrument,
+                           TradeType type, long priceTicks, long amontLots){
+        OrderEntity order = new OrderEntity();
+        order.setInstrument(instrument);
+        order.setPriceTicks(priceTicks);
+        order.setAmountLots(amontLots);
+        return initOrder(order, sequenceId, userId, type, OrderStatus.INIT);
+    }
+
+    // 从撮合日志重建订单，沿用原来的订单ID，不冻结资产(冻结在撮合线程重放时完成)
+    public Result<OrderEntity> restoreOrder(Integer orderId, Integer sequenceId, String userId, Instrument instrument,
+                                            TradeType type, long priceTicks, long amontLots, Timestamp createdAt) {
+        OrderEntity order = new OrderEntity();
+        order.setInstrument(instrument);
+        order.setId(orderId);
+        order.setSeqId(sequenceId);
+        order.setUid(userId);
+        order.setTradeType(type);
+        order.setPriceTicks(priceTicks);
+        order.setAmountLots(amontLots);
+        order.setStatus(OrderStatus.INIT);
+        order.setCreatedAt(createdAt);
+        order.setUpdatedAt(new Timestamp(createdAt.getTime()));
+        return addOrderInternal(order);
+    }
+
+    // 从快照恢复订单，各字段(包括状态和成交量)由调用方按快照设置好，不冻结资产(冻结额已在资产快照中)
+    public Result<OrderEntity> restoreOrder(OrderEntity order) {
+        return addOrderInternal(order);
     }
 
     public Result<OrderEntity> createOrder(Integer sequenceId, String userId,
                                    TradeType type, BigDecimal price, BigDecimal amont,
                                    OrderStatus status, boolean checkAsset) {
+        // 实例化Order, 价格、数量必须符合品种的 tick/lot 精度:
+        OrderEntity order = new OrderEntity();
+        try {
+            order.setPrice(price);
+            order.setAmount(amont);
+        } catch (IllegalArgumentException e) {
+            logger.debug(e.getMessage());
+            return Result.fail(null, ErrorCode.INVALID_PARAM, e.getMessage());
+        }
         if(checkAsset) {
             switch (type) {
                 case BUY -> {
@@ -61,8 +98,11 @@ public class OrderService {
                 default -> throw new IllegalStateException("Invalid TradeType: " + type);
             }
         }
-        // 实例化Order:
-        OrderEntity order = new OrderEntity();
+        return initOrder(order, sequenceId, userId, type, status);
+    }
+
+    private Result<OrderEntity> initOrder(OrderEntity order, Integer sequenceId, String userId,
+                                          TradeType type, OrderStatus status) {
         var seqRlt = sequenceService.newSequence();
         if(!seqRlt.isSuccess()){
             var msg = "get sequence id fail! msg= %s".formatted(seqRlt.getMessage());
@@ -73,9 +113,7 @@ public class OrderService {
         order.setSeqId(sequenceId);
         order.setUid(userId);
         order.setTradeType(type);
-        order.setPrice(price);
-        order.setAmount(amont);
-        order.setFinishedAmount(BigDecimal.ZERO);
+        order.setFinishedLots(0);
         order.setStatus(status);
         Timestamp now = new Timestamp(System.currentTimeMillis());
         order.setCreatedAt(now);
@@ -135,11 +173,12 @@ public class OrderService {
             return null;
         }
         if (finishedAmt != null) {
-            if (order.getAmount().subtract(order.getFinishedAmount()).compareTo(finishedAmt) <= 0) {
+            long finishedLots = order.getInstrument().quantityToLots(finishedAmt);
+            if (order.getRemainingLots() <= finishedLots) {
                 logger.info("order's amont {} < finished amont {}!", order.getFinishedAmount(), finishedAmt);
                 return null;
             }
-            order.setFinishedAmount(order.getFinishedAmount().add(finishedAmt));// 原finished基础上，再增加
+            order.setFinishedLots(order.getFinishedLots() + finishedLots);// 原finished基础上，再增加
             modified = true;
         }
         if(status != null) {
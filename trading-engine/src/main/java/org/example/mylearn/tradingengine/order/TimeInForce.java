@@ -0,0 +1,8 @@
+package org.example.mylearn.tradingengine.order;
+
+// 订单有效方式，只影响撮合后未成交的剩余部分
+public enum TimeInForce {
+    GTC, // 一直有效：剩余部分挂单，直到成交或撤单(默认)
+    IOC, // 立即成交，剩余部分撤销，不挂单
+    FOK  // 全部成交，否则整单撤销，不挂单、不冻结资产
+}
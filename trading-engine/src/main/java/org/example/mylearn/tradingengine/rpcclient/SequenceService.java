@@ -24,6 +24,16 @@ public class SequenceService {
         return Result.ok(sequenceFeignClient.newSequence());
     }
 
+    // 一次取 size 个连续ID，返回第一个
+    @CircuitBreaker(name = "new-sequence", fallbackMethod = "fallback")
+    public Result<Integer> newSequenceBlock(int size){
+        return Result.ok(sequenceFeignClient.newSequenceBlock(size));
+    }
+
+    private Result<Integer> fallback(int size, Throwable e){
+        return fallback(e);
+    }
+
     private Result<Integer> fallback(Throwable e){
         var msg = "in fallback(): call %s fail! fall back to fallback(), error msg: %s".formatted(this.getClass().getSimpleName(), e.getMessage());
         logger.debug(msg);
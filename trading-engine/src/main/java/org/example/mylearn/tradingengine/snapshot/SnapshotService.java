@@ -0,0 +1,466 @@
+package org.example.mylearn.tradingengine.snapshot;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.example.mylearn.common.ErrorCode;
+import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.asset.AssetService;
+import org.example.mylearn.tradingengine.asset.BalanceCut;
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.instrument.InstrumentRegistry;
+import org.example.mylearn.tradingengine.match.MatcherService;
+import org.example.mylearn.tradingengine.match.OrderCut;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.OrderService;
+import org.example.mylearn.tradingengine.order.OrderStatus;
+import org.example.mylearn.tradingengine.order.TimeInForce;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * 定期把报价簿、订单(OrderService.allOrdersDB)和资产(AssetService 的余额表)写成二进制快照，
+ * 并记录每个品种快照时已处理到的撮合日志序号、转账日志序号和全局序号。启动时加载最新的有效快照，再只重放这些序号之后的日志。
+ *
+ * 撮合线程停下期间只复制每个品种的挂单、止损单ID顺序、最后的成交ID和日志序号，并开始记录订单和余额在此刻的值
+ * (OrderCut、BalanceCut)；撮合线程恢复之后，快照线程再复制订单和余额，之后被修改过的用记下的值，
+ * 每个余额格子带着它最后的资产日志序号，得到的仍是停下那一刻的状态。序列化和写文件也在快照线程中完成。
+ * 文件格式: int 魔数 | int 版本 | long 时间 | long 全局序号 | long 转账日志序号 | 内容 | long CRC32C(魔数到内容结束)，
+ * 余额为定点数。先写临时文件，完成后原子改名。
+ */
+@Service
+public class SnapshotService {
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotService.class);
+
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int VERSION = 1;
+    private static final String PREFIX = "snapshot-";
+    private static final String SUFFIX = ".snap";
+
+    @Autowired
+    MatcherService matcherService;
+    @Autowired
+    OrderService orderService;
+    @Autowired
+    AssetService assetService;
+    @Autowired
+    InstrumentRegistry instrumentRegistry;
+
+    @Value("${trading.snapshot.enabled:false}")
+    boolean enabled = false;
+    @Value("${trading.snapshot.dir:./data/snapshot}")
+    String dir = "./data/snapshot";
+    @Value("${trading.snapshot.interval-seconds:60}")
+    long intervalSeconds = 60;
+    // 保留最近几个快照，更早的快照以及只被它们需要的日志文件会被删除
+    @Value("${trading.snapshot.keep:3}")
+    int keep = 3;
+
+    private ScheduledExecutorService scheduler;
+    // 本进程写过的快照对应的日志序号，最早的一个决定日志可以删除到哪里
+    private final Deque<Retained> retained = new ArrayDeque<>();
+
+    @PostConstruct
+    void init() {
+        if (!enabled) return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        // 撮合线程启动(recover)之前 runPaused 直接返回 false，本次跳过
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                var result = takeSnapshot();
+                if (!result.isSuccess()) {
+                    logger.info("snapshot skipped: {}", result.getMessage());
+                }
+            } catch (Exception e) {
+                logger.warn("snapshot failed", e);
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * 暂停撮合、记下挂单顺序并开始记录订单和余额的快照时刻值、恢复撮合，然后复制订单和余额、写文件。
+     * @return 快照文件路径
+     */
+    public synchronized Result<Path> takeSnapshot() throws IOException {
+        SnapshotData data = new SnapshotData();
+        Cuts cuts = new Cuts();
+        long begin = System.nanoTime();
+        boolean paused;
+        long pauseNanos;
+        try {
+            paused = matcherService.runPaused(sequences -> capture(data, cuts, sequences));
+            pauseNanos = System.nanoTime() - begin;
+            if (paused) {
+                copyOrders(data, cuts.orders);
+                copyAssets(data, cuts.balances);
+            }
+        } finally {
+            if (cuts.orders != null) matcherService.endOrderCut();
+            if (cuts.balances != null) assetService.endCut();
+        }
+        if (!paused) {
+            return Result.fail(null, ErrorCode.SERVICE_UNAVAILABLE, "match engines not running");
+        }
+
+        Path directory = Path.of(dir);
+        Files.createDirectories(directory);
+        Path file = directory.resolve("%s%020d%s".formatted(PREFIX, data.createdAt, SUFFIX));
+        Path tmp = directory.resolve(file.getFileName() + ".tmp");
+        write(data, tmp);
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        logger.info("snapshot {} written, {} orders, {} assets, match paused {} us",
+                file, data.orders.size(), data.assets.size(), pauseNanos / 1000);
+
+        retained.addLast(new Retained(data.journalSequences, data.transferSequence));
+        prune(directory);
+        return Result.ok(file);
+    }
+
+    /**
+     * 启动时、在 MatcherService.recover() 之前调用：加载最新的有效快照(损坏的快照跳过，尝试更早的)。
+     * @return 没有开启快照或没有可用快照时返回 false，调用方自行初始化资产
+     */
+    public boolean restoreLatest() {
+        if (!enabled) return false;
+        List<Path> files;
+        try {
+            files = listSnapshots(Path.of(dir));
+        } catch (IOException e) {
+            logger.warn("list snapshots in {} failed", dir, e);
+            return false;
+        }
+        for (int i = files.size() - 1; i >= 0; i--) {
+            SnapshotData data;
+            try {
+                data = read(files.get(i));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("snapshot {} is not usable, try an older one", files.get(i), e);
+                continue;
+            }
+            apply(data);
+            logger.info("restored snapshot {}, {} orders, {} assets", files.get(i), data.orders.size(), data.assets.size());
+            return true;
+        }
+        return false;
+    }
+
+    // 撮合线程全部停下时执行：只复制挂单顺序等少量状态，订单和余额在恢复撮合之后按 cuts 复制
+    private void capture(SnapshotData data, Cuts cuts, Map<String, Long> sequences) {
+        data.createdAt = System.currentTimeMillis();
+        data.journalSequences = new HashMap<>(sequences);
+        for (String symbol : sequences.keySet()) {
+            data.buys.put(symbol, matcherService.getRestingOrderIds(symbol, TradeType.BUY));
+            data.sells.put(symbol, matcherService.getRestingOrderIds(symbol, TradeType.SELL));
+            data.stops.put(symbol, matcherService.getStopOrderIds(symbol));
+            data.lastTradeIds.put(symbol, matcherService.getLastTradeId(symbol));
+        }
+        cuts.orders = matcherService.beginOrderCut();
+        cuts.balances = assetService.beginCut();
+        data.globalSequence = cuts.balances.getGlobalSequence();
+        data.transferSequence = cuts.balances.getTransferSequence();
+    }
+
+    // 撮合线程恢复之后执行：按停下那一刻的成交量、状态和更新时间复制订单
+    private void copyOrders(SnapshotData data, OrderCut cut) {
+        for (OrderEntity order : orderService.getAllOrder()) {
+            OrderCut.Image image = cut.read(order);
+            // 停下时还没进入撮合的订单没有冻结资产，由日志重放重新提交
+            if (image.status() == OrderStatus.INIT || image.status() == OrderStatus.PREPARING) continue;
+            data.orders.add(new OrderRow(order.getId(), order.getSeqId() == null ? -1 : order.getSeqId(),
+                    order.getUid(), order.getSymbol(), order.getTradeType(), order.getPriceTicks(),
+                    order.getAmountLots(), image.finishedLots(), image.status(),
+                    order.getCreatedAt().getTime(), image.updatedAt(),
+                    order.getTimeInForce(), order.getTriggerPriceTicks()));
+        }
+    }
+
+    // 撮合线程恢复之后执行：复制停下那一刻的余额和每个格子的资产日志序号
+    private void copyAssets(SnapshotData data, BalanceCut cut) {
+        assetService.copyBalances(cut, (uid, assetType, id, available, frozen, sequence) ->
+                data.assets.add(new AssetRow(id, uid, assetType, available, frozen, sequence)));
+    }
+
+    private void apply(SnapshotData data) {
+        for (AssetRow row : data.assets) {
+            if (!assetService.restoreAsset(row.uid, row.assetType, row.id, row.available, row.frozen, row.journalSequence)) {
+                logger.warn("restore asset {}/{} failed: already exists", row.uid, row.assetType);
+            }
+        }
+        Map<Integer, OrderEntity> orders = new HashMap<>();
+        for (OrderRow row : data.orders) {
+            Instrument instrument = instrumentRegistry.get(row.symbol);
+            if (instrument == null) {
+                logger.warn("snapshot order {} has unknown symbol {}, skipped", row.id, row.symbol);
+                continue;
+            }
+            OrderEntity order = new OrderEntity();
+            order.setInstrument(instrument);
+            order.setId(row.id);
+            order.setSeqId(row.seqId);
+            order.setUid(row.uid);
+            order.setTradeType(row.tradeType);
+            order.setPriceTicks(row.priceTicks);
+            order.setAmountLots(row.amountLots);
+            order.setFinishedLots(row.finishedLots);
+            order.setStatus(row.status);
+            order.setCreatedAt(new Timestamp(row.createdAt));
+            order.setUpdatedAt(new Timestamp(row.updatedAt));
+            order.setTimeInForce(row.timeInForce);
+            order.setTriggerPriceTicks(row.triggerPriceTicks);
+            // 快照中的订单都已经被撮合线程处理过，等待方立即返回
+            order.markProcessed();
+            var result = orderService.restoreOrder(order);
+            if (result.isSuccess()) {
+                orders.put(row.id, order);
+            } else {
+                logger.warn("restore order {} failed: {}", row.id, result.getMessage());
+            }
+        }
+        data.journalSequences.forEach((symbol, sequence) -> {
+            List<OrderEntity> resting = new ArrayList<>();
+            for (int[] ids : List.of(data.buys.get(symbol), data.sells.get(symbol))) {
+                collect(orders, ids, symbol, resting);
+            }
+            List<OrderEntity> stops = new ArrayList<>();
+            collect(orders, data.stops.getOrDefault(symbol, new int[0]), symbol, stops);
+            matcherService.restoreBook(symbol, sequence, data.lastTradeIds.getOrDefault(symbol, 0), resting, stops);
+        });
+        matcherService.restoreTransferPosition(data.globalSequence, data.transferSequence);
+        retained.clear();
+    }
+
+    private static void collect(Map<Integer, OrderEntity> orders, int[] ids, String symbol, List<OrderEntity> to) {
+        for (int id : ids) {
+            OrderEntity order = orders.get(id);
+            if (order == null) {
+                logger.warn("resting order {} of {} not found in snapshot", id, symbol);
+                continue;
+            }
+            to.add(order);
+        }
+    }
+
+    private void prune(Path directory) throws IOException {
+        List<Path> files = listSnapshots(directory);
+        for (int i = 0; i < files.size() - keep; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+        while (retained.size() > keep) {
+            retained.removeFirst();
+        }
+        // 最早保留的快照之前的日志不会再被用到
+        if (retained.size() == keep) {
+            Retained oldest = retained.peekFirst();
+            matcherService.truncateJournals(oldest.journalSequences(), oldest.transferSequence());
+        }
+    }
+
+    private static List<Path> listSnapshots(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) return new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> list = Files.list(directory)) {
+            list.filter(f -> {
+                String name = f.getFileName().toString();
+                return name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }).forEach(files::add);
+        }
+        // 文件名中的时间是定长的，按文件名排序即按时间排序
+        files.sort(null);
+        return files;
+    }
+
+    static void write(SnapshotData data, Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream raw = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+            CheckedOutputStream checked = new CheckedOutputStream(raw, new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(data.createdAt);
+            out.writeLong(data.globalSequence);
+            out.writeLong(data.transferSequence);
+
+            out.writeInt(data.journalSequences.size());
+            for (var entry : data.journalSequences.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+                writeIds(out, data.buys.get(entry.getKey()));
+                writeIds(out, data.sells.get(entry.getKey()));
+                writeIds(out, data.stops.get(entry.getKey()));
+                out.writeInt(data.lastTradeIds.get(entry.getKey()));
+            }
+
+            out.writeInt(data.orders.size());
+            for (OrderRow row : data.orders) {
+                out.writeInt(row.id);
+                out.writeInt(row.seqId);
+                out.writeUTF(row.uid);
+                out.writeUTF(row.symbol);
+                out.writeByte(row.tradeType.ordinal());
+                out.writeLong(row.priceTicks);
+                out.writeLong(row.amountLots);
+                out.writeLong(row.finishedLots);
+                out.writeByte(row.status.ordinal());
+                out.writeLong(row.createdAt);
+                out.writeLong(row.updatedAt);
+                out.writeByte(row.timeInForce.ordinal());
+                out.writeLong(row.triggerPriceTicks);
+            }
+
+            out.writeInt(data.assets.size());
+            for (AssetRow row : data.assets) {
+                out.writeInt(row.id);
+                out.writeUTF(row.uid);
+                out.writeUTF(row.assetType.name());
+                out.writeLong(row.available);
+                out.writeLong(row.frozen);
+                out.writeLong(row.journalSequence);
+            }
+            out.flush();
+            long crc = checked.getChecksum().getValue();
+            new DataOutputStream(raw).writeLong(crc); // 校验和本身不参与计算
+            raw.flush();
+            channel.force(true);
+        }
+    }
+
+    static SnapshotData read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 16) {
+            throw new IOException("snapshot too short: " + bytes.length);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 0, bytes.length - 8);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipNBytes(bytes.length - 8);
+        if (in.readLong() != crc.getValue()) {
+            throw new IOException("snapshot checksum mismatch");
+        }
+        in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+        if (in.readInt() != MAGIC) throw new IOException("not a snapshot file");
+        int version = in.readInt();
+        if (version != VERSION) throw new IOException("unsupported snapshot version " + version);
+
+        SnapshotData data = new SnapshotData();
+        data.createdAt = in.readLong();
+        data.globalSequence = in.readLong();
+        data.transferSequence = in.readLong();
+        data.journalSequences = new HashMap<>();
+        int symbols = in.readInt();
+        for (int i = 0; i < symbols; i++) {
+            String symbol = in.readUTF();
+            data.journalSequences.put(symbol, in.readLong());
+            data.buys.put(symbol, readIds(in));
+            data.sells.put(symbol, readIds(in));
+            data.stops.put(symbol, readIds(in));
+            data.lastTradeIds.put(symbol, in.readInt());
+        }
+        TradeType[] tradeTypes = TradeType.values();
+        OrderStatus[] statuses = OrderStatus.values();
+        TimeInForce[] timeInForces = TimeInForce.values();
+        int orders = in.readInt();
+        for (int i = 0; i < orders; i++) {
+            int id = in.readInt();
+            int seqId = in.readInt();
+            String uid = in.readUTF();
+            String symbol = in.readUTF();
+            TradeType tradeType = tradeTypes[in.readByte()];
+            long priceTicks = in.readLong();
+            long amountLots = in.readLong();
+            long finishedLots = in.readLong();
+            OrderStatus status = statuses[in.readByte()];
+            long createdAt = in.readLong();
+            long updatedAt = in.readLong();
+            TimeInForce timeInForce = timeInForces[in.readByte()];
+            long triggerPriceTicks = in.readLong();
+            data.orders.add(new OrderRow(id, seqId, uid, symbol, tradeType, priceTicks, amountLots, finishedLots,
+                    status, createdAt, updatedAt, timeInForce, triggerPriceTicks));
+        }
+        int assets = in.readInt();
+        for (int i = 0; i < assets; i++) {
+            data.assets.add(new AssetRow(in.readInt(), in.readUTF(), AssetType.valueOf(in.readUTF()),
+                    in.readLong(), in.readLong(), in.readLong()));
+        }
+        return data;
+    }
+
+    private static void writeIds(DataOutputStream out, int[] ids) throws IOException {
+        out.writeInt(ids.length);
+        for (int id : ids) {
+            out.writeInt(id);
+        }
+    }
+
+    private static int[] readIds(DataInputStream in) throws IOException {
+        int[] ids = new int[in.readInt()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = in.readInt();
+        }
+        return ids;
+    }
+
+    // takeSnapshot 用：撮合线程停下期间开始的订单、余额视图，不写入文件
+    private static final class Cuts {
+        OrderCut orders;
+        BalanceCut balances;
+    }
+
+    // prune 用：一个快照需要的各个日志的起点
+    private record Retained(Map<String, Long> journalSequences, long transferSequence) {
+    }
+
+    // 快照内容：日志序号、挂单顺序(每个品种买卖两侧的订单ID)、止损单触发顺序、最后的成交ID、订单、资产
+    static final class SnapshotData {
+        long createdAt;
+        long globalSequence;
+        long transferSequence;
+        Map<String, Long> journalSequences;
+        final Map<String, int[]> buys = new HashMap<>();
+        final Map<String, int[]> sells = new HashMap<>();
+        final Map<String, int[]> stops = new HashMap<>();
+        final Map<String, Integer> lastTradeIds = new HashMap<>();
+        final List<OrderRow> orders = new ArrayList<>();
+        final List<AssetRow> assets = new ArrayList<>();
+    }
+
+    record OrderRow(int id, int seqId, String uid, String symbol, TradeType tradeType, long priceTicks,
+                    long amountLots, long finishedLots, OrderStatus status, long createdAt, long updatedAt,
+                    TimeInForce timeInForce, long triggerPriceTicks) {
+    }
+
+    // 余额为定点数(AssetService.toUnits)，journalSequence 为该格子最后的资产日志序号
+    record AssetRow(int id, String uid, AssetType assetType, long available, long frozen, long journalSequence) {
+    }
+}
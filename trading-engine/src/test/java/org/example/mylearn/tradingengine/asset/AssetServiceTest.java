@@ -5,13 +5,22 @@ import org.example.mylearn.common.Result;
 import org.example.mylearn.tradingengine.rpcclient.SequenceService;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
 
 @ExtendWith(MockitoExtension.class)
 class AssetServiceTest {
@@ -101,4 +110,303 @@ class AssetServiceTest {
         assertThat(assetService.getAssetByUidAndType(toUser, AssetType.USD).getData().getAvailable())
                 .isEqualByComparingTo("300");
     }
+
+    /**
+     * Request threads and a "match thread" move money between a few hot accounts concurrently.
+     * No balance may go negative, and the total across available + frozen must be unchanged.
+     */
+    @Test
+    void testConcurrentTransfers_Reconcile() throws Exception {
+        final int users = 8;
+        final int threads = 8;
+        final int perThread = 20_000;
+        for (int u = 0; u < users; u++) {
+            assetService.recharge("u" + u, AssetType.USD, new BigDecimal("1000"));
+        }
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            Thread worker = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; i++) {
+                    String from = "u" + random.nextInt(users);
+                    String to = "u" + random.nextInt(users);
+                    BigDecimal amount = BigDecimal.valueOf(1 + random.nextInt(300));
+                    switch (random.nextInt(3)) {
+                        case 0 -> assetService.transferBetweenUsers(AssetTransferType.AVAILABLE_TO_AVAILABLE, from, to, AssetType.USD, amount);
+                        case 1 -> assetService.tryFreeze(from, AssetType.USD, amount);
+                        default -> assetService.transferBetweenUsers(AssetTransferType.FROZEN_TO_AVAILABLE, from, to, AssetType.USD, amount);
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (int u = 0; u < users; u++) {
+            AssetEntity asset = assetService.getAssetByUidAndType("u" + u, AssetType.USD).getData();
+            assertThat(asset.getAvailable()).isNotNegative();
+            assertThat(asset.getFrozen()).isNotNegative();
+            total = total.add(asset.getAvailable()).add(asset.getFrozen());
+        }
+        assertThat(total).isEqualByComparingTo(BigDecimal.valueOf(1000L * users));
+        assertThat(assetService.getAssetByUidAndType(AssetService.SYSTEM_ASSET_ID, AssetType.USD).getData().getAvailable())
+                .isEqualByComparingTo(BigDecimal.valueOf(-1000L * users));
+    }
+
+    /**
+     * Accounts get dense indexes across several balance table pages; the index-based transfer
+     * moves fixed-point units, and amounts finer than the table's precision are rejected.
+     */
+    @Test
+    void testDenseAccounts_IndexTransfer() {
+        final int users = 5_000;
+        for (int u = 0; u < users; u++) {
+            assetService.addNewAsset(new AssetEntity(u + 1, "d" + u, AssetType.BTC, BigDecimal.ONE, BigDecimal.ZERO));
+        }
+        int first = assetService.accountIndex("d0");
+        int last = assetService.accountIndex("d" + (users - 1));
+        assertThat(last - first).isEqualTo(users - 1);
+
+        long units = AssetService.toUnits(new BigDecimal("0.00000001"));
+        assertThat(assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE, first, last, AssetType.BTC, units, true).isSuccess()).isTrue();
+        assertThat(assetService.getAssetByUidAndType("d0", AssetType.BTC).getData().getAvailable()).isEqualByComparingTo("0.99999999");
+        assertThat(assetService.getAssetByUidAndType("d" + (users - 1), AssetType.BTC).getData().getAvailable()).isEqualByComparingTo("1.00000001");
+        assertThat(assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE, first, last, AssetType.USD, units, true).getErrorCode())
+                .isEqualTo(ErrorCode.ASSET_NOT_FOUND);
+
+        assertThat(assetService.tryFreeze("d1", AssetType.BTC, new BigDecimal("0.000000001")).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(assetService.getAllAssets().getData()).hasSize(users);
+    }
+
+    /**
+     * Index-based transfer, freeze and unfreeze reject account indexes that were never assigned.
+     */
+    @Test
+    void testIndexTransfer_AccountOutOfRange() {
+        assetService.recharge("r1", AssetType.USD, BigDecimal.TEN);
+        int account = assetService.accountIndex("r1");
+        int unknown = Math.max(account, assetService.accountIndex(AssetService.SYSTEM_ASSET_ID)) + 1; // 还没有分配的下标
+        long units = AssetService.toUnits(BigDecimal.ONE);
+
+        assertThat(assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE, account, unknown, AssetType.USD, units, true).getErrorCode())
+                .isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE, -1, account, AssetType.USD, units, true).getErrorCode())
+                .isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE, account, Integer.MAX_VALUE, AssetType.USD, units, false).getErrorCode())
+                .isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(assetService.tryFreeze(unknown, AssetType.USD, units, 1).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(assetService.unfreeze(-1, AssetType.USD, units, 1).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(assetService.getAssetByUidAndType("r1", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("10");
+    }
+
+    @Test
+    void testTransferJournal_ReplayAfterRestart(@TempDir Path dir) {
+        assetService.journalEnabled = true;
+        assetService.journalDir = dir.toString();
+        assertThat(assetService.recoverJournal()).isFalse();
+        assetService.recharge("j1", AssetType.USD, new BigDecimal("100"));
+        assetService.transferBetweenUsers(AssetTransferType.AVAILABLE_TO_AVAILABLE, "j1", "j2", AssetType.USD, new BigDecimal("30.5"));
+        // 快照时刻：之后的变化不影响复制出的余额和日志序号
+        BalanceCut cut = assetService.beginCut();
+        assetService.recharge("j2", AssetType.USD, new BigDecimal("1"));
+        assetService.tryFreeze("j1", AssetType.USD, new BigDecimal("20"), 7);
+        BalanceDeltas deltas = new BalanceDeltas();
+        deltas.add(assetService.accountIndex("j1"), AssetType.USD, 0, -AssetService.toUnits(new BigDecimal("5")));
+        deltas.add(assetService.accountIndex("j2"), AssetType.USD, AssetService.toUnits(new BigDecimal("5")), 0);
+        assertThat(assetService.applyDeltas(deltas, 7).isSuccess()).isTrue();
+        // 用到了订单清算得来的余额，没有撮合日志时订单不恢复，重放时这笔转账被拒绝
+        assertThat(assetService.transferBetweenUsers(AssetTransferType.AVAILABLE_TO_AVAILABLE, "j2", "j3", AssetType.USD,
+                new BigDecimal("36")).isSuccess()).isTrue();
+        // 不写日志的线程上的变化(撮合日志重放)重启后不会出现
+        assetService.runWithoutJournal(() -> assetService.recharge("j1", AssetType.USD, BigDecimal.ONE));
+        List<Row> snapshot = new ArrayList<>();
+        assetService.copyBalances(cut, (uid, type, id, available, frozen, sequence) ->
+                snapshot.add(new Row(uid, type, id, available, frozen, sequence)));
+        assetService.endCut();
+        assertThat(snapshot).filteredOn(row -> row.uid().equals("j2"))
+                .extracting(Row::available).containsExactly(AssetService.toUnits(new BigDecimal("30.5")));
+        assetService.destroy();
+
+        // 没有撮合日志：只重放外部转账，订单 7 的冻结和清算忽略
+        AssetService replayed = journaled(dir, false);
+        assertThat(replayed.recoverJournal()).isTrue();
+        assertThat(replayed.getAssetByUidAndType("j1", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("69.5");
+        assertThat(replayed.getAssetByUidAndType("j1", AssetType.USD).getData().getFrozen()).isEqualByComparingTo("0");
+        assertThat(replayed.getAssetByUidAndType("j2", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("31.5");
+        assertThat(replayed.getAssetByUidAndType("j3", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("0");
+        assertThat(replayed.getAssetByUidAndType("0", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("-101");
+        // 重启后新记录写到新文件，再次重放得到同样的结果
+        replayed.recharge("j2", AssetType.USD, BigDecimal.TEN);
+        replayed.destroy();
+        AssetService again = journaled(dir, false);
+        again.recoverJournal();
+        assertThat(again.getAssetByUidAndType("j2", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("41.5");
+        again.destroy();
+
+        // 快照中的余额已经包含序号不大于格子日志序号的记录，不重复入账
+        AssetService withSnapshot = journaled(dir, false);
+        for (Row row : snapshot) {
+            assertThat(withSnapshot.restoreAsset(row.uid(), row.assetType(), row.id(), row.available(), row.frozen(), row.sequence())).isTrue();
+        }
+        withSnapshot.recoverJournal();
+        assertThat(withSnapshot.getAssetByUidAndType("j1", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("69.5");
+        assertThat(withSnapshot.getAssetByUidAndType("j1", AssetType.USD).getData().getFrozen()).isEqualByComparingTo("0");
+        assertThat(withSnapshot.getAssetByUidAndType("j2", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("41.5");
+        withSnapshot.destroy();
+
+        // 撮合日志开启：余额由转账日志和撮合日志重放，资产日志只作记录
+        AssetService audit = journaled(dir, true);
+        assertThat(audit.recoverJournal()).isFalse();
+        assertThat(audit.getAssetByUid("j1").isSuccess()).isFalse();
+        audit.destroy();
+    }
+
+    /**
+     * Several threads journal transfers at once into a small buffer, so buffers are sealed and
+     * swapped under load; replaying the journal must give the same balances.
+     */
+    @Test
+    void testTransferJournal_ConcurrentWritersReplay(@TempDir Path dir) throws Exception {
+        final int users = 16;
+        final int threads = 8;
+        final int perThread = 5_000;
+        assetService.journalEnabled = true;
+        assetService.journalDir = dir.toString();
+        assetService.journalBufferSize = 4096;
+        assetService.journalFlushIntervalMs = 1;
+        assetService.recoverJournal();
+        for (int u = 0; u < users; u++) {
+            assetService.recharge("c" + u, AssetType.USD, new BigDecimal("1000"));
+        }
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            Thread worker = new Thread(() -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                BalanceDeltas deltas = new BalanceDeltas();
+                for (int i = 0; i < perThread; i++) {
+                    int from = random.nextInt(users);
+                    int to = random.nextInt(users);
+                    long units = AssetService.toUnits(BigDecimal.valueOf(1 + random.nextInt(50)));
+                    switch (random.nextInt(3)) {
+                        case 0 -> assetService.tryTransfer(AssetTransferType.AVAILABLE_TO_AVAILABLE,
+                                assetService.accountIndex("c" + from), assetService.accountIndex("c" + to), AssetType.USD, units, true);
+                        case 1 -> assetService.tryFreeze(assetService.accountIndex("c" + from), AssetType.USD, units, 0);
+                        default -> {
+                            deltas.clear();
+                            deltas.add(assetService.accountIndex("c" + from), AssetType.USD, units, -units);
+                            assetService.applyDeltas(deltas);
+                        }
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assetService.destroy();
+
+        AssetService replayed = journaled(dir, false);
+        assertThat(replayed.recoverJournal()).isTrue();
+        for (int u = 0; u < users; u++) {
+            AssetEntity expected = assetService.getAssetByUidAndType("c" + u, AssetType.USD).getData();
+            AssetEntity actual = replayed.getAssetByUidAndType("c" + u, AssetType.USD).getData();
+            assertThat(actual.getAvailable()).isEqualByComparingTo(expected.getAvailable());
+            assertThat(actual.getFrozen()).isEqualByComparingTo(expected.getFrozen());
+        }
+        replayed.destroy();
+    }
+
+    @Test
+    void testBulkLoad_CsvChunksAndBinaryRoundTrip(@TempDir Path dir) throws Exception {
+        org.mockito.Mockito.when(sequenceService.newSequenceBlock(org.mockito.ArgumentMatchers.anyInt())).thenReturn(Result.ok(1000));
+        Files.writeString(dir.resolve("accounts.csv"), String.join("\n",
+                "uid,assetType,available,frozen,id",
+                "b1,USD,100.5,0",
+                "b2,BTC,0.00000001,1,",
+                "b3,USD,-3,0,77",
+                "b4,XYZ,1,0",
+                "b0,USD,999,0",
+                "b5, APPL , 2.50 , 0.5\r",
+                "0,APPL,-7,0",         // 系统账户可以为负数
+                "b1,USD,1,0",          // 文件中重复，只导入第一行
+                ""), StandardCharsets.UTF_8);
+        assetService.addNewAsset(new AssetEntity(1, "b0", AssetType.USD, new BigDecimal("5"), BigDecimal.ZERO));
+        assetService.loadDir = dir.toString();
+        assetService.loadChunkSize = 16; // 小块，让行跨越块边界
+        assetService.loadParallelism = 4;
+
+        BulkLoadReport report = assetService.bulkLoad("accounts.csv").getData();
+        assertThat(report.rows()).isEqualTo(8);
+        assertThat(report.loaded()).isEqualTo(4);
+        assertThat(report.duplicates()).isEqualTo(1);
+        assertThat(report.repeated()).isEqualTo(1);
+        assertThat(report.errors()).isEqualTo(2);
+        assertThat(assetService.getAssetByUidAndType("b0", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("5");
+        assertThat(assetService.getAssetByUidAndType("b1", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("100.5");
+        assertThat(assetService.getAssetByUidAndType("b1", AssetType.USD).getData().getId()).isGreaterThanOrEqualTo(1000);
+        assertThat(assetService.getAssetByUidAndType("b2", AssetType.BTC).getData().getAvailable()).isEqualByComparingTo("0.00000001");
+        assertThat(assetService.getAssetByUidAndType("b3", AssetType.USD).isSuccess()).isFalse(); // 负数余额
+        assertThat(assetService.getAssetByUidAndType("0", AssetType.APPL).getData().getAvailable()).isEqualByComparingTo("-7");
+        assertThat(assetService.getAssetByUidAndType("b5", AssetType.APPL).getData().getFrozen()).isEqualByComparingTo("0.5");
+        assertThat(assetService.bulkLoad("../accounts.csv").getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+
+        // 导出的二进制文件带ID，导入时不需要序号服务
+        assertThat(assetService.exportAssets("dump.bin").getData()).isEqualTo(5);
+        AssetService restored = new AssetService();
+        restored.loadDir = dir.toString();
+        restored.loadChunkSize = 16;
+        assertThat(restored.bulkLoad("dump.bin").getData().loaded()).isEqualTo(5);
+        assertThat(restored.getAllAssets().getData())
+                .extracting(AssetEntity::getId, AssetEntity::getUid, AssetEntity::getAssetType, AssetEntity::getAvailable, AssetEntity::getFrozen)
+                .containsExactlyInAnyOrderElementsOf(assetService.getAllAssets().getData().stream()
+                        .map(a -> tuple(a.getId(), a.getUid(), a.getAssetType(), a.getAvailable(), a.getFrozen()))
+                        .toList());
+    }
+
+    /**
+     * Balances copied through a cut are the ones at the cut: later transfers and freezes are not seen
+     * and assets opened after the cut are left out.
+     */
+    @Test
+    void testBalanceCut_CopiesValuesAtCut() {
+        assetService.recharge("k1", AssetType.USD, new BigDecimal("10"));
+        BalanceCut cut = assetService.beginCut();
+        assetService.recharge("k1", AssetType.USD, new BigDecimal("5"));
+        assetService.tryFreeze(assetService.accountIndex("k1"), AssetType.USD, AssetService.toUnits(new BigDecimal("3")), 9);
+        assetService.recharge("k2", AssetType.USD, BigDecimal.ONE);
+
+        List<String> rows = new ArrayList<>();
+        assetService.copyBalances(cut, (uid, type, id, available, frozen, sequence) -> rows.add(
+                uid + " " + type + " " + AssetService.toDecimal(available).toPlainString() + " " + AssetService.toDecimal(frozen).toPlainString()));
+        assetService.endCut();
+        assertThat(rows).containsExactlyInAnyOrder("0 USD -10 0", "k1 USD 10 0");
+        assertThat(assetService.getAssetByUidAndType("k1", AssetType.USD).getData().getAvailable()).isEqualByComparingTo("12");
+        assertThat(assetService.getAssetByUidAndType("k1", AssetType.USD).getData().getFrozen()).isEqualByComparingTo("3");
+    }
+
+    private record Row(String uid, AssetType assetType, int id, long available, long frozen, long sequence) {
+    }
+
+    private static AssetService journaled(Path dir, boolean commandJournal) {
+        AssetService service = new AssetService();
+        service.journalEnabled = true;
+        service.journalDir = dir.toString();
+        service.commandJournalEnabled = commandJournal;
+        return service;
+    }
 }
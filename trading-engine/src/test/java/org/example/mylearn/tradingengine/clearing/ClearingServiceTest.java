@@ -1,8 +1,10 @@
 package org.example.mylearn.tradingengine.clearing;
 
+import org.example.mylearn.common.ErrorCode;
 import org.example.mylearn.common.Result;
 import org.example.mylearn.tradingengine.asset.AssetEntity;
 import org.example.mylearn.tradingengine.asset.AssetService;
+import org.example.mylearn.tradingengine.asset.AssetTransferType;
 import org.example.mylearn.tradingengine.asset.AssetType;
 import org.example.mylearn.tradingengine.order.OrderEntity;
 import org.example.mylearn.tradingengine.order.TradeType;
@@ -74,7 +76,7 @@ class ClearingServiceTest {
         // Buyer creates order: Buy 2 APPL @ 100 USD = Need 200 USD frozen
         OrderEntity buyOrder = createOrder(BUYER_ID, TradeType.BUY, "100", "2");
 
-        Result<OrderEntity> result = clearingService.prepareTrading(buyOrder);
+        Result<Void> result = clearingService.prepareTrading(buyOrder);
 
         assertThat(result.isSuccess()).isTrue();
         
@@ -187,4 +189,63 @@ class ClearingServiceTest {
         AssetEntity sellerUsd = assetService.getAssetByUidAndType(SELLER_ID, AssetType.USD).getData();
         assertThat(sellerUsd.getAvailable()).isEqualByComparingTo("100");
     }
+
+    /**
+     * Test Case: Buyer cancels a partially filled order.
+     * Buy 4 @ 100 (400 USD frozen), 1 already finished.
+     * Expected: the remaining 3 * 100 = 300 USD is unfrozen.
+     */
+    @Test
+    void testCancelTrading_UnfreezeRemaining() {
+        OrderEntity buyOrder = createOrder(BUYER_ID, TradeType.BUY, "100", "4");
+        clearingService.prepareTrading(buyOrder); // Freeze 400 USD
+        // simulate 1 APPL already traded: 100 USD consumed from frozen
+        assetService.transferBetweenUsers(AssetTransferType.FROZEN_TO_AVAILABLE,
+                BUYER_ID, SELLER_ID, AssetType.USD, new BigDecimal("100"));
+        buyOrder.setFinishedAmount(new BigDecimal("1"));
+        buyOrder.setProcessingAmount(BigDecimal.ZERO);
+
+        Result<Void> result = clearingService.cancelTrading(buyOrder);
+
+        assertThat(result.isSuccess()).isTrue();
+        AssetEntity buyerUsd = assetService.getAssetByUidAndType(BUYER_ID, AssetType.USD).getData();
+        assertThat(buyerUsd.getAvailable()).isEqualByComparingTo("900");
+        assertThat(buyerUsd.getFrozen()).isEqualByComparingTo("0");
+    }
+
+    /**
+     * Test Case: Seller sweeps two bids of the same buyer and one of a second buyer in one match.
+     * The deltas are netted per account; if any account can not cover its part, nothing is applied.
+     */
+    @Test
+    void testFinishTrading_NettedSweep() {
+        assetService.recharge("buyer_2", AssetType.USD, new BigDecimal("1000"));
+        OrderEntity bid1 = createOrder(BUYER_ID, TradeType.BUY, "102", "1");
+        OrderEntity bid2 = createOrder(BUYER_ID, TradeType.BUY, "101", "2");
+        OrderEntity bid3 = createOrder("buyer_2", TradeType.BUY, "100", "3");
+        OrderEntity ask = createOrder(SELLER_ID, TradeType.SELL, "100", "6");
+        for (OrderEntity order : List.of(bid1, bid2, bid3, ask)) {
+            assertThat(clearingService.prepareTrading(order).isSuccess()).isTrue();
+        }
+
+        // buyer_2 的冻结被别处用掉了一部分，整次撮合都不应用
+        assetService.transferBetweenUsers(AssetTransferType.FROZEN_TO_AVAILABLE, "buyer_2", "buyer_2", AssetType.USD, new BigDecimal("1"));
+        Result<Void> failed = clearingService.finishTrading(ask, List.of(bid1, bid2, bid3));
+        assertThat(failed.getErrorCode()).isEqualTo(ErrorCode.ASSET_NOT_ENOUGH);
+        assertThat(assetService.getAssetByUidAndType(SELLER_ID, AssetType.APPL).getData().getFrozen()).isEqualByComparingTo("6");
+        assertThat(assetService.getAssetByUidAndType(BUYER_ID, AssetType.USD).getData().getFrozen()).isEqualByComparingTo("304");
+        assetService.tryFreeze("buyer_2", AssetType.USD, new BigDecimal("1"));
+
+        assertThat(clearingService.finishTrading(ask, List.of(bid1, bid2, bid3)).isSuccess()).isTrue();
+        AssetEntity sellerUsd = assetService.getAssetByUidAndType(SELLER_ID, AssetType.USD).getData();
+        AssetEntity sellerAppl = assetService.getAssetByUidAndType(SELLER_ID, AssetType.APPL).getData();
+        assertThat(sellerUsd.getAvailable()).isEqualByComparingTo("604"); // 102 + 2 * 101 + 3 * 100
+        assertThat(sellerAppl.getAvailable()).isEqualByComparingTo("4");
+        assertThat(sellerAppl.getFrozen()).isEqualByComparingTo("0");
+        AssetEntity buyerUsd = assetService.getAssetByUidAndType(BUYER_ID, AssetType.USD).getData();
+        assertThat(buyerUsd.getAvailable()).isEqualByComparingTo("696");
+        assertThat(buyerUsd.getFrozen()).isEqualByComparingTo("0");
+        assertThat(assetService.getAssetByUidAndType(BUYER_ID, AssetType.APPL).getData().getAvailable()).isEqualByComparingTo("3");
+        assertThat(assetService.getAssetByUidAndType("buyer_2", AssetType.APPL).getData().getAvailable()).isEqualByComparingTo("3");
+    }
 }
@@ -0,0 +1,46 @@
+package org.example.mylearn.tradingengine.engine;
+
+import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TimeInForce;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TradingControllerTest {
+
+    @Mock
+    private TradingService tradingService;
+
+    private final TradingController controller = new TradingController();
+
+    @BeforeEach
+    void setUp() {
+        controller.tradingService = tradingService;
+    }
+
+    /**
+     * The controller hands the decimal price, amount and stop price to the trading service, which converts them.
+     */
+    @Test
+    void testPlaceOrder_ForwardsDecimals() {
+        BigDecimal price = new BigDecimal("100.12");
+        BigDecimal amount = new BigDecimal("2.5");
+        BigDecimal stop = new BigDecimal("99");
+        when(tradingService.placeStopOrder("u1", "APPL/USD", TradeType.BUY, null, price, amount, TimeInForce.IOC))
+                .thenReturn(Result.ok(new OrderEntity()));
+        when(tradingService.placeStopOrder("u1", "APPL/USD", TradeType.SELL, stop, price, amount, TimeInForce.GTC))
+                .thenReturn(Result.ok(new OrderEntity()));
+        assertThat(controller.buy("u1", price, amount, "APPL/USD", TimeInForce.IOC, null).isSuccess()).isTrue();
+        assertThat(controller.sell("u1", price, amount, "APPL/USD", TimeInForce.GTC, stop).isSuccess()).isTrue();
+    }
+}
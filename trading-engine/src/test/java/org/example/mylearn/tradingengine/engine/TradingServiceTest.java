@@ -0,0 +1,65 @@
+package org.example.mylearn.tradingengine.engine;
+
+import org.example.mylearn.common.ErrorCode;
+import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.instrument.InstrumentRegistry;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TimeInForce;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+class TradingServiceTest {
+
+    private TradingServiceImpl tradingService;
+
+    @BeforeEach
+    void setUp() {
+        tradingService = spy(new TradingServiceImpl());
+        tradingService.instrumentRegistry = new InstrumentRegistry();
+    }
+
+    private Result<OrderEntity> place(TradeType type, String price, String amount, String stopPrice) {
+        return tradingService.placeStopOrder("u1", "APPL/USD", type, stopPrice == null ? null : new BigDecimal(stopPrice),
+                new BigDecimal(price), new BigDecimal(amount), TimeInForce.GTC);
+    }
+
+    /**
+     * Non-positive or off-grid price, amount and stop price, and unknown symbols, are rejected before an order is created.
+     */
+    @Test
+    void testPlaceOrder_RejectsNonPositive() {
+        assertThat(place(TradeType.BUY, "0", "1", null).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(place(TradeType.BUY, "-100", "1", null).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(place(TradeType.SELL, "100", "0.0000", null).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(place(TradeType.SELL, "100", "-1", null).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(place(TradeType.BUY, "100", "1", "0").getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(place(TradeType.SELL, "100", "1", "-5").getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(place(TradeType.BUY, "100.001", "1", null).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        assertThat(tradingService.placeStopOrder("u1", "NOPE/USD", TradeType.BUY, null, BigDecimal.ONE, BigDecimal.ONE,
+                TimeInForce.GTC).getErrorCode()).isEqualTo(ErrorCode.INVALID_PARAM);
+        verify(tradingService, never()).placeStopOrder(anyString(), anyString(), any(), anyLong(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void testPlaceOrder_ConvertsToTicksAndLots() {
+        doReturn(Result.ok(new OrderEntity())).when(tradingService)
+                .placeStopOrder("u1", "APPL/USD", TradeType.BUY, 0L, 10012L, 25000L, TimeInForce.GTC);
+        assertThat(place(TradeType.BUY, "100.12", "2.5", null).isSuccess()).isTrue();
+
+        doReturn(Result.ok(new OrderEntity())).when(tradingService)
+                .placeStopOrder("u1", "APPL/USD", TradeType.SELL, 9900L, 10012L, 25000L, TimeInForce.GTC);
+        assertThat(place(TradeType.SELL, "100.12", "2.5", "99").isSuccess()).isTrue();
+    }
+}
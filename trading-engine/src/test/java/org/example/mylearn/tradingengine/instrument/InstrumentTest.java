@@ -0,0 +1,117 @@
+package org.example.mylearn.tradingengine.instrument;
+
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class InstrumentTest {
+
+    private final Instrument instrument = new Instrument("APPL/USD", AssetType.APPL, AssetType.USD,
+            new BigDecimal("0.05"), new BigDecimal("0.001"));
+
+    @Test
+    void testRoundTrip() {
+        long ticks = instrument.priceToTicks(new BigDecimal("100.15"));
+        long lots = instrument.quantityToLots(new BigDecimal("2.5"));
+
+        assertThat(ticks).isEqualTo(2003);
+        assertThat(lots).isEqualTo(2500);
+        assertThat(instrument.ticksToPrice(ticks)).isEqualByComparingTo("100.15");
+        assertThat(instrument.lotsToQuantity(lots)).isEqualByComparingTo("2.5");
+    }
+
+    @Test
+    void testNotional() {
+        long ticks = instrument.priceToTicks(new BigDecimal("100.15"));
+        long lots = instrument.quantityToLots(new BigDecimal("2.5"));
+
+        // 100.15 * 2.5 = 250.375
+        assertThat(instrument.notionalToDecimal(Instrument.notional(ticks, lots))).isEqualByComparingTo("250.375");
+    }
+
+    @Test
+    void testOffGridRejected() {
+        assertThatThrownBy(() -> instrument.priceToTicks(new BigDecimal("100.01")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> instrument.quantityToLots(new BigDecimal("0.0001")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void testSignAndZero() {
+        assertThatThrownBy(() -> instrument.priceToTicks(new BigDecimal("-0.05")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> instrument.quantityToLots(new BigDecimal("-1")))
+                .isInstanceOf(IllegalArgumentException.class);
+        // 0 表示未设置或未成交，可以换算；下单时价格、数量必须为正
+        assertThat(instrument.quantityToLots(BigDecimal.ZERO)).isZero();
+        assertThatThrownBy(() -> instrument.orderPriceToTicks(new BigDecimal("0.00")))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> instrument.orderQuantityToLots(BigDecimal.ZERO))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(instrument.orderQuantityToLots(new BigDecimal("0.001"))).isEqualTo(1);
+    }
+
+    @Test
+    void testRegistry_FromProperties() {
+        assertThat(new InstrumentRegistry().getAll()).extracting(Instrument::getSymbol)
+                .containsExactly("APPL/USD", "TSLA/USD", "MSFT/USD", "BTC/USD");
+        assertThat(new InstrumentRegistry().get(Instrument.DEFAULT_SYMBOL)).isSameAs(Instrument.DEFAULT);
+
+        InstrumentProperties properties = new InstrumentProperties();
+        InstrumentProperties.Item item = new InstrumentProperties.Item();
+        item.setSymbol("BTC/USD");
+        item.setBaseAsset(AssetType.BTC);
+        item.setQuoteAsset(AssetType.USD);
+        item.setPriceTick(new BigDecimal("0.5"));
+        item.setQuantityLot(new BigDecimal("0.0001"));
+        properties.setInstruments(List.of(item));
+        InstrumentRegistry registry = new InstrumentRegistry(properties);
+        assertThat(registry.getAll()).hasSize(1);
+        assertThat(registry.get("BTC/USD").getPriceTick()).isEqualByComparingTo("0.5");
+
+        item.setPriceTick(BigDecimal.ZERO);
+        assertThatThrownBy(() -> new InstrumentRegistry(properties)).isInstanceOf(IllegalStateException.class);
+        item.setPriceTick(new BigDecimal("0.5"));
+        item.setQuoteAsset(AssetType.BTC);
+        assertThatThrownBy(() -> new InstrumentRegistry(properties)).isInstanceOf(IllegalStateException.class);
+        properties.setInstruments(List.of());
+        assertThatThrownBy(() -> new InstrumentRegistry(properties)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void testRegistry_RejectsUnitsFinerThanBalances() {
+        InstrumentProperties properties = new InstrumentProperties();
+        InstrumentProperties.Item item = new InstrumentProperties.Item();
+        item.setSymbol("BTC/USD");
+        item.setBaseAsset(AssetType.BTC);
+        item.setQuoteAsset(AssetType.USD);
+        // tick*lot = 1e-10，余额表只有8位小数
+        item.setPriceTick(new BigDecimal("0.00001"));
+        item.setQuantityLot(new BigDecimal("0.00001"));
+        properties.setInstruments(List.of(item));
+        assertThatThrownBy(() -> new InstrumentRegistry(properties))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("BTC/USD");
+
+        // 一手本身超过8位小数
+        item.setPriceTick(new BigDecimal("100"));
+        item.setQuantityLot(new BigDecimal("0.000000001"));
+        assertThatThrownBy(() -> new InstrumentRegistry(properties)).isInstanceOf(IllegalStateException.class);
+
+        item.setPriceTick(new BigDecimal("0.0001"));
+        item.setQuantityLot(new BigDecimal("0.0001"));
+        assertThat(new InstrumentRegistry(properties).get("BTC/USD")).isNotNull();
+    }
+
+    @Test
+    void testNotionalOverflow() {
+        assertThatThrownBy(() -> Instrument.notional(Long.MAX_VALUE / 2, 3))
+                .isInstanceOf(ArithmeticException.class);
+    }
+}
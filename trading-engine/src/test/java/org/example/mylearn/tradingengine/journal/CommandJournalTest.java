@@ -0,0 +1,178 @@
+package org.example.mylearn.tradingengine.journal;
+
+import org.example.mylearn.tradingengine.asset.AssetTransferType;
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.example.mylearn.tradingengine.match.QuotationReq;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.TimeInForce;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommandJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private static OrderEntity order(int id, TradeType type, long priceTicks, long amountLots) {
+        OrderEntity order = new OrderEntity();
+        order.setId(id);
+        order.setSeqId(id * 10);
+        order.setUid("user-" + id);
+        order.setTradeType(type);
+        order.setPriceTicks(priceTicks);
+        order.setAmountLots(amountLots);
+        order.setCreatedAt(new Timestamp(1_700_000_000_000L + id));
+        return order;
+    }
+
+    private CommandJournal journal() {
+        return new CommandJournal(dir, "APPL/USD", 4096, CommandJournal.FsyncPolicy.EVERY_N, 16, 10);
+    }
+
+    /**
+     * Records survive a reopen in order, across several segment files.
+     */
+    @Test
+    void testAppendAndReplay_AcrossSegments() throws Exception {
+        try (CommandJournal journal = journal()) {
+            journal.open(r -> { });
+            for (int i = 1; i <= 300; i++) {
+                var type = i % 7 == 0 ? QuotationReq.ReqType.REMOVE : QuotationReq.ReqType.ADD;
+                OrderEntity order = order(i, i % 2 == 0 ? TradeType.BUY : TradeType.SELL, 1000 + i, i);
+                if (i % 3 == 0) order.setTimeInForce(TimeInForce.IOC);
+                if (i % 5 == 0) order.setTriggerPriceTicks(900 + i);
+                assertThat(journal.append(type, order, 1_800_000_000_000L + i, i * 2L)).isEqualTo(i);
+            }
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.count()).isGreaterThan(1);
+        }
+
+        List<JournalRecord> records = new ArrayList<>();
+        try (CommandJournal journal = journal()) {
+            assertThat(journal.open(records::add)).isEqualTo(300);
+            assertThat(journal.append(QuotationReq.ReqType.ADD, order(301, TradeType.BUY, 1, 1), 0, 602)).isEqualTo(301);
+        }
+        assertThat(records).hasSize(300);
+        JournalRecord r = records.get(41); // sequence 42
+        assertThat(r.sequence).isEqualTo(42);
+        assertThat(r.globalSequence).isEqualTo(84);
+        assertThat(r.isAssetChange()).isFalse();
+        assertThat(r.reqType).isEqualTo(QuotationReq.ReqType.REMOVE);
+        assertThat(r.orderId).isEqualTo(42);
+        assertThat(r.orderSeqId).isEqualTo(420);
+        assertThat(r.uid).isEqualTo("user-42");
+        assertThat(r.tradeType).isEqualTo(TradeType.BUY);
+        assertThat(r.timeInForce).isEqualTo(TimeInForce.IOC);
+        assertThat(r.triggerPriceTicks).isZero();
+        assertThat(records.get(40).timeInForce).isEqualTo(TimeInForce.GTC);
+        assertThat(records.get(39).triggerPriceTicks).isEqualTo(940);
+        assertThat(records.get(39).uid).isEqualTo("user-40");
+        assertThat(r.priceTicks).isEqualTo(1042);
+        assertThat(r.amountLots).isEqualTo(42);
+        assertThat(r.createdAt).isEqualTo(1_700_000_000_042L);
+        assertThat(r.timestamp).isEqualTo(1_800_000_000_042L);
+        assertThat(records.get(39).timestamp).isEqualTo(1_800_000_000_040L); // 止损单的触发价之后
+    }
+
+    /**
+     * A half written record at the tail (bad checksum) is dropped, and appending continues from there.
+     */
+    @Test
+    void testTornTail_Truncated() throws Exception {
+        try (CommandJournal journal = journal()) {
+            journal.open(r -> { });
+            for (int i = 1; i <= 3; i++) {
+                journal.append(QuotationReq.ReqType.ADD, order(i, TradeType.SELL, 100, 1), i, i);
+            }
+        }
+        Path file;
+        try (Stream<Path> files = Files.list(dir)) {
+            file = files.findFirst().orElseThrow();
+        }
+        // corrupt one byte in the payload of the 3rd record
+        int recordSize = 8 + 52 + "user-1".length() * 2 + 8;
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(recordSize * 2L + 30);
+            raf.write(0x7f);
+        }
+
+        List<JournalRecord> records = new ArrayList<>();
+        try (CommandJournal journal = journal()) {
+            assertThat(journal.open(records::add)).isEqualTo(2);
+            assertThat(journal.append(QuotationReq.ReqType.ADD, order(4, TradeType.SELL, 100, 1), 4, 4)).isEqualTo(3);
+        }
+        records.clear();
+        try (CommandJournal journal = journal()) {
+            journal.open(records::add);
+        }
+        assertThat(records).extracting(r -> r.orderId).containsExactly(1, 2, 4);
+    }
+
+    /**
+     * External transfers and asset openings share the sequence and file layout with commands and keep their global sequence.
+     */
+    @Test
+    void testAssetRecords_RoundTrip() throws Exception {
+        try (CommandJournal journal = journal()) {
+            journal.open(r -> { });
+            assertThat(journal.appendOpen(5, "user-2", AssetType.USD, 17, 100_00000000L, 3_00000000L)).isEqualTo(1);
+            assertThat(journal.appendTransfer(9, AssetTransferType.AVAILABLE_TO_AVAILABLE, "0", "user-2",
+                    AssetType.USD, 250_000000L, false)).isEqualTo(2);
+            journal.append(QuotationReq.ReqType.ADD, order(3, TradeType.SELL, 100, 1), 3, 12);
+        }
+
+        List<JournalRecord> records = new ArrayList<>();
+        try (CommandJournal journal = journal()) {
+            assertThat(journal.open(records::add)).isEqualTo(3);
+        }
+        assertThat(records).extracting(r -> r.globalSequence).containsExactly(5L, 9L, 12L);
+        JournalRecord open = records.get(0);
+        assertThat(open.isAssetChange()).isTrue();
+        assertThat(open.transferType).isNull();
+        assertThat(open.uid).isEqualTo("user-2");
+        assertThat(open.assetType).isEqualTo(AssetType.USD);
+        assertThat(open.assetId).isEqualTo(17);
+        assertThat(open.units).isEqualTo(100_00000000L);
+        assertThat(open.frozen).isEqualTo(3_00000000L);
+        JournalRecord transfer = records.get(1);
+        assertThat(transfer.transferType).isEqualTo(AssetTransferType.AVAILABLE_TO_AVAILABLE);
+        assertThat(transfer.uid).isEqualTo("0");
+        assertThat(transfer.toUid).isEqualTo("user-2");
+        assertThat(transfer.units).isEqualTo(250_000000L);
+        assertThat(transfer.check).isFalse();
+        assertThat(records.get(2).reqType).isEqualTo(QuotationReq.ReqType.ADD);
+        assertThat(records.get(2).uid).isEqualTo("user-3");
+    }
+
+    /**
+     * With INTERVAL (and the tail of EVERY_N) the journal's own flusher forces records even when no more commands come.
+     */
+    @Test
+    void testIdleJournal_FlushedByTimer() throws Exception {
+        for (var policy : List.of(CommandJournal.FsyncPolicy.INTERVAL, CommandJournal.FsyncPolicy.EVERY_N)) {
+            try (CommandJournal journal = new CommandJournal(dir.resolve(policy.name()), "APPL/USD", 4096, policy, 16, 5)) {
+                journal.open(r -> { });
+                for (int i = 1; i <= 3; i++) {
+                    journal.append(QuotationReq.ReqType.ADD, order(i, TradeType.SELL, 100, 1), i, i);
+                }
+                long deadline = System.currentTimeMillis() + 2000;
+                while (journal.getFlushedSequence() < 3 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+                assertThat(journal.getFlushedSequence()).isEqualTo(3);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.mylearn.tradingengine.marketdata;
+
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CandleAggregatorTest {
+
+    private static final long T0 = 1_700_000_000_000L - 1_700_000_000_000L % 86_400_000L; // UTC 0点
+    private final Instrument instrument = Instrument.DEFAULT;
+
+    private long ticks(String price) {
+        return instrument.priceToTicks(new BigDecimal(price));
+    }
+
+    private long lots(String amount) {
+        return instrument.quantityToLots(new BigDecimal(amount));
+    }
+
+    @Test
+    void testOhlcv_PerInterval() {
+        var candles = new CandleAggregator(instrument, 16);
+        candles.onTrade(T0 + 1_000, ticks("10"), lots("1"));
+        candles.onTrade(T0 + 20_000, ticks("12"), lots("2"));
+        candles.onTrade(T0 + 40_000, ticks("9"), lots("3"));
+        candles.onTrade(T0 + 61_000, ticks("11"), lots("4")); // 第二分钟
+
+        List<Candle> minutes = candles.getCandles(CandleInterval.M1, 0, Long.MAX_VALUE, 10);
+        assertThat(minutes).hasSize(2);
+        Candle first = minutes.get(0);
+        assertThat(first.getStartTime().getTime()).isEqualTo(T0);
+        assertThat(first.getOpen()).isEqualByComparingTo("10");
+        assertThat(first.getHigh()).isEqualByComparingTo("12");
+        assertThat(first.getLow()).isEqualByComparingTo("9");
+        assertThat(first.getClose()).isEqualByComparingTo("9");
+        assertThat(first.getVolume()).isEqualByComparingTo("6");
+        assertThat(first.getTradeCount()).isEqualTo(3);
+        assertThat(minutes.get(1).getOpen()).isEqualByComparingTo("11");
+
+        List<Candle> days = candles.getCandles(CandleInterval.D1, 0, Long.MAX_VALUE, 10);
+        assertThat(days).hasSize(1);
+        assertThat(days.get(0).getVolume()).isEqualByComparingTo("10");
+        assertThat(candles.getCandles(CandleInterval.S1, 0, Long.MAX_VALUE, 10)).hasSize(4);
+    }
+
+    @Test
+    void testRange_BinarySearchAndWrap() {
+        var candles = new CandleAggregator(instrument, 8);
+        for (int minute = 0; minute < 20; minute++) {
+            candles.onTrade(T0 + minute * 60_000L + 5, ticks(String.valueOf(100 + minute)), lots("1"));
+        }
+        // 容量8，最早的一个槽位不读，只剩最近7根
+        List<Candle> all = candles.getCandles(CandleInterval.M1, 0, Long.MAX_VALUE, 100);
+        assertThat(all).extracting(c -> c.getOpen().intValue()).containsExactly(113, 114, 115, 116, 117, 118, 119);
+
+        // from 不在K线开始时间上时，包含 from 所在的K线
+        List<Candle> range = candles.getCandles(CandleInterval.M1, T0 + 15 * 60_000L + 30_000, T0 + 17 * 60_000L, 100);
+        assertThat(range).extracting(c -> c.getOpen().intValue()).containsExactly(115, 116, 117);
+
+        // 超过 maxItems 时取最近的
+        assertThat(candles.getCandles(CandleInterval.M1, 0, Long.MAX_VALUE, 2))
+                .extracting(c -> c.getOpen().intValue()).containsExactly(118, 119);
+        assertThat(candles.getCandles(CandleInterval.M1, T0 + 30 * 60_000L, Long.MAX_VALUE, 2)).isEmpty();
+    }
+}
@@ -0,0 +1,109 @@
+package org.example.mylearn.tradingengine.match;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CommandRingBufferTest {
+
+    /**
+     * Several producers publish into a small ring concurrently (so it wraps and fills up many times),
+     * the single consumer must see every command exactly once, and each producer's commands in order.
+     */
+    @ParameterizedTest
+    @EnumSource(WaitStrategy.WaitStrategyType.class)
+    void testMultiProducer(WaitStrategy.WaitStrategyType type) throws Exception {
+        final int producers = 4;
+        final int perProducer = 20_000;
+        CommandRingBuffer ring = new CommandRingBuffer(256, WaitStrategy.create(type));
+        CountDownLatch start = new CountDownLatch(1);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perProducer; i++) {
+                    OrderEntity order = new OrderEntity();
+                    order.setId(producer * perProducer + i);
+                    ring.publish(QuotationReq.ReqType.ADD, order);
+                }
+            });
+            t.start();
+            threads.add(t);
+        }
+        start.countDown();
+
+        int[] lastSeen = new int[producers];
+        Arrays.fill(lastSeen, -1);
+        for (long seq = 0; seq < (long) producers * perProducer; seq++) {
+            ring.waitFor(seq);
+            QuotationReq req = ring.get(seq);
+            int id = req.getOrder().getId();
+            int producer = id / perProducer;
+            assertThat(id % perProducer).isEqualTo(lastSeen[producer] + 1);
+            lastSeen[producer] = id % perProducer;
+            req.clear();
+            ring.release(seq);
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        for (int last : lastSeen) {
+            assertThat(last).isEqualTo(perProducer - 1);
+        }
+        assertThat(ring.isPublished(producers * perProducer)).isFalse();
+    }
+
+    @Test
+    void testWaitForBatch_Capped() throws Exception {
+        CommandRingBuffer ring = new CommandRingBuffer(16, WaitStrategy.create(WaitStrategy.WaitStrategyType.BLOCKING));
+        for (int i = 0; i < 10; i++) {
+            ring.publish(QuotationReq.ReqType.ADD, new OrderEntity());
+        }
+        assertThat(ring.waitForBatch(0, 4)).isEqualTo(3);
+        ring.release(3);
+        assertThat(ring.waitForBatch(4, 100)).isEqualTo(9);
+    }
+
+    /**
+     * New orders are rejected once the backlog reaches the high watermark, and stay rejected
+     * until the match thread has drained it below the low watermark.
+     */
+    @Test
+    void testAdmissionControl_Watermarks() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CommandRingBuffer ring = new CommandRingBuffer(16, WaitStrategy.create(WaitStrategy.WaitStrategyType.BLOCKING));
+        AdmissionControl admission = new AdmissionControl(registry, "TEST", ring, 75, 50); // 12 / 8
+        for (int i = 0; i < 12; i++) {
+            assertThat(admission.admit()).isTrue();
+            ring.publish(QuotationReq.ReqType.ADD, new OrderEntity());
+        }
+        assertThat(ring.depth()).isEqualTo(12);
+        assertThat(admission.admit()).isFalse();
+        // 撤单等命令不经过准入控制
+        ring.publish(QuotationReq.ReqType.REMOVE, new OrderEntity());
+
+        ring.release(ring.waitForBatch(0, 4)); // depth 9，仍在低水位之上
+        assertThat(admission.admit()).isFalse();
+        ring.release(ring.waitForBatch(4, 1)); // depth 8
+        assertThat(admission.admit()).isTrue();
+        assertThat(admission.isShedding()).isFalse();
+
+        assertThat(registry.get("trading.match.admission.rejected").counter().count()).isEqualTo(2);
+        assertThat(registry.get("trading.match.queue.depth").gauge().value()).isEqualTo(8);
+    }
+}
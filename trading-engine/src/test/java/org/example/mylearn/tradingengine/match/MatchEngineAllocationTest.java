@@ -0,0 +1,149 @@
+package org.example.mylearn.tradingengine.match;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.mylearn.tradingengine.asset.AssetEntity;
+import org.example.mylearn.tradingengine.asset.AssetService;
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.example.mylearn.tradingengine.clearing.ClearingServiceImpl;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.marketdata.CandleAggregator;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.OrderStatus;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 稳定运行时撮合线程不分配对象：用 ThreadMXBean 统计撮合线程在一次突发(10万条命令)中分配的字节数。
+ * 走真实的清算和资产服务(冻结、清算、解冻都在撮合线程上)，成交ID由撮合引擎分配；只有资产日志未开启。
+ */
+class MatchEngineAllocationTest {
+    private static final int BURST = 100_000;
+    private static final int RING_SIZE = 1 << 17; // 一次突发全部放得下，撮合线程按 maxBatchSize 成批处理
+    private static final String SELLER = "1";
+    private static final String BUYER = "2";
+
+    private final AssetService assetService = new AssetService();
+    private final ClearingServiceImpl clearingService = new ClearingServiceImpl();
+    private MatchEngine engine;
+    private int nextOrderId = 1;
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(clearingService, "assetService", assetService);
+        BigDecimal plenty = new BigDecimal("1000000");
+        assetService.addNewAsset(new AssetEntity(1, SELLER, AssetType.APPL, plenty, BigDecimal.ZERO));
+        assetService.addNewAsset(new AssetEntity(2, SELLER, AssetType.USD, BigDecimal.ZERO, BigDecimal.ZERO));
+        assetService.addNewAsset(new AssetEntity(3, BUYER, AssetType.USD, plenty, BigDecimal.ZERO));
+        assetService.addNewAsset(new AssetEntity(4, BUYER, AssetType.APPL, BigDecimal.ZERO, BigDecimal.ZERO));
+        Instrument instrument = Instrument.DEFAULT;
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        CommandRingBuffer commandRing = new CommandRingBuffer(RING_SIZE, WaitStrategy.create(WaitStrategy.WaitStrategyType.BLOCKING));
+        engine = new MatchEngine(instrument,
+                OrderBook.create(OrderBook.OrderBookType.LADDER, 1024),
+                commandRing,
+                new BookDeltaLog(1024), new CandleAggregator(instrument, 16), new TickRing(1024),
+                new TradeTape(instrument, 1024, 4, null),
+                50, 1024, clearingService, registry,
+                new OrderStageTimers(registry, instrument.getSymbol(), Duration.ofSeconds(60), 3),
+                new AdmissionControl(registry, instrument.getSymbol(), commandRing, 100, 100));
+    }
+
+    @AfterEach
+    void tearDown() {
+        engine.stop();
+    }
+
+    private OrderEntity order(TradeType type, long priceTicks, long lots) {
+        OrderEntity order = new OrderEntity();
+        order.setId(nextOrderId++);
+        order.setUid(type == TradeType.SELL ? SELLER : BUYER);
+        order.setTradeType(type);
+        order.setPriceTicks(priceTicks);
+        order.setAmountLots(lots);
+        order.setUpdatedAt(new Timestamp(0));
+        return order;
+    }
+
+    // 每5条命令：挂单、部分成交、吃掉整档、另一档挂单后撤单，报价簿保持很小
+    private List<OrderEntity> burst() {
+        List<OrderEntity> orders = new ArrayList<>(BURST);
+        while (orders.size() < BURST) {
+            orders.add(order(TradeType.SELL, 10_000, 2));
+            orders.add(order(TradeType.BUY, 10_000, 1));
+            orders.add(order(TradeType.BUY, 10_000, 1));
+            orders.add(order(TradeType.SELL, 10_100, 1));
+            orders.add(null); // 撤销上一条
+        }
+        return orders;
+    }
+
+    private void submit(List<OrderEntity> orders) {
+        for (int i = 0; i < orders.size(); i++) {
+            if (orders.get(i) == null) {
+                engine.cancelOrder(orders.get(i - 1));
+            } else {
+                engine.submitOrder(orders.get(i));
+            }
+        }
+    }
+
+    private static void awaitDone(List<OrderEntity> orders) throws InterruptedException {
+        OrderEntity last = orders.get(orders.size() - 2);
+        for (int i = 0; i < 500 && last.getStatus() != OrderStatus.CANCELED; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(last.getStatus()).isEqualTo(OrderStatus.CANCELED);
+    }
+
+    @Test
+    void testSteadyStateMatching_AllocatesNothingPerOrder() throws InterruptedException {
+        var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        engine.start();
+        Thread matcher = Thread.getAllStackTraces().keySet().stream()
+                .filter(t -> t.getName().equals("match-executor-" + Instrument.DEFAULT_SYMBOL))
+                .findFirst().orElseThrow();
+
+        // 预热：JIT 编译，节点池、档位池、成交明细块、挂单索引都长到稳定大小
+        for (int round = 0; round < 3; round++) {
+            var warmup = burst();
+            submit(warmup);
+            awaitDone(warmup);
+        }
+
+        // 撮合线程停下时把整个突发放进命令环，之后按批处理
+        var orders = burst();
+        var pause = new EnginePause(1);
+        engine.requestPause(pause);
+        assertThat(pause.awaitAll(5000)).isTrue();
+        submit(orders);
+        long before = threads.getThreadAllocatedBytes(matcher.threadId());
+        pause.resume();
+        awaitDone(orders);
+        long allocated = threads.getThreadAllocatedBytes(matcher.threadId()) - before;
+
+        // 剩下的只有每批一次的深度视图发布(约100批)，平均到每条命令远小于一个对象
+        assertThat(allocated).as("bytes allocated by the match thread for %d commands", BURST)
+                .isLessThan(BURST * 4L);
+        var last = engine.getTradingDetails(1).getData().getFirst();
+        assertThat(last.getAmountLots()).isEqualTo(1);
+        assertThat(last.getId()).isEqualTo(4 * BURST * 2 / 5); // 每5条命令两笔成交，4轮
+        // 每5条命令的卖单都成交或撤销了，冻结全部释放
+        assertThat(assetService.getAssetByUidAndType(SELLER, AssetType.APPL).getData().getFrozen()).isEqualByComparingTo("0");
+        assertThat(assetService.getAssetByUidAndType(BUYER, AssetType.USD).getData().getFrozen()).isEqualByComparingTo("0");
+    }
+}
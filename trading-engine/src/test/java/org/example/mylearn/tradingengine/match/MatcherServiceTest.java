@@ -1,24 +1,44 @@
 package org.example.mylearn.tradingengine.match;
 
+import org.example.mylearn.common.ErrorCode;
 import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.asset.AssetEntity;
+import org.example.mylearn.tradingengine.asset.AssetService;
+import org.example.mylearn.tradingengine.asset.AssetType;
 import org.example.mylearn.tradingengine.clearing.ClearingService;
+import org.example.mylearn.tradingengine.clearing.ClearingServiceImpl;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.instrument.InstrumentRegistry;
+import org.example.mylearn.tradingengine.marketdata.Candle;
+import org.example.mylearn.tradingengine.marketdata.CandleInterval;
 import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.OrderService;
+import org.example.mylearn.tradingengine.order.OrderStatus;
+import org.example.mylearn.tradingengine.order.TimeInForce;
 import org.example.mylearn.tradingengine.order.TradeType;
-import org.example.mylearn.tradingengine.rpcclient.SequenceService;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import java.math.BigDecimal;
+import java.nio.file.Path;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.TreeSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 
@@ -28,8 +48,8 @@ class MatcherServiceTest {
     @Mock
     private ClearingService clearingService;
 
-    @Mock
-    private SequenceService sequenceService;
+    @Spy
+    private InstrumentRegistry instrumentRegistry = new InstrumentRegistry();
 
     @InjectMocks
     private MatcherServiceImpl matcherService;
@@ -38,11 +58,11 @@ class MatcherServiceTest {
     void setUp() {
         matcherService.init(); // Start the executor thread
         // Default behavior for prepareTrading: accept everything
-        lenient().when(clearingService.prepareTrading(any())).thenAnswer(invocation -> Result.ok(invocation.getArgument(0)));
+        lenient().when(clearingService.prepareTrading(any())).thenReturn(Result.ok(null));
         // Default behavior for finishTrading: success
         lenient().when(clearingService.finishTrading(any(), any())).thenReturn(Result.ok(null));
-        // Default sequence ID
-        lenient().when(sequenceService.newSequence()).thenReturn(Result.ok(9999));
+        // Default behavior for cancelTrading: success
+        lenient().when(clearingService.cancelTrading(any())).thenReturn(Result.ok(null));
     }
 
     @AfterEach
@@ -72,9 +92,9 @@ class MatcherServiceTest {
         matcherService.submitOrder(order);
         Thread.sleep(200);
 
-        HashMap<TradeType, TreeSet<QuotationInfo>> quotations = matcherService.getQuotationInfo();
+        Map<TradeType, List<QuotationInfo>> quotations = matcherService.getQuotationInfo();
         assertThat(quotations.get(TradeType.BUY)).isNotEmpty();
-        QuotationInfo info = quotations.get(TradeType.BUY).first();
+        QuotationInfo info = quotations.get(TradeType.BUY).getFirst();
         assertThat(info.getPrice()).isEqualByComparingTo("100");
         assertThat(info.getVolume()).isEqualByComparingTo("10");
     }
@@ -118,7 +138,7 @@ class MatcherServiceTest {
 
         // Verify Taker remains in Buy book with 5 volume
         assertThat(q.get(TradeType.BUY)).hasSize(1);
-        assertThat(q.get(TradeType.BUY).first().getVolume()).isEqualByComparingTo("5");
+        assertThat(q.get(TradeType.BUY).getFirst().getVolume()).isEqualByComparingTo("5");
     }
 
     /**
@@ -141,7 +161,7 @@ class MatcherServiceTest {
 
         // Verify Maker remains with 6
         assertThat(q.get(TradeType.SELL)).hasSize(1);
-        assertThat(q.get(TradeType.SELL).first().getVolume()).isEqualByComparingTo("6");
+        assertThat(q.get(TradeType.SELL).getFirst().getVolume()).isEqualByComparingTo("6");
     }
 
     /**
@@ -166,7 +186,7 @@ class MatcherServiceTest {
         assertThat(q.get(TradeType.SELL)).hasSize(1);
         
         // Check the remaining one is 102, with volume 4
-        QuotationInfo remaining = q.get(TradeType.SELL).first();
+        QuotationInfo remaining = q.get(TradeType.SELL).getFirst();
         assertThat(remaining.getPrice()).isEqualByComparingTo("102");
         assertThat(remaining.getVolume()).isEqualByComparingTo("4"); // 5 - (6 - 2 - 3) = 4
     }
@@ -191,10 +211,10 @@ class MatcherServiceTest {
         
         // Verify 95 reduced to 5
         // Verify 100 untouched
-        TreeSet<QuotationInfo> sells = q.get(TradeType.SELL);
+        List<QuotationInfo> sells = q.get(TradeType.SELL);
         assertThat(sells).hasSize(2);
         
-        QuotationInfo bestPrice = sells.first(); // Should be 95
+        QuotationInfo bestPrice = sells.getFirst(); // Should be 95
         assertThat(bestPrice.getPrice()).isEqualByComparingTo("95");
         assertThat(bestPrice.getVolume()).isEqualByComparingTo("5"); // 10 - 5
     }
@@ -224,7 +244,7 @@ class MatcherServiceTest {
         Thread.sleep(200);
 
         var q = matcherService.getQuotationInfo();
-        QuotationInfo item = q.get(TradeType.SELL).first();
+        QuotationInfo item = q.get(TradeType.SELL).getFirst();
         
         // Total volume should be 15 (20 - 5)
         assertThat(item.getVolume()).isEqualByComparingTo("15");
@@ -237,4 +257,623 @@ class MatcherServiceTest {
         // verify(clearingService).finishTrading(taker, list_of_makers);
         // and check list_of_makers contains order 601.
     }
-}
\ No newline at end of file
+
+    /**
+     * Case 6: Cancel from the middle of a level
+     * Makers: Sell A@100, Sell B@100, Sell C@100 (10 each)
+     * Cancel B, then Buy 15 @ 100
+     * Result: A fully filled, C partially filled, B untouched and unfrozen
+     */
+    @Test
+    void testCancel_MiddleOfLevel() throws InterruptedException {
+        OrderEntity a = createOrder(701, TradeType.SELL, "100", "10");
+        OrderEntity b = createOrder(702, TradeType.SELL, "100", "10");
+        OrderEntity c = createOrder(703, TradeType.SELL, "100", "10");
+        matcherService.submitOrder(a);
+        matcherService.submitOrder(b);
+        matcherService.submitOrder(c);
+        matcherService.cancelOrder(b);
+        Thread.sleep(200);
+
+        assertThat(b.getStatus()).isEqualTo(OrderStatus.CANCELED);
+        verify(clearingService).cancelTrading(b);
+        assertThat(matcherService.getQuotationInfo().get(TradeType.SELL).getFirst().getVolume()).isEqualByComparingTo("20");
+
+        matcherService.submitOrder(createOrder(704, TradeType.BUY, "100", "15"));
+        Thread.sleep(200);
+
+        assertThat(a.getStatus()).isEqualTo(OrderStatus.FINISHED);
+        assertThat(b.getFinishedAmount()).isEqualByComparingTo("0");
+        assertThat(c.getFinishedAmount()).isEqualByComparingTo("5");
+        assertThat(matcherService.getQuotationInfo().get(TradeType.SELL).getFirst().getVolume()).isEqualByComparingTo("5");
+    }
+
+    /**
+     * Case 7: Cancel the only order of a level removes the level; cancel again fails
+     */
+    @Test
+    void testCancel_RemovesLevel() throws InterruptedException {
+        OrderEntity order = createOrder(801, TradeType.BUY, "99", "10");
+        matcherService.submitOrder(order);
+        matcherService.submitOrder(createOrder(802, TradeType.BUY, "98", "10"));
+        matcherService.cancelOrder(order);
+        Thread.sleep(200);
+
+        var buys = matcherService.getQuotationInfo().get(TradeType.BUY);
+        assertThat(buys).hasSize(1);
+        assertThat(buys.getFirst().getPrice()).isEqualByComparingTo("98");
+
+        matcherService.cancelOrder(order);
+        Thread.sleep(100);
+        verify(clearingService, times(1)).cancelTrading(order);
+        assertThat(order.getMessge()).contains("not in order book");
+    }
+
+    /**
+     * Case 8: Different symbols are matched by different engines
+     * Sell APPL@100 and Buy TSLA@100 must not cross; Buy APPL@100 fills the APPL order only.
+     */
+    @Test
+    void testRouting_BySymbol() throws InterruptedException {
+        var tsla = instrumentRegistry.get("TSLA/USD");
+        OrderEntity applSell = createOrder(901, TradeType.SELL, "100", "10");
+        OrderEntity tslaBuy = createOrder(902, TradeType.BUY, "100", "10");
+        tslaBuy.setInstrument(tsla);
+        matcherService.submitOrder(applSell);
+        matcherService.submitOrder(tslaBuy);
+        Thread.sleep(200);
+
+        assertThat(applSell.getStatus()).isEqualTo(OrderStatus.TRADING);
+        assertThat(tslaBuy.getStatus()).isEqualTo(OrderStatus.TRADING);
+        assertThat(matcherService.getQuotationInfo("TSLA/USD").get(TradeType.BUY).getFirst().getPrice()).isEqualByComparingTo("100");
+        assertThat(matcherService.getQuotationInfo("TSLA/USD").get(TradeType.SELL)).isEmpty();
+
+        OrderEntity applBuy = createOrder(903, TradeType.BUY, "100", "10");
+        matcherService.submitOrder(applBuy);
+        Thread.sleep(200);
+
+        assertThat(applBuy.getStatus()).isEqualTo(OrderStatus.FINISHED);
+        assertThat(tslaBuy.getStatus()).isEqualTo(OrderStatus.TRADING);
+        assertThat(matcherService.getQuotationInfo("MSFT/USD").get(TradeType.BUY)).isEmpty();
+        assertThat(matcherService.getQuotationInfo("UNKNOWN")).isNull();
+    }
+
+    /**
+     * Case 9: Snapshot + deltas reproduce the book, and every delta's checksum matches the rebuilt book
+     */
+    @Test
+    void testBookDeltas_ApplyToSnapshot() throws InterruptedException {
+        matcherService.submitOrder(createOrder(1101, TradeType.SELL, "100", "10"));
+        matcherService.submitOrder(createOrder(1102, TradeType.BUY, "98", "5"));
+        Thread.sleep(100);
+        BookSnapshot start = matcherService.getBookSnapshot(Instrument.DEFAULT_SYMBOL).getData();
+        assertThat(start.getSequence()).isEqualTo(2);
+        assertThat(BookChecksum.of(start)).isEqualTo(start.getChecksum());
+
+        matcherService.submitOrder(createOrder(1103, TradeType.SELL, "101", "5"));
+        matcherService.submitOrder(createOrder(1104, TradeType.BUY, "100", "4")); // partial fill at 100
+        matcherService.submitOrder(createOrder(1105, TradeType.BUY, "99", "3"));
+        matcherService.cancelOrder(createOrder(1102, TradeType.BUY, "98", "5")); // level 98 removed
+        Thread.sleep(200);
+
+        // 客户端维护的报价簿: side + price -> volume
+        Map<String, Long> book = new HashMap<>();
+        start.getBids().forEach(l -> book.put(l.getTradeType() + " " + l.getPriceTicks(), l.getVolumeLots()));
+        start.getAsks().forEach(l -> book.put(l.getTradeType() + " " + l.getPriceTicks(), l.getVolumeLots()));
+        long checksum = start.getChecksum();
+        long sequence = start.getSequence();
+        for (BookDelta delta : matcherService.getBookDeltas(Instrument.DEFAULT_SYMBOL, sequence, 100).getData()) {
+            assertThat(delta.getSequence()).isEqualTo(sequence + 1);
+            String key = delta.getTradeType() + " " + delta.getPriceTicks();
+            long old = book.getOrDefault(key, 0L);
+            checksum ^= BookChecksum.level(delta.getTradeType(), delta.getPriceTicks(), old)
+                    ^ BookChecksum.level(delta.getTradeType(), delta.getPriceTicks(), delta.getVolumeLots());
+            assertThat(checksum).isEqualTo(delta.getChecksum());
+            if (delta.getVolumeLots() == 0) book.remove(key); else book.put(key, delta.getVolumeLots());
+            sequence = delta.getSequence();
+        }
+
+        BookSnapshot end = matcherService.getBookSnapshot(Instrument.DEFAULT_SYMBOL).getData();
+        assertThat(sequence).isEqualTo(end.getSequence()).isEqualTo(6);
+        Map<String, Long> expected = new HashMap<>();
+        end.getBids().forEach(l -> expected.put(l.getTradeType() + " " + l.getPriceTicks(), l.getVolumeLots()));
+        end.getAsks().forEach(l -> expected.put(l.getTradeType() + " " + l.getPriceTicks(), l.getVolumeLots()));
+        assertThat(book).isEqualTo(expected);
+        assertThat(checksum).isEqualTo(end.getChecksum());
+        assertThat(end.getAsks()).extracting(l -> l.getPrice().stripTrailingZeros().toPlainString())
+                .containsExactly("100", "101");
+    }
+
+    /**
+     * Case 10: Deltas overwritten in the delta log ask the client to resync
+     */
+    @Test
+    void testBookDeltas_GapRequiresResync() {
+        var log = new BookDeltaLog(4);
+        var instrument = instrumentRegistry.get(Instrument.DEFAULT_SYMBOL);
+        for (long seq = 1; seq <= 6; seq++) {
+            log.append(seq, TradeType.BUY, 100 + seq, 1, seq);
+        }
+        log.publish(6);
+        assertThat(log.since(1, 10, instrument)).isNull();
+        assertThat(log.since(2, 10, instrument)).extracting(BookDelta::getSequence).containsExactly(3L, 4L, 5L, 6L);
+        assertThat(log.since(6, 10, instrument)).isEmpty();
+    }
+
+    /**
+     * Case 11: Quotation reads return the published top-N view, not a copy of the live book
+     */
+    @Test
+    void testQuotation_PublishedTopN() throws InterruptedException {
+        for (int i = 0; i < 60; i++) {
+            matcherService.submitOrder(createOrder(1200 + i, TradeType.SELL, String.valueOf(200 + i), "1"));
+        }
+        Thread.sleep(200);
+
+        var view = matcherService.getQuotationInfo();
+        assertThat(view).isSameAs(matcherService.getQuotationInfo());
+        assertThat(view.get(TradeType.SELL)).hasSize(50);
+        assertThat(view.get(TradeType.SELL).getFirst().getPrice()).isEqualByComparingTo("200");
+        assertThatThrownBy(() -> view.get(TradeType.SELL).clear()).isInstanceOf(UnsupportedOperationException.class);
+
+        matcherService.submitOrder(createOrder(1299, TradeType.BUY, "200", "1"));
+        Thread.sleep(100);
+        // 新视图整体替换，已经拿到的旧视图不变
+        assertThat(matcherService.getQuotationInfo().get(TradeType.SELL).getFirst().getPrice()).isEqualByComparingTo("201");
+        assertThat(view.get(TradeType.SELL).getFirst().getPrice()).isEqualByComparingTo("200");
+    }
+
+    /**
+     * Case 12: Realtime ticks come newest first from the tick ring
+     */
+    @Test
+    void testRealTimeTicks_NewestFirst() throws InterruptedException {
+        matcherService.submitOrder(createOrder(1301, TradeType.SELL, "100", "1"));
+        matcherService.submitOrder(createOrder(1302, TradeType.SELL, "101", "2"));
+        matcherService.submitOrder(createOrder(1303, TradeType.SELL, "102", "3"));
+        matcherService.submitOrder(createOrder(1304, TradeType.BUY, "102", "6"));
+        Thread.sleep(200);
+
+        var ticks = matcherService.getRealTimeTicks(new Timestamp(0), 10).getData();
+        assertThat(ticks).extracting(RealTimeTick::getId).containsExactly(3L, 2L, 1L);
+        assertThat(ticks.getFirst().getPrice()).isEqualByComparingTo("102");
+        assertThat(ticks.getFirst().getAmount()).isEqualByComparingTo("3");
+        assertThat(matcherService.getRealTimeTicks(new Timestamp(0), 2).getData()).hasSize(2);
+        assertThat(matcherService.getRealTimeTicks(new Timestamp(System.currentTimeMillis() + 60_000), 10).getData()).isEmpty();
+
+        // 环被覆盖后只返回仍在环中的 tick，按时间二分查找起点
+        var ring = new TickRing(4);
+        var instrument = instrumentRegistry.get(Instrument.DEFAULT_SYMBOL);
+        for (long i = 1; i <= 10; i++) {
+            ring.append(i * 1000, 100 + i, 1);
+        }
+        ring.publish();
+        assertThat(ring.latest(0, 100, instrument)).extracting(RealTimeTick::getId).containsExactly(10L, 9L, 8L);
+        assertThat(ring.latest(9000, 100, instrument)).extracting(RealTimeTick::getId).containsExactly(10L, 9L);
+    }
+
+    /**
+     * Case 13: The trade tape keeps the latest chunks, indexes trades by number and archives evicted chunks
+     */
+    @Test
+    void testTradeTape_RetentionAndStableCopies() {
+        List<List<TradingDetail>> archived = new ArrayList<>();
+        var tape = new TradeTape(Instrument.DEFAULT, 4, 2, archived::add);
+        for (int i = 0; i < 10; i++) {
+            tape.add(i, 1, 2, TradeType.BUY, OrderStatus.FINISHED, 100, 1, 1000L + i);
+        }
+        assertThat(tape.latest(3)).isEmpty(); // 还没有发布
+        tape.publish();
+
+        // 0..3 被淘汰，4..7 和 8..9 在内存中
+        assertThat(archived).hasSize(1);
+        assertThat(archived.getFirst()).extracting(TradingDetail::getId).containsExactly(0, 1, 2, 3);
+        assertThat(tape.get(3)).isNull();
+        assertThat(tape.get(5).getId()).isEqualTo(5);
+        assertThat(tape.latest(100)).extracting(TradingDetail::getId).containsExactly(4, 5, 6, 7, 8, 9);
+
+        var copy = tape.latest(2);
+        for (int i = 10; i < 14; i++) { // 4..7 所在的块被复用
+            tape.add(i, 1, 2, TradeType.BUY, OrderStatus.FINISHED, 100, 1, 1000L + i);
+        }
+        tape.publish();
+        assertThat(copy).extracting(TradingDetail::getId).containsExactly(8, 9);
+        assertThat(tape.latest(2)).extracting(TradingDetail::getId).containsExactly(12, 13);
+        assertThat(tape.get(5)).isNull();
+        assertThat(archived.get(1)).extracting(TradingDetail::getId).containsExactly(4, 5, 6, 7);
+    }
+
+    /**
+     * Case 14: Awaiting an order completes once the match thread has processed it, without polling
+     */
+    @Test
+    void testAwaitProcessed_CompletesAfterMatch() throws Exception {
+        // 先打桩再提交：撮合线程调用 mock 的同时打桩，Mockito 可能把调用记到桩上
+        OrderEntity rejected = createOrder(1403, TradeType.BUY, "90", "1");
+        when(clearingService.prepareTrading(rejected)).thenReturn(Result.fail(null, ErrorCode.ASSET_NOT_ENOUGH, "no money"));
+        matcherService.submitOrder(createOrder(1401, TradeType.SELL, "100", "5"));
+        OrderEntity taker = createOrder(1402, TradeType.BUY, "100", "8");
+        matcherService.submitOrder(taker);
+        matcherService.submitOrder(rejected);
+
+        // 部分成交后剩余部分挂单
+        OrderEntity done = matcherService.awaitProcessed(taker).get(1, TimeUnit.SECONDS);
+        assertThat(done).isSameAs(taker);
+        assertThat(done.getStatus()).isEqualTo(OrderStatus.TRADING);
+        assertThat(done.getFinishedAmount()).isEqualByComparingTo("5");
+        assertThat(matcherService.awaitProcessed(rejected).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.FAILED);
+        // 已经处理过的订单不再经过撮合线程
+        assertThat(matcherService.awaitProcessed(taker).isDone()).isTrue();
+    }
+
+    /**
+     * Case 14b: Waiting does not take command ring slots, so waiters never block even when the ring could not hold them
+     */
+    @Test
+    void testAwaitProcessed_DoesNotUseCommandRing() throws Exception {
+        OrderEntity order = createOrder(1411, TradeType.SELL, "100", "1");
+        List<CompletableFuture<OrderEntity>> waiters = new ArrayList<>();
+        // 撮合线程停下时环不会被消费，等待方比环的容量还多
+        assertThat(matcherService.runPaused(sequences -> {
+            matcherService.submitOrder(order);
+            for (int i = 0; i < matcherService.ringSize * 2; i++) {
+                waiters.add(matcherService.awaitProcessed(order));
+            }
+            assertThat(waiters).noneMatch(CompletableFuture::isDone);
+        })).isTrue();
+        for (var waiter : waiters) {
+            assertThat(waiter.get(1, TimeUnit.SECONDS)).isSameAs(order);
+        }
+        assertThat(order.getStatus()).isEqualTo(OrderStatus.TRADING);
+    }
+
+    /**
+     * Case 15: IOC cancels what is left after matching, FOK is all or nothing; neither rests in the book
+     */
+    @Test
+    void testTimeInForce_IocAndFok() throws Exception {
+        matcherService.submitOrder(createOrder(1501, TradeType.SELL, "100", "3"));
+        matcherService.submitOrder(createOrder(1502, TradeType.SELL, "101", "2"));
+
+        // IOC: 吃掉 100 一档，剩余撤销
+        OrderEntity ioc = createOrder(1503, TradeType.BUY, "100", "5");
+        ioc.setTimeInForce(TimeInForce.IOC);
+        matcherService.submitOrder(ioc);
+        assertThat(matcherService.awaitProcessed(ioc).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.CANCELED);
+        assertThat(ioc.getFinishedAmount()).isEqualByComparingTo("3");
+        verify(clearingService).cancelTrading(ioc);
+
+        // IOC: 价格够不到对手方最优价，不冻结资产、不解冻，直接撤销
+        OrderEntity away = createOrder(1506, TradeType.BUY, "100", "1");
+        away.setTimeInForce(TimeInForce.IOC);
+        matcherService.submitOrder(away);
+        assertThat(matcherService.awaitProcessed(away).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.CANCELED);
+        verify(clearingService, never()).prepareTrading(away);
+        verify(clearingService, never()).cancelTrading(away);
+        assertBook(matcherService, "SELL 101 x 2");
+
+        // FOK: 101 只有 2，不能全部成交，不冻结资产、不动报价簿
+        OrderEntity fok = createOrder(1504, TradeType.BUY, "101", "3");
+        fok.setTimeInForce(TimeInForce.FOK);
+        matcherService.submitOrder(fok);
+        assertThat(matcherService.awaitProcessed(fok).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.CANCELED);
+        verify(clearingService, never()).prepareTrading(fok);
+        assertBook(matcherService, "SELL 101 x 2");
+
+        OrderEntity filled = createOrder(1505, TradeType.BUY, "101", "2");
+        filled.setTimeInForce(TimeInForce.FOK);
+        matcherService.submitOrder(filled);
+        assertThat(matcherService.awaitProcessed(filled).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.FINISHED);
+        assertBook(matcherService);
+    }
+
+    /**
+     * Case 16: Stop orders wait in the trigger book and are matched in the same command as the trade that crosses them
+     */
+    @Test
+    void testStopOrders_TriggeredByLastTrade() throws Exception {
+        matcherService.submitOrder(createOrder(1601, TradeType.SELL, "100", "3"));
+        matcherService.submitOrder(createOrder(1602, TradeType.SELL, "102", "2"));
+        OrderEntity buyStop = createOrder(1603, TradeType.BUY, "102", "2");
+        buyStop.setTriggerPriceTicks(Instrument.DEFAULT.priceToTicks(new BigDecimal("101")));
+        matcherService.submitOrder(buyStop);
+        OrderEntity sellStop = createOrder(1604, TradeType.SELL, "90", "1");
+        sellStop.setTriggerPriceTicks(Instrument.DEFAULT.priceToTicks(new BigDecimal("95")));
+        matcherService.submitOrder(sellStop);
+        OrderEntity canceled = createOrder(1605, TradeType.SELL, "90", "1");
+        canceled.setTriggerPriceTicks(Instrument.DEFAULT.priceToTicks(new BigDecimal("99")));
+        matcherService.submitOrder(canceled);
+        matcherService.cancelOrder(canceled);
+
+        // 止损单冻结资产，但不进入报价簿
+        assertThat(matcherService.awaitProcessed(buyStop).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.TRADING);
+        verify(clearingService).prepareTrading(buyStop);
+        // awaitProcessed 只等 ADD 处理完，撤单命令随后处理
+        matcherService.awaitProcessed(canceled).get(1, TimeUnit.SECONDS);
+        verify(clearingService, timeout(1000)).cancelTrading(canceled);
+        assertThat(canceled.getStatus()).isEqualTo(OrderStatus.CANCELED);
+        assertBook(matcherService, "SELL 100 x 3", "SELL 102 x 2");
+
+        // 成交价 100 未触发
+        OrderEntity small = createOrder(1606, TradeType.BUY, "100", "1");
+        matcherService.submitOrder(small);
+        matcherService.awaitProcessed(small).get(1, TimeUnit.SECONDS);
+        assertThat(buyStop.getFinishedAmount()).isEqualByComparingTo("0");
+
+        // 扫到 102，触发买入止损单，在同一条命令中撮合，剩余部分挂单
+        OrderEntity taker = createOrder(1607, TradeType.BUY, "102", "3");
+        matcherService.submitOrder(taker);
+        matcherService.awaitProcessed(taker).get(1, TimeUnit.SECONDS);
+        assertThat(buyStop.getFinishedAmount()).isEqualByComparingTo("1");
+        assertThat(buyStop.getStatus()).isEqualTo(OrderStatus.TRADING);
+        verify(clearingService, times(1)).prepareTrading(buyStop); // 触发后不再冻结
+        assertBook(matcherService, "BUY 102 x 1");
+        assertThat(sellStop.getStatus()).isEqualTo(OrderStatus.TRADING);
+        assertThat(sellStop.getFinishedAmount()).isEqualByComparingTo("0");
+    }
+
+    /**
+     * Case 17: A SELL taker trades at the resting bid's price, so a stop between its limit and the bid stays untriggered
+     */
+    @Test
+    void testStopOrders_SellTakerTradesAtMakerPrice() throws Exception {
+        matcherService.submitOrder(createOrder(1701, TradeType.BUY, "105", "1"));
+        OrderEntity sellStop = createOrder(1702, TradeType.SELL, "90", "1");
+        sellStop.setTriggerPriceTicks(Instrument.DEFAULT.priceToTicks(new BigDecimal("102")));
+        matcherService.submitOrder(sellStop);
+
+        // 限价 100 的卖单吃掉 105 的买单，成交价 105，高于触发价 102
+        OrderEntity taker = createOrder(1703, TradeType.SELL, "100", "1");
+        matcherService.submitOrder(taker);
+        assertThat(matcherService.awaitProcessed(taker).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.FINISHED);
+        // 被触发的话止损单会作为 90 的卖单挂进报价簿
+        assertBook(matcherService);
+        assertThat(sellStop.getFinishedAmount()).isEqualByComparingTo("0");
+        Thread.sleep(50); // 成交明细在本批结束时发布
+        assertThat(matcherService.getTradingDetails(1).getData().getFirst().getPrice()).isEqualByComparingTo("105");
+    }
+
+    /**
+     * Case 18: Candles and ticks use the maker's price when a SELL taker crosses better bids
+     */
+    @Test
+    void testCandles_SellTakerCrossingBetterBids() throws Exception {
+        matcherService.submitOrder(createOrder(1801, TradeType.BUY, "105", "1"));
+        matcherService.submitOrder(createOrder(1802, TradeType.BUY, "104", "1"));
+        OrderEntity taker = createOrder(1803, TradeType.SELL, "100", "2");
+        matcherService.submitOrder(taker);
+        assertThat(matcherService.awaitProcessed(taker).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.FINISHED);
+        Thread.sleep(50); // K线和 tick 在本批结束时发布
+
+        List<Candle> days = matcherService.getCandles(Instrument.DEFAULT_SYMBOL, CandleInterval.D1, null, null, 10).getData();
+        assertThat(days).hasSize(1);
+        assertThat(days.getFirst().getOpen()).isEqualByComparingTo("105");
+        assertThat(days.getFirst().getHigh()).isEqualByComparingTo("105");
+        assertThat(days.getFirst().getLow()).isEqualByComparingTo("104");
+        assertThat(days.getFirst().getClose()).isEqualByComparingTo("104");
+        assertThat(days.getFirst().getVolume()).isEqualByComparingTo("2");
+        assertThat(matcherService.getRealTimeTicks(new Timestamp(0), 10).getData())
+                .extracting(tick -> tick.getPrice().stripTrailingZeros().toPlainString()).containsExactly("104", "105");
+    }
+
+    private static List<String> trades(MatcherServiceImpl matcher) {
+        return matcher.getTradingDetails(10).getData().stream()
+                .map(t -> t.getId() + "@" + t.getCreatedAt().getTime()).toList();
+    }
+
+    private MatcherServiceImpl journaledMatcher(Path dir) {
+        MatcherServiceImpl matcher = new MatcherServiceImpl();
+        matcher.clearingService = clearingService;
+        matcher.instrumentRegistry = instrumentRegistry;
+        matcher.orderService = new OrderService(); // a fresh order DB, as after a restart
+        matcher.journalEnabled = true;
+        matcher.journalDir = dir.toString();
+        matcher.journalSegmentSize = 1 << 16;
+        matcher.init();
+        matcher.recover();
+        return matcher;
+    }
+
+    // 深度视图在每批命令结束时发布，awaitProcessed 完成时本批可能还没结束，稍等再比较
+    private static void assertBook(MatcherServiceImpl matcher, String... levels) throws InterruptedException {
+        for (int i = 0; i < 100 && !book(matcher).equals(List.of(levels)); i++) {
+            Thread.sleep(10);
+        }
+        assertThat(book(matcher)).containsExactly(levels);
+    }
+
+    private static List<String> book(MatcherServiceImpl matcher) {
+        List<String> levels = new ArrayList<>();
+        matcher.getQuotationInfo().forEach((side, infos) -> infos.forEach(
+                info -> levels.add(side + " " + info.getPrice().stripTrailingZeros().toPlainString()
+                        + " x " + info.getVolume().stripTrailingZeros().toPlainString())));
+        levels.sort(null);
+        return levels;
+    }
+
+    /**
+     * Case 19: Restart with the journal rebuilds the same order book
+     */
+    @Test
+    void testJournal_ReplayRebuildsBook(@TempDir Path dir) throws InterruptedException {
+        MatcherServiceImpl first = journaledMatcher(dir);
+        OrderEntity sell = createOrder(1001, TradeType.SELL, "100", "10");
+        first.submitOrder(sell);
+        first.submitOrder(createOrder(1002, TradeType.SELL, "101", "5"));
+        first.submitOrder(createOrder(1003, TradeType.BUY, "100", "4"));
+        first.submitOrder(createOrder(1004, TradeType.BUY, "99", "3"));
+        first.cancelOrder(createOrder(1004, TradeType.BUY, "99", "3"));
+        Thread.sleep(200);
+        List<String> before = book(first);
+        List<String> trades = trades(first);
+        first.destroy();
+        assertThat(before).containsExactly("SELL 100 x 6", "SELL 101 x 5");
+        assertThat(trades).hasSize(1);
+
+        Thread.sleep(20); // 重放用日志中的命令时间，不是当前时间
+        MatcherServiceImpl second = journaledMatcher(dir);
+        try {
+            assertThat(book(second)).isEqualTo(before);
+            assertThat(trades(second)).isEqualTo(trades);
+            assertThat(second.orderService.getOrderById(1001).getData().getFinishedAmount()).isEqualByComparingTo("4");
+            assertThat(second.orderService.getOrderById(1004).getData().getStatus()).isEqualTo(OrderStatus.CANCELED);
+        } finally {
+            second.destroy();
+        }
+    }
+
+    /**
+     * Case 20: A cancel carrying another instance with the same id cancels the resting order
+     * Maker: Sell 10 @ 100, Buy 4 @ 100 fills part of it
+     * Cancel with a fresh copy of the maker
+     * Result: the resting maker is CANCELED and its unfilled part is unfrozen
+     */
+    @Test
+    void testCancel_ByCopyCancelsRestingOrder() throws Exception {
+        OrderEntity sell = createOrder(2001, TradeType.SELL, "100", "10");
+        matcherService.submitOrder(sell);
+        matcherService.submitOrder(createOrder(2002, TradeType.BUY, "100", "4"));
+        matcherService.cancelOrder(createOrder(2001, TradeType.SELL, "100", "10"));
+        Thread.sleep(200);
+
+        assertThat(sell.getStatus()).isEqualTo(OrderStatus.CANCELED);
+        assertThat(sell.getFinishedAmount()).isEqualByComparingTo("4");
+        verify(clearingService).cancelTrading(sell);
+        assertBook(matcherService);
+    }
+
+    /**
+     * Case 21: A failed clearing puts the makers back in time order and cancels the taker
+     * Makers: Sell A 5@100, Sell B 5@100, Sell C 5@101; Buy 12 @ 101 fails in clearing
+     * Result: book unchanged, taker FAILED and unfrozen; the next Buy 6 @ 100 still fills A first
+     */
+    @Test
+    void testMatch_ClearingFailureRestoresBook() throws Exception {
+        when(clearingService.finishTrading(any(), any()))
+                .thenReturn(Result.fail(null, ErrorCode.ASSET_NOT_ENOUGH, "not enough"))
+                .thenReturn(Result.ok(null));
+        OrderEntity a = createOrder(2101, TradeType.SELL, "100", "5");
+        OrderEntity b = createOrder(2102, TradeType.SELL, "100", "5");
+        matcherService.submitOrder(a);
+        matcherService.submitOrder(b);
+        matcherService.submitOrder(createOrder(2103, TradeType.SELL, "101", "5"));
+        OrderEntity taker = createOrder(2104, TradeType.BUY, "101", "12");
+        matcherService.submitOrder(taker);
+
+        assertThat(matcherService.awaitProcessed(taker).get(1, TimeUnit.SECONDS).getStatus()).isEqualTo(OrderStatus.FAILED);
+        assertThat(taker.getMessge()).isEqualTo("not enough");
+        verify(clearingService).cancelTrading(taker);
+        assertBook(matcherService, "SELL 100 x 10", "SELL 101 x 5");
+        assertThat(a.getStatus()).isEqualTo(OrderStatus.TRADING);
+
+        OrderEntity next = createOrder(2105, TradeType.BUY, "100", "6");
+        matcherService.submitOrder(next);
+        matcherService.awaitProcessed(next).get(1, TimeUnit.SECONDS);
+        assertThat(a.getStatus()).isEqualTo(OrderStatus.FINISHED);
+        assertThat(b.getFinishedAmount()).isEqualByComparingTo("1");
+        assertBook(matcherService, "SELL 100 x 4", "SELL 101 x 5");
+    }
+
+    /**
+     * Case 22: Trades are looked up by trade id, also when the tape starts after ids restored from a snapshot
+     */
+    @Test
+    void testTradeTape_GetByTradeId() {
+        var tape = new TradeTape(Instrument.DEFAULT, 4, 2, null);
+        assertThat(tape.get(101)).isNull();
+        for (int id = 101; id <= 110; id++) {
+            tape.add(id, 1, 2, TradeType.BUY, OrderStatus.FINISHED, 100, 1, 1000L + id);
+        }
+        tape.publish();
+
+        assertThat(tape.get(108).getId()).isEqualTo(108);
+        assertThat(tape.get(110).getId()).isEqualTo(110);
+        assertThat(tape.get(104)).isNull(); // 已被淘汰
+        assertThat(tape.get(111)).isNull();
+        assertThat(tape.get(1)).isNull();
+    }
+
+    /**
+     * Case 23: Orders read through an order cut keep the values they had when the engines paused,
+     * even after the match thread fills, cancels or first processes them
+     */
+    @Test
+    void testOrderCut_ReadsValuesAtPause() throws Exception {
+        OrderEntity maker = createOrder(2301, TradeType.SELL, "100", "10");
+        OrderEntity cancelled = createOrder(2302, TradeType.BUY, "90", "1");
+        matcherService.submitOrder(maker);
+        matcherService.submitOrder(cancelled);
+        matcherService.awaitProcessed(cancelled).get(1, TimeUnit.SECONDS);
+
+        OrderCut[] cut = new OrderCut[1];
+        assertThat(matcherService.runPaused(sequences -> cut[0] = matcherService.beginOrderCut())).isTrue();
+        OrderEntity taker = createOrder(2303, TradeType.BUY, "100", "4");
+        matcherService.submitOrder(taker);
+        matcherService.cancelOrder(cancelled);
+        matcherService.awaitProcessed(taker).get(1, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assertThat(maker.getFinishedAmount()).isEqualByComparingTo("4");
+        assertThat(cancelled.getStatus()).isEqualTo(OrderStatus.CANCELED);
+
+        assertThat(cut[0].read(maker).finishedLots()).isZero();
+        assertThat(cut[0].read(maker).status()).isEqualTo(OrderStatus.TRADING);
+        assertThat(cut[0].read(cancelled).status()).isEqualTo(OrderStatus.TRADING);
+        // 停下时还没进入撮合
+        assertThat(cut[0].read(taker).status()).isEqualTo(OrderStatus.PREPARING);
+        matcherService.endOrderCut();
+    }
+
+    // 一次"进程启动"：真实的资产和清算服务，资产按固定ID初始化(和 initAssetDB 一样每次都建)，日志目录沿用
+    private static MatcherServiceImpl clearedMatcher(Path dir, InstrumentRegistry registry) {
+        AssetService assets = new AssetService();
+        assets.addNewAsset(new AssetEntity(1, AssetService.SYSTEM_ASSET_ID, AssetType.USD, BigDecimal.ZERO, BigDecimal.ZERO));
+        assets.addNewAsset(new AssetEntity(2, "b", AssetType.USD, BigDecimal.ZERO, BigDecimal.ZERO));
+        ClearingServiceImpl clearing = new ClearingServiceImpl();
+        ReflectionTestUtils.setField(clearing, "assetService", assets);
+        MatcherServiceImpl matcher = new MatcherServiceImpl();
+        matcher.clearingService = clearing;
+        matcher.instrumentRegistry = registry;
+        matcher.orderService = new OrderService();
+        matcher.assetService = assets;
+        matcher.journalEnabled = true;
+        matcher.journalDir = dir.toString();
+        matcher.journalSegmentSize = 1 << 16;
+        matcher.init();
+        matcher.recover();
+        return matcher;
+    }
+
+    /**
+     * Case 24: A recharge between two orders is replayed between them, so the order placed before it
+     * still fails for lack of funds and the one placed after it still rests
+     */
+    @Test
+    void testJournal_TransfersReplayedInCommandOrder(@TempDir Path dir) throws Exception {
+        MatcherServiceImpl first = clearedMatcher(dir, instrumentRegistry);
+        OrderEntity early = createOrder(2401, TradeType.BUY, "100", "1");
+        early.setUid("b");
+        first.submitOrder(early);
+        first.awaitProcessed(early).get(1, TimeUnit.SECONDS);
+        assertThat(early.getStatus()).isEqualTo(OrderStatus.FAILED);
+        assertThat(first.assetService.recharge("b", AssetType.USD, new BigDecimal("100")).isSuccess()).isTrue();
+        OrderEntity late = createOrder(2402, TradeType.BUY, "100", "1");
+        late.setUid("b");
+        first.submitOrder(late);
+        first.awaitProcessed(late).get(1, TimeUnit.SECONDS);
+        assertBook(first, "BUY 100 x 1");
+        first.destroy();
+
+        MatcherServiceImpl second = clearedMatcher(dir, instrumentRegistry);
+        try {
+            assertBook(second, "BUY 100 x 1");
+            assertThat(second.orderService.getOrderById(2401).getData().getStatus()).isEqualTo(OrderStatus.FAILED);
+            AssetEntity usd = second.assetService.getAssetByUidAndType("b", AssetType.USD).getData();
+            assertThat(usd.getAvailable()).isEqualByComparingTo("0");
+            assertThat(usd.getFrozen()).isEqualByComparingTo("100");
+            assertThat(second.assetService.getAssetByUidAndType(AssetService.SYSTEM_ASSET_ID, AssetType.USD).getData()
+                    .getAvailable()).isEqualByComparingTo("-100");
+        } finally {
+            second.destroy();
+        }
+    }
+}
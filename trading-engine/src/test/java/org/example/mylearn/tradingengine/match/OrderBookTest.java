@@ -0,0 +1,128 @@
+package org.example.mylearn.tradingengine.match;
+
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class OrderBookTest {
+
+    private static QuotationItem level(TradeType side, long price) {
+        return new QuotationItem(price, 1, side);
+    }
+
+    private static List<Long> prices(OrderBook book, TradeType side) {
+        List<Long> prices = new ArrayList<>();
+        for (var q = book.best(side); q != null; q = book.next(side, q.getPrice())) {
+            prices.add(q.getPrice());
+        }
+        return prices;
+    }
+
+    @Test
+    void testLadder_BestAndOrder() {
+        OrderBook book = OrderBook.create(OrderBook.OrderBookType.LADDER, 128);
+        book.add(level(TradeType.BUY, 1000));
+        book.add(level(TradeType.BUY, 990));
+        book.add(level(TradeType.SELL, 1010));
+        book.add(level(TradeType.SELL, 1005));
+
+        assertThat(book.best(TradeType.BUY).getPrice()).isEqualTo(1000);
+        assertThat(book.best(TradeType.SELL).getPrice()).isEqualTo(1005);
+        assertThat(prices(book, TradeType.BUY)).containsExactly(1000L, 990L);
+        assertThat(prices(book, TradeType.SELL)).containsExactly(1005L, 1010L);
+
+        book.remove(book.best(TradeType.SELL));
+        assertThat(book.best(TradeType.SELL).getPrice()).isEqualTo(1010);
+        assertThat(book.get(TradeType.SELL, 1005)).isNull();
+    }
+
+    /**
+     * Prices far outside the ladder window go to the sparse fallback,
+     * and must still be returned in price priority together with the in-window levels.
+     */
+    @Test
+    void testLadder_SparseFallback() {
+        OrderBook book = OrderBook.create(OrderBook.OrderBookType.LADDER, 64);
+        book.add(level(TradeType.BUY, 1000));   // anchors the window around 1000
+        book.add(level(TradeType.BUY, 5000));   // above window
+        book.add(level(TradeType.BUY, 10));     // below window
+        book.add(level(TradeType.BUY, 1001));
+
+        assertThat(prices(book, TradeType.BUY)).containsExactly(5000L, 1001L, 1000L, 10L);
+        assertThat(book.size(TradeType.BUY)).isEqualTo(4);
+
+        book.remove(book.get(TradeType.BUY, 5000));
+        assertThat(book.best(TradeType.BUY).getPrice()).isEqualTo(1001);
+    }
+
+    /**
+     * When the touch walks out of the window, the window follows it instead of leaving
+     * the best levels in the sparse fallback.
+     */
+    @Test
+    void testLadder_RecentresWhenTouchLeavesWindow() {
+        PriceLadderOrderBook ladder = new PriceLadderOrderBook(128);
+        SkipListOrderBook skipList = new SkipListOrderBook();
+        for (long mid = 1000; mid < 3000; mid += 7) { // 价格一路上涨，远超窗口大小
+            for (OrderBook book : List.of(ladder, skipList)) {
+                var bid = book.best(TradeType.BUY);
+                if (bid != null && book.size(TradeType.BUY) > 20) book.remove(book.get(TradeType.BUY, bid.getPrice()));
+                var ask = book.best(TradeType.SELL);
+                if (ask != null) book.remove(ask);
+                if (book.get(TradeType.BUY, mid - 2) == null) book.add(level(TradeType.BUY, mid - 2));
+                book.add(level(TradeType.SELL, mid + 2));
+            }
+            long base = ladder.base();
+            assertThat(ladder.best(TradeType.BUY).getPrice()).isBetween(base, base + 127);
+            assertThat(ladder.best(TradeType.SELL).getPrice()).isBetween(base, base + 127);
+        }
+        for (TradeType side : TradeType.values()) {
+            assertThat(prices(ladder, side)).isEqualTo(prices(skipList, side));
+        }
+        // 远离盘口的旧买单留在稀疏表，仍然能按价格顺序遍历
+        assertThat(prices(ladder, TradeType.BUY).getLast()).isEqualTo(998L);
+    }
+
+    /**
+     * Run the ladder and the skip-list books side by side with the same random operations.
+     */
+    @Test
+    void testLadderMatchesSkipList() {
+        OrderBook ladder = OrderBook.create(OrderBook.OrderBookType.LADDER, 256);
+        OrderBook skipList = OrderBook.create(OrderBook.OrderBookType.SKIPLIST, 256);
+        ComparingOrderBook comparing = new ComparingOrderBook(
+                OrderBook.create(OrderBook.OrderBookType.LADDER, 256),
+                OrderBook.create(OrderBook.OrderBookType.SKIPLIST, 256));
+        Random random = new Random(42);
+
+        for (int i = 0; i < 20_000; i++) {
+            TradeType side = random.nextBoolean() ? TradeType.BUY : TradeType.SELL;
+            // mostly near a drifting touch, sometimes far away
+            long price = random.nextInt(10) == 0 ? random.nextInt(100_000) : 10_000 + i / 10 + random.nextInt(400) - 200;
+            if (random.nextInt(3) == 0) {
+                var best = ladder.best(side);
+                if (best != null) {
+                    ladder.remove(best);
+                    skipList.remove(skipList.get(side, best.getPrice()));
+                    comparing.remove(comparing.get(side, best.getPrice()));
+                }
+            } else if (ladder.get(side, price) == null) {
+                ladder.add(level(side, price));
+                skipList.add(level(side, price));
+                comparing.add(level(side, price));
+            }
+            comparing.best(side);
+        }
+
+        for (TradeType side : TradeType.values()) {
+            assertThat(prices(ladder, side)).isEqualTo(prices(skipList, side));
+            assertThat(ladder.size(side)).isEqualTo(skipList.size(side));
+        }
+        assertThat(comparing.getMismatches()).isZero();
+    }
+}
@@ -0,0 +1,192 @@
+package org.example.mylearn.tradingengine.snapshot;
+
+import org.example.mylearn.common.Result;
+import org.example.mylearn.tradingengine.asset.AssetEntity;
+import org.example.mylearn.tradingengine.asset.AssetService;
+import org.example.mylearn.tradingengine.asset.AssetType;
+import org.example.mylearn.tradingengine.clearing.ClearingService;
+import org.example.mylearn.tradingengine.instrument.Instrument;
+import org.example.mylearn.tradingengine.instrument.InstrumentRegistry;
+import org.example.mylearn.tradingengine.match.MatcherServiceImpl;
+import org.example.mylearn.tradingengine.match.RealTimeTick;
+import org.example.mylearn.tradingengine.match.TradingDetail;
+import org.example.mylearn.tradingengine.order.OrderEntity;
+import org.example.mylearn.tradingengine.order.OrderService;
+import org.example.mylearn.tradingengine.order.OrderStatus;
+import org.example.mylearn.tradingengine.order.TradeType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class SnapshotServiceTest {
+
+    @Mock
+    private ClearingService clearingService;
+
+    @TempDir
+    Path dir;
+
+    private final InstrumentRegistry instrumentRegistry = new InstrumentRegistry();
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(clearingService.prepareTrading(any())).thenReturn(Result.ok(null));
+        lenient().when(clearingService.finishTrading(any(), any())).thenReturn(Result.ok(null));
+        lenient().when(clearingService.cancelTrading(any())).thenReturn(Result.ok(null));
+    }
+
+    // 一次"进程启动"：新的订单库、资产库和撮合服务，日志和快照目录沿用
+    private SnapshotService start() {
+        var orderService = new OrderService();
+        var assetService = new AssetService();
+        var matcher = new MatcherServiceImpl();
+        ReflectionTestUtils.setField(matcher, "clearingService", clearingService);
+        ReflectionTestUtils.setField(matcher, "instrumentRegistry", instrumentRegistry);
+        ReflectionTestUtils.setField(matcher, "orderService", orderService);
+        ReflectionTestUtils.setField(matcher, "assetService", assetService);
+        ReflectionTestUtils.setField(matcher, "journalEnabled", true);
+        ReflectionTestUtils.setField(matcher, "journalDir", dir.resolve("journal").toString());
+        ReflectionTestUtils.setField(matcher, "journalSegmentSize", 1 << 16);
+        ReflectionTestUtils.setField(matcher, "snapshotEnabled", true);
+        matcher.init();
+
+        var snapshot = new SnapshotService();
+        snapshot.matcherService = matcher;
+        snapshot.orderService = orderService;
+        snapshot.assetService = assetService;
+        snapshot.instrumentRegistry = instrumentRegistry;
+        snapshot.enabled = true;
+        snapshot.dir = dir.resolve("snapshot").toString();
+        // 与 BusinessInitiate 的启动顺序一致
+        if (!snapshot.restoreLatest()) {
+            assetService.addNewAsset(new AssetEntity(1, "1", AssetType.USD, new BigDecimal("100"), BigDecimal.ZERO));
+            assetService.addNewAsset(new AssetEntity(2, AssetService.SYSTEM_ASSET_ID, AssetType.USD, BigDecimal.ZERO, BigDecimal.ZERO));
+        }
+        matcher.recover();
+        return snapshot;
+    }
+
+    private static OrderEntity submit(SnapshotService s, int id, TradeType type, String price, String amount) {
+        OrderEntity order = new OrderEntity();
+        order.setId(id);
+        order.setUid("1");
+        order.setTradeType(type);
+        order.setPrice(new BigDecimal(price));
+        order.setAmount(new BigDecimal(amount));
+        order.setStatus(OrderStatus.INIT);
+        order.setCreatedAt(new Timestamp(System.currentTimeMillis()));
+        order.setUpdatedAt(new Timestamp(System.currentTimeMillis()));
+        s.orderService.restoreOrder(order);
+        s.matcherService.submitOrder(order);
+        return order;
+    }
+
+    private static List<String> book(SnapshotService s) {
+        List<String> levels = new ArrayList<>();
+        s.matcherService.getQuotationInfo().forEach((side, infos) -> infos.forEach(
+                info -> levels.add(side + " " + info.getPrice().stripTrailingZeros().toPlainString()
+                        + " x " + info.getVolume().stripTrailingZeros().toPlainString())));
+        levels.sort(null);
+        return levels;
+    }
+
+    /**
+     * 快照之后还有日志：重启时加载快照，只重放快照之后的命令
+     */
+    @Test
+    void testRestore_SnapshotPlusJournalTail() throws Exception {
+        SnapshotService first = start();
+        submit(first, 1001, TradeType.SELL, "100", "10");
+        submit(first, 1002, TradeType.SELL, "101", "5");
+        submit(first, 1003, TradeType.SELL, "101", "2");
+        submit(first, 1004, TradeType.BUY, "100", "4");
+        first.assetService.recharge("1", AssetType.USD, new BigDecimal("7"));
+        Thread.sleep(200);
+        assertThat(first.takeSnapshot().isSuccess()).isTrue();
+        // 快照之后的充值只在转账日志中
+        first.assetService.recharge("1", AssetType.USD, new BigDecimal("5"));
+
+        // 快照之后的命令只在日志中
+        OrderEntity tail = submit(first, 1005, TradeType.BUY, "99", "3");
+        submit(first, 1006, TradeType.BUY, "100", "1");
+        first.matcherService.cancelOrder(first.orderService.getOrderById(1002).getData());
+        Thread.sleep(200);
+        List<String> before = book(first);
+        List<TradingDetail> trades = first.matcherService.getTradingDetails(10).getData();
+        ((MatcherServiceImpl) first.matcherService).destroy();
+        assertThat(before).containsExactly("BUY 99 x 3", "SELL 100 x 5", "SELL 101 x 2");
+        // 成交ID由撮合引擎按品种分配
+        assertThat(trades).extracting(TradingDetail::getId).containsExactly(1, 2);
+
+        clearInvocations(clearingService);
+        SnapshotService second = start();
+        try {
+            assertThat(book(second)).isEqualTo(before);
+            // 只有快照之后提交的订单经过了撮合重放
+            verify(clearingService, times(2)).prepareTrading(any());
+            assertThat(second.orderService.getOrderById(1001).getData().getFinishedAmount()).isEqualByComparingTo("5");
+            assertThat(second.orderService.getOrderById(1002).getData().getStatus()).isEqualTo(OrderStatus.CANCELED);
+            // 从快照恢复的订单已经处理过，等待方不会一直等下去
+            assertThat(second.matcherService.awaitProcessed(second.orderService.getOrderById(1001).getData())).isDone();
+            assertThat(second.orderService.getOrderById(tail.getId()).getData().getStatus()).isEqualTo(OrderStatus.TRADING);
+            assertThat(second.assetService.getAssetByUidAndType("1", AssetType.USD).getData().getAvailable())
+                    .isEqualByComparingTo("112");
+            // 重放的成交从快照中的最后成交ID接着分配，得到和重启前相同的ID
+            assertThat(second.matcherService.getTradingDetails(10).getData()).extracting(TradingDetail::getId)
+                    .containsExactly(2);
+            // tick id 也接着分配，不从1重新开始
+            assertThat(second.matcherService.getRealTimeTicks(null, -1).getData()).extracting(RealTimeTick::getId)
+                    .containsExactly(2L);
+            // 成交带从空开始，按成交ID仍然能查到快照之后的成交
+            assertThat(second.matcherService.getTradingDetail(Instrument.DEFAULT_SYMBOL, 2).getData().getToOrderId()).isEqualTo(1001);
+            assertThat(second.matcherService.getTradingDetail(Instrument.DEFAULT_SYMBOL, 1).isSuccess()).isFalse();
+        } finally {
+            ((MatcherServiceImpl) second.matcherService).destroy();
+        }
+    }
+
+    /**
+     * 最新的快照损坏时使用更早的快照
+     */
+    @Test
+    void testRestore_CorruptLatestFallsBack() throws Exception {
+        SnapshotService first = start();
+        submit(first, 2001, TradeType.SELL, "100", "10");
+        Thread.sleep(100);
+        Path good = first.takeSnapshot().getData();
+        Thread.sleep(5); // 快照文件名以毫秒区分
+        submit(first, 2002, TradeType.SELL, "102", "1");
+        Thread.sleep(100);
+        Path latest = first.takeSnapshot().getData();
+        ((MatcherServiceImpl) first.matcherService).destroy();
+
+        byte[] bytes = Files.readAllBytes(latest);
+        bytes[bytes.length / 2] ^= 0x5A;
+        Files.write(latest, bytes);
+        assertThat(latest.compareTo(good)).isPositive();
+
+        SnapshotService second = start();
+        try {
+            // 旧快照 + 日志重放得到同样的报价簿
+            assertThat(book(second)).containsExactly("SELL 100 x 10", "SELL 102 x 1");
+        } finally {
+            ((MatcherServiceImpl) second.matcherService).destroy();
+        }
+    }
+}